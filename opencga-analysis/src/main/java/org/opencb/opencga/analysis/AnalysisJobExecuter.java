@@ -13,6 +13,7 @@ import org.opencb.opencga.lib.common.Config;
 import org.opencb.opencga.analysis.beans.Analysis;
 import org.opencb.opencga.analysis.beans.Execution;
 import org.opencb.opencga.analysis.beans.Option;
+import org.opencb.opencga.analysis.execution.LocalExecutorBackend;
 import org.opencb.opencga.lib.common.StringUtils;
 import org.opencb.opencga.lib.common.TimeUtils;
 import org.opencb.opencga.lib.exec.Command;
@@ -47,6 +48,7 @@ public class AnalysisJobExecuter {
     protected Execution execution;
 
     protected static ObjectMapper jsonObjectMapper  = new ObjectMapper();
+    private static LocalExecutorBackend localExecutorBackend;
 
     private AnalysisJobExecuter() throws  IOException, AnalysisExecutionException {
         home = Config.getOpenCGAHome();
@@ -101,14 +103,22 @@ public class AnalysisJobExecuter {
         logger.debug("AnalysisJobExecuter: execute, 'jobName': " + jobName + ", 'jobFolder': " + jobFolder);
         logger.debug("AnalysisJobExecuter: execute, command line: " + commandLine);
 
-        executeCommandLine(commandLine, jobName, jobId, jobFolder, analysisName);
+        executeCommandLine(commandLine, jobName, jobId, jobFolder, analysisName, false);
     }
 
     public static void execute(Job job) throws AnalysisExecutionException, IOException {
+        execute(job, false);
+    }
+
+    /**
+     * @param async Local jobs only. Queue the job in the shared {@link LocalExecutorBackend} and return without
+     *              waiting for it, instead of running it in this thread
+     */
+    public static void execute(Job job, boolean async) throws AnalysisExecutionException, IOException {
         logger.debug("AnalysisJobExecuter: execute, job: {}", job);
 
         executeCommandLine(job.getCommandLine(), job.getResourceManagerAttributes().get(Job.JOB_SCHEDULER_NAME).toString(),
-                job.getId(), job.getTmpOutDirUri().getPath(), job.getToolName());
+                job.getId(), job.getTmpOutDirUri().getPath(), job.getToolName(), async);
     }
 
     private boolean checkRequiredParams(Map<String, List<String>> params, List<Option> validParams) {
@@ -264,18 +274,25 @@ public class AnalysisJobExecuter {
         return jobQueryResult;
     }
 
-    private static void executeCommandLine(String commandLine, String jobName, int jobId, String jobFolder, String analysisName)
+    private static void executeCommandLine(String commandLine, String jobName, int jobId, String jobFolder, String analysisName,
+                                           boolean async)
             throws AnalysisExecutionException, IOException {
         // read execution param
         String jobExecutor = Config.getAnalysisProperties().getProperty("OPENCGA.ANALYSIS.JOB.EXECUTOR");
 
         // local execution
         if (jobExecutor == null || jobExecutor.trim().equalsIgnoreCase("LOCAL")) {
-            logger.debug("AnalysisJobExecuter: execute, running by SingleProcess");
+            if (async) {
+                logger.debug("AnalysisJobExecuter: execute, running by LocalExecutorBackend");
+
+                getLocalExecutorBackend().submit(jobName, jobId, commandLine, jobFolder, 1, 0);
+            } else {
+                logger.debug("AnalysisJobExecuter: execute, running by SingleProcess");
 
-            Command com = new Command(commandLine);
-            SingleProcess sp = new SingleProcess(com);
-            sp.getRunnableProcess().run();
+                Command com = new Command(commandLine);
+                SingleProcess sp = new SingleProcess(com);
+                sp.getRunnableProcess().run();
+            }
         }
         // sge execution
         else {
@@ -290,6 +307,31 @@ public class AnalysisJobExecuter {
         }
     }
 
+    /**
+     * Local executor shared by all the local jobs of this JVM.
+     * Unless configured, the queue is persisted in the jobs folder of the catalog root directory, so that the
+     * local jobs are not lost when the daemon is restarted.
+     */
+    public static synchronized LocalExecutorBackend getLocalExecutorBackend() {
+        if (localExecutorBackend == null) {
+            Properties analysisProperties = Config.getAnalysisProperties();
+            Properties properties = analysisProperties == null ? new Properties() : new Properties(analysisProperties);
+            if (properties.getProperty(LocalExecutorBackend.QUEUE_FILE, "").isEmpty()) {
+                Properties catalogProperties = Config.getCatalogProperties();
+                String rootDir = catalogProperties == null ? null : catalogProperties.getProperty(CatalogManager.CATALOG_MAIN_ROOTDIR);
+                if (rootDir != null && !rootDir.isEmpty()) {
+                    URI rootDirUri = URI.create(rootDir.endsWith("/") ? rootDir : rootDir + "/");
+                    if (rootDirUri.getScheme() == null || rootDirUri.getScheme().equals("file")) {
+                        properties.setProperty(LocalExecutorBackend.QUEUE_FILE,
+                                Paths.get(rootDirUri.getPath(), "jobs", LocalExecutorBackend.DEFAULT_QUEUE_FILE_NAME).toString());
+                    }
+                }
+            }
+            localExecutorBackend = new LocalExecutorBackend(properties);
+        }
+        return localExecutorBackend;
+    }
+
     public Analysis getAnalysis() throws IOException, AnalysisExecutionException {
         if (analysis == null) {
             analysis = jsonObjectMapper.readValue(manifestFile.toFile(), Analysis.class);
@@ -376,7 +418,7 @@ public class AnalysisJobExecuter {
             return "ERROR: Executable not found.";
         }
 
-        executeCommandLine(execution.getTestCmd(), jobName, jobId, jobFolder, analysisName);
+        executeCommandLine(execution.getTestCmd(), jobName, jobId, jobFolder, analysisName, false);
 
         return String.valueOf(jobName);
     }
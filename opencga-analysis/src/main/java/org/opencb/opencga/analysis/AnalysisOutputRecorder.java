@@ -11,6 +11,7 @@ import org.opencb.opencga.catalog.CatalogManager;
 import org.opencb.opencga.catalog.beans.File;
 import org.opencb.opencga.catalog.beans.Job;
 import org.opencb.opencga.catalog.db.CatalogDBException;
+import org.opencb.opencga.lib.common.Config;
 import org.opencb.opencga.storage.core.StorageManagerFactory;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
@@ -21,8 +22,11 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.nio.file.*;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
 
 /**
  * Created by jacobo on 4/11/14.
@@ -42,10 +46,17 @@ public class AnalysisOutputRecorder {
     private final String sessionId;
     private final String policy = "delete";
     private final boolean calculateChecksum = false;
+    private final int uploadThreads;
+
+    public static final String UPLOAD_THREADS = "OPENCGA.ANALYSIS.OUTPUT_RECORDER.THREADS";
+    public static final int DEFAULT_UPLOAD_THREADS = 8;
 
     public AnalysisOutputRecorder(CatalogManager catalogManager, String sessionId) {
         this.catalogManager = catalogManager;
         this.sessionId = sessionId;
+        Properties analysisProperties = Config.getAnalysisProperties();
+        this.uploadThreads = analysisProperties == null ? DEFAULT_UPLOAD_THREADS
+                : Integer.parseInt(analysisProperties.getProperty(UPLOAD_THREADS, Integer.toString(DEFAULT_UPLOAD_THREADS)));
     }
 
     public void recordJobOutput(Job job) {
@@ -73,12 +84,17 @@ public class AnalysisOutputRecorder {
             int studyId = catalogManager.getStudyIdByJobId(job.getId());
 
             logger.debug("Record the output in CatalogManager.", tmpOutDirUri);
+            List<String> filePaths = new ArrayList<>(uris.size());
             for (URI uri : uris) {
                 String generatedFile = Paths.get(uri).toAbsolutePath().toString().substring(tmpOutDirUri.getPath().length());
-                String filePath = Paths.get(outDir.getPath(), generatedFile).toString();
-                QueryResult<File> searchFile = catalogManager.searchFile(studyId, new QueryOptions("path", filePath), sessionId);
-                if(searchFile.getNumResults() != 0) {
-                    File file = searchFile.getResult().get(0);
+                filePaths.add(Paths.get(outDir.getPath(), generatedFile).toString());
+            }
+            if (filePaths.isEmpty()) {
+                logger.debug("No output files found for job {}", job.getId());
+            } else {
+                /** Looks for already existing files with a single query **/
+                QueryResult<File> searchFile = catalogManager.searchFile(studyId, new QueryOptions("path", filePaths), sessionId);
+                for (File file : searchFile.getResult()) {
                     switch (policy) {
                         case "delete":
                             catalogManager.deleteFile(file.getId(), sessionId);
@@ -89,15 +105,16 @@ public class AnalysisOutputRecorder {
                             throw new UnsupportedOperationException("Unimplemented policy 'error'");
                     }
                 }
+
                 /** Records the output in CatalogManager **/
-                QueryResult<File> fileQueryResult = catalogManager.createFile(
-                        studyId, File.Format.PLAIN, File.Bioformat.NONE, filePath, "Generated from job " + job.getId(),
-                        true, job.getId(), sessionId);
+                List<File> files = catalogManager.createFiles(studyId, File.Format.PLAIN, File.Bioformat.NONE, filePaths,
+                        "Generated from job " + job.getId(), true, job.getId(), sessionId).getResult();
+                for (File file : files) {
+                    fileIds.add(file.getId());
+                }
 
-                File file = fileQueryResult.getResult().get(0);
-                fileIds.add(file.getId());
-                /** Moves the file to the read output **/
-                catalogFileManager.upload(uri, file, null, sessionId, false, false, true, calculateChecksum);
+                /** Moves the files to the real output **/
+                uploadFiles(catalogFileManager, uris, files);
             }
         } catch (CatalogException | IOException e) {
             e.printStackTrace();
@@ -131,6 +148,54 @@ public class AnalysisOutputRecorder {
     }
 
 
+    /**
+     * Uploads the generated files in parallel, using a bounded pool of threads.
+     *
+     * @param catalogFileManager    File manager
+     * @param uris                  Generated files
+     * @param files                 Catalog entries for each of the generated files, in the same order
+     * @throws CatalogException     If any of the uploads fails
+     * @throws IOException          If any of the uploads fails
+     */
+    private void uploadFiles(final CatalogFileManager catalogFileManager, List<URI> uris, List<File> files)
+            throws CatalogException, IOException {
+        int threads = Math.max(1, Math.min(uploadThreads, uris.size()));
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>(uris.size());
+        try {
+            for (int i = 0; i < uris.size(); i++) {
+                final URI uri = uris.get(i);
+                final File file = files.get(i);
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        catalogFileManager.upload(uri, file, null, sessionId, false, false, true, calculateChecksum);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while uploading job output", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CatalogException) {
+                throw (CatalogException) e.getCause();
+            } else if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            executorService.shutdown();
+        }
+    }
+
+
 /**
     public void recordIndexOutput(Index index) throws CatalogManagerException, IOException, CatalogIOManagerException {
         QueryResult<File> fileResult = catalogManager.getFileByIndexJobId(index.getJobId()); //TODO: sessionId¿?¿?
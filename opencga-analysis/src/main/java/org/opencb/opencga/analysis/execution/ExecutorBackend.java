@@ -0,0 +1,42 @@
+package org.opencb.opencga.analysis.execution;
+
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.opencga.catalog.beans.Job;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Resource manager where the daemon sends the PREPARED jobs, and where it asks for their status.
+ *
+ * Status values are the ones defined in {@link org.opencb.opencga.lib.SgeManager}: QUEUED, RUNNING, FINISHED,
+ * ERROR, EXECUTION_ERROR or UNKNOWN.
+ */
+public interface ExecutorBackend {
+
+    /**
+     * Submits a job. Must not wait for the job to finish.
+     *
+     * @param job   Job to execute. Identified by its {@link Job#JOB_SCHEDULER_NAME} resource manager attribute
+     * @throws Exception
+     */
+    void execute(Job job) throws Exception;
+
+    /**
+     * Gets the status of many jobs at once.
+     *
+     * @param jobSchedulerNames Scheduler names of the jobs
+     * @return                  Status for each of the given names
+     * @throws Exception
+     */
+    Map<String, String> status(Collection<String> jobSchedulerNames) throws Exception;
+
+    /**
+     * Resources used by a finished job, to be stored in the job resource manager attributes.
+     *
+     * @param jobSchedulerName  Scheduler name of the job
+     * @return                  Execution info, or null if not available
+     */
+    ObjectMap getExecutionInfo(String jobSchedulerName);
+
+}
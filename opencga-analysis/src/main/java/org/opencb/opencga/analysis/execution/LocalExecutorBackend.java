@@ -0,0 +1,395 @@
+package org.opencb.opencga.analysis.execution;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import org.apache.tools.ant.types.Commandline;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.opencga.catalog.beans.Job;
+import org.opencb.opencga.lib.SgeManager;
+import org.opencb.opencga.lib.tools.accession.LRUCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the jobs as local processes, sharing a fixed number of CPU slots and an amount of memory.
+ *
+ *  Each job takes the number of slots and MB of memory given in its resource manager attributes
+ *  {@link #CPUS_ATTRIBUTE} and {@link #MEMORY_ATTRIBUTE} (by default, one slot and no memory).
+ *  A job starts as soon as there are enough free resources for it.
+ *  All the running processes are supervised by a single thread, which polls the process handles without blocking.
+ *  Stdout and stderr are redirected to files in the job temporal output directory.
+ *  Queued and running jobs are persisted in the {@link #QUEUE_FILE}. If the executor is restarted they are not executed
+ *  again, as they may have been partially run, but reported as failed. Without a queue file, the jobs of a previous
+ *  executor are reported as UNKNOWN.
+ */
+public class LocalExecutorBackend implements ExecutorBackend {
+
+    public static final String SLOTS = "OPENCGA.ANALYSIS.LOCAL.SLOTS";
+    public static final String MEMORY = "OPENCGA.ANALYSIS.LOCAL.MEMORY";
+    public static final String QUEUE_FILE = "OPENCGA.ANALYSIS.LOCAL.QUEUE_FILE";
+    public static final String POLL_INTERVAL = "OPENCGA.ANALYSIS.LOCAL.POLL_INTERVAL";
+    public static final String DEFAULT_QUEUE_FILE_NAME = "local-executor-queue.json";
+
+    /* ResourceManagerAttributes known keys */
+    public static final String CPUS_ATTRIBUTE = "cpus";
+    public static final String MEMORY_ATTRIBUTE = "memory";
+    public static final String EXECUTION_INFO = "executionInfo";
+
+    private static final int FINISHED_CACHE_SIZE = 10000;
+
+    private static Logger logger = LoggerFactory.getLogger(LocalExecutorBackend.class);
+    private static ObjectMapper jsonObjectMapper = new ObjectMapper();
+
+    private final int totalSlots;
+    /** Total memory in MB. 0 for unlimited */
+    private final long totalMemory;
+    private final Path queueFile;
+
+    private int usedSlots = 0;
+    private long usedMemory = 0;
+    private final LinkedList<LocalJob> queue = new LinkedList<>();
+    private final Map<String, RunningJob> running = new LinkedHashMap<>();
+    /** Final status of the last finished jobs */
+    private final Map<String, String> finished = Collections.synchronizedMap(new LRUCache<String, String>(FINISHED_CACHE_SIZE));
+    private final Map<String, ObjectMap> executionInfo = Collections.synchronizedMap(new LRUCache<String, ObjectMap>(FINISHED_CACHE_SIZE));
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService supervisor;
+
+    public LocalExecutorBackend(Properties properties) {
+        this.totalSlots = Math.max(1, Integer.parseInt(properties.getProperty(SLOTS,
+                Integer.toString(Runtime.getRuntime().availableProcessors()))));
+        this.totalMemory = Long.parseLong(properties.getProperty(MEMORY, "0"));
+        String queueFile = properties.getProperty(QUEUE_FILE);
+        this.queueFile = queueFile == null || queueFile.isEmpty() ? null : Paths.get(queueFile);
+        long pollInterval = Long.parseLong(properties.getProperty(POLL_INTERVAL, "500"));
+
+        loadQueue();
+
+        supervisor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "local-executor-supervisor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        supervisor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    supervise();
+                } catch (RuntimeException e) {
+                    logger.error("Error supervising local jobs", e);
+                }
+            }
+        }, 0, pollInterval, TimeUnit.MILLISECONDS);
+        logger.info("Local executor with {} slots and {} of memory", totalSlots, totalMemory == 0 ? "unlimited" : totalMemory + " MB");
+    }
+
+    /**
+     * Adds a listener to be called every time a job finishes.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void execute(Job job) throws Exception {
+        Map<String, Object> attributes = job.getResourceManagerAttributes();
+        ObjectMap objectMap = new ObjectMap(attributes);
+        submit(attributes.get(Job.JOB_SCHEDULER_NAME).toString(), job.getId(), job.getCommandLine(),
+                job.getTmpOutDirUri().getPath(), objectMap.getInt(CPUS_ATTRIBUTE, 1), objectMap.getLong(MEMORY_ATTRIBUTE, 0));
+    }
+
+    /**
+     * Queues a command line. Returns without waiting for it.
+     *
+     * @param name          Job scheduler name
+     * @param jobId         Catalog job id. Used to name the log files
+     * @param commandLine   Command line to execute
+     * @param outDir        Directory for the log files
+     * @param cpus          Number of slots required
+     * @param memory        MB of memory required
+     */
+    public void submit(String name, int jobId, String commandLine, String outDir, int cpus, long memory) {
+        LocalJob localJob = new LocalJob(name, jobId, commandLine, outDir,
+                Math.max(1, Math.min(cpus, totalSlots)),
+                totalMemory > 0 ? Math.max(0, Math.min(memory, totalMemory)) : 0,
+                System.currentTimeMillis());
+        synchronized (this) {
+            finished.remove(name);
+            queue.add(localJob);
+            persistQueue();
+            startJobs();
+        }
+    }
+
+    @Override
+    public synchronized Map<String, String> status(Collection<String> jobSchedulerNames) {
+        Set<String> queued = new HashSet<>();
+        for (LocalJob localJob : queue) {
+            queued.add(localJob.getName());
+        }
+        Map<String, String> result = new HashMap<>();
+        for (String name : jobSchedulerNames) {
+            if (running.containsKey(name)) {
+                result.put(name, SgeManager.RUNNING);
+            } else if (queued.contains(name)) {
+                result.put(name, SgeManager.QUEUED);
+            } else {
+                String status = finished.get(name);
+                result.put(name, status == null ? SgeManager.UNKNOWN : status);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resources used by a finished job: queued, start and end time, wall time, exit value, slots and memory.
+     */
+    @Override
+    public ObjectMap getExecutionInfo(String name) {
+        return executionInfo.get(name);
+    }
+
+    /**
+     * Stops the supervisor and kills the running processes. Queued and running jobs are kept in the queue file.
+     */
+    public synchronized void shutdown() {
+        supervisor.shutdownNow();
+        for (RunningJob runningJob : running.values()) {
+            runningJob.process.destroy();
+        }
+    }
+
+    private void supervise() {
+        boolean anyFinished = false;
+        synchronized (this) {
+            Iterator<RunningJob> iterator = running.values().iterator();
+            while (iterator.hasNext()) {
+                RunningJob runningJob = iterator.next();
+                if (!runningJob.process.isAlive()) {
+                    iterator.remove();
+                    finish(runningJob.localJob, runningJob.startTime, runningJob.process.exitValue(), null);
+                    anyFinished = true;
+                }
+            }
+            if (anyFinished) {
+                startJobs();
+                persistQueue();
+            }
+        }
+        if (anyFinished) {
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Starts, in order, all the queued jobs that fit in the free resources.
+     */
+    private void startJobs() {
+        Iterator<LocalJob> iterator = queue.iterator();
+        boolean changed = false;
+        while (iterator.hasNext() && usedSlots < totalSlots) {
+            LocalJob localJob = iterator.next();
+            if (usedSlots + localJob.getCpus() > totalSlots
+                    || totalMemory > 0 && usedMemory + localJob.getMemory() > totalMemory) {
+                continue;
+            }
+            iterator.remove();
+            changed = true;
+            long startTime = System.currentTimeMillis();
+            try {
+                Path outDir = Paths.get(localJob.getOutDir());
+                ProcessBuilder processBuilder = new ProcessBuilder(Commandline.translateCommandline(localJob.getCommandLine()))
+                        .redirectOutput(outDir.resolve("local_out.job." + localJob.getJobId() + ".log").toFile())
+                        .redirectError(outDir.resolve("local_err.job." + localJob.getJobId() + ".log").toFile());
+                logger.info("Executing job {}({}) with {} slots", localJob.getName(), localJob.getJobId(), localJob.getCpus());
+                running.put(localJob.getName(), new RunningJob(localJob, processBuilder.start(), startTime));
+                usedSlots += localJob.getCpus();
+                usedMemory += localJob.getMemory();
+            } catch (IOException | RuntimeException e) {
+                logger.error("Unable to execute job " + localJob.getName(), e);
+                finish(localJob, startTime, -1, e.toString());
+            }
+        }
+        if (changed) {
+            persistQueue();
+        }
+    }
+
+    private void finish(LocalJob localJob, long startTime, int exitValue, String exception) {
+        long endTime = System.currentTimeMillis();
+        if (exception == null) {
+            usedSlots -= localJob.getCpus();
+            usedMemory -= localJob.getMemory();
+        }
+        ObjectMap info = new ObjectMap();
+        info.put("queuedTime", localJob.getQueuedTime());
+        info.put("startTime", startTime);
+        info.put("endTime", endTime);
+        info.put("wallTime", endTime - startTime);
+        info.put("exitValue", exitValue);
+        info.put(CPUS_ATTRIBUTE, localJob.getCpus());
+        info.put(MEMORY_ATTRIBUTE, localJob.getMemory());
+        if (exception != null) {
+            info.put("exception", exception);
+        }
+        executionInfo.put(localJob.getName(), info);
+        finished.put(localJob.getName(), exitValue == 0 ? SgeManager.FINISHED : SgeManager.EXECUTION_ERROR);
+        logger.info("Job {}({}) finished with exit value {} in {} ms", localJob.getName(), localJob.getJobId(), exitValue, endTime - startTime);
+    }
+
+    /**
+     * Writes the queued and running jobs to the queue file.
+     */
+    private void persistQueue() {
+        if (queueFile == null) {
+            return;
+        }
+        List<LocalJob> pending = new ArrayList<>(running.size() + queue.size());
+        for (RunningJob runningJob : running.values()) {
+            pending.add(runningJob.localJob);
+        }
+        pending.addAll(queue);
+        Path tmpFile = queueFile.resolveSibling(queueFile.getFileName() + ".tmp");
+        try {
+            if (queueFile.getParent() != null) {
+                Files.createDirectories(queueFile.getParent());
+            }
+            jsonObjectMapper.writeValue(tmpFile.toFile(), pending);
+            Files.move(tmpFile, queueFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Unable to persist the local queue in " + queueFile, e);
+        }
+    }
+
+    /**
+     * Reports as failed the jobs that were queued or running when the executor was stopped, and empties the queue file.
+     */
+    private void loadQueue() {
+        if (queueFile == null || !Files.exists(queueFile)) {
+            return;
+        }
+        try {
+            CollectionType type = jsonObjectMapper.getTypeFactory().constructCollectionType(List.class, LocalJob.class);
+            List<LocalJob> pending = jsonObjectMapper.readValue(queueFile.toFile(), type);
+            if (!pending.isEmpty()) {
+                logger.warn("{} jobs from {} were interrupted by the restart of the executor", pending.size(), queueFile);
+            }
+            for (LocalJob localJob : pending) {
+                ObjectMap info = new ObjectMap();
+                info.put("queuedTime", localJob.getQueuedTime());
+                info.put(CPUS_ATTRIBUTE, localJob.getCpus());
+                info.put(MEMORY_ATTRIBUTE, localJob.getMemory());
+                info.put("exception", "Interrupted by the restart of the executor");
+                executionInfo.put(localJob.getName(), info);
+                finished.put(localJob.getName(), SgeManager.EXECUTION_ERROR);
+            }
+        } catch (IOException e) {
+            logger.error("Unable to read the local queue from " + queueFile, e);
+        }
+        persistQueue();
+    }
+
+    private static class RunningJob {
+        private final LocalJob localJob;
+        private final Process process;
+        private final long startTime;
+
+        RunningJob(LocalJob localJob, Process process, long startTime) {
+            this.localJob = localJob;
+            this.process = process;
+            this.startTime = startTime;
+        }
+    }
+
+    public static class LocalJob {
+        private String name;
+        private int jobId;
+        private String commandLine;
+        private String outDir;
+        private int cpus;
+        private long memory;
+        private long queuedTime;
+
+        public LocalJob() {
+        }
+
+        public LocalJob(String name, int jobId, String commandLine, String outDir, int cpus, long memory, long queuedTime) {
+            this.name = name;
+            this.jobId = jobId;
+            this.commandLine = commandLine;
+            this.outDir = outDir;
+            this.cpus = cpus;
+            this.memory = memory;
+            this.queuedTime = queuedTime;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getJobId() {
+            return jobId;
+        }
+
+        public void setJobId(int jobId) {
+            this.jobId = jobId;
+        }
+
+        public String getCommandLine() {
+            return commandLine;
+        }
+
+        public void setCommandLine(String commandLine) {
+            this.commandLine = commandLine;
+        }
+
+        public String getOutDir() {
+            return outDir;
+        }
+
+        public void setOutDir(String outDir) {
+            this.outDir = outDir;
+        }
+
+        public int getCpus() {
+            return cpus;
+        }
+
+        public void setCpus(int cpus) {
+            this.cpus = cpus;
+        }
+
+        public long getMemory() {
+            return memory;
+        }
+
+        public void setMemory(long memory) {
+            this.memory = memory;
+        }
+
+        public long getQueuedTime() {
+            return queuedTime;
+        }
+
+        public void setQueuedTime(long queuedTime) {
+            this.queuedTime = queuedTime;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.opencb.opencga.analysis.execution;
+
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.opencga.catalog.beans.Job;
+import org.opencb.opencga.lib.SgeManager;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Sends the jobs to Sun Grid Engine. The status of all the jobs is read with a single qstat call.
+ */
+public class SgeExecutorBackend implements ExecutorBackend {
+
+    @Override
+    public void execute(Job job) throws Exception {
+        SgeManager.queueJob(job.getToolName(), job.getResourceManagerAttributes().get(Job.JOB_SCHEDULER_NAME).toString(),
+                -1, job.getTmpOutDirUri().getPath(), job.getCommandLine(), null, "job." + job.getId());
+    }
+
+    @Override
+    public Map<String, String> status(Collection<String> jobSchedulerNames) throws Exception {
+        return SgeManager.status(jobSchedulerNames);
+    }
+
+    @Override
+    public ObjectMap getExecutionInfo(String jobSchedulerName) {
+        return null;
+    }
+}
@@ -350,26 +350,19 @@ public class AnalysisFileIndexer {
 
             //check if all file samples exists on Catalog
             if (sampleList.size() != sampleNames.size()) {   //Size does not match. Find the missing samples.
-                Set<String> set = new HashSet<>(sampleNames);
+                Set<String> set = new LinkedHashSet<>(sampleNames);
                 for (Sample sample : sampleList) {
                     set.remove(sample.getName());
                 }
                 logger.warn("Missing samples: m{}", set);
                 if (options.getBoolean(CREATE_MISSING_SAMPLES, true)) {
-                    for (String sampleName : set) {
-                        if (simulate) {
+                    if (simulate) {
+                        for (String sampleName : set) {
                             sampleList.add(new Sample(-1, sampleName, file.getName(), null, null));
-                        } else {
-                            try {
-                                sampleList.add(catalogManager.createSample(study.getId(), sampleName, file.getName(), null, null, null, sessionId).first());
-                            } catch (CatalogException e) {
-                                if (catalogManager.getAllSamples(study.getId(), new QueryOptions("name", sampleName), sessionId).getResult().isEmpty()) {
-                                    throw e; //Throw exception if sample does not exist.
-                                } else {
-                                    logger.debug("Do not create the sample \"" + sampleName + "\". It has magically appeared");
-                                }
-                            }
                         }
+                    } else {
+                        QueryOptions includeOptions = new QueryOptions("include", queryOptions.get("include"));
+                        sampleList.addAll(createSamples(study, file, new ArrayList<>(set), includeOptions, sessionId));
                     }
                 } else {
                     throw new CatalogException("Can not find samples " + set + " in catalog"); //FIXME: Create missing samples??
@@ -391,6 +384,34 @@ public class AnalysisFileIndexer {
         return sampleList;
     }
 
+    /**
+     * Creates all the missing samples with a single catalog insertion.
+     * If some of them have been created in the meantime, only the remaining ones are created.
+     */
+    private List<Sample> createSamples(Study study, File file, List<String> sampleNames, QueryOptions queryOptions, String sessionId)
+            throws CatalogException {
+        try {
+            return catalogManager.createSamples(study.getId(), sampleNames, file.getName(), null, queryOptions, sessionId).getResult();
+        } catch (CatalogException e) {
+            QueryOptions nameOptions = new QueryOptions(queryOptions);
+            nameOptions.put("name", sampleNames);
+            List<Sample> samples = catalogManager.getAllSamples(study.getId(), nameOptions, sessionId).getResult();
+            if (samples.isEmpty()) {
+                throw e; //Throw exception if no sample has appeared.
+            }
+            Set<String> missing = new LinkedHashSet<>(sampleNames);
+            for (Sample sample : samples) {
+                logger.debug("Do not create the sample \"" + sample.getName() + "\". It has magically appeared");
+                missing.remove(sample.getName());
+            }
+            if (!missing.isEmpty()) {
+                samples.addAll(catalogManager.createSamples(study.getId(), new ArrayList<>(missing), file.getName(), null,
+                        queryOptions, sessionId).getResult());
+            }
+            return samples;
+        }
+    }
+
     static public VariantSource readVariantSource(CatalogManager catalogManager, Study study, File file) throws CatalogException{
         //TODO: Fix aggregate and studyType
         VariantSource source = new VariantSource(file.getName(), Integer.toString(file.getId()), Integer.toString(study.getId()), study.getName());
@@ -6,19 +6,16 @@ import org.eclipse.jetty.servlet.ServletHolder;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.servlet.ServletContainer;
 import org.opencb.datastore.core.ObjectMap;
-import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResult;
 import org.opencb.opencga.analysis.AnalysisJobExecuter;
 import org.opencb.opencga.analysis.AnalysisOutputRecorder;
+import org.opencb.opencga.analysis.execution.ExecutorBackend;
+import org.opencb.opencga.analysis.execution.LocalExecutorBackend;
+import org.opencb.opencga.analysis.execution.SgeExecutorBackend;
 import org.opencb.opencga.catalog.CatalogException;
 import org.opencb.opencga.catalog.CatalogManager;
-import org.opencb.opencga.catalog.beans.File;
-import org.opencb.opencga.catalog.beans.Job;
-import org.opencb.opencga.catalog.beans.Study;
 import org.opencb.opencga.catalog.db.CatalogDBException;
-import org.opencb.opencga.catalog.io.CatalogIOManager;
 import org.opencb.opencga.catalog.io.CatalogIOManagerException;
-import org.opencb.opencga.lib.SgeManager;
 import org.opencb.opencga.lib.common.Config;
 import org.opencb.opencga.lib.common.TimeUtils;
 import org.slf4j.LoggerFactory;
@@ -38,6 +35,9 @@ public class DaemonLoop implements Runnable {
     public static final String USER     = "OPENCGA.APP.DAEMON.USER";
     public static final String PASSWORD = "OPENCGA.APP.DAEMON.PASSWORD";
     public static final String DELETE_DELAY = "OPENCGA.APP.DAEMON.DELETE_DELAY";
+    public static final String MAX_SLEEP = "OPENCGA.APP.DAEMON.MAX_SLEEP";
+    public static final String WORKERS  = "OPENCGA.APP.DAEMON.WORKERS";
+    public static final String MAX_UNKNOWN_POLLS = "OPENCGA.APP.DAEMON.MAX_UNKNOWN_POLLS";
 
     private final Properties properties;
 
@@ -48,7 +48,12 @@ public class DaemonLoop implements Runnable {
 
     private static Logger logger = LoggerFactory.getLogger(DaemonLoop.class);
     private AnalysisOutputRecorder analysisOutputRecorder;
+    private ExecutorBackend executorBackend;
+    private JobScheduler jobScheduler;
+    private FileDeleter fileDeleter;
     private String sessionId;
+    private final Object wakeUpLock = new Object();
+    private boolean wakeUpRequested = false;
 
     public DaemonLoop(Properties properties) {
         this.properties = properties;
@@ -78,7 +83,9 @@ public class DaemonLoop implements Runnable {
 
     @Override
     public void run() {
-        int sleep = Integer.parseInt(properties.getProperty(SLEEP, "4000"));
+        int minSleep = Integer.parseInt(properties.getProperty(SLEEP, "4000"));
+        int maxSleep = Math.max(minSleep, Integer.parseInt(properties.getProperty(MAX_SLEEP, "30000")));
+        int sleep = minSleep;
         sessionId = null;
         try {
             QueryResult<ObjectMap> login = catalogManager.login(properties.getProperty(USER), properties.getProperty(PASSWORD), "daemon");
@@ -88,128 +95,45 @@ public class DaemonLoop implements Runnable {
             exit = true;
         }
         analysisOutputRecorder = new AnalysisOutputRecorder(catalogManager, sessionId);
+        jobScheduler = new JobScheduler(catalogManager, sessionId, createExecutorBackend(), analysisOutputRecorder,
+                Integer.parseInt(properties.getProperty(WORKERS, "4")),
+                Integer.parseInt(properties.getProperty(MAX_UNKNOWN_POLLS, Integer.toString(JobScheduler.DEFAULT_MAX_UNKNOWN_POLLS))));
+        fileDeleter = new FileDeleter(catalogManager, sessionId, properties);
+        if (!exit) {
+            fileDeleter.start();
+            startMigrations();
+        }
 
         while(!exit) {
-            try {
-                Thread.sleep(sleep);
-            } catch (InterruptedException e) {
-                if(!exit) {
-                    e.printStackTrace();
-                }
-            }
+            waitForWakeUp(sleep);
             logger.info("----- WakeUp {} -----", TimeUtils.getTimeMillis());
 
             logger.info("----- Pending jobs -----");
+            int changes = 0;
             try {
-                QueryResult<Job> unfinishedJobs = catalogManager.getUnfinishedJobs(sessionId);
-                for (Job job : unfinishedJobs.getResult()) {
-                    String status = null;
-                    try {
-                        status = SgeManager.status(job.getResourceManagerAttributes().get(Job.JOB_SCHEDULER_NAME).toString());
-                    } catch (Exception e) {
-                        logger.warn(e.getMessage());
-                    }
-                    Job.Status jobStatus = job.getStatus();
-//                    String type = job.getResourceManagerAttributes().get(Job.TYPE).toString();
-//                    System.out.println("job : {id: " + job.getId() + ", status: '" + job.getStatus() + "', name: '" + job.getName() + "'}, sgeStatus : " + status);
-                    logger.info("job : {id: " + job.getId() + ", status: '" + job.getStatus() + "', name: '" + job.getName() + "'}, sgeStatus : " + status);
-
-                    //Track SGEManager
-                    if (status != null) {
-                        switch(status) {
-                            case SgeManager.FINISHED:
-                                if(!Job.Status.DONE.equals(job.getStatus())) {
-                                    catalogManager.modifyJob(job.getId(), new ObjectMap("status", Job.Status.DONE), sessionId);
-                                    jobStatus = Job.Status.DONE;
-                                }
-                                break;
-                            case SgeManager.ERROR:
-                            case SgeManager.EXECUTION_ERROR:
-                                if(!Job.Status.ERROR.equals(job.getStatus())) {
-                                    catalogManager.modifyJob(job.getId(), new ObjectMap("status", Job.Status.ERROR), sessionId);
-                                    jobStatus = Job.Status.ERROR;
-                                }
-                                break;
-                            case SgeManager.QUEUED:
-                                if(!Job.Status.QUEUED.equals(job.getStatus())) {
-                                    catalogManager.modifyJob(job.getId(), new ObjectMap("status", Job.Status.QUEUED), sessionId);
-                                    jobStatus = Job.Status.QUEUED;
-                                }
-                                break;
-                            case SgeManager.RUNNING:
-                                if(!Job.Status.RUNNING.equals(job.getStatus())) {
-                                    catalogManager.modifyJob(job.getId(), new ObjectMap("status", Job.Status.RUNNING), sessionId);
-                                    jobStatus = Job.Status.RUNNING;
-                                }
-                                break;
-                            case SgeManager.TRANSFERRED:
-                                break;
-                            case SgeManager.UNKNOWN:
-                                break;
-                        }
-                    }
-
-                    //Track Catalog Job status
-                    switch (jobStatus) {
-                        case DONE:
-                            analysisOutputRecorder.recordJobOutput(job);
-                            break;
-                        case ERROR:
-                            String jobErrorPolicy = "recordOutput";
-                            switch(jobErrorPolicy) {
-                                case "deleteOutput":
-                                    throw new UnsupportedOperationException("Unimplemented policy");
-                                case "waitForInstructions":
-                                    throw new UnsupportedOperationException("Unimplemented policy");
-                                case "recordOutput":
-                                    analysisOutputRecorder.recordJobOutput(job);
-                                    break;
-                            }
-                            break;
-                        case PREPARED:
-                            AnalysisJobExecuter.execute(job);
-                            catalogManager.modifyJob(job.getId(), new ObjectMap("status", Job.Status.QUEUED), sessionId);
-                            break;
-                        case QUEUED:
-                            break;
-                        case RUNNING:
-                            break;
-                        case READY:
-                            //Never expected!
-                            break;
-                    }
-                }
+                changes = jobScheduler.schedule();
             } catch (Exception e) {
                 e.printStackTrace();
             }
-
-            logger.info("----- Pending deletions -----");
-            try {
-                QueryResult<File> files = catalogManager.searchFile(-1, new QueryOptions("status", File.Status.DELETING), sessionId);
-                long currentTimeMillis = System.currentTimeMillis();
-                for (File file : files.getResult()) {
-                    try {       //TODO: skip if the file is a non-empty folder
-                        long deleteDate = new ObjectMap(file.getAttributes()).getLong(File.DELETE_DATE, 0);
-                        if(currentTimeMillis - deleteDate > Long.valueOf(properties.getProperty(DELETE_DELAY, "30"))*1000) { //Seconds to millis
-                            QueryResult<Study> studyQueryResult = catalogManager.getStudy(catalogManager.getStudyIdByFileId(file.getId()), sessionId);
-                            Study study = studyQueryResult.getResult().get(0);
-                            logger.info("Deleting file {} from study {id: {}, alias: {}}", file, study.getId(), study.getAlias());
-                            CatalogIOManager catalogIOManager = catalogManager.getCatalogIOManagerFactory().get(study.getUri());
-                            catalogIOManager.deleteFile(catalogIOManager.getFileUri(study.getUri(), file.getPath()));
-                            catalogManager.modifyFile(file.getId(), new ObjectMap("status", File.Status.DELETED), sessionId);
-                        } else {
-                            logger.info("Don't delete file {id: {}, path: '{}', attributes: {}}}", file.getId(), file.getPath(), file.getAttributes());
-                            logger.info("{}", (currentTimeMillis - deleteDate)/1000);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+            //Poll faster while there is activity. Back off while nothing changes.
+            if (changes > 0 || jobScheduler.isBusy()) {
+                sleep = minSleep;
+            } else {
+                sleep = Math.min(sleep * 2, maxSleep);
             }
         }
 
+        jobScheduler.shutdown();
+        fileDeleter.stop();
+        try {
+            fileDeleter.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        if (executorBackend instanceof LocalExecutorBackend) {
+            ((LocalExecutorBackend) executorBackend).shutdown();
+        }
+
         if(sessionId != null) {
             try {
                 catalogManager.logout(properties.getProperty(USER), sessionId);
@@ -227,6 +151,71 @@ public class DaemonLoop implements Runnable {
         }
     }
 
+    /**
+     * Migrates the Catalog database in its own thread, so the jobs are scheduled meanwhile.
+     */
+    private void startMigrations() {
+        final String migrationSessionId = sessionId;
+        Thread migrationThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long modified = catalogManager.runMigrations(migrationSessionId);
+                    logger.info("Catalog migrations finished. {} documents modified", modified);
+                } catch (CatalogException e) {
+                    logger.error("Error migrating the Catalog database", e);
+                }
+            }
+        }, "catalog-migrations");
+        migrationThread.setDaemon(true);
+        migrationThread.start();
+    }
+
+    private ExecutorBackend createExecutorBackend() {
+        Properties analysisProperties = Config.getAnalysisProperties();
+        String jobExecutor = analysisProperties == null ? null : analysisProperties.getProperty("OPENCGA.ANALYSIS.JOB.EXECUTOR");
+        if (jobExecutor == null || jobExecutor.trim().equalsIgnoreCase("LOCAL")) {
+            logger.info("Using local executor");
+            LocalExecutorBackend localExecutorBackend = AnalysisJobExecuter.getLocalExecutorBackend();
+            localExecutorBackend.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    wakeUp();
+                }
+            });
+            executorBackend = localExecutorBackend;
+        } else {
+            logger.info("Using SGE executor");
+            executorBackend = new SgeExecutorBackend();
+        }
+        return executorBackend;
+    }
+
+    private void waitForWakeUp(int sleep) {
+        synchronized (wakeUpLock) {
+            try {
+                if (!wakeUpRequested) {
+                    wakeUpLock.wait(sleep);
+                }
+            } catch (InterruptedException e) {
+                if(!exit) {
+                    e.printStackTrace();
+                }
+            }
+            wakeUpRequested = false;
+        }
+    }
+
+    /**
+     * Starts the next cycle without waiting for the sleep time to finish.
+     */
+    public void wakeUp() {
+        synchronized (wakeUpLock) {
+            wakeUpRequested = true;
+            wakeUpLock.notifyAll();
+        }
+    }
+
     public void start() throws Exception {
         //Start services
         server.start();
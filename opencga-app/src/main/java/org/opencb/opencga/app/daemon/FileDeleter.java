@@ -0,0 +1,229 @@
+package org.opencb.opencga.app.daemon;
+
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.opencga.catalog.CatalogManager;
+import org.opencb.opencga.catalog.beans.File;
+import org.opencb.opencga.catalog.beans.Study;
+import org.opencb.opencga.catalog.io.CatalogIOManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Deletes from disk the files in status DELETING, once the delete delay has passed, and marks them as DELETED.
+ *
+ *  Runs in its own thread, apart from the job monitoring.
+ *  Due files are claimed from Catalog in bounded batches, so a sweep never loads all the pending files at once.
+ *  Within a batch, the files are deleted in parallel with a bounded pool, then the folders, deepest first.
+ *  Each batch is marked as DELETED in Catalog with a single update, so it is not claimed again. Files that
+ *  could not be deleted are excluded from the rest of the sweep, and retried in the next one.
+ */
+public class FileDeleter implements Runnable {
+
+    public static final String THREADS = "OPENCGA.APP.DAEMON.DELETE.THREADS";
+    public static final String BATCH_SIZE = "OPENCGA.APP.DAEMON.DELETE.BATCH_SIZE";
+
+    private static Logger logger = LoggerFactory.getLogger(FileDeleter.class);
+
+    private final CatalogManager catalogManager;
+    private final String sessionId;
+    private final long deleteDelay;
+    private final int sleep;
+    private final int batchSize;
+    private final ExecutorService executorService;
+    private final Thread thread;
+    private volatile boolean exit = false;
+
+    /**
+     * @param catalogManager    Catalog manager
+     * @param sessionId         Admin session
+     * @param properties        Daemon properties
+     */
+    public FileDeleter(CatalogManager catalogManager, String sessionId, Properties properties) {
+        this.catalogManager = catalogManager;
+        this.sessionId = sessionId;
+        this.deleteDelay = Long.valueOf(properties.getProperty(DaemonLoop.DELETE_DELAY, "30")) * 1000; //Seconds to millis
+        this.sleep = Integer.parseInt(properties.getProperty(DaemonLoop.SLEEP, "4000"));
+        this.batchSize = Integer.parseInt(properties.getProperty(BATCH_SIZE, "500"));
+        this.executorService = Executors.newFixedThreadPool(Integer.parseInt(properties.getProperty(THREADS, "8")),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "file-deleter");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.thread = new Thread(this, "file-deleter-loop");
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        exit = true;
+        thread.interrupt();
+        executorService.shutdownNow();
+    }
+
+    public void join() throws InterruptedException {
+        thread.join();
+    }
+
+    @Override
+    public void run() {
+        while (!exit) {
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                if (!exit) {
+                    logger.error("File deleter interrupted while sleeping", e);
+                }
+                continue;
+            }
+            logger.info("----- Pending deletions -----");
+            try {
+                sweep();
+            } catch (InterruptedException e) {
+                if (!exit) {
+                    logger.error("File deleter interrupted while deleting files", e);
+                }
+            } catch (Exception e) {
+                logger.error("Error deleting the pending files", e);
+            }
+        }
+    }
+
+    /**
+     * Deletes all the due files.
+     *
+     * @return Number of files marked as DELETED
+     */
+    public int sweep() throws Exception {
+        long maxDeleteDate = System.currentTimeMillis() - deleteDelay;
+        Map<Integer, Study> studies = new ConcurrentHashMap<>();
+        List<Integer> failedIds = new ArrayList<>();
+        int deleted = 0;
+        while (!exit) {
+            QueryOptions query = new QueryOptions("status", File.Status.DELETING);
+            query.put("maxDeleteDate", maxDeleteDate);
+            query.put("excludeId", failedIds);
+            List<File> batch = catalogManager.searchFile(-1, query, new QueryOptions("limit", batchSize), sessionId).getResult();
+            if (batch.isEmpty()) {
+                break;
+            }
+            int batchDeleted = deleteBatch(batch, studies, failedIds);
+            deleted += batchDeleted;
+            if (batchDeleted == 0 && batch.size() < batchSize) {
+                break;
+            }
+        }
+        if (deleted > 0) {
+            logger.info("Deleted {} files", deleted);
+        }
+        return deleted;
+    }
+
+    /**
+     * @param failedIds Ids of the files of the batch that could not be deleted are added here
+     */
+    private int deleteBatch(List<File> batch, Map<Integer, Study> studies, List<Integer> failedIds) throws Exception {
+        List<File> regularFiles = new ArrayList<>();
+        List<File> folders = new ArrayList<>();
+        for (File file : batch) {
+            if (file.getType() == File.Type.FOLDER) {
+                folders.add(file);
+            } else {
+                regularFiles.add(file);
+            }
+        }
+        // Deepest folders first. Their content has already been deleted, or will be deleted with them.
+        Collections.sort(folders, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Integer.compare(f2.getPath().length(), f1.getPath().length());
+            }
+        });
+
+        List<Integer> deletedIds = new ArrayList<>(batch.size());
+        deletedIds.addAll(deleteAll(regularFiles, studies));
+        for (File folder : folders) {
+            if (delete(folder, studies)) {
+                deletedIds.add(folder.getId());
+            }
+        }
+
+        Set<Integer> deletedIdsSet = new HashSet<>(deletedIds);
+        for (File file : batch) {
+            if (!deletedIdsSet.contains(file.getId())) {
+                failedIds.add(file.getId());
+            }
+        }
+        if (!deletedIds.isEmpty()) {
+            catalogManager.modifyFiles(deletedIds, new ObjectMap("status", File.Status.DELETED), sessionId);
+        }
+        return deletedIds.size();
+    }
+
+    private List<Integer> deleteAll(List<File> files, final Map<Integer, Study> studies) throws InterruptedException {
+        List<Future<Boolean>> futures = new ArrayList<>(files.size());
+        for (final File file : files) {
+            futures.add(executorService.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return delete(file, studies);
+                }
+            }));
+        }
+        List<Integer> deletedIds = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                if (futures.get(i).get()) {
+                    deletedIds.add(files.get(i).getId());
+                }
+            } catch (ExecutionException e) {
+                logger.error("Error deleting file " + files.get(i).getId(), e.getCause());
+            }
+        }
+        return deletedIds;
+    }
+
+    /**
+     * Deletes a file or a folder tree from disk. A file that does not exist any more is considered deleted.
+     *
+     * @return false if the file could not be deleted
+     */
+    private boolean delete(File file, Map<Integer, Study> studies) {
+        try {
+            Study study = getStudy(catalogManager.getStudyIdByFileId(file.getId()), studies);
+            CatalogIOManager catalogIOManager = catalogManager.getCatalogIOManagerFactory().get(study.getUri());
+            URI fileUri = catalogIOManager.getFileUri(study.getUri(), file.getPath());
+            logger.debug("Deleting file {} from study {id: {}, alias: {}}", file, study.getId(), study.getAlias());
+            if (catalogIOManager.exists(fileUri)) {
+                if (file.getType() == File.Type.FOLDER) {
+                    catalogIOManager.deleteDirectory(fileUri);
+                } else {
+                    catalogIOManager.deleteFile(fileUri);
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            logger.error("Error deleting file " + file.getId(), e);
+            return false;
+        }
+    }
+
+    private Study getStudy(int studyId, Map<Integer, Study> studies) throws Exception {
+        Study study = studies.get(studyId);
+        if (study == null) {
+            study = catalogManager.getStudy(studyId, sessionId).getResult().get(0);
+            studies.put(studyId, study);
+        }
+        return study;
+    }
+}
@@ -0,0 +1,260 @@
+package org.opencb.opencga.app.daemon;
+
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.opencga.analysis.AnalysisOutputRecorder;
+import org.opencb.opencga.analysis.execution.ExecutorBackend;
+import org.opencb.opencga.analysis.execution.LocalExecutorBackend;
+import org.opencb.opencga.catalog.CatalogException;
+import org.opencb.opencga.catalog.CatalogManager;
+import org.opencb.opencga.catalog.beans.Job;
+import org.opencb.opencga.lib.SgeManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tracks the unfinished jobs from Catalog.
+ *
+ *  Sends the PREPARED jobs to the executor backend.
+ *  Asks the backend for the status of all the QUEUED and RUNNING jobs with a single call,
+ *  and updates Catalog only for the jobs that changed.
+ *  Records the output of the DONE and ERROR jobs in a pool of workers.
+ *  Marks as ERROR the QUEUED and RUNNING jobs that the backend reports as UNKNOWN for too many consecutive cycles,
+ *  e.g. jobs lost by the backend, so they are not tracked forever.
+ */
+public class JobScheduler {
+
+    public static final int DEFAULT_MAX_UNKNOWN_POLLS = 10;
+
+    private static Logger logger = LoggerFactory.getLogger(JobScheduler.class);
+
+    private final CatalogManager catalogManager;
+    private final String sessionId;
+    private final ExecutorBackend executorBackend;
+    private final AnalysisOutputRecorder analysisOutputRecorder;
+    private final ExecutorService workers;
+    private final int maxUnknownPolls;
+
+    /** Consecutive cycles with UNKNOWN status, for each tracked job */
+    private final Map<Integer, Integer> unknownPolls = new HashMap<>();
+
+    /** Jobs with the output being recorded */
+    private final Set<Integer> recordingJobs = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    /** Jobs already recorded. Released at the beginning of the next cycle, once their new status is visible in Catalog */
+    private final Queue<Integer> recordedJobs = new ConcurrentLinkedQueue<>();
+
+    public JobScheduler(CatalogManager catalogManager, String sessionId, ExecutorBackend executorBackend,
+                        AnalysisOutputRecorder analysisOutputRecorder, int numWorkers) {
+        this(catalogManager, sessionId, executorBackend, analysisOutputRecorder, numWorkers, DEFAULT_MAX_UNKNOWN_POLLS);
+    }
+
+    public JobScheduler(CatalogManager catalogManager, String sessionId, ExecutorBackend executorBackend,
+                        AnalysisOutputRecorder analysisOutputRecorder, int numWorkers, int maxUnknownPolls) {
+        this.maxUnknownPolls = maxUnknownPolls;
+        this.catalogManager = catalogManager;
+        this.sessionId = sessionId;
+        this.executorBackend = executorBackend;
+        this.analysisOutputRecorder = analysisOutputRecorder;
+        this.workers = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "job-output-recorder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Runs one scheduling cycle.
+     *
+     * @return Number of jobs that changed their status or were dispatched in this cycle
+     * @throws CatalogException
+     */
+    public int schedule() throws CatalogException {
+        Integer recordedJob;
+        while ((recordedJob = recordedJobs.poll()) != null) {
+            recordingJobs.remove(recordedJob);
+        }
+
+        QueryResult<Job> unfinishedJobs = catalogManager.getUnfinishedJobs(sessionId);
+
+        List<String> trackedJobs = new ArrayList<>();
+        for (Job job : unfinishedJobs.getResult()) {
+            if (job.getStatus() == Job.Status.QUEUED || job.getStatus() == Job.Status.RUNNING) {
+                trackedJobs.add(getSchedulerName(job));
+            }
+        }
+        Map<String, String> statusMap = Collections.emptyMap();
+        if (!trackedJobs.isEmpty()) {
+            try {
+                statusMap = executorBackend.status(trackedJobs);
+            } catch (Exception e) {
+                logger.warn("Unable to get the status of the jobs: {}", e.getMessage());
+            }
+        }
+
+        Set<Integer> trackedJobIds = new HashSet<>();
+        int changes = 0;
+        for (Job job : unfinishedJobs.getResult()) {
+            try {
+                Job.Status jobStatus = job.getStatus();
+                String status = statusMap.get(getSchedulerName(job));
+                Job.Status newStatus = toJobStatus(status);
+                if (jobStatus == Job.Status.QUEUED || jobStatus == Job.Status.RUNNING) {
+                    trackedJobIds.add(job.getId());
+                    if (isLost(job, status)) {
+                        logger.warn("job : {id: " + job.getId() + ", status: '" + jobStatus + "', name: '" + job.getName()
+                                + "'} not found in the executor after " + maxUnknownPolls + " polls. Marking as " + Job.Status.ERROR);
+                        ObjectMap parameters = new ObjectMap("status", Job.Status.ERROR);
+                        parameters.put("outputError", "Job lost by the executor. Status " + status + " for " + maxUnknownPolls + " polls");
+                        catalogManager.modifyJob(job.getId(), parameters, sessionId);
+                        unknownPolls.remove(job.getId());
+                        jobStatus = Job.Status.ERROR;
+                        newStatus = null;
+                        changes++;
+                    }
+                }
+                if (newStatus != null && newStatus != jobStatus
+                        && (jobStatus == Job.Status.QUEUED || jobStatus == Job.Status.RUNNING)) {
+                    logger.info("job : {id: " + job.getId() + ", status: '" + jobStatus + "', name: '" + job.getName() + "'}, executorStatus : " + status);
+                    ObjectMap parameters = new ObjectMap("status", newStatus);
+                    if (newStatus == Job.Status.DONE || newStatus == Job.Status.ERROR) {
+                        addExecutionInfo(job, parameters);
+                    }
+                    catalogManager.modifyJob(job.getId(), parameters, sessionId);
+                    jobStatus = newStatus;
+                    changes++;
+                }
+
+                //Track Catalog Job status
+                switch (jobStatus) {
+                    case DONE:
+                        changes += recordOutput(job);
+                        break;
+                    case ERROR:
+                        String jobErrorPolicy = "recordOutput";
+                        switch (jobErrorPolicy) {
+                            case "deleteOutput":
+                                throw new UnsupportedOperationException("Unimplemented policy");
+                            case "waitForInstructions":
+                                throw new UnsupportedOperationException("Unimplemented policy");
+                            case "recordOutput":
+                                changes += recordOutput(job);
+                                break;
+                        }
+                        break;
+                    case PREPARED:
+                        executorBackend.execute(job);
+                        catalogManager.modifyJob(job.getId(), new ObjectMap("status", Job.Status.QUEUED), sessionId);
+                        changes++;
+                        break;
+                    case QUEUED:
+                    case RUNNING:
+                    case PROCESSING_OUTPUT:
+                        break;
+                    case READY:
+                        //Never expected!
+                        break;
+                }
+            } catch (Exception e) {
+                logger.error("Error processing job " + job.getId(), e);
+            }
+        }
+        unknownPolls.keySet().retainAll(trackedJobIds);
+        return changes;
+    }
+
+    /**
+     * Counts the consecutive polls with UNKNOWN status of a QUEUED or RUNNING job.
+     * A poll without answer from the backend (status == null) is not counted.
+     *
+     * @return If the job has been UNKNOWN for maxUnknownPolls consecutive polls
+     */
+    private boolean isLost(Job job, String status) {
+        if (status == null) {
+            return false;
+        }
+        if (!status.equals(SgeManager.UNKNOWN)) {
+            unknownPolls.remove(job.getId());
+            return false;
+        }
+        Integer polls = unknownPolls.get(job.getId());
+        polls = polls == null ? 1 : polls + 1;
+        unknownPolls.put(job.getId(), polls);
+        return polls >= maxUnknownPolls;
+    }
+
+    /**
+     * Jobs with the output still being recorded
+     */
+    public boolean isBusy() {
+        return !recordingJobs.isEmpty();
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    private int recordOutput(final Job job) {
+        if (!recordingJobs.add(job.getId())) {
+            return 0;
+        }
+        workers.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    analysisOutputRecorder.recordJobOutput(job);
+                } catch (RuntimeException e) {
+                    logger.error("Error recording the output of job " + job.getId(), e);
+                } finally {
+                    recordedJobs.add(job.getId());
+                }
+            }
+        });
+        return 1;
+    }
+
+    /**
+     * Adds the resources used by the job, if the executor backend provides them.
+     */
+    private void addExecutionInfo(Job job, ObjectMap parameters) {
+        ObjectMap executionInfo = executorBackend.getExecutionInfo(getSchedulerName(job));
+        if (executionInfo != null) {
+            parameters.put("resourceManagerAttributes", new ObjectMap(LocalExecutorBackend.EXECUTION_INFO, executionInfo));
+            if (executionInfo.containsKey("startTime")) {
+                parameters.put("startTime", executionInfo.getLong("startTime"));
+                parameters.put("endTime", executionInfo.getLong("endTime"));
+            }
+        }
+    }
+
+    private static String getSchedulerName(Job job) {
+        Object name = job.getResourceManagerAttributes().get(Job.JOB_SCHEDULER_NAME);
+        return name == null ? "" : name.toString();
+    }
+
+    private static Job.Status toJobStatus(String status) {
+        if (status == null) {
+            return null;
+        }
+        switch (status) {
+            case SgeManager.FINISHED:
+                return Job.Status.DONE;
+            case SgeManager.ERROR:
+            case SgeManager.EXECUTION_ERROR:
+                return Job.Status.ERROR;
+            case SgeManager.QUEUED:
+                return Job.Status.QUEUED;
+            case SgeManager.RUNNING:
+                return Job.Status.RUNNING;
+            case SgeManager.TRANSFERRED:
+            case SgeManager.UNKNOWN:
+            default:
+                return null;
+        }
+    }
+}
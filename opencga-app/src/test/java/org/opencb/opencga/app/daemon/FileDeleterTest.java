@@ -0,0 +1,152 @@
+package org.opencb.opencga.app.daemon;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.commons.test.GenericTest;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.config.DataStoreServerAddress;
+import org.opencb.datastore.mongodb.MongoDBConfiguration;
+import org.opencb.datastore.mongodb.MongoDataStore;
+import org.opencb.datastore.mongodb.MongoDataStoreManager;
+import org.opencb.opencga.catalog.CatalogException;
+import org.opencb.opencga.catalog.CatalogManager;
+import org.opencb.opencga.catalog.beans.File;
+import org.opencb.opencga.catalog.beans.Study;
+import org.opencb.opencga.catalog.beans.User;
+import org.opencb.opencga.catalog.db.CatalogMongoDBAdaptor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FileDeleterTest extends GenericTest {
+
+    private CatalogManager catalogManager;
+    private String adminSessionId;
+    private String userSessionId;
+    private int studyId;
+    private FileDeleter fileDeleter;
+
+    @Before
+    public void before() throws CatalogException, IOException {
+        InputStream is = this.getClass().getClassLoader().getResourceAsStream("catalog.properties");
+        Properties properties = new Properties();
+        properties.load(is);
+
+        MongoDBConfiguration mongoDBConfiguration = MongoDBConfiguration.builder()
+                .add("username", properties.getProperty(CatalogManager.CATALOG_DB_USER, ""))
+                .add("password", properties.getProperty(CatalogManager.CATALOG_DB_PASSWORD, ""))
+                .add("authenticationDatabase", properties.getProperty(CatalogManager.CATALOG_DB_AUTHENTICATION_DB, ""))
+                .build();
+
+        DataStoreServerAddress dataStoreServerAddress = new DataStoreServerAddress(
+                properties.getProperty(CatalogManager.CATALOG_DB_HOSTS).split(",")[0], 27017);
+
+        String database = properties.getProperty(CatalogManager.CATALOG_DB_DATABASE) + "_file_deleter_test";
+        MongoDataStoreManager mongoManager = new MongoDataStoreManager(dataStoreServerAddress.getHost(), dataStoreServerAddress.getPort());
+        MongoDataStore db = mongoManager.get(database);
+        db.getDb().drop();
+
+        CatalogMongoDBAdaptor catalogDBAdaptor = new CatalogMongoDBAdaptor(Arrays.asList(dataStoreServerAddress),
+                mongoDBConfiguration, database);
+        catalogManager = new CatalogManager(catalogDBAdaptor, properties);
+
+        //Create ADMIN
+        catalogManager.createUser("admin", "name", "mi@mail.com", "asdf", "", null);
+        catalogDBAdaptor.modifyUser("admin", new ObjectMap("role", User.Role.ADMIN));
+
+        //Create USER
+        catalogManager.createUser("user", "name", "mi@mail.com", "asdf", "", null);
+        userSessionId = catalogManager.login("user", "asdf", "--").getResult().get(0).getString("sessionId");
+        adminSessionId = catalogManager.login("admin", "asdf", "--").getResult().get(0).getString("sessionId");
+        int projectId = catalogManager.createProject("user", "proj", "proj", "", "", null, userSessionId).getResult().get(0).getId();
+        studyId = catalogManager.createStudy(projectId, "std", "std", Study.Type.CONTROL_SET, "", userSessionId).getResult().get(0).getId();
+
+        Properties daemonProperties = new Properties();
+        daemonProperties.setProperty(DaemonLoop.DELETE_DELAY, "0");
+        daemonProperties.setProperty(FileDeleter.BATCH_SIZE, "2");
+        daemonProperties.setProperty(FileDeleter.THREADS, "2");
+        fileDeleter = new FileDeleter(catalogManager, adminSessionId, daemonProperties);
+    }
+
+    @Test
+    public void testSweep() throws Exception {
+        // More files than the batch size, and a folder with files
+        List<Integer> fileIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            fileIds.add(createFile("data/file_" + i + ".txt"));
+        }
+        int folderFile = createFile("data/folder/file.txt");
+        int folderId = catalogManager.getFileParent(folderFile, null, userSessionId).getResult().get(0).getId();
+        fileIds.add(folderFile);
+        fileIds.add(folderId);
+        int kept = createFile("data/kept.txt");
+
+        for (Integer fileId : fileIds.subList(0, 5)) {
+            catalogManager.deleteFile(fileId, userSessionId);
+        }
+        catalogManager.deleteFolder(folderId, userSessionId);
+        List<Path> paths = getPaths(fileIds);
+
+        assertEquals(fileIds.size(), fileDeleter.sweep());
+        for (int i = 0; i < fileIds.size(); i++) {
+            assertEquals(File.Status.DELETED, getStatus(fileIds.get(i)));
+            assertFalse(paths.get(i).toString(), Files.exists(paths.get(i)));
+        }
+        assertEquals(File.Status.READY, getStatus(kept));
+        assertTrue(Files.exists(getPaths(Collections.singletonList(kept)).get(0)));
+
+        // The deleted files are not claimed again
+        assertEquals(0, fileDeleter.sweep());
+    }
+
+    @Test
+    public void testFailedDeletion() throws Exception {
+        List<Integer> fileIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            fileIds.add(createFile("data/file_" + i + ".txt"));
+            catalogManager.deleteFile(fileIds.get(i), userSessionId);
+        }
+
+        // A non empty directory in place of the file can not be deleted as a regular file
+        Path failedPath = getPaths(fileIds.subList(1, 2)).get(0);
+        Files.delete(failedPath);
+        Files.createDirectories(failedPath.resolve("content"));
+
+        // The failed file does not stop the rest of the sweep, and stays DELETING
+        assertEquals(4, fileDeleter.sweep());
+        assertEquals(File.Status.DELETING, getStatus(fileIds.get(1)));
+        for (Integer fileId : Arrays.asList(fileIds.get(0), fileIds.get(2), fileIds.get(3), fileIds.get(4))) {
+            assertEquals(File.Status.DELETED, getStatus(fileId));
+        }
+
+        // It is retried in the next sweep
+        Files.delete(failedPath.resolve("content"));
+        assertEquals(1, fileDeleter.sweep());
+        assertEquals(File.Status.DELETED, getStatus(fileIds.get(1)));
+        assertFalse(Files.exists(failedPath));
+    }
+
+    private int createFile(String path) throws CatalogException, IOException {
+        return catalogManager.createFile(studyId, File.Format.PLAIN, File.Bioformat.NONE, path, path.getBytes(), "", true,
+                userSessionId).getResult().get(0).getId();
+    }
+
+    private List<Path> getPaths(List<Integer> fileIds) throws CatalogException {
+        List<Path> paths = new ArrayList<>(fileIds.size());
+        for (Integer fileId : fileIds) {
+            File file = catalogManager.getFile(fileId, userSessionId).getResult().get(0);
+            paths.add(Paths.get(catalogManager.getFileUri(file)));
+        }
+        return paths;
+    }
+
+    private File.Status getStatus(int fileId) throws CatalogException {
+        return catalogManager.getFile(fileId, userSessionId).getResult().get(0).getStatus();
+    }
+}
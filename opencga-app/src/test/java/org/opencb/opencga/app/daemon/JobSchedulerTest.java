@@ -0,0 +1,206 @@
+package org.opencb.opencga.app.daemon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.commons.test.GenericTest;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.config.DataStoreServerAddress;
+import org.opencb.datastore.mongodb.MongoDBConfiguration;
+import org.opencb.datastore.mongodb.MongoDataStore;
+import org.opencb.datastore.mongodb.MongoDataStoreManager;
+import org.opencb.opencga.analysis.AnalysisOutputRecorder;
+import org.opencb.opencga.analysis.execution.ExecutorBackend;
+import org.opencb.opencga.catalog.CatalogException;
+import org.opencb.opencga.catalog.CatalogManager;
+import org.opencb.opencga.catalog.beans.File;
+import org.opencb.opencga.catalog.beans.Job;
+import org.opencb.opencga.catalog.beans.Study;
+import org.opencb.opencga.catalog.beans.User;
+import org.opencb.opencga.catalog.db.CatalogMongoDBAdaptor;
+import org.opencb.opencga.lib.SgeManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class JobSchedulerTest extends GenericTest {
+
+    private CatalogManager catalogManager;
+    private String adminSessionId;
+    private String userSessionId;
+    private int studyId;
+    private int outDirId;
+
+    /** Status returned by the backend, by scheduler name */
+    private final Map<String, String> executorStatus = new HashMap<>();
+    private final List<Collection<String>> statusCalls = new ArrayList<>();
+    private final List<String> executedJobs = new ArrayList<>();
+    private final List<Integer> recordedJobs = Collections.synchronizedList(new ArrayList<Integer>());
+
+    private final ExecutorBackend executorBackend = new ExecutorBackend() {
+        @Override
+        public void execute(Job job) throws Exception {
+            String name = job.getResourceManagerAttributes().get(Job.JOB_SCHEDULER_NAME).toString();
+            executedJobs.add(name);
+            executorStatus.put(name, SgeManager.QUEUED);
+        }
+
+        @Override
+        public Map<String, String> status(Collection<String> jobSchedulerNames) throws Exception {
+            statusCalls.add(new ArrayList<>(jobSchedulerNames));
+            Map<String, String> result = new HashMap<>();
+            for (String name : jobSchedulerNames) {
+                String status = executorStatus.get(name);
+                result.put(name, status == null ? SgeManager.UNKNOWN : status);
+            }
+            return result;
+        }
+
+        @Override
+        public ObjectMap getExecutionInfo(String jobSchedulerName) {
+            return null;
+        }
+    };
+
+    private JobScheduler jobScheduler;
+
+    @Before
+    public void before() throws CatalogException, IOException {
+        InputStream is = this.getClass().getClassLoader().getResourceAsStream("catalog.properties");
+        Properties properties = new Properties();
+        properties.load(is);
+
+        MongoDBConfiguration mongoDBConfiguration = MongoDBConfiguration.builder()
+                .add("username", properties.getProperty(CatalogManager.CATALOG_DB_USER, ""))
+                .add("password", properties.getProperty(CatalogManager.CATALOG_DB_PASSWORD, ""))
+                .add("authenticationDatabase", properties.getProperty(CatalogManager.CATALOG_DB_AUTHENTICATION_DB, ""))
+                .build();
+
+        DataStoreServerAddress dataStoreServerAddress = new DataStoreServerAddress(
+                properties.getProperty(CatalogManager.CATALOG_DB_HOSTS).split(",")[0], 27017);
+
+        String database = properties.getProperty(CatalogManager.CATALOG_DB_DATABASE) + "_job_scheduler_test";
+        MongoDataStoreManager mongoManager = new MongoDataStoreManager(dataStoreServerAddress.getHost(), dataStoreServerAddress.getPort());
+        MongoDataStore db = mongoManager.get(database);
+        db.getDb().drop();
+
+        CatalogMongoDBAdaptor catalogDBAdaptor = new CatalogMongoDBAdaptor(Arrays.asList(dataStoreServerAddress),
+                mongoDBConfiguration, database);
+        catalogManager = new CatalogManager(catalogDBAdaptor, properties);
+
+        //Create ADMIN
+        catalogManager.createUser("admin", "name", "mi@mail.com", "asdf", "", null);
+        catalogDBAdaptor.modifyUser("admin", new ObjectMap("role", User.Role.ADMIN));
+
+        //Create USER
+        catalogManager.createUser("user", "name", "mi@mail.com", "asdf", "", null);
+        userSessionId = catalogManager.login("user", "asdf", "--").getResult().get(0).getString("sessionId");
+        adminSessionId = catalogManager.login("admin", "asdf", "--").getResult().get(0).getString("sessionId");
+        int projectId = catalogManager.createProject("user", "proj", "proj", "", "", null, userSessionId).getResult().get(0).getId();
+        studyId = catalogManager.createStudy(projectId, "std", "std", Study.Type.CONTROL_SET, "", userSessionId).getResult().get(0).getId();
+        File outDir = catalogManager.createFolder(studyId, Paths.get("jobs", "out"), true, null, userSessionId).getResult().get(0);
+        outDirId = outDir.getId();
+
+        AnalysisOutputRecorder analysisOutputRecorder = new AnalysisOutputRecorder(catalogManager, adminSessionId) {
+            @Override
+            public void recordJobOutput(Job job) {
+                recordedJobs.add(job.getId());
+            }
+        };
+        jobScheduler = new JobScheduler(catalogManager, adminSessionId, executorBackend, analysisOutputRecorder, 2, 3);
+    }
+
+    @After
+    public void after() {
+        jobScheduler.shutdown();
+    }
+
+    @Test
+    public void testSingleStatusPollPerCycle() throws Exception {
+        int queued1 = createJob("queued1", Job.Status.QUEUED);
+        int queued2 = createJob("queued2", Job.Status.QUEUED);
+        int running = createJob("running", Job.Status.RUNNING);
+        int prepared = createJob("prepared", Job.Status.PREPARED);
+        executorStatus.put("queued1", SgeManager.QUEUED);
+        executorStatus.put("queued2", SgeManager.RUNNING);
+        executorStatus.put("running", SgeManager.RUNNING);
+
+        // Only queued2 changes, and prepared is dispatched
+        assertEquals(2, jobScheduler.schedule());
+        assertEquals(1, statusCalls.size());
+        assertEquals(new HashSet<>(Arrays.asList("queued1", "queued2", "running")), new HashSet<>(statusCalls.get(0)));
+        assertEquals(Collections.singletonList("prepared"), executedJobs);
+        assertEquals(Job.Status.QUEUED, getStatus(queued1));
+        assertEquals(Job.Status.RUNNING, getStatus(queued2));
+        assertEquals(Job.Status.QUEUED, getStatus(prepared));
+
+        // Nothing changed
+        assertEquals(0, jobScheduler.schedule());
+        assertEquals(2, statusCalls.size());
+        assertEquals(4, statusCalls.get(1).size());
+
+        executorStatus.put("queued1", SgeManager.FINISHED);
+        executorStatus.put("running", SgeManager.EXECUTION_ERROR);
+        jobScheduler.schedule();
+        assertEquals(3, statusCalls.size());
+        assertEquals(Job.Status.DONE, getStatus(queued1));
+        assertEquals(Job.Status.ERROR, getStatus(running));
+        waitForRecorder();
+        assertEquals(new HashSet<>(Arrays.asList(queued1, running)), new HashSet<>(recordedJobs));
+
+        // Finished jobs are not polled anymore
+        jobScheduler.schedule();
+        assertEquals(4, statusCalls.size());
+        assertEquals(new HashSet<>(Arrays.asList("queued2", "prepared")), new HashSet<>(statusCalls.get(3)));
+    }
+
+    @Test
+    public void testLostJobs() throws Exception {
+        int lost = createJob("lost", Job.Status.RUNNING);
+        int back = createJob("back", Job.Status.QUEUED);
+
+        // Both are UNKNOWN for 2 cycles. Then "back" is found again
+        jobScheduler.schedule();
+        jobScheduler.schedule();
+        assertEquals(Job.Status.RUNNING, getStatus(lost));
+        assertEquals(Job.Status.QUEUED, getStatus(back));
+        executorStatus.put("back", SgeManager.QUEUED);
+
+        jobScheduler.schedule();
+        Job lostJob = catalogManager.getJob(lost, null, adminSessionId).getResult().get(0);
+        assertEquals(Job.Status.ERROR, lostJob.getStatus());
+        assertTrue(lostJob.getOutputError().contains("lost"));
+        assertEquals(Job.Status.QUEUED, getStatus(back));
+
+        // The count restarts when the job is found
+        executorStatus.remove("back");
+        jobScheduler.schedule();
+        jobScheduler.schedule();
+        assertEquals(Job.Status.QUEUED, getStatus(back));
+        jobScheduler.schedule();
+        assertEquals(Job.Status.ERROR, getStatus(back));
+    }
+
+    private int createJob(String name, Job.Status status) throws CatalogException {
+        URI tmpOutDir = catalogManager.createJobOutDir(studyId, name, userSessionId);
+        Map<String, Object> resourceManagerAttributes = new HashMap<>();
+        resourceManagerAttributes.put(Job.JOB_SCHEDULER_NAME, name);
+        return catalogManager.createJob(studyId, name, "tool", "", "echo " + name, tmpOutDir, outDirId,
+                Collections.<Integer>emptyList(), resourceManagerAttributes, status, null, userSessionId).getResult().get(0).getId();
+    }
+
+    private Job.Status getStatus(int jobId) throws CatalogException {
+        return catalogManager.getJob(jobId, null, adminSessionId).getResult().get(0).getStatus();
+    }
+
+    private void waitForRecorder() throws InterruptedException {
+        for (int i = 0; i < 100 && jobScheduler.isBusy() && recordedJobs.size() < 2; i++) {
+            Thread.sleep(50);
+        }
+    }
+}
@@ -99,19 +99,19 @@ public class CatalogFileManager {
 //        String creationDate = sourceIOManager.getCreationDate(sourceUri);
 
 
-        //Calculate source checksum
-        if (sourceChecksum == null || sourceChecksum.isEmpty()) {
-            if (calculateChecksum) {
-                sourceChecksum = sourceIOManager.calculateChecksum(sourceUri);
-            } else {    //Do not calculate checksum.
-                sourceChecksum = "null";
-            }
+        boolean checksumProvided = sourceChecksum != null && !sourceChecksum.isEmpty();
+        if (!checksumProvided && !calculateChecksum) {    //Do not calculate checksum.
+            sourceChecksum = "null";
         }
 
         //Move or copy file
         boolean fileMoved = false;
         String targetChecksum = "";
         if (size < moveThreshold && sourceIOManager == targetIOManager && deleteSource) {
+            //Calculate source checksum
+            if (!checksumProvided && calculateChecksum) {
+                sourceChecksum = sourceIOManager.calculateChecksum(sourceUri);
+            }
             try {
                 logger.info("Moving file {} -> {}", sourceUri, targetUri);
                 sourceIOManager.moveFile(sourceUri, targetUri);
@@ -124,7 +124,22 @@ public class CatalogFileManager {
         }
 
         //If there was an error moving file or have to be copied
-        if (!fileMoved) {
+        if (!fileMoved && calculateChecksum && sourceIOManager == targetIOManager) {
+            //Calculate the checksum while copying, reading the source only once
+            try {
+                logger.info("Coping file from {} to {}", sourceUri, targetUri);
+                targetChecksum = sourceIOManager.copyFileAndCalculateChecksum(sourceUri, targetUri);
+            } catch (CatalogIOManagerException | IOException e) {
+                throw new CatalogIOManagerException("Error while copying file. ", e);
+            }
+            if (!checksumProvided) {
+                sourceChecksum = targetChecksum;
+            }
+        } else if (!fileMoved) {
+            //Calculate source checksum
+            if (!checksumProvided && calculateChecksum) {
+                sourceChecksum = sourceIOManager.calculateChecksum(sourceUri);
+            }
             try {
                 copy(sourceIOManager, sourceUri, targetIOManager, targetUri);
             } catch (CatalogIOManagerException | IOException e) {
@@ -159,6 +174,9 @@ public class CatalogFileManager {
             if (calculateChecksum) {
                 logger.info("Checksum matches {}", sourceChecksum);
                 attributes.put("checksum", sourceChecksum);
+            } else if (checksumProvided) {
+                logger.info("Checksum provided {}", sourceChecksum);
+                attributes.put("checksum", sourceChecksum);
             } else {
                 logger.info("Checksum not computed.");
             }
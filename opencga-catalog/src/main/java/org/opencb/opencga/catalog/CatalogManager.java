@@ -20,6 +20,7 @@ import org.opencb.opencga.catalog.io.CatalogIOManagerFactory;
 import org.opencb.opencga.lib.common.MailUtils;
 import org.opencb.opencga.lib.common.StringUtils;
 import org.opencb.opencga.lib.common.TimeUtils;
+import org.opencb.opencga.lib.tools.accession.LRUCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +47,7 @@ public class CatalogManager implements ICatalogManager {
     public static final String CATALOG_MAIN_ROOTDIR = "OPENCGA.CATALOG.MAIN.ROOTDIR";
     /* Manager policies properties */
     public static final String CATALOG_MANAGER_POLICY_CREATION_USER = "OPENCGA.CATALOG.MANAGER.POLICY.CREATION_USER";
+    public static final String CATALOG_MANAGER_ANNOTATION_THREADS = "OPENCGA.CATALOG.MANAGER.ANNOTATION.THREADS";
     /* Other properties */
     public static final String CATALOG_MAIL_USER = "CATALOG.MAIL.USER";
     public static final String CATALOG_MAIL_PASSWORD = "CATALOG.MAIL.PASSWORD";
@@ -63,6 +65,9 @@ public class CatalogManager implements ICatalogManager {
 
     private Properties properties;
     private String creationUserPolicy;
+    /** Compiled VariableSets, by id */
+    private final Map<Integer, VariableSetValidator> variableSetValidators =
+            Collections.synchronizedMap(new LRUCache<Integer, VariableSetValidator>(100));
 
     protected static Logger logger = LoggerFactory.getLogger(CatalogManager.class);
     protected static final String EMAIL_PATTERN = "^[_A-Za-z0-9-\\+]+(\\.[_A-Za-z0-9-]+)*@"
@@ -1125,6 +1130,76 @@ public class CatalogManager implements ICatalogManager {
 
     }
 
+    /**
+     * Creates many files in the same study at once. Parent folders and permissions are checked once per folder,
+     * and all the entries are inserted with a single operation.
+     */
+    @Override
+    public QueryResult<File> createFiles(int studyId, File.Format format, File.Bioformat bioformat, List<String> paths,
+                                         String description, boolean parents, int jobId, String sessionId)
+            throws CatalogException {
+        checkParameter(sessionId, "sessionId");
+        checkObj(paths, "paths");
+        Set<String> uniquePaths = new HashSet<>();
+        for (String path : paths) {
+            checkPath(path, "filePath");
+            if (!uniquePaths.add(path)) {
+                throw new CatalogException("Duplicated path " + path);
+            }
+        }
+        String userId = catalogDBAdaptor.getUserIdBySessionId(sessionId);
+
+        format = defaultObject(format, File.Format.PLAIN);
+        bioformat = defaultObject(bioformat, File.Bioformat.NONE);
+        description = defaultString(description, "");
+        String creationDate = TimeUtils.getTime();
+
+        if (jobId > 0 && !catalogDBAdaptor.jobExists(jobId)) {
+            throw new CatalogException("Job { id: " + jobId + "} does not exist.");
+        }
+        if (!catalogDBAdaptor.studyExists(studyId)) {
+            throw new CatalogException("Study { id: " + studyId + "} does not exist.");
+        }
+
+        //Find parents. If parents == true, create folders. Check permissions once per folder.
+        Set<Path> checkedParents = new HashSet<>();
+        List<File> files = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            Path parent = Paths.get(path).getParent();
+            if (checkedParents.add(parent)) {
+                int fileId = -1;
+                if (parent != null) {
+                    fileId = catalogDBAdaptor.getFileId(studyId, parent.toString() + "/");
+                }
+                if (fileId < 0 && parent != null) {
+                    if (parents) {
+                        createFolder(studyId, parent, true, null, sessionId);
+                        fileId = catalogDBAdaptor.getFileId(studyId, parent.toString() + "/");
+                    } else {
+                        throw new CatalogDBException("Directory not found " + parent.toString());
+                    }
+                }
+
+                Acl parentAcl;
+                if (fileId < 0) {
+                    parentAcl = getStudyAcl(userId, studyId);
+                } else {
+                    parentAcl = getFileAcl(userId, fileId);
+                }
+                if (!parentAcl.isWrite()) {
+                    throw new CatalogException("Permission denied, " + userId + " can not write in " +
+                            (parent != null ? "directory " + parent.toString() : "study " + studyId));
+                }
+            }
+
+            files.add(new File(-1, Paths.get(path).getFileName().toString(), File.Type.FILE, format, bioformat,
+                    path, userId, creationDate, description, File.Status.UPLOADING, 0, -1, new LinkedList<Integer>(), jobId,
+                    new LinkedList<Acl>(), new HashMap<String, Object>(), new HashMap<String, Object>()));
+        }
+
+        return catalogDBAdaptor.createFilesToStudy(studyId, files, null);
+    }
+
     private <T> T defaultObject(T object, T defaultObject) {
         if (object == null) {
             object = defaultObject;
@@ -1399,6 +1474,39 @@ public class CatalogManager implements ICatalogManager {
         return null;
     }
 
+    /**
+     * Modify many files with the same parameters in a single operation, without the per-file checks.
+     * Requires ROLE_ADMIN.
+     */
+    @Override
+    public QueryResult modifyFiles(List<Integer> fileIds, ObjectMap parameters, String sessionId)
+            throws CatalogException {
+        checkObj(fileIds, "fileIds");
+        checkObj(parameters, "Parameters");
+        checkParameter(sessionId, "sessionId");
+        String userId = catalogDBAdaptor.getUserIdBySessionId(sessionId);
+        if (!getUserRole(userId).equals(User.Role.ADMIN)) {
+            throw new CatalogException("Permission denied. Required ROLE_ADMIN to modify many files at once");
+        }
+        return catalogDBAdaptor.modifyFiles(fileIds, parameters);
+    }
+
+    /**
+     * Applies the pending migrations of the Catalog database. May take a while, so it is run in the background
+     * by the daemon. Requires ROLE_ADMIN.
+     *
+     * @return Number of documents modified
+     */
+    @Override
+    public long runMigrations(String sessionId) throws CatalogException {
+        checkParameter(sessionId, "sessionId");
+        String userId = catalogDBAdaptor.getUserIdBySessionId(sessionId);
+        if (!getUserRole(userId).equals(User.Role.ADMIN)) {
+            throw new CatalogException("Permission denied. Required ROLE_ADMIN to migrate the database");
+        }
+        return catalogDBAdaptor.runMigrations();
+    }
+
     /**
      * Modify some params from the specified file:
      * <p/>
@@ -1569,7 +1677,7 @@ public class CatalogManager implements ICatalogManager {
     }
 
     @Override
-    public DataInputStream downloadFile(int fileId, int start, int limit, String sessionId)    //TODO: start & limit does not work
+    public DataInputStream downloadFile(int fileId, int start, int limit, String sessionId)
             throws IOException, CatalogException {
         checkParameter(sessionId, "sessionId");
 
@@ -1592,6 +1700,12 @@ public class CatalogManager implements ICatalogManager {
     @Override
     public DataInputStream grepFile(int fileId, String pattern, boolean ignoreCase, boolean multi, String sessionId)
             throws IOException, CatalogException {
+        return grepFile(fileId, pattern, ignoreCase, multi ? -1 : 1, sessionId);
+    }
+
+    @Override
+    public DataInputStream grepFile(int fileId, String pattern, boolean ignoreCase, int limit, String sessionId)
+            throws IOException, CatalogException {
         checkParameter(sessionId, "sessionId");
 
 
@@ -1608,7 +1722,7 @@ public class CatalogManager implements ICatalogManager {
         File file = fileResult.getResult().get(0);
 
         return ioManager.getGrepFileObject(getStudyUri(studyId),
-                file.getPath(), pattern, ignoreCase, multi);
+                file.getPath(), pattern, ignoreCase, limit);
     }
 
 
@@ -2297,6 +2411,35 @@ public class CatalogManager implements ICatalogManager {
         return catalogDBAdaptor.createSample(studyId, sample, options);
     }
 
+    /**
+     * Creates many samples in the same study with a single insertion. Fails if any of the names already exists.
+     */
+    @Override
+    public QueryResult<Sample> createSamples(int studyId, List<String> names, String source, String description,
+                                             QueryOptions options, String sessionId)
+            throws CatalogException {
+        checkParameter(sessionId, "sessionId");
+        checkObj(names, "names");
+        for (String name : names) {
+            checkParameter(name, "name");
+        }
+        source = defaultString(source, "");
+        description = defaultString(description, "");
+
+        String userId = catalogDBAdaptor.getUserIdBySessionId(sessionId);
+
+        if (!getStudyAcl(userId, studyId).isWrite()) {
+            throw new CatalogException("Permission denied. User " + userId + " can't modify study");
+        }
+        List<Sample> samples = new ArrayList<>(names.size());
+        for (String name : names) {
+            samples.add(new Sample(-1, name, source, null, description, Collections.<AnnotationSet>emptyList(),
+                    null));
+        }
+
+        return catalogDBAdaptor.createSamples(studyId, samples, options);
+    }
+
     @Override
     public QueryResult<Sample> getSample(int sampleId, QueryOptions options, String sessionId) throws CatalogException {
         checkParameter(sessionId, "sessionId");
@@ -2321,7 +2464,34 @@ public class CatalogManager implements ICatalogManager {
             throw new CatalogException("Permission denied. User " + userId + " can't read study");
         }
 
-        return catalogDBAdaptor.getAllSamples(studyId, options);
+        return catalogDBAdaptor.getAllSamples(studyId, normalizeAnnotationFilters(options));
+    }
+
+    /**
+     * Converts the values of the annotation filters to the types of the VariableSet, if the query is for only one.
+     * @return  The same options, or a copy with the normalized annotation filters
+     */
+    private QueryOptions normalizeAnnotationFilters(QueryOptions options) throws CatalogException {
+        if (options == null || !options.containsKey("annotation")) {
+            return options;
+        }
+        List<Integer> variableSetIds = options.getAsIntegerList("variableSetId");
+        if (variableSetIds.size() != 1) {
+            return options;
+        }
+        VariableSetValidator variableSetValidator;
+        try {
+            variableSetValidator = getVariableSetValidator(variableSetIds.get(0));
+        } catch (CatalogException e) {
+            return options;     //No sample matches an unknown VariableSet
+        }
+        List<String> annotations = new ArrayList<>();
+        for (String annotation : options.getAsStringList("annotation")) {
+            annotations.add(variableSetValidator.normalizeAnnotationFilter(annotation));
+        }
+        QueryOptions normalizedOptions = new QueryOptions(options);
+        normalizedOptions.put("annotation", annotations);
+        return normalizedOptions;
     }
 
     @Override
@@ -2377,7 +2547,7 @@ public class CatalogManager implements ICatalogManager {
             throws CatalogException {
 
         String userId = catalogDBAdaptor.getUserIdBySessionId(sessionId);
-        int studyId = catalogDBAdaptor.getStudyIdByVariableSetId(variableSet);
+        int studyId = getStudyIdByVariableSetId(variableSet);
         if (!getStudyAcl(userId, studyId).isRead()) {
             throw new CatalogException("Permission denied. User " + userId + " can't read study");
         }
@@ -2386,6 +2556,62 @@ public class CatalogManager implements ICatalogManager {
     }
 
 
+    /**
+     * Deletes a VariableSet that is not used by any sample, and its cached validator.
+     */
+    @Override
+    public QueryResult<VariableSet> deleteVariableSet(int variableSetId, String sessionId) throws CatalogException {
+        checkParameter(sessionId, "sessionId");
+        String userId = catalogDBAdaptor.getUserIdBySessionId(sessionId);
+        int studyId = getStudyIdByVariableSetId(variableSetId);
+        if (!getStudyAcl(userId, studyId).isWrite()) {
+            throw new CatalogException("Permission denied. User " + userId + " can't modify study");
+        }
+
+        try {
+            return catalogDBAdaptor.deleteVariableSet(variableSetId);
+        } finally {
+            invalidateVariableSetValidator(variableSetId);
+        }
+    }
+
+    /**
+     * Compiled validator of a VariableSet. Cached, as it is used for every annotation.
+     */
+    /* package */ VariableSetValidator getVariableSetValidator(int variableSetId) throws CatalogException {
+        VariableSetValidator validator = variableSetValidators.get(variableSetId);
+        if (validator == null) {
+            QueryResult<VariableSet> variableSetResult = catalogDBAdaptor.getVariableSet(variableSetId, null);
+            if (variableSetResult.getResult().isEmpty()) {
+                throw new CatalogException("VariableSet " + variableSetId + " does not exists");
+            }
+            validator = new VariableSetValidator(variableSetResult.getResult().get(0));
+            variableSetValidators.put(variableSetId, validator);
+        }
+        return validator;
+    }
+
+    /**
+     * Must be called every time a VariableSet is modified or deleted. VariableSets can only be deleted, by
+     * {@link #deleteVariableSet}.
+     *
+     * The cache is local to this CatalogManager, so a VariableSet may be deleted by another one. VariableSets are
+     * never modified and their ids are never reused, so a cached validator stays valid while its VariableSet exists.
+     * The validators are dropped whenever their VariableSet is not found.
+     */
+    /* package */ void invalidateVariableSetValidator(int variableSetId) {
+        variableSetValidators.remove(variableSetId);
+    }
+
+    private int getStudyIdByVariableSetId(int variableSetId) throws CatalogException {
+        try {
+            return catalogDBAdaptor.getStudyIdByVariableSetId(variableSetId);
+        } catch (CatalogDBException e) {
+            invalidateVariableSetValidator(variableSetId);
+            throw e;
+        }
+    }
+
     @Override
     public QueryResult<AnnotationSet> annotateSample(int sampleId, String id, int variableSetId,
                                                      Map<String, Object> annotations,
@@ -2411,11 +2637,7 @@ public class CatalogManager implements ICatalogManager {
             throw new CatalogException("Permission denied. User " + userId + " can't modify study");
         }
 
-        QueryResult<VariableSet> variableSetResult = catalogDBAdaptor.getVariableSet(variableSetId, null);
-        if (variableSetResult.getResult().isEmpty()) {
-            throw new CatalogException("VariableSet " + variableSetId + " does not exists");
-        }
-        VariableSet variableSet = variableSetResult.getResult().get(0);
+        VariableSetValidator variableSetValidator = getVariableSetValidator(variableSetId);
 
         AnnotationSet annotationSet = new AnnotationSet(id, variableSetId, new HashSet<Annotation>(), TimeUtils.getTime(), attributes);
 
@@ -2423,14 +2645,130 @@ public class CatalogManager implements ICatalogManager {
             annotationSet.getAnnotations().add(new Annotation(entry.getKey(), entry.getValue()));
         }
         QueryResult<Sample> sampleQueryResult = catalogDBAdaptor.getSample(sampleId,
-                new QueryOptions("include", Collections.singletonList("annotationSets")));
+                new QueryOptions("include", Collections.singletonList("projects.studies.samples.annotationSets")));
 
         List<AnnotationSet> annotationSets = sampleQueryResult.getResult().get(0).getAnnotationSets();
         if (checkAnnotationSet) {
-            CatalogSampleAnnotationsValidator.checkAnnotationSet(variableSet, annotationSet, annotationSets);
+            variableSetValidator.check(annotationSet, annotationSets);
+        }
+
+        try {
+            return catalogDBAdaptor.annotateSample(sampleId, annotationSet);
+        } catch (CatalogDBException e) {
+            invalidateVariableSetValidator(variableSetId);    //The VariableSet may have been deleted
+            throw e;
         }
+    }
 
-        return catalogDBAdaptor.annotateSample(sampleId, annotationSet);
+    /**
+     * Annotates many samples of the same study with the same VariableSet.
+     * The AnnotationSets are validated in parallel and written with bulk updates.
+     * A failing sample does not abort the rest.
+     *
+     * @param annotations   Annotations for each sample id
+     * @param errors        Filled with the error of each sample that could not be annotated. May be null
+     * @return              AnnotationSets added
+     */
+    @Override
+    public QueryResult<AnnotationSet> annotateSamples(int variableSetId, String id,
+                                                      Map<Integer, Map<String, Object>> annotations,
+                                                      Map<String, Object> attributes,
+                                                      Map<Integer, CatalogException> errors,
+                                                      String sessionId) throws CatalogException {
+        return annotateSamples(variableSetId, id, annotations, attributes, errors, true, sessionId);
+    }
+
+    /* package */ QueryResult<AnnotationSet> annotateSamples(int variableSetId, String id,
+                                                      Map<Integer, Map<String, Object>> annotations,
+                                                      Map<String, Object> attributes,
+                                                      Map<Integer, CatalogException> errors,
+                                                      boolean checkAnnotationSet,
+                                                      String sessionId)
+            throws CatalogException {
+        long startTime = System.currentTimeMillis();
+        checkParameter(sessionId, "sessionId");
+        checkParameter(id, "id");
+        checkObj(annotations, "annotations");
+        attributes = defaultObject(attributes, new HashMap<String, Object>());
+        errors = defaultObject(errors, new HashMap<Integer, CatalogException>());
+
+        String userId = catalogDBAdaptor.getUserIdBySessionId(sessionId);
+        int studyId = getStudyIdByVariableSetId(variableSetId);
+        if (!getStudyAcl(userId, studyId).isWrite()) {
+            throw new CatalogException("Permission denied. User " + userId + " can't modify study");
+        }
+
+        VariableSetValidator variableSetValidator = getVariableSetValidator(variableSetId);
+
+        //Get the current AnnotationSets of all the samples with one query. Only samples from the same study.
+        QueryOptions samplesQuery = new QueryOptions("id", new ArrayList<>(annotations.keySet()));
+        samplesQuery.put("include", Arrays.asList("projects.studies.samples.id", "projects.studies.samples.annotationSets"));
+        Map<Integer, List<AnnotationSet>> sampleAnnotationSets = new HashMap<>();
+        for (Sample sample : catalogDBAdaptor.getAllSamples(studyId, samplesQuery).getResult()) {
+            sampleAnnotationSets.put(sample.getId(), sample.getAnnotationSets());
+        }
+
+        List<Integer> sampleIds = new ArrayList<>(annotations.size());
+        List<AnnotationSet> annotationSets = new ArrayList<>(annotations.size());
+        List<List<AnnotationSet>> currentAnnotationSets = new ArrayList<>(annotations.size());
+        String creationDate = TimeUtils.getTime();
+        for (Map.Entry<Integer, Map<String, Object>> entry : annotations.entrySet()) {
+            Integer sampleId = entry.getKey();
+            if (!sampleAnnotationSets.containsKey(sampleId)) {
+                errors.put(sampleId, new CatalogException("Sample { id: " + sampleId + "} not found in study { id: " + studyId + "}"));
+                continue;
+            }
+            AnnotationSet annotationSet = new AnnotationSet(id, variableSetId, new HashSet<Annotation>(), creationDate, attributes);
+            for (Map.Entry<String, Object> annotation : entry.getValue().entrySet()) {
+                annotationSet.getAnnotations().add(new Annotation(annotation.getKey(), annotation.getValue()));
+            }
+            sampleIds.add(sampleId);
+            annotationSets.add(annotationSet);
+            currentAnnotationSets.add(sampleAnnotationSets.get(sampleId));
+        }
+
+        Map<Integer, CatalogException> checkErrors = Collections.emptyMap();
+        if (checkAnnotationSet) {
+            checkErrors = CatalogSampleAnnotationsValidator.checkAnnotationSets(variableSetValidator, annotationSets,
+                    currentAnnotationSets, getAnnotationThreads());
+        }
+
+        Map<Integer, AnnotationSet> validAnnotationSets = new LinkedHashMap<>();
+        for (int i = 0; i < sampleIds.size(); i++) {
+            if (checkErrors.containsKey(i)) {
+                errors.put(sampleIds.get(i), checkErrors.get(i));
+            } else {
+                validAnnotationSets.put(sampleIds.get(i), annotationSets.get(i));
+            }
+        }
+
+        List<AnnotationSet> annotated = new ArrayList<>(validAnnotationSets.size());
+        Set<Integer> annotatedIds;
+        try {
+            annotatedIds = new HashSet<>(catalogDBAdaptor.annotateSamples(validAnnotationSets).getResult());
+        } catch (CatalogDBException e) {
+            invalidateVariableSetValidator(variableSetId);    //The VariableSet may have been deleted
+            throw e;
+        }
+        for (Map.Entry<Integer, AnnotationSet> entry : validAnnotationSets.entrySet()) {
+            if (annotatedIds.contains(entry.getKey())) {
+                annotated.add(entry.getValue());
+            } else {
+                errors.put(entry.getKey(), new CatalogException("AnnotationSet { id: " + id + "} already exists."));
+            }
+        }
+
+        String errorMsg = errors.isEmpty() ? null : errors.size() + " samples could not be annotated";
+        return new QueryResult<>("annotateSamples", (int) (System.currentTimeMillis() - startTime),
+                annotated.size(), annotated.size(), null, errorMsg, annotated);
+    }
+
+    /**
+     * @return Number of threads to validate AnnotationSets in parallel
+     */
+    /* package */ int getAnnotationThreads() {
+        return Integer.parseInt(properties.getProperty(CATALOG_MANAGER_ANNOTATION_THREADS,
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
     }
 
     /**
@@ -49,21 +49,36 @@ public class CatalogSampleAnnotationsLoader {
             CatalogSampleAnnotationsValidator.checkVariableSet(variableSet);
         }
 
-        //Check VariableSet for all samples
-        for (Individual individual : ped.getIndividuals().values()) {
-            Map<String, Object> annotation = getAnnotation(individual, sampleMap, variableSet, ped.getFields());
+        //Check VariableSet for all samples, in parallel. Invalid rows are reported and skipped
+        List<String> individualNames = new ArrayList<>(ped.getIndividuals().keySet());
+        List<AnnotationSet> annotationSets = new ArrayList<>(individualNames.size());
+        for (String individualName : individualNames) {
+            Map<String, Object> annotation = getAnnotation(ped.getIndividuals().get(individualName), sampleMap, variableSet, ped.getFields());
             HashSet<Annotation> annotationSet = new HashSet<>(annotation.size());
             for (Map.Entry<String, Object> annotationEntry : annotation.entrySet()) {
                 annotationSet.add(new Annotation(annotationEntry.getKey(), annotationEntry.getValue()));
             }
-            try {
-                CatalogSampleAnnotationsValidator.checkAnnotationSet(variableSet, new AnnotationSet("", variableSet.getId(), annotationSet, "", null), null);
-            } catch (CatalogException e) {
-                String message = "Validation with the variableSet {id: " + variableSetId + "} over ped File = {id: " + pedFile.getId() + ", name: \"" + pedFile.getName() + "\"} failed";
-                logger.info(message);
-                throw new CatalogException(message, e);
+            annotationSets.add(new AnnotationSet("", variableSet.getId(), annotationSet, "", null));
+        }
+        auxTime = System.currentTimeMillis();
+        Map<Integer, CatalogException> checkErrors = CatalogSampleAnnotationsValidator.checkAnnotationSets(variableSet,
+                annotationSets, null, catalogManager.getAnnotationThreads());
+        logger.debug("Checked {} samples in {}ms", individualNames.size(), System.currentTimeMillis() - auxTime);
+
+        Map<String, CatalogException> errors = new LinkedHashMap<>();
+        Set<String> validNames = new LinkedHashSet<>();
+        for (int i = 0; i < individualNames.size(); i++) {
+            if (checkErrors.containsKey(i)) {
+                errors.put(individualNames.get(i), checkErrors.get(i));
+            } else {
+                validNames.add(individualNames.get(i));
             }
         }
+        if (validNames.isEmpty()) {
+            String message = "Validation with the variableSet {id: " + variableSetId + "} over ped File = {id: " + pedFile.getId() + ", name: \"" + pedFile.getName() + "\"} failed";
+            logger.info(message);
+            throw new CatalogException(message, errors.values().iterator().next());
+        }
 
         /** Pedigree file validated. Add samples and VariableSet **/
 
@@ -78,42 +93,62 @@ public class CatalogSampleAnnotationsLoader {
             logger.debug("Added VariableSet = {id: {}} in {}ms", variableSetId, System.currentTimeMillis()-auxTime);
         }
 
-        //Add Samples
-        QueryOptions samplesQuery = new QueryOptions("name", new LinkedList<>(ped.getIndividuals().keySet()));
-        Map<String, Sample> loadedSamples = new HashMap<>();
+        //Add Samples. The ones already loaded are reused, the rest are created with one insertion
+        QueryOptions samplesQuery = new QueryOptions("name", new LinkedList<>(validNames));
         for (Sample sample : catalogManager.getAllSamples(studyId, samplesQuery, sessionId).getResult()) {
-            loadedSamples.put(sample.getName(), sample);
+            logger.info("Sample " + sample.getName() + " already loaded with id : " + sample.getId());
+            sampleMap.put(sample.getName(), sample);
         }
 
         auxTime = System.currentTimeMillis();
-        for (Individual individual : ped.getIndividuals().values()) {
-            Sample sample;
-            if (loadedSamples.containsKey(individual.getId())) {
-                sample = loadedSamples.get(individual.getId());
-                logger.info("Sample " + individual.getId() + " already loaded with id : " + sample.getId());
-            } else {
-                QueryResult<Sample> sampleQueryResult = catalogManager.createSample(studyId, individual.getId(), pedFile.getName(),
-                        "Sample loaded from the pedigree File = {id: " + pedFile.getId() + ", name: \"" + pedFile.getName() + "\" }"
-                        , Collections.<String, Object>emptyMap(), null, sessionId);
-                sample = sampleQueryResult.getResult().get(0);
+        List<String> newNames = new ArrayList<>(validNames.size());
+        for (String name : validNames) {
+            if (!sampleMap.containsKey(name)) {
+                newNames.add(name);
+            }
+        }
+        if (!newNames.isEmpty()) {
+            for (Sample sample : catalogManager.createSamples(studyId, newNames, pedFile.getName(),
+                    "Sample loaded from the pedigree File = {id: " + pedFile.getId() + ", name: \"" + pedFile.getName() + "\" }",
+                    new QueryOptions("include", Arrays.asList("projects.studies.samples.id", "projects.studies.samples.name")), sessionId).getResult()) {
+                sampleMap.put(sample.getName(), sample);
             }
-            sampleMap.put(individual.getId(), sample);
         }
-        logger.debug("Added {} samples in {}ms", ped.getIndividuals().size(), System.currentTimeMillis()-auxTime);
+        logger.debug("Added {} samples in {}ms", newNames.size(), System.currentTimeMillis()-auxTime);
 
-        //Annotate Samples
+        //Annotate Samples with bulk updates. Already validated.
         auxTime = System.currentTimeMillis();
-        for (Map.Entry<String, Sample> entry : sampleMap.entrySet()) {
-            Map<String, Object> annotations = getAnnotation(ped.getIndividuals().get(entry.getKey()), sampleMap, variableSet, ped.getFields());
-            catalogManager.annotateSample(entry.getValue().getId(), "Pedigree annotation", variableSetId, annotations, Collections.<String, Object>emptyMap(), false, sessionId);
+        Map<Integer, Map<String, Object>> annotations = new LinkedHashMap<>();
+        Map<Integer, String> sampleNames = new HashMap<>();
+        for (String name : validNames) {
+            Sample sample = sampleMap.get(name);
+            annotations.put(sample.getId(), getAnnotation(ped.getIndividuals().get(name), sampleMap, variableSet, ped.getFields()));
+            sampleNames.put(sample.getId(), name);
+        }
+        Map<Integer, CatalogException> annotationErrors = new HashMap<>();
+        catalogManager.annotateSamples(variableSetId, "Pedigree annotation", annotations, Collections.<String, Object>emptyMap(),
+                annotationErrors, false, sessionId);
+        for (Map.Entry<Integer, CatalogException> entry : annotationErrors.entrySet()) {
+            errors.put(sampleNames.get(entry.getKey()), entry.getValue());
+        }
+        logger.debug("Annotated {} samples in {}ms", annotations.size() - annotationErrors.size(), System.currentTimeMillis() - auxTime);
+
+        //Report the rows that could not be loaded
+        String errorMsg = null;
+        if (!errors.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, CatalogException> entry : errors.entrySet()) {
+                logger.warn("Sample " + entry.getKey() + " not loaded: " + entry.getValue().getMessage());
+                sb.append(entry.getKey()).append(": ").append(entry.getValue().getMessage()).append("\n");
+            }
+            errorMsg = sb.toString();
         }
-        logger.debug("Annotated {} samples in {}ms", ped.getIndividuals().size(), System.currentTimeMillis() - auxTime);
 
         //TODO: Create Cohort
 
         QueryResult<Sample> sampleQueryResult = catalogManager.getAllSamples(studyId, new QueryOptions("variableSetId", variableSetId), sessionId);
         return new QueryResult<>("loadPedigree", (int)(System.currentTimeMillis() - startTime),
-                sampleMap.size(), sampleMap.size(), null, null, sampleQueryResult.getResult());
+                sampleMap.size(), sampleMap.size(), null, errorMsg, sampleQueryResult.getResult());
     }
 
     /**
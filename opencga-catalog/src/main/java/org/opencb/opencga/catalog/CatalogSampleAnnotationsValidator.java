@@ -7,12 +7,33 @@ import org.opencb.opencga.catalog.beans.Variable;
 import org.opencb.opencga.catalog.beans.VariableSet;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by jacobo on 14/12/14.
  */
 public class CatalogSampleAnnotationsValidator {
 
+    /**
+     * Threads to check the annotationSets in parallel, shared by all the validations. Idle threads are released.
+     */
+    private static final ThreadPoolExecutor executorService;
+    static {
+        int threads = Runtime.getRuntime().availableProcessors();
+        executorService = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "annotation-validator-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executorService.allowCoreThreadTimeOut(true);
+    }
+
     public static void checkVariableSet(VariableSet variableSet) throws CatalogException {
         Set<String> variableIdSet = new HashSet<>();
         for (Variable variable : variableSet.getVariables()) {
@@ -96,57 +117,87 @@ public class CatalogSampleAnnotationsValidator {
      * @throws CatalogException
      */
     public static void checkAnnotationSet(VariableSet variableSet, AnnotationSet annotationSet, List<AnnotationSet> annotationSets) throws CatalogException {
-        if(variableSet.getId() != annotationSet.getVariableSetId()) {
-            throw new CatalogException("VariableSet does not match with the AnnotationSet");
-        }
-
-        //Check unique variableSet.
-        if (variableSet.isUnique() && annotationSets != null) {
-            for (AnnotationSet set : annotationSets) {
-                if (set.getVariableSetId() == annotationSet.getVariableSetId()) {
-                    throw new CatalogException("Repeated annotation for a unique VariableSet");
-                }
-            }
-        }
+        new VariableSetValidator(variableSet).check(annotationSet, annotationSets);
+    }
 
-        //Get annotationSetId set and variableId map
-        Set<String> annotatedVariables = new HashSet<>();
-        Map<String, Variable> variableMap = new HashMap<>();
-        for (Variable variable : variableSet.getVariables()) {
-            variableMap.put(variable.getId(), variable);
-        }
+    /**
+     * Check many annotationSets of the same variableSet, in parallel.
+     * A failing annotationSet does not stop the validation of the rest.
+     * @param variableSet           VariableSet that describes the annotationSets.
+     * @param annotationSets        AnnotationSets to check
+     * @param samplesAnnotationSets For each annotationSet, all the AnnotationSets of its sample. May be null
+     * @param numThreads            Number of threads
+     * @return                      Errors found, by position in the list of annotationSets
+     * @throws CatalogException     If the validation was interrupted
+     */
+    public static Map<Integer, CatalogException> checkAnnotationSets(VariableSet variableSet,
+                                                                     List<AnnotationSet> annotationSets,
+                                                                     List<List<AnnotationSet>> samplesAnnotationSets,
+                                                                     int numThreads) throws CatalogException {
+        return checkAnnotationSets(new VariableSetValidator(variableSet), annotationSets, samplesAnnotationSets, numThreads);
+    }
 
-        //Check Duplicated
-        for (Annotation annotation : annotationSet.getAnnotations()) {
-            if (annotatedVariables.contains(annotation.getId())) {
-                throw new CatalogException("Duplicated annotation " + annotation);
-            }
-            annotatedVariables.add(annotation.getId());
+    /**
+     * Check many annotationSets with a compiled validator, in parallel.
+     * A failing annotationSet does not stop the validation of the rest.
+     * @param validator             Validator of the VariableSet that describes the annotationSets.
+     * @param annotationSets        AnnotationSets to check
+     * @param samplesAnnotationSets For each annotationSet, all the AnnotationSets of its sample. May be null
+     * @param numThreads            Maximum number of threads, from a pool shared by all the validations
+     * @return                      Errors found, by position in the list of annotationSets
+     * @throws CatalogException     If the validation was interrupted
+     */
+    public static Map<Integer, CatalogException> checkAnnotationSets(final VariableSetValidator validator,
+                                                                     final List<AnnotationSet> annotationSets,
+                                                                     final List<List<AnnotationSet>> samplesAnnotationSets,
+                                                                     int numThreads) throws CatalogException {
+        final Map<Integer, CatalogException> errors = new ConcurrentHashMap<>();
+        numThreads = Math.max(1, Math.min(numThreads, annotationSets.size()));
+        if (numThreads == 1) {
+            checkAnnotationSets(validator, annotationSets, samplesAnnotationSets, 0, annotationSets.size(), errors);
+            return errors;
         }
 
-        //Check for missing values
-        List<Annotation> defaultAnnotations = new LinkedList<>();
-        for (Variable variable : variableSet.getVariables()) {
-            if(!annotatedVariables.contains(variable.getId())) {
-                Annotation defaultAnnotation = getDefaultAnnotation(variable);
-                if (defaultAnnotation == null) {
-                    if (variable.isRequired()) {
-                        throw new CatalogException("Variable " + variable + " is required.");
+        List<Future<?>> futures = new ArrayList<>(numThreads);
+        try {
+            int chunkSize = (annotationSets.size() + numThreads - 1) / numThreads;
+            for (int i = 0; i < annotationSets.size(); i += chunkSize) {
+                final int start = i;
+                final int end = Math.min(i + chunkSize, annotationSets.size());
+                futures.add(executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkAnnotationSets(validator, annotationSets, samplesAnnotationSets, start, end, errors);
                     }
-                } else {
-                    defaultAnnotations.add(defaultAnnotation);
-                    annotatedVariables.add(defaultAnnotation.getId());
-                }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CatalogException("Interrupted while checking the annotationSets", e);
+        } catch (ExecutionException e) {
+            throw new CatalogException("Error checking the annotationSets", e.getCause());
+        } finally {
+            //Nothing to do if everything finished. Otherwise, stop the rest of this validation
+            for (Future<?> future : futures) {
+                future.cancel(true);
             }
         }
-        annotationSet.getAnnotations().addAll(defaultAnnotations);
+        return errors;
+    }
 
-        //Check annotations
-        for (Annotation annotation : annotationSet.getAnnotations()) {
-            checkAnnotation(variableMap, annotation);
+    private static void checkAnnotationSets(VariableSetValidator validator,
+                                            List<AnnotationSet> annotationSets, List<List<AnnotationSet>> samplesAnnotationSets,
+                                            int start, int end, Map<Integer, CatalogException> errors) {
+        for (int i = start; i < end; i++) {
+            try {
+                validator.check(annotationSets.get(i), samplesAnnotationSets == null ? null : samplesAnnotationSets.get(i));
+            } catch (CatalogException e) {
+                errors.put(i, e);
+            }
         }
-
-
     }
 
     public static void checkAnnotation(Map<String, Variable> variableMap, Annotation annotation) throws CatalogException {
@@ -230,7 +281,7 @@ public class CatalogSampleAnnotationsValidator {
         }
     }
 
-    private static Object getValue(Variable.VariableType variableType, Object value) throws CatalogException {
+    static Object getValue(Variable.VariableType variableType, Object value) throws CatalogException {
         switch(variableType) {
             case BOOLEAN:
                 return getBooleanValue(value);
@@ -0,0 +1,240 @@
+package org.opencb.opencga.catalog;
+
+import org.opencb.opencga.catalog.beans.Annotation;
+import org.opencb.opencga.catalog.beans.AnnotationSet;
+import org.opencb.opencga.catalog.beans.Variable;
+import org.opencb.opencga.catalog.beans.VariableSet;
+
+import java.util.*;
+
+/**
+ * Validator of AnnotationSets compiled from a VariableSet.
+ *
+ *  The variables are indexed once, the categorical values are kept in hash sets, the numeric ranges are parsed
+ *  and the default annotations are pre-computed. Instances are immutable and may be shared between threads.
+ *
+ *  Same rules as {@link CatalogSampleAnnotationsValidator#checkAnnotationSet}, checked in the same order: duplicated
+ *  annotations, missing required variables, and then the id and value of each annotation, defaults included.
+ */
+public class VariableSetValidator {
+
+    private final VariableSet variableSet;
+    private final Variable[] variables;
+    private final Map<String, Integer> variableIndex;
+    private final BitSet required;
+    /** For CATEGORICAL variables: allowed values */
+    private final Set<String>[] categoricalValues;
+    /** For NUMERIC variables with ranges: {min_0, max_0, min_1, max_1, ...} */
+    private final double[][] numericRanges;
+    /** Value of the default annotation, or null if the variable has no default value */
+    private final Object[] defaultValues;
+
+    /** Variables annotated in the current AnnotationSet. Reused by each thread */
+    private final ThreadLocal<BitSet> annotatedVariables = new ThreadLocal<BitSet>() {
+        @Override
+        protected BitSet initialValue() {
+            return new BitSet();
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    public VariableSetValidator(VariableSet variableSet) throws CatalogException {
+        this.variableSet = variableSet;
+        int size = variableSet.getVariables().size();
+        variables = new Variable[size];
+        variableIndex = new HashMap<>(size * 2);
+        required = new BitSet(size);
+        categoricalValues = new Set[size];
+        numericRanges = new double[size][];
+        defaultValues = new Object[size];
+
+        int i = 0;
+        for (Variable variable : variableSet.getVariables()) {
+            variables[i] = variable;
+            variableIndex.put(variable.getId(), i);
+            if (variable.isRequired()) {
+                required.set(i);
+            }
+            List<String> allowedValues = variable.getAllowedValues() == null
+                    ? Collections.<String>emptyList()
+                    : variable.getAllowedValues();
+            switch (variable.getType()) {
+                case CATEGORICAL:
+                    categoricalValues[i] = new HashSet<>(allowedValues);
+                    break;
+                case NUMERIC:
+                    if (!allowedValues.isEmpty()) {
+                        numericRanges[i] = parseRanges(allowedValues);
+                    }
+                    break;
+                case BOOLEAN:
+                case TEXT:
+                    break;
+                default:
+                    throw new CatalogException("Unknown VariableType " + variable.getType().name());
+            }
+            Annotation defaultAnnotation = CatalogSampleAnnotationsValidator.getDefaultAnnotation(variable);
+            defaultValues[i] = defaultAnnotation == null ? null : defaultAnnotation.getValue();
+            i++;
+        }
+    }
+
+    public VariableSet getVariableSet() {
+        return variableSet;
+    }
+
+    /**
+     * Check if an annotationSet is valid. Adds the default annotations of the missing variables.
+     * @param annotationSet         AnnotationSet to check
+     * @param annotationSets        All the AnnotationSets of the sample. May be null
+     * @throws CatalogException
+     */
+    public void check(AnnotationSet annotationSet, List<AnnotationSet> annotationSets) throws CatalogException {
+        if(variableSet.getId() != annotationSet.getVariableSetId()) {
+            throw new CatalogException("VariableSet does not match with the AnnotationSet");
+        }
+
+        //Check unique variableSet.
+        if (variableSet.isUnique() && annotationSets != null) {
+            for (AnnotationSet set : annotationSets) {
+                if (set.getVariableSetId() == annotationSet.getVariableSetId()) {
+                    throw new CatalogException("Repeated annotation for a unique VariableSet");
+                }
+            }
+        }
+
+        BitSet annotated = annotatedVariables.get();
+        annotated.clear();
+        Set<String> unknownIds = null;
+
+        //Check duplicated
+        for (Annotation annotation : annotationSet.getAnnotations()) {
+            Integer index = variableIndex.get(annotation.getId());
+            boolean duplicated;
+            if (index == null) {
+                if (unknownIds == null) {
+                    unknownIds = new HashSet<>();
+                }
+                duplicated = !unknownIds.add(annotation.getId());
+            } else {
+                duplicated = annotated.get(index);
+                annotated.set(index);
+            }
+            if (duplicated) {
+                throw new CatalogException("Duplicated annotation " + annotation);
+            }
+        }
+
+        //Check for missing values
+        List<Annotation> defaultAnnotations = new LinkedList<>();
+        for (int i = annotated.nextClearBit(0); i < variables.length; i = annotated.nextClearBit(i + 1)) {
+            if (defaultValues[i] == null) {
+                if (required.get(i)) {
+                    throw new CatalogException("Variable " + variables[i] + " is required.");
+                }
+            } else {
+                defaultAnnotations.add(new Annotation(variables[i].getId(), defaultValues[i]));
+            }
+        }
+        annotationSet.getAnnotations().addAll(defaultAnnotations);
+
+        //Check annotations
+        for (Annotation annotation : annotationSet.getAnnotations()) {
+            Integer index = variableIndex.get(annotation.getId());
+            if (index == null) {
+                throw new CatalogException("Annotation id '" + annotation + "' is not an accepted id");
+            }
+            annotation.setValue(CatalogSampleAnnotationsValidator.getValue(variables[index].getType(), annotation.getValue()));
+            checkAllowedValue(index, annotation.getValue(), "Annotation");
+        }
+    }
+
+    /**
+     * Converts the values of an annotation filter "{variableId}:{value},{value}..." to the type of the variable, so
+     * they match the stored annotations, e.g. "age:5" becomes "age:5.0" for a NUMERIC variable.
+     * @param annotationFilter      Annotation filter
+     * @return                      Normalized filter. The same filter if the variable is unknown or any value can
+     *                              not be converted
+     */
+    public String normalizeAnnotationFilter(String annotationFilter) {
+        String[] split = annotationFilter.split(":", 2);
+        if (split.length != 2) {
+            return annotationFilter;
+        }
+        Integer index = variableIndex.get(split[0]);
+        if (index == null) {
+            return annotationFilter;
+        }
+        StringBuilder sb = new StringBuilder(split[0]).append(':');
+        String[] values = split[1].split(",");
+        for (int i = 0; i < values.length; i++) {
+            Object value;
+            try {
+                value = CatalogSampleAnnotationsValidator.getValue(variables[index].getType(), values[i]);
+            } catch (CatalogException e) {
+                return annotationFilter;
+            }
+            if (value == null) {
+                return annotationFilter;
+            }
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    private void checkAllowedValue(int index, Object value, String message) throws CatalogException {
+        Variable variable = variables[index];
+        if (value == null) {
+            if (required.get(index)) {
+                throw new CatalogException(message + " value '" + value + "' is a required value for " + variable);
+            } else {
+                return;
+            }
+        }
+
+        switch (variable.getType()) {
+            case CATEGORICAL:
+                if (!categoricalValues[index].contains(value)) {
+                    throw new CatalogException(message + " value '" + value + "' is not an allowed value for " + variable);
+                }
+                return;
+            case NUMERIC:
+                double[] ranges = numericRanges[index];
+                if (ranges == null) {
+                    return;    //If there is no "allowedValues", any number
+                }
+                double numericValue = (Double) value;
+                for (int i = 0; i < ranges.length; i += 2) {
+                    if (numericValue >= ranges[i] && numericValue <= ranges[i + 1]) {
+                        return;
+                    }
+                }
+                throw new CatalogException(message + " value '" + value + "' is not an allowed value for " + variable + ". It is in any range.");
+            case BOOLEAN:
+            case TEXT:
+            default:
+                return;
+        }
+    }
+
+    private static double[] parseRanges(List<String> allowedValues) throws CatalogException {
+        double[] ranges = new double[allowedValues.size() * 2];
+        int i = 0;
+        for (String range : allowedValues) {
+            String[] split = range.split(":", -1);
+            if (split.length != 2) {
+                throw new CatalogException("Invalid numerical range. Expected <min>:<max>");
+            }
+            try {
+                ranges[i++] = split[0].isEmpty() ? Double.MIN_VALUE : Double.parseDouble(split[0]);
+                ranges[i++] = split[1].isEmpty() ? Double.MAX_VALUE : Double.parseDouble(split[1]);
+            } catch (NumberFormatException e) {
+                throw new CatalogException("Invalid numerical range. Expected <min>:<max> where min and max are numerical.", e);
+            }
+        }
+        return ranges;
+    }
+}
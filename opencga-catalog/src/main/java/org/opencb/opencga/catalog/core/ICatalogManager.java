@@ -167,6 +167,10 @@ public interface ICatalogManager {
                                  boolean parents, QueryOptions options, String sessionId)
             throws CatalogException;
 
+    QueryResult<File> createFiles(int studyId, File.Format format, File.Bioformat bioformat, List<String> paths, String description,
+                                  boolean parents, int jobId, String sessionId)
+            throws CatalogException;
+
     @Deprecated
     QueryResult<File> uploadFile(int studyId, File.Format format, File.Bioformat bioformat, String path, String description,
                                  boolean parents, InputStream fileIs, String sessionId)
@@ -193,6 +197,11 @@ public interface ICatalogManager {
     QueryResult modifyFile(int fileId, ObjectMap parameters, String sessionId)
             throws CatalogException;
 
+    QueryResult modifyFiles(List<Integer> fileIds, ObjectMap parameters, String sessionId)
+            throws CatalogException;
+
+    long runMigrations(String sessionId) throws CatalogException;
+
     QueryResult<File> getFileParent(int fileId, QueryOptions options, String sessionId)
             throws CatalogException;
 
@@ -209,12 +218,15 @@ public interface ICatalogManager {
     DataInputStream downloadFile(int fileId, String sessionId)
             throws IOException, CatalogException;
 
-    DataInputStream downloadFile(int fileId, int start, int limit, String sessionId)    //TODO: start & limit does not work
+    DataInputStream downloadFile(int fileId, int start, int limit, String sessionId)
             throws IOException, CatalogException;
 
     DataInputStream grepFile(int fileId, String pattern, boolean ignoreCase, boolean multi, String sessionId)
             throws IOException, CatalogException;
 
+    DataInputStream grepFile(int fileId, String pattern, boolean ignoreCase, int limit, String sessionId)
+            throws IOException, CatalogException;
+
     /*Require role admin*/
     QueryResult<File> searchFile(QueryOptions query, QueryOptions options, String sessionId) throws CatalogException;
 
@@ -326,6 +338,10 @@ public interface ICatalogManager {
                                      Map<String, Object> attributes, QueryOptions options, String sessionId)
             throws CatalogException;
 
+    QueryResult<Sample> createSamples(int studyId, List<String> names, String source, String description,
+                                      QueryOptions options, String sessionId)
+            throws CatalogException;
+
     QueryResult<Sample> getSample(int sampleId, QueryOptions options, String sessionId) throws CatalogException;
 
     QueryResult<Sample> getAllSamples(int studyId, QueryOptions options, String sessionId) throws CatalogException;
@@ -343,11 +359,19 @@ public interface ICatalogManager {
     QueryResult<VariableSet> getVariableSet(int variableSet, QueryOptions options, String sessionId)
             throws CatalogException;
 
+    QueryResult<VariableSet> deleteVariableSet(int variableSetId, String sessionId) throws CatalogException;
+
     QueryResult<AnnotationSet> annotateSample(int sampleId, String id, int variableSetId,
                                               Map<String, Object> annotations,
                                               Map<String, Object> attributes,
                                               String sessionId) throws CatalogException;
 
+    QueryResult<AnnotationSet> annotateSamples(int variableSetId, String id,
+                                               Map<Integer, Map<String, Object>> annotations,
+                                               Map<String, Object> attributes,
+                                               Map<Integer, CatalogException> errors,
+                                               String sessionId) throws CatalogException;
+
     QueryResult<Tool> createTool(String alias, String description, Object manifest, Object result,
                                  String path, boolean openTool, String sessionId) throws CatalogException;
 
@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 public abstract class CatalogDBAdaptor {
 
@@ -55,6 +56,14 @@ public abstract class CatalogDBAdaptor {
 
 
     public abstract void disconnect();
+
+    /**
+     * Applies the pending migrations of the database. Not done when connecting, as it may take a while.
+     *
+     * @return Number of documents modified
+     */
+    public abstract long runMigrations() throws CatalogDBException;
+
     /**
      * User methods
      * ***************************
@@ -163,6 +172,9 @@ public abstract class CatalogDBAdaptor {
     // add file to study
     public abstract QueryResult<File> createFileToStudy(int studyId, File file, QueryOptions options) throws CatalogDBException;
 
+    // add many files to study at once. Fails without inserting anything if any of the paths already exists.
+    public abstract QueryResult<File> createFilesToStudy(int studyId, List<File> files, QueryOptions options) throws CatalogDBException;
+
     public abstract QueryResult<Long> deleteFile(int fileId) throws CatalogDBException;
 
     public abstract int getFileId(int studyId, String path) throws CatalogDBException;
@@ -178,6 +190,9 @@ public abstract class CatalogDBAdaptor {
 
     public abstract QueryResult modifyFile(int fileId, ObjectMap parameters) throws CatalogDBException;
 
+    // modify many files with the same parameters at once
+    public abstract QueryResult modifyFiles(List<Integer> fileIds, ObjectMap parameters) throws CatalogDBException;
+
     public abstract QueryResult<UpdateResult> renameFile(int fileId, String name) throws CatalogDBException;
 
     public abstract int getStudyIdByFileId(int fileId) throws CatalogDBException;
@@ -270,6 +285,9 @@ public abstract class CatalogDBAdaptor {
 
     public abstract QueryResult<Sample> createSample(int studyId, Sample sample, QueryOptions options) throws CatalogDBException;
 
+    // add many samples at once. Fails without inserting anything if any of the names already exists in the study.
+    public abstract QueryResult<Sample> createSamples(int studyId, List<Sample> samples, QueryOptions options) throws CatalogDBException;
+
     public abstract QueryResult<Sample> getSample(int sampleId, QueryOptions options) throws CatalogDBException;
 
     public abstract QueryResult<Sample> getAllSamples(int studyId, QueryOptions options) throws CatalogDBException;
@@ -295,8 +313,21 @@ public abstract class CatalogDBAdaptor {
 
     public abstract QueryResult<VariableSet> getVariableSet(int variableSetId, QueryOptions options) throws CatalogDBException;
 
+    /**
+     * Deletes a VariableSet. Fails if any sample is annotated with it.
+     * @return Deleted VariableSet
+     */
+    public abstract QueryResult<VariableSet> deleteVariableSet(int variableSetId) throws CatalogDBException;
+
     public abstract QueryResult<AnnotationSet> annotateSample(int sampleId, AnnotationSet annotationSet) throws CatalogDBException;
 
+    /**
+     * Adds an AnnotationSet to many samples, checking the existing AnnotationSets with a single query.
+     * Samples that already have an AnnotationSet with the same id are skipped.
+     * @return Ids of the annotated samples
+     */
+    public abstract QueryResult<Integer> annotateSamples(Map<Integer, AnnotationSet> annotationSets) throws CatalogDBException;
+
     public abstract int getStudyIdByVariableSetId(int sampleId) throws CatalogDBException;
 
     /**
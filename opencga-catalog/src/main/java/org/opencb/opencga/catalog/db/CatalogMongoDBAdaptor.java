@@ -1,14 +1,14 @@
 package org.opencb.opencga.catalog.db;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.ObjectWriter;
 import com.mongodb.*;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
-import com.mongodb.util.JSON;
 import org.bson.Document;
+import org.opencb.datastore.core.ComplexTypeConverter;
 import org.opencb.datastore.core.ObjectMap;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResult;
@@ -18,10 +18,11 @@ import org.opencb.datastore.mongodb.MongoDBConfiguration;
 import org.opencb.datastore.mongodb.MongoDataStore;
 import org.opencb.datastore.mongodb.MongoDataStoreManager;
 import org.opencb.opencga.catalog.beans.*;
+import org.opencb.opencga.catalog.db.converters.AbstractDocumentConverter;
+import org.opencb.opencga.catalog.db.converters.DocumentConverters;
 import org.opencb.opencga.lib.common.TimeUtils;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -32,19 +33,27 @@ import java.util.*;
  */
 public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
 
-    private static final String USER_COLLECTION = "user";
-    private static final String STUDY_COLLECTION = "study";
-    private static final String FILE_COLLECTION = "file";
-    private static final String JOB_COLLECTION = "job";
-    private static final String SAMPLE_COLLECTION = "sample";
+    static final String USER_COLLECTION = "user";
+    static final String STUDY_COLLECTION = "study";
+    static final String FILE_COLLECTION = "file";
+    static final String JOB_COLLECTION = "job";
+    static final String SAMPLE_COLLECTION = "sample";
     private static final String METADATA_COLLECTION = "metadata";
 
     static final String METADATA_OBJECT_ID = "METADATA";
+    /** Migrations applied to the database, stored in the metadata document */
+    static final String METADATA_MIGRATIONS = "migrations";
+    static final String MIGRATION_ANNOTATION_KEY_VALUES = "annotationKeyValues";
+    static final String MIGRATION_VARIABLE_SETS_IN_USE = "variableSetsInUse";
 
     //Keys to foreign objects.
     private static final String _ID = "_id";
     private static final String _PROJECT_ID = "_projectId";
     private static final String _STUDY_ID = "_studyId";
+    /** Annotations of an AnnotationSet as "key:value" strings. Indexed, used to filter samples by annotation */
+    static final String _ANNOT_KV = "_annotKV";
+    /** Set in the VariableSets used by any AnnotationSet. Those VariableSets can not be deleted */
+    static final String _IN_USE = "_inUse";
     private static final String FILTER_ROUTE_STUDIES = "projects.studies.";
     private static final String FILTER_ROUTE_SAMPLES = "projects.studies.samples.";
     private static final String FILTER_ROUTE_FILES =   "projects.studies.files.";
@@ -64,30 +73,6 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
     private MongoDBCollection jobCollection;
 
     //    private static final Logger logger = LoggerFactory.getLogger(CatalogMongoDBAdaptor.class);
-    private static ObjectMapper jsonObjectMapper;
-    private static ObjectWriter jsonObjectWriter;
-    private static ObjectReader jsonFileReader;
-    private static ObjectReader jsonUserReader;
-    private static ObjectReader jsonJobReader;
-    private static ObjectReader jsonStudyReader;
-    private static ObjectReader jsonSampleReader;
-    private static Map<Class, ObjectReader> jsonReaderMap;
-
-    static {
-        jsonObjectMapper = new ObjectMapper();
-        jsonObjectMapper.configure(DeserializationFeature.FAIL_ON_IGNORED_PROPERTIES, false);
-        jsonObjectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        jsonObjectMapper.configure(DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES, false);
-        jsonObjectWriter = jsonObjectMapper.writer();
-        jsonReaderMap = new HashMap<>();
-        jsonReaderMap.put(File.class, jsonFileReader = jsonObjectMapper.reader(File.class));
-        jsonReaderMap.put(User.class, jsonUserReader = jsonObjectMapper.reader(User.class));
-        jsonReaderMap.put(Job.class, jsonJobReader = jsonObjectMapper.reader(Job.class));
-//        jsonProjectReader = jsonObjectMapper.reader(Project.class);
-        jsonReaderMap.put(Study.class, jsonStudyReader = jsonObjectMapper.reader(Study.class));
-//        jsonAnalysisReader = jsonObjectMapper.reader(Job.class);
-        jsonReaderMap.put(Sample.class, jsonSampleReader = jsonObjectMapper.reader(Sample.class));
-    }
 
     public CatalogMongoDBAdaptor(List<DataStoreServerAddress> dataStoreServerAddressList, MongoDBConfiguration configuration, String database)
             throws CatalogDBException {
@@ -120,6 +105,9 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
             try {
                 Document metadataObject = getDocument(new Metadata(), "Metadata");
                 metadataObject.put("_id", METADATA_OBJECT_ID);
+                //A new database does not need any migration
+                metadataObject.put(METADATA_MIGRATIONS, Arrays.asList(MIGRATION_ANNOTATION_KEY_VALUES,
+                        MIGRATION_VARIABLE_SETS_IN_USE));
                 metaCollection.insert(metadataObject, null);
                 insertUser(new User("admin", "admin", "admin@email.com", "admin", "opencb", User.Role.ADMIN, "active"), new QueryOptions());
 
@@ -132,6 +120,149 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
 //            nativeFileCollection.createIndex(DocumentBuilder.start("studyId", 1).append("path", 1).get(), unique);
 //            nativeJobCollection.createIndex(new Document("id", 1), unique);
         }
+
+        CatalogMongoDBIndexes.createIndexes(db.getDb());
+    }
+
+    /**
+     * Each migration runs once per database: it is recorded in the metadata document when it finishes, so an
+     * interrupted migration is resumed by the next call.
+     */
+    @Override
+    public long runMigrations() throws CatalogDBException {
+        return addMissingAnnotationKeyValues() + markUsedVariableSets();
+    }
+
+    /**
+     * AnnotationSets written before the "key:value" annotation field existed are not found by the annotation filters.
+     * Adds the missing field to them, in batches. Only the migrated elements of the AnnotationSets array are
+     * updated, so the AnnotationSets added meanwhile are kept.
+     */
+    private long addMissingAnnotationKeyValues() throws CatalogDBException {
+        if (isMigrated(MIGRATION_ANNOTATION_KEY_VALUES)) {
+            return 0;
+        }
+
+        int batchSize = 1000;
+        long numAnnotationSets = 0;
+        Document missing = new Document(_ANNOT_KV, new Document("$exists", false));
+        Document query = new Document("annotationSets", new Document("$elemMatch", missing));
+        QueryOptions queryOptions = new QueryOptions("include", Arrays.asList("id", "annotationSets.id",
+                "annotationSets._annotMap", "annotationSets." + _ANNOT_KV));
+        queryOptions.put("limit", batchSize);
+        List<Document> samples;
+        do {
+            samples = sampleCollection.find(query, queryOptions).getResult();
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            for (Document sample : samples) {
+                for (Document annotationSet : (List<Document>) sample.get("annotationSets")) {
+                    if (annotationSet.containsKey(_ANNOT_KV)) {
+                        continue;
+                    }
+                    Map<String, Object> annotationMap = (Map<String, Object>) annotationSet.get("_annotMap");
+                    List<String> keyValues = new ArrayList<>();
+                    if (annotationMap != null) {
+                        for (Map.Entry<String, Object> entry : annotationMap.entrySet()) {
+                            keyValues.add(entry.getKey() + ":" + entry.getValue());
+                        }
+                    }
+                    Document element = new Document("id", annotationSet.get("id")).append(_ANNOT_KV, new Document("$exists", false));
+                    updates.add(new UpdateOneModel<Document>(
+                            new Document("id", sample.get("id")).append("annotationSets", new Document("$elemMatch", element)),
+                            new Document("$set", new Document("annotationSets.$." + _ANNOT_KV, keyValues))));
+                }
+            }
+            if (updates.isEmpty()) {
+                break;
+            }
+            long modified;
+            try {
+                modified = db.getDb().getCollection(SAMPLE_COLLECTION)
+                        .bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+            } catch (MongoBulkWriteException e) {
+                throw new CatalogDBException("Error adding the annotation key-values: " + e.getMessage());
+            }
+            numAnnotationSets += modified;
+            if (modified == 0) {
+                logger.warn("Unable to add the annotation key-values to {} samples", samples.size());
+                return numAnnotationSets;
+            }
+        } while (samples.size() == batchSize);
+
+        setMigrated(MIGRATION_ANNOTATION_KEY_VALUES);
+        if (numAnnotationSets > 0) {
+            logger.info("Added the annotation key-values to {} AnnotationSets", numAnnotationSets);
+        }
+        return numAnnotationSets;
+    }
+
+    /**
+     * VariableSets used before the "in use" flag existed could be deleted with their AnnotationSets still in
+     * the samples. Flags every VariableSet referenced by any AnnotationSet.
+     */
+    private long markUsedVariableSets() throws CatalogDBException {
+        if (isMigrated(MIGRATION_VARIABLE_SETS_IN_USE)) {
+            return 0;
+        }
+
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (Integer variableSetId : db.getDb().getCollection(SAMPLE_COLLECTION)
+                .distinct("annotationSets.variableSetId", Integer.class)) {
+            updates.add(new UpdateOneModel<Document>(new Document("variableSets.id", variableSetId),
+                    new Document("$set", new Document("variableSets.$." + _IN_USE, true))));
+        }
+        long numVariableSets = 0;
+        if (!updates.isEmpty()) {
+            try {
+                numVariableSets = db.getDb().getCollection(STUDY_COLLECTION)
+                        .bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+            } catch (MongoBulkWriteException e) {
+                throw new CatalogDBException("Error marking the used VariableSets: " + e.getMessage());
+            }
+        }
+
+        setMigrated(MIGRATION_VARIABLE_SETS_IN_USE);
+        if (numVariableSets > 0) {
+            logger.info("Marked {} VariableSets as in use", numVariableSets);
+        }
+        return numVariableSets;
+    }
+
+    private boolean isMigrated(String migration) {
+        Document migrated = new Document("_id", METADATA_OBJECT_ID).append(METADATA_MIGRATIONS, migration);
+        return metaCollection.count(migrated).getResult().get(0) > 0;
+    }
+
+    private void setMigrated(String migration) {
+        metaCollection.update(new Document("_id", METADATA_OBJECT_ID),
+                new Document("$addToSet", new Document(METADATA_MIGRATIONS, migration)), null);
+    }
+
+    /**
+     * Checks which indexes are used by the most frequent catalog queries.
+     *
+     * @return Indexes used by each query. Contains "COLLSCAN" if the query scans the whole collection
+     */
+    public Map<String, Set<String>> checkIndexes() {
+        Map<String, Set<String>> indexes = new LinkedHashMap<>();
+        indexes.put("session", CatalogMongoDBIndexes.explain(db.getDb(), USER_COLLECTION,
+                new Document("sessions.id", "")));
+        indexes.put("project", CatalogMongoDBIndexes.explain(db.getDb(), USER_COLLECTION,
+                new Document("projects.id", -1)));
+        indexes.put("study", CatalogMongoDBIndexes.explain(db.getDb(), STUDY_COLLECTION,
+                new Document(_PROJECT_ID, -1).append("alias", "")));
+        indexes.put("filePath", CatalogMongoDBIndexes.explain(db.getDb(), FILE_COLLECTION,
+                new Document(_STUDY_ID, -1).append("path", "")));
+        indexes.put("fileStatus", CatalogMongoDBIndexes.explain(db.getDb(), FILE_COLLECTION,
+                new Document("status", File.Status.DELETING.name())));
+        indexes.put("sampleName", CatalogMongoDBIndexes.explain(db.getDb(), SAMPLE_COLLECTION,
+                new Document(_STUDY_ID, -1).append("name", "")));
+        indexes.put("sampleAnnotation", CatalogMongoDBIndexes.explain(db.getDb(), SAMPLE_COLLECTION,
+                new Document(_STUDY_ID, -1).append("annotationSets", new Document("$elemMatch",
+                        new Document("variableSetId", -1).append(_ANNOT_KV, "key:value")))));
+        indexes.put("job", CatalogMongoDBIndexes.explain(db.getDb(), JOB_COLLECTION,
+                new Document(_STUDY_ID, -1)));
+        return indexes;
     }
 
     @Override
@@ -732,11 +863,9 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
         List<Acl> acls = new LinkedList<>();
         if (aggregate.getNumResults() != 0) {
             Object aclObject = ((Document) ((Document) aggregate.getResult().get(0)).get("projects")).get("acl");
-            Acl acl;
             try {
-                acl = jsonObjectMapper.reader(Acl.class).readValue(aclObject.toString());
-                acls.add(acl);
-            } catch (IOException e) {
+                acls.add(DocumentConverters.get(Acl.class).convertToDataModelType((Document) aclObject));
+            } catch (RuntimeException e) {
                 throw new CatalogDBException("get Project ACL: error parsing ACL");
             }
         }
@@ -1074,6 +1203,71 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
         return endQuery("Create file", startTime, getFile(newFileId, options));
     }
 
+    @Override
+    public QueryResult<File> createFilesToStudy(int studyId, List<File> files, QueryOptions options) throws CatalogDBException {
+        long startTime = startQuery();
+
+        if (files.isEmpty()) {
+            return endQuery("Create files", startTime, Collections.<File>emptyList());
+        }
+
+        String ownerId = getStudyOwnerId(studyId);
+        if(ownerId == null || ownerId.isEmpty()) {
+            throw CatalogDBException.idNotFound("Study", studyId);
+        }
+
+        //Check all the paths with one query
+        Set<String> paths = new LinkedHashSet<>();
+        for (File file : files) {
+            if (!paths.add(file.getPath())) {
+                throw new CatalogDBException("Duplicated path \"" + file.getPath() + "\"");
+            }
+        }
+        Document existsQuery = new Document(_STUDY_ID, studyId).append("path", new Document("$in", new ArrayList<>(paths)));
+        QueryResult<Document> existing = fileCollection.find(existsQuery, new QueryOptions("include", Collections.singletonList("path")));
+        if (existing.getNumResults() != 0) {
+            throw new CatalogDBException("File {studyId:"+ studyId + ", path:\"" + existing.getResult().get(0).getString("path") + "\"} already exists");
+        }
+
+        //Reserve a block of ids
+        int lastId = CatalogMongoDBUtils.getNewAutoIncrementId("idCounter", files.size(), metaCollection);
+        int newFileId = lastId - files.size() + 1;
+
+        List<Document> fileDocuments = new ArrayList<>(files.size());
+        List<Integer> fileIds = new ArrayList<>(files.size());
+        for (File file : files) {
+            file.setId(newFileId);
+            if(file.getOwnerId() == null) {
+                file.setOwnerId(ownerId);
+            }
+            Document fileDocument = getDocument(file, "File");
+            fileDocument.put(_STUDY_ID, studyId);
+            fileDocument.put(_ID, newFileId);
+            fileDocuments.add(fileDocument);
+            fileIds.add(newFileId);
+            newFileId++;
+        }
+
+        try {
+            db.getDb().getCollection(FILE_COLLECTION).insertMany(fileDocuments);
+        } catch (MongoBulkWriteException e) {
+            throw new CatalogDBException("Error inserting files in study " + studyId + ". Some of them already exist: " + e.getMessage());
+        }
+
+        //Fetch them back with one query, in the same order as they were given
+        List<File> created = searchFile(new QueryOptions("id", fileIds), options).getResult();
+        Map<Integer, File> createdMap = new HashMap<>();
+        for (File file : created) {
+            createdMap.put(file.getId(), file);
+        }
+        List<File> result = new ArrayList<>(fileIds.size());
+        for (Integer fileId : fileIds) {
+            result.add(createdMap.get(fileId));
+        }
+
+        return endQuery("Create files", startTime, result);
+    }
+
     /**
      * At the moment it does not clean external references to itself.
      */
@@ -1155,6 +1349,34 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
     public QueryResult modifyFile(int fileId, ObjectMap parameters) throws CatalogDBException {
         long startTime = startQuery();
 
+        Map<String, Object> fileParameters = filterFileParameters(parameters);
+
+        if(!fileParameters.isEmpty()) {
+            QueryResult<UpdateResult> update = fileCollection.update(new Document("id", fileId),
+                    new Document("$set", fileParameters), null);
+            if(update.getResult().isEmpty() || update.getResult().get(0).getMatchedCount() == 0){
+                throw CatalogDBException.idNotFound("File", fileId);
+            }
+        }
+
+        return endQuery("Modify file", startTime);
+    }
+
+    @Override
+    public QueryResult modifyFiles(List<Integer> fileIds, ObjectMap parameters) throws CatalogDBException {
+        long startTime = startQuery();
+
+        Map<String, Object> fileParameters = filterFileParameters(parameters);
+
+        if(!fileParameters.isEmpty() && !fileIds.isEmpty()) {
+            fileCollection.update(new Document("id", new Document("$in", fileIds)),
+                    new Document("$set", fileParameters), new QueryOptions("multi", true));
+        }
+
+        return endQuery("Modify files", startTime);
+    }
+
+    private Map<String, Object> filterFileParameters(ObjectMap parameters) {
         Map<String, Object> fileParameters = new HashMap<>();
 
         String[] acceptedParams = {"type", "format", "bioformat", "uriScheme", "description", "status"};
@@ -1172,15 +1394,7 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
         String[] acceptedMapParams = {"attributes", "stats"};
         filterMapParams(parameters, fileParameters, acceptedMapParams);
 
-        if(!fileParameters.isEmpty()) {
-            QueryResult<UpdateResult> update = fileCollection.update(new Document("id", fileId),
-                    new Document("$set", fileParameters), null);
-            if(update.getResult().isEmpty() || update.getResult().get(0).getMatchedCount() == 0){
-                throw CatalogDBException.idNotFound("File", fileId);
-            }
-        }
-
-        return endQuery("Modify file", startTime);
+        return fileParameters;
     }
 
 
@@ -1370,6 +1584,18 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
         if (query.containsKey("directory")){
             mongoQuery.put("path", new Document("$regex", "^" + query.getString("directory") + "[^/]+/?$"));
         }
+        if (query.containsKey("maxDeleteDate")) {
+            //Files without delete date are included
+            mongoQuery.put("attributes." + File.DELETE_DATE, new Document("$not", new Document("$gt", query.getLong("maxDeleteDate"))));
+        }
+        if (query.containsKey("excludeId") && !query.getAsIntegerList("excludeId").isEmpty()) {
+            Document excludeFilter = new Document("_id", new Document("$nin", query.getAsIntegerList("excludeId")));
+            if (mongoQuery.containsKey("_id")) {
+                mongoQuery = new Document("$and", Arrays.asList(mongoQuery, excludeFilter));
+            } else {
+                mongoQuery.putAll(excludeFilter);
+            }
+        }
 
 //        Document query = new Document("$and", filters);
 //        QueryResult<Document> queryResult = fileCollection.find(query, null);
@@ -1725,6 +1951,65 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
         return endQuery("createSample", startTime, getSample(sampleId, options));
     }
 
+    @Override
+    public QueryResult<Sample> createSamples(int studyId, List<Sample> samples, QueryOptions options) throws CatalogDBException {
+        long startTime = startQuery();
+
+        checkStudyId(studyId);
+        if (samples.isEmpty()) {
+            return endQuery("createSamples", startTime, Collections.<Sample>emptyList());
+        }
+
+        //Validate all the names with one query
+        Set<String> names = new LinkedHashSet<>();
+        for (Sample sample : samples) {
+            if (!names.add(sample.getName())) {
+                throw new CatalogDBException("Sample { name: '" + sample.getName() + "'} is duplicated.");
+            }
+        }
+        QueryResult<Document> existing = sampleCollection.find(
+                new Document(_STUDY_ID, studyId).append("name", new Document("$in", new ArrayList<>(names))),
+                new QueryOptions("include", Collections.singletonList("name")));
+        if (existing.getNumResults() > 0) {
+            throw new CatalogDBException("Sample { name: '" + existing.getResult().get(0).getString("name") + "'} already exists.");
+        }
+
+        //Reserve a block of ids
+        int sampleId = CatalogMongoDBUtils.getNewAutoIncrementId("idCounter", samples.size(), metaCollection) - samples.size() + 1;
+
+        List<Document> sampleObjects = new ArrayList<>(samples.size());
+        List<Integer> sampleIds = new ArrayList<>(samples.size());
+        for (Sample sample : samples) {
+            sample.setId(sampleId);
+            sample.setAnnotationSets(Collections.<AnnotationSet>emptyList());
+            Document sampleObject = getDocument(sample, "sample");
+            sampleObject.put(_STUDY_ID, studyId);
+            sampleObject.put(_ID, sampleId);
+            sampleObjects.add(sampleObject);
+            sampleIds.add(sampleId);
+            sampleId++;
+        }
+        try {
+            db.getDb().getCollection(SAMPLE_COLLECTION).insertMany(sampleObjects);
+        } catch (MongoBulkWriteException e) {
+            throw new CatalogDBException("Error inserting samples in study " + studyId + ": " + e.getMessage());
+        }
+
+        //Fetch them back with one query, in the same order as they were given
+        QueryOptions queryOptions = options == null ? new QueryOptions() : new QueryOptions(options);
+        queryOptions.put("id", sampleIds);
+        Map<Integer, Sample> createdMap = new HashMap<>();
+        for (Sample sample : getAllSamples(studyId, queryOptions).getResult()) {
+            createdMap.put(sample.getId(), sample);
+        }
+        List<Sample> result = new ArrayList<>(sampleIds.size());
+        for (Integer id : sampleIds) {
+            result.add(createdMap.get(id));
+        }
+
+        return endQuery("createSamples", startTime, result);
+    }
+
 
     @Override
     public QueryResult<Sample> getSample(int sampleId, QueryOptions options) throws CatalogDBException {
@@ -1783,9 +2068,13 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
 //                );
                 String[] values = split[1].split(",");
                 if (values.length > 1) {
-                    annotationFilters.add(new Document("_annotMap" + "." + split[0], new Document("$in", Arrays.asList(values)) ));
+                    List<String> keyValues = new ArrayList<>(values.length);
+                    for (String value : values) {
+                        keyValues.add(split[0] + ":" + value);
+                    }
+                    annotationFilters.add(new Document(_ANNOT_KV, new Document("$in", keyValues)));
                 } else {
-                    annotationFilters.add(new Document("_annotMap" + "." + split[0], split[1] ));
+                    annotationFilters.add(new Document(_ANNOT_KV, split[0] + ":" + split[1]));
                 }
             }
         }
@@ -1956,6 +2245,28 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
         return endQuery("", startTime, studies.get(0).getVariableSets());
     }
 
+    @Override
+    public QueryResult<VariableSet> deleteVariableSet(int variableSetId) throws CatalogDBException {
+        long startTime = startQuery();
+
+        VariableSet variableSet = getVariableSet(variableSetId, null).getResult().get(0);
+
+        //Only pulled if not marked as used. The annotations mark it before writing any sample, so either the
+        //annotation or the deletion fails.
+        Document notInUse = new Document("id", variableSetId).append(_IN_USE, new Document("$ne", true));
+        QueryResult<UpdateResult> update = studyCollection.update(
+                new Document("variableSets", new Document("$elemMatch", notInUse)),
+                new Document("$pull", new Document("variableSets", notInUse)), null);
+        if (update.getResult().get(0).getModifiedCount() == 0) {
+            if (studyCollection.count(new Document("variableSets.id", variableSetId)).getResult().get(0) > 0) {
+                throw new CatalogDBException("VariableSet {id: " + variableSetId + "} is in use");
+            }
+            throw CatalogDBException.idNotFound("VariableSet", variableSetId);
+        }
+
+        return endQuery("deleteVariableSet", startTime, Collections.singletonList(variableSet));
+    }
+
     @Override
     public QueryResult<AnnotationSet> annotateSample(int sampleId, AnnotationSet annotationSet) throws CatalogDBException {
         long startTime = startQuery();
@@ -1966,19 +2277,126 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
             throw new CatalogDBException("AnnotationSet { id: " + annotationSet.getId() + "} already exists.");
         }
 
+        markVariableSetInUse(annotationSet.getVariableSetId());
+        Document object = getAnnotationSetDocument(annotationSet);
+
+        Document query = new Document("id", sampleId);
+        Document update = new Document("$push", new Document("annotationSets", object));
+
+        QueryResult<UpdateResult> queryResult = sampleCollection.update(query, update, null);
+
+        return endQuery("", startTime, Arrays.asList(annotationSet));
+    }
+
+    /**
+     * Marks a VariableSet as used before writing any AnnotationSet of it, so it can not be deleted meanwhile.
+     * A VariableSet stays marked even if its AnnotationSets are removed later.
+     *
+     * @throws CatalogDBException If the VariableSet does not exist
+     */
+    private void markVariableSetInUse(int variableSetId) throws CatalogDBException {
+        QueryResult<UpdateResult> update = studyCollection.update(new Document("variableSets.id", variableSetId),
+                new Document("$set", new Document("variableSets.$." + _IN_USE, true)), null);
+        if (update.getResult().get(0).getMatchedCount() == 0) {
+            throw CatalogDBException.idNotFound("VariableSet", variableSetId);
+        }
+    }
+
+    private Document getAnnotationSetDocument(AnnotationSet annotationSet) throws CatalogDBException {
         Document object = getDocument(annotationSet, "AnnotationSet");
         Map<String, String> annotationMap = new HashMap<>();
+        List<String> keyValues = new ArrayList<>(annotationSet.getAnnotations().size());
         for (Annotation annotation : annotationSet.getAnnotations()) {
-            annotationMap.put(annotation.getId(), annotation.getValue().toString());
+            String value = annotation.getValue().toString();
+            annotationMap.put(annotation.getId(), value);
+            keyValues.add(annotation.getId() + ":" + value);
         }
         object.put("_annotMap", annotationMap);
+        object.put(_ANNOT_KV, keyValues);
+        return object;
+    }
 
-        Document query = new Document("id", sampleId);
-        Document update = new Document("$push", new Document("annotationSets", object));
+    @Override
+    public QueryResult<Integer> annotateSamples(Map<Integer, AnnotationSet> annotationSets) throws CatalogDBException {
+        long startTime = startQuery();
+        if (annotationSets.isEmpty()) {
+            return endQuery("annotateSamples", startTime, Collections.<Integer>emptyList());
+        }
+
+        //Find the samples already annotated with one query
+        Set<Integer> skipped = new HashSet<>();
+        QueryResult<Document> existing = sampleCollection.find(
+                new Document("id", new Document("$in", new ArrayList<>(annotationSets.keySet()))),
+                new QueryOptions("include", Arrays.asList("id", "annotationSets.id")));
+        for (Document sample : existing.getResult()) {
+            int sampleId = ((Number) sample.get("id")).intValue();
+            List<Document> sampleAnnotationSets = (List<Document>) sample.get("annotationSets");
+            if (sampleAnnotationSets != null) {
+                for (Document annotationSet : sampleAnnotationSets) {
+                    if (annotationSets.get(sampleId).getId().equals(annotationSet.get("id"))) {
+                        skipped.add(sampleId);
+                        break;
+                    }
+                }
+            }
+        }
 
-        QueryResult<UpdateResult> queryResult = sampleCollection.update(query, update, null);
+        List<Integer> candidates = new ArrayList<>(annotationSets.size());
+        List<WriteModel<Document>> updates = new ArrayList<>(annotationSets.size());
+        for (Map.Entry<Integer, AnnotationSet> entry : annotationSets.entrySet()) {
+            if (skipped.contains(entry.getKey())) {
+                continue;
+            }
+            AnnotationSet annotationSet = entry.getValue();
+            //The filter protects from concurrent annotations with the same id.
+            Document query = new Document("id", entry.getKey())
+                    .append("annotationSets.id", new Document("$ne", annotationSet.getId()));
+            updates.add(new UpdateOneModel<Document>(query,
+                    new Document("$push", new Document("annotationSets", getAnnotationSetDocument(annotationSet)))));
+            candidates.add(entry.getKey());
+        }
+        if (updates.isEmpty()) {
+            return endQuery("annotateSamples", startTime, Collections.<Integer>emptyList());
+        }
 
-        return endQuery("", startTime, Arrays.asList(annotationSet));
+        Set<Integer> variableSetIds = new HashSet<>();
+        for (AnnotationSet annotationSet : annotationSets.values()) {
+            variableSetIds.add(annotationSet.getVariableSetId());
+        }
+        for (Integer variableSetId : variableSetIds) {
+            markVariableSetInUse(variableSetId);
+        }
+
+        BulkWriteResult result;
+        try {
+            result = db.getDb().getCollection(SAMPLE_COLLECTION).bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            throw new CatalogDBException("Error annotating samples: " + e.getMessage());
+        }
+
+        List<Integer> annotated = candidates;
+        if (result.getModifiedCount() < candidates.size()) {
+            //Some samples were annotated concurrently. The bulk write only reports the total count,
+            //so look for the samples that have the AnnotationSet now.
+            annotated = new ArrayList<>(result.getModifiedCount());
+            QueryResult<Document> written = sampleCollection.find(
+                    new Document("id", new Document("$in", candidates)),
+                    new QueryOptions("include", Arrays.asList("id", "annotationSets.id")));
+            for (Document sample : written.getResult()) {
+                int sampleId = ((Number) sample.get("id")).intValue();
+                List<Document> sampleAnnotationSets = (List<Document>) sample.get("annotationSets");
+                if (sampleAnnotationSets != null) {
+                    for (Document annotationSet : sampleAnnotationSets) {
+                        if (annotationSets.get(sampleId).getId().equals(annotationSet.get("id"))) {
+                            annotated.add(sampleId);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        return endQuery("annotateSamples", startTime, annotated);
     }
 
 
@@ -2040,93 +2458,41 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
     }
 
     private User parseUser(QueryResult<Document> result) throws CatalogDBException {
-        if(result.getResult().isEmpty()) {
-            return null;
-        }
-        try {
-            return jsonUserReader.readValue(restoreDotsInKeys(result.first()).toString());
-        } catch (IOException e) {
-            throw new CatalogDBException("Error parsing user", e);
-        }
+        return parseObject(result, User.class);
     }
 
     private List<Study> parseStudies(QueryResult<Document> result) throws CatalogDBException {
-        List<Study> studies = new LinkedList<>();
-        try {
-            for (Document object : result.getResult()) {
-                studies.add(jsonStudyReader.<Study>readValue(restoreDotsInKeys(object).toString()));
-            }
-        } catch (IOException e) {
-            throw new CatalogDBException("Error parsing study", e);
-        }
-        return studies;
+        return parseObjects(result, Study.class);
     }
 
     private File parseFile(QueryResult<Document> result) throws CatalogDBException {
-        if(result.getResult().isEmpty()) {
-            return null;
-        }
-        try {
-            return jsonFileReader.readValue(restoreDotsInKeys(result.first()).toString());
-        } catch (IOException e) {
-            throw new CatalogDBException("Error parsing file", e);
-        }
+        return parseObject(result, File.class);
     }
 
     private List<File> parseFiles(QueryResult<Document> result) throws CatalogDBException {
-        List<File> files = new LinkedList<>();
-        try {
-            for (Document o : result.getResult()) {
-                files.add(jsonFileReader.<File>readValue(restoreDotsInKeys(o).toString()));
-            }
-            return files;
-        } catch (IOException e) {
-            throw new CatalogDBException("Error parsing file", e);
-        }
+        return parseObjects(result, File.class);
     }
 
     private Job parseJob(QueryResult<Document> result) throws CatalogDBException {
-        if(result.getResult().isEmpty()) {
-            return null;
-        }
-        try {
-            return jsonJobReader.readValue(restoreDotsInKeys(result.first()).toString());
-        } catch (IOException e) {
-            throw new CatalogDBException("Error parsing job", e);
-        }
+        return parseObject(result, Job.class);
     }
 
     private List<Job> parseJobs(QueryResult<Document> result) throws CatalogDBException {
-        LinkedList<Job> jobs = new LinkedList<>();
-        try {
-            for (Document object : result.getResult()) {
-                jobs.add(jsonJobReader.<Job>readValue(restoreDotsInKeys(object).toString()));
-            }
-        } catch (IOException e) {
-            throw new CatalogDBException("Error parsing job", e);
-        }
-        return jobs;
+        return parseObjects(result, Job.class);
     }
 
     private List<Sample> parseSamples(QueryResult<Document> result) throws CatalogDBException {
-        LinkedList<Sample> samples = new LinkedList<>();
-        try {
-            for (Document object : result.getResult()) {
-                samples.add(jsonSampleReader.<Sample>readValue(restoreDotsInKeys(object).toString()));
-            }
-        } catch (IOException e) {
-            throw new CatalogDBException("Error parsing samples", e);
-        }
-        return samples;
+        return parseObjects(result, Sample.class);
     }
 
     private <T> List<T> parseObjects(QueryResult<Document> result, Class<T> tClass) throws CatalogDBException {
-        LinkedList<T> objects = new LinkedList<>();
+        ComplexTypeConverter<T, Document> converter = DocumentConverters.get(tClass);
+        List<T> objects = new ArrayList<>(result.getResult().size());
         try {
             for (Document object : result.getResult()) {
-                objects.add(jsonReaderMap.get(tClass).<T>readValue(restoreDotsInKeys(object).toString()));
+                objects.add(converter.convertToDataModelType(object));
             }
-        } catch (IOException e) {
+        } catch (RuntimeException e) {
             throw new CatalogDBException("Error parsing " + tClass.getName(), e);
         }
         return objects;
@@ -2137,24 +2503,21 @@ public class CatalogMongoDBAdaptor extends CatalogDBAdaptor {
             return null;
         }
         try {
-            return jsonReaderMap.get(tClass).readValue(restoreDotsInKeys(result.first()).toString());
-        } catch (IOException e) {
+            return DocumentConverters.get(tClass).convertToDataModelType(result.first());
+        } catch (RuntimeException e) {
             throw new CatalogDBException("Error parsing " + tClass.getName(), e);
         }
     }
 
-    private Document getDocument(Object object, String objectName) throws CatalogDBException {
-        Document Document;
+    private <T> Document getDocument(T object, String objectName) throws CatalogDBException {
         try {
-            Document = (Document) JSON.parse(jsonObjectWriter.writeValueAsString(object));
-            Document = replaceDotsInKeys(Document);
-        } catch (Exception e) {
-            throw new CatalogDBException("Error while writing to Json : " + objectName);
+            return DocumentConverters.get((Class<T>) object.getClass()).convertToStorageType(object);
+        } catch (RuntimeException e) {
+            throw new CatalogDBException("Error while converting to Document : " + objectName);
         }
-        return Document;
     }
 
-    static final String TO_REPLACE_DOTS = "&#46;";
+    static final String TO_REPLACE_DOTS = AbstractDocumentConverter.TO_REPLACE_DOTS;
 //    static final String TO_REPLACE_DOTS = "\uff0e";
 
     /**
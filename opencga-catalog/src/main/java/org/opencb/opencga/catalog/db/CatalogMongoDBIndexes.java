@@ -0,0 +1,108 @@
+package org.opencb.opencga.catalog.db;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Indexes of the catalog collections.
+ *
+ *  All the indexes are declared here, and created at startup if missing. Creating an existing index is a no-op.
+ *  Also resolves, with "explain", the index used by a query. Used to check that the hot queries do not scan the
+ *  whole collection.
+ */
+class CatalogMongoDBIndexes {
+
+    private static Logger logger = LoggerFactory.getLogger(CatalogMongoDBIndexes.class);
+
+    static final String COLLSCAN = "COLLSCAN";
+
+    /** Index keys, by collection */
+    private static final Map<String, List<Document>> INDEXES = new LinkedHashMap<>();
+
+    static {
+        declare(CatalogMongoDBAdaptor.USER_COLLECTION,
+                new Document("id", 1),
+                new Document("sessions.id", 1),
+                new Document("projects.id", 1));
+        declare(CatalogMongoDBAdaptor.STUDY_COLLECTION,
+                new Document("id", 1),
+                new Document("_projectId", 1).append("alias", 1));
+        declare(CatalogMongoDBAdaptor.FILE_COLLECTION,
+                new Document("id", 1),
+                new Document("_studyId", 1).append("path", 1),
+                new Document("status", 1));
+        declare(CatalogMongoDBAdaptor.SAMPLE_COLLECTION,
+                new Document("id", 1),
+                new Document("_studyId", 1).append("name", 1),
+                new Document("_studyId", 1)
+                        .append("annotationSets.variableSetId", 1)
+                        .append("annotationSets." + CatalogMongoDBAdaptor._ANNOT_KV, 1));
+        declare(CatalogMongoDBAdaptor.JOB_COLLECTION,
+                new Document("id", 1),
+                new Document("_studyId", 1),
+                new Document("status", 1));
+    }
+
+    private static void declare(String collection, Document... keys) {
+        INDEXES.put(collection, Arrays.asList(keys));
+    }
+
+    /**
+     * Creates the missing indexes. Built in background, so the catalog is available while they are built.
+     */
+    static void createIndexes(MongoDatabase db) {
+        IndexOptions options = new IndexOptions().background(true);
+        for (Map.Entry<String, List<Document>> entry : INDEXES.entrySet()) {
+            for (Document keys : entry.getValue()) {
+                try {
+                    db.getCollection(entry.getKey()).createIndex(keys, options);
+                } catch (MongoException e) {
+                    logger.warn("Unable to create index " + keys.toJson() + " in collection " + entry.getKey(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the indexes used by a query, from the winning plan of "explain".
+     *
+     * @param db            Database
+     * @param collection    Collection to query
+     * @param query         Query filter
+     * @return              Names of the indexes used. Contains {@link #COLLSCAN} if any stage scans the whole collection
+     */
+    static Set<String> explain(MongoDatabase db, String collection, Document query) {
+        Document explain = db.runCommand(new Document("explain", new Document("find", collection).append("filter", query))
+                .append("verbosity", "queryPlanner"));
+        Document queryPlanner = (Document) explain.get("queryPlanner");
+        Set<String> indexes = new LinkedHashSet<>();
+        if (queryPlanner != null) {
+            addIndexes((Document) queryPlanner.get("winningPlan"), indexes);
+        }
+        return indexes;
+    }
+
+    private static void addIndexes(Document stage, Set<String> indexes) {
+        if (stage == null) {
+            return;
+        }
+        if (COLLSCAN.equals(stage.getString("stage"))) {
+            indexes.add(COLLSCAN);
+        } else if (stage.containsKey("indexName")) {
+            indexes.add(stage.getString("indexName"));
+        }
+        addIndexes((Document) stage.get("inputStage"), indexes);
+        Object inputStages = stage.get("inputStages");
+        if (inputStages instanceof List) {
+            for (Object inputStage : (List) inputStages) {
+                addIndexes((Document) inputStage, indexes);
+            }
+        }
+    }
+}
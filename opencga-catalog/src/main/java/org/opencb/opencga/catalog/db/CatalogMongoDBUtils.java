@@ -17,11 +17,20 @@ class CatalogMongoDBUtils {
     }
 
     static int getNewAutoIncrementId(String field, MongoDBCollection metaCollection){
+        return getNewAutoIncrementId(field, 1, metaCollection);
+    }
+
+    /**
+     * Reserves a block of consecutive ids with a single update.
+     *
+     * @return Last id of the block. The reserved ids are [returned - numIds + 1, returned]
+     */
+    static int getNewAutoIncrementId(String field, int numIds, MongoDBCollection metaCollection){
         QueryResult<Document> result = metaCollection.findAndModify(
                 new Document("_id", CatalogMongoDBAdaptor.METADATA_OBJECT_ID),  //Query
                 new Document(field, true),  //Fields
                 null,
-                new Document("$inc", new BasicDBObject(field, 1)), //Update
+                new Document("$inc", new BasicDBObject(field, numIds)), //Update
                 new QueryOptions("returnNew", true),
                 Document.class
         );
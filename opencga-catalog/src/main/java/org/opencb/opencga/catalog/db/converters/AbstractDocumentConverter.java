@@ -0,0 +1,179 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import org.bson.Document;
+import org.opencb.datastore.core.ComplexTypeConverter;
+
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Base of the converters between catalog beans and Mongo Documents.
+ *
+ *  Field names are the bean property names, so the stored documents are the same as with a Jackson serialization.
+ *  Free maps (attributes, stats...) may contain keys with dots, which Mongo does not accept. Those dots are replaced
+ *  with {@link #TO_REPLACE_DOTS} while converting.
+ */
+public abstract class AbstractDocumentConverter<T> implements ComplexTypeConverter<T, Document> {
+
+    public static final String TO_REPLACE_DOTS = "&#46;";
+
+    /*
+     * To Document
+     */
+
+    /**
+     * Converts a value to a type accepted by the Mongo driver. Maps become Documents, with the dots in the keys
+     * replaced. Collections and arrays become lists. Beans not known by the driver are converted reflectively.
+     */
+    public static Object toStorageValue(Object value) {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Date) {
+            return value;
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map) value;
+            Document document = new Document();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                document.put(String.valueOf(entry.getKey()).replace(".", TO_REPLACE_DOTS), toStorageValue(entry.getValue()));
+            }
+            return document;
+        } else if (value instanceof Collection) {
+            List<Object> list = new ArrayList<>(((Collection) value).size());
+            for (Object o : (Collection) value) {
+                list.add(toStorageValue(o));
+            }
+            return list;
+        } else if (value instanceof Object[]) {
+            return toStorageValue(Arrays.asList((Object[]) value));
+        } else if (value instanceof Enum) {
+            return ((Enum) value).name();
+        } else if (value instanceof URI || value instanceof Character) {
+            return value.toString();
+        } else {
+            return DocumentConverters.get((Class<Object>) value.getClass()).convertToStorageType(value);
+        }
+    }
+
+    protected static <E> List<Document> toStorageList(List<E> values, ComplexTypeConverter<E, Document> converter) {
+        if (values == null) {
+            return null;
+        }
+        List<Document> list = new ArrayList<>(values.size());
+        for (E value : values) {
+            list.add(value == null ? null : converter.convertToStorageType(value));
+        }
+        return list;
+    }
+
+    /*
+     * From Document
+     */
+
+    /**
+     * Converts a value read from Mongo to plain Java collections. Documents become LinkedHashMaps, with the dots in the
+     * keys restored.
+     */
+    public static Object toDataModelValue(Object value) {
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map) value;
+            Map<String, Object> result = new LinkedHashMap<>(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                result.put(String.valueOf(entry.getKey()).replace(TO_REPLACE_DOTS, "."), toDataModelValue(entry.getValue()));
+            }
+            return result;
+        } else if (value instanceof Collection) {
+            List<Object> list = new ArrayList<>(((Collection) value).size());
+            for (Object o : (Collection) value) {
+                list.add(toDataModelValue(o));
+            }
+            return list;
+        } else {
+            return value;
+        }
+    }
+
+    protected static Map<String, Object> getMap(Document document, String key) {
+        return (Map<String, Object>) toDataModelValue(document.get(key));
+    }
+
+    protected static String getString(Document document, String key) {
+        Object value = document.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    protected static int getInt(Document document, String key) {
+        Object value = document.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value == null) {
+            return 0;
+        } else {
+            return Integer.parseInt(value.toString());
+        }
+    }
+
+    protected static long getLong(Document document, String key) {
+        Object value = document.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value == null) {
+            return 0;
+        } else {
+            return Long.parseLong(value.toString());
+        }
+    }
+
+    protected static boolean getBoolean(Document document, String key) {
+        Object value = document.get(key);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else {
+            return value != null && Boolean.parseBoolean(value.toString());
+        }
+    }
+
+    protected static <E extends Enum<E>> E getEnum(Document document, String key, Class<E> enumClass) {
+        Object value = document.get(key);
+        return value == null ? null : Enum.valueOf(enumClass, value.toString());
+    }
+
+    protected static URI getUri(Document document, String key) {
+        Object value = document.get(key);
+        return value == null ? null : URI.create(value.toString());
+    }
+
+    protected static List<Integer> getIntegerList(Document document, String key) {
+        List<?> values = (List<?>) document.get(key);
+        if (values == null) {
+            return null;
+        }
+        List<Integer> list = new ArrayList<>(values.size());
+        for (Object value : values) {
+            list.add(value == null ? null : ((Number) value).intValue());
+        }
+        return list;
+    }
+
+    protected static List<String> getStringList(Document document, String key) {
+        List<?> values = (List<?>) document.get(key);
+        if (values == null) {
+            return null;
+        }
+        List<String> list = new ArrayList<>(values.size());
+        for (Object value : values) {
+            list.add(value == null ? null : value.toString());
+        }
+        return list;
+    }
+
+    protected static <E> List<E> getList(Document document, String key, ComplexTypeConverter<E, Document> converter) {
+        List<?> values = (List<?>) document.get(key);
+        if (values == null) {
+            return null;
+        }
+        List<E> list = new ArrayList<>(values.size());
+        for (Object value : values) {
+            list.add(value == null ? null : converter.convertToDataModelType((Document) value));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,43 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import org.bson.Document;
+import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.opencga.catalog.beans.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converters between catalog beans and Mongo Documents, by class.
+ *
+ *  The most frequent beans have a specific converter. Any other class gets a {@link ReflectiveDocumentConverter}.
+ *  Converters can be replaced with {@link #register}, e.g. to go back to the reflective one.
+ */
+public class DocumentConverters {
+
+    private static final Map<Class<?>, ComplexTypeConverter<?, Document>> converters = new ConcurrentHashMap<>();
+
+    static {
+        register(File.class, new DocumentToFileConverter());
+        register(Sample.class, new DocumentToSampleConverter());
+        register(Study.class, new DocumentToStudyConverter());
+        register(Job.class, new DocumentToJobConverter());
+        register(Cohort.class, new DocumentToCohortConverter());
+        register(Dataset.class, new DocumentToDatasetConverter());
+        register(AnnotationSet.class, new DocumentToAnnotationSetConverter());
+        register(Acl.class, new DocumentToAclConverter());
+    }
+
+    public static <T> void register(Class<T> clazz, ComplexTypeConverter<T, Document> converter) {
+        converters.put(clazz, converter);
+    }
+
+    public static <T> ComplexTypeConverter<T, Document> get(Class<T> clazz) {
+        ComplexTypeConverter<?, Document> converter = converters.get(clazz);
+        if (converter == null) {
+            converter = new ReflectiveDocumentConverter<>(clazz);
+            converters.put(clazz, converter);
+        }
+        return (ComplexTypeConverter<T, Document>) converter;
+    }
+}
@@ -0,0 +1,25 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import org.bson.Document;
+import org.opencb.opencga.catalog.beans.Acl;
+
+/**
+ * Converts {@link Acl} to and from Mongo Documents.
+ */
+public class DocumentToAclConverter extends AbstractDocumentConverter<Acl> {
+
+    @Override
+    public Acl convertToDataModelType(Document document) {
+        return new Acl(getString(document, "userId"), getBoolean(document, "read"), getBoolean(document, "write"),
+                getBoolean(document, "execute"), getBoolean(document, "delete"));
+    }
+
+    @Override
+    public Document convertToStorageType(Acl acl) {
+        return new Document("userId", acl.getUserId())
+                .append("read", acl.isRead())
+                .append("write", acl.isWrite())
+                .append("execute", acl.isExecute())
+                .append("delete", acl.isDelete());
+    }
+}
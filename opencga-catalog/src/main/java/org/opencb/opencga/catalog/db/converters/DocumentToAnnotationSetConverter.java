@@ -0,0 +1,51 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import org.bson.Document;
+import org.opencb.opencga.catalog.beans.Annotation;
+import org.opencb.opencga.catalog.beans.AnnotationSet;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Converts {@link AnnotationSet} to and from Mongo Documents.
+ */
+public class DocumentToAnnotationSetConverter extends AbstractDocumentConverter<AnnotationSet> {
+
+    @Override
+    public AnnotationSet convertToDataModelType(Document document) {
+        AnnotationSet annotationSet = new AnnotationSet();
+        annotationSet.setId(getString(document, "id"));
+        annotationSet.setVariableSetId(getInt(document, "variableSetId"));
+        List<?> annotations = (List<?>) document.get("annotations");
+        if (annotations != null) {
+            Set<Annotation> annotationSetAnnotations = new HashSet<>(annotations.size());
+            for (Object o : annotations) {
+                Document annotation = (Document) o;
+                annotationSetAnnotations.add(new Annotation(getString(annotation, "id"), toDataModelValue(annotation.get("value"))));
+            }
+            annotationSet.setAnnotations(annotationSetAnnotations);
+        }
+        annotationSet.setDate(getString(document, "date"));
+        annotationSet.setAttributes(getMap(document, "attributes"));
+        return annotationSet;
+    }
+
+    @Override
+    public Document convertToStorageType(AnnotationSet annotationSet) {
+        List<Document> annotations = null;
+        if (annotationSet.getAnnotations() != null) {
+            annotations = new ArrayList<>(annotationSet.getAnnotations().size());
+            for (Annotation annotation : annotationSet.getAnnotations()) {
+                annotations.add(new Document("id", annotation.getId()).append("value", toStorageValue(annotation.getValue())));
+            }
+        }
+        return new Document("id", annotationSet.getId())
+                .append("variableSetId", annotationSet.getVariableSetId())
+                .append("annotations", annotations)
+                .append("date", annotationSet.getDate())
+                .append("attributes", toStorageValue(annotationSet.getAttributes()));
+    }
+}
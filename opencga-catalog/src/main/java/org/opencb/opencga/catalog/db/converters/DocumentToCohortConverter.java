@@ -0,0 +1,32 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import org.bson.Document;
+import org.opencb.opencga.catalog.beans.Cohort;
+
+/**
+ * Converts {@link Cohort} to and from Mongo Documents.
+ */
+public class DocumentToCohortConverter extends AbstractDocumentConverter<Cohort> {
+
+    @Override
+    public Cohort convertToDataModelType(Document document) {
+        Cohort cohort = new Cohort();
+        cohort.setId(getInt(document, "id"));
+        cohort.setName(getString(document, "name"));
+        cohort.setCreationDate(getString(document, "creationDate"));
+        cohort.setDescription(getString(document, "description"));
+        cohort.setSamples(getIntegerList(document, "samples"));
+        cohort.setAttributes(getMap(document, "attributes"));
+        return cohort;
+    }
+
+    @Override
+    public Document convertToStorageType(Cohort cohort) {
+        return new Document("id", cohort.getId())
+                .append("name", cohort.getName())
+                .append("creationDate", cohort.getCreationDate())
+                .append("description", cohort.getDescription())
+                .append("samples", cohort.getSamples())
+                .append("attributes", toStorageValue(cohort.getAttributes()));
+    }
+}
@@ -0,0 +1,32 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import org.bson.Document;
+import org.opencb.opencga.catalog.beans.Dataset;
+
+/**
+ * Converts {@link Dataset} to and from Mongo Documents.
+ */
+public class DocumentToDatasetConverter extends AbstractDocumentConverter<Dataset> {
+
+    @Override
+    public Dataset convertToDataModelType(Document document) {
+        Dataset dataset = new Dataset();
+        dataset.setId(getInt(document, "id"));
+        dataset.setName(getString(document, "name"));
+        dataset.setCreationDate(getString(document, "creationDate"));
+        dataset.setDescription(getString(document, "description"));
+        dataset.setFiles(getIntegerList(document, "files"));
+        dataset.setAttributes(getMap(document, "attributes"));
+        return dataset;
+    }
+
+    @Override
+    public Document convertToStorageType(Dataset dataset) {
+        return new Document("id", dataset.getId())
+                .append("name", dataset.getName())
+                .append("creationDate", dataset.getCreationDate())
+                .append("description", dataset.getDescription())
+                .append("files", dataset.getFiles())
+                .append("attributes", toStorageValue(dataset.getAttributes()));
+    }
+}
@@ -0,0 +1,56 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import org.bson.Document;
+import org.opencb.opencga.catalog.beans.Acl;
+import org.opencb.opencga.catalog.beans.File;
+
+/**
+ * Converts {@link File} to and from Mongo Documents. ACLs are converted with the converter registered in
+ * {@link DocumentConverters}.
+ */
+public class DocumentToFileConverter extends AbstractDocumentConverter<File> {
+
+    @Override
+    public File convertToDataModelType(Document document) {
+        File file = new File();
+        file.setId(getInt(document, "id"));
+        file.setName(getString(document, "name"));
+        file.setType(getEnum(document, "type", File.Type.class));
+        file.setFormat(getEnum(document, "format", File.Format.class));
+        file.setBioformat(getEnum(document, "bioformat", File.Bioformat.class));
+        file.setPath(getString(document, "path"));
+        file.setOwnerId(getString(document, "ownerId"));
+        file.setCreationDate(getString(document, "creationDate"));
+        file.setDescription(getString(document, "description"));
+        file.setStatus(getEnum(document, "status", File.Status.class));
+        file.setDiskUsage(getLong(document, "diskUsage"));
+        file.setExperimentId(getInt(document, "experimentId"));
+        file.setSampleIds(getIntegerList(document, "sampleIds"));
+        file.setJobId(getInt(document, "jobId"));
+        file.setAcl(getList(document, "acl", DocumentConverters.get(Acl.class)));
+        file.setStats(getMap(document, "stats"));
+        file.setAttributes(getMap(document, "attributes"));
+        return file;
+    }
+
+    @Override
+    public Document convertToStorageType(File file) {
+        return new Document("id", file.getId())
+                .append("name", file.getName())
+                .append("type", toStorageValue(file.getType()))
+                .append("format", toStorageValue(file.getFormat()))
+                .append("bioformat", toStorageValue(file.getBioformat()))
+                .append("path", file.getPath())
+                .append("ownerId", file.getOwnerId())
+                .append("creationDate", file.getCreationDate())
+                .append("description", file.getDescription())
+                .append("status", toStorageValue(file.getStatus()))
+                .append("diskUsage", file.getDiskUsage())
+                .append("experimentId", file.getExperimentId())
+                .append("sampleIds", file.getSampleIds())
+                .append("jobId", file.getJobId())
+                .append("acl", toStorageList(file.getAcl(), DocumentConverters.get(Acl.class)))
+                .append("stats", toStorageValue(file.getStats()))
+                .append("attributes", toStorageValue(file.getAttributes()));
+    }
+}
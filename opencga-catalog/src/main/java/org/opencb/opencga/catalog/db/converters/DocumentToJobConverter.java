@@ -0,0 +1,60 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import org.bson.Document;
+import org.opencb.opencga.catalog.beans.Job;
+
+/**
+ * Converts {@link Job} to and from Mongo Documents.
+ */
+public class DocumentToJobConverter extends AbstractDocumentConverter<Job> {
+
+    @Override
+    public Job convertToDataModelType(Document document) {
+        Job job = new Job();
+        job.setId(getInt(document, "id"));
+        job.setName(getString(document, "name"));
+        job.setUserId(getString(document, "userId"));
+        job.setToolName(getString(document, "toolName"));
+        job.setDate(getString(document, "date"));
+        job.setDescription(getString(document, "description"));
+        job.setStartTime(getLong(document, "startTime"));
+        job.setEndTime(getLong(document, "endTime"));
+        job.setOutputError(getString(document, "outputError"));
+        job.setCommandLine(getString(document, "commandLine"));
+        job.setVisits(getInt(document, "visits"));
+        job.setStatus(getEnum(document, "status", Job.Status.class));
+        job.setDiskUsage(getLong(document, "diskUsage"));
+        job.setOutDirId(getInt(document, "outDirId"));
+        job.setTmpOutDirUri(getUri(document, "tmpOutDirUri"));
+        job.setInput(getIntegerList(document, "input"));
+        job.setOutput(getIntegerList(document, "output"));
+        job.setTags(getStringList(document, "tags"));
+        job.setAttributes(getMap(document, "attributes"));
+        job.setResourceManagerAttributes(getMap(document, "resourceManagerAttributes"));
+        return job;
+    }
+
+    @Override
+    public Document convertToStorageType(Job job) {
+        return new Document("id", job.getId())
+                .append("name", job.getName())
+                .append("userId", job.getUserId())
+                .append("toolName", job.getToolName())
+                .append("date", job.getDate())
+                .append("description", job.getDescription())
+                .append("startTime", job.getStartTime())
+                .append("endTime", job.getEndTime())
+                .append("outputError", job.getOutputError())
+                .append("commandLine", job.getCommandLine())
+                .append("visits", job.getVisits())
+                .append("status", toStorageValue(job.getStatus()))
+                .append("diskUsage", job.getDiskUsage())
+                .append("outDirId", job.getOutDirId())
+                .append("tmpOutDirUri", toStorageValue(job.getTmpOutDirUri()))
+                .append("input", job.getInput())
+                .append("output", job.getOutput())
+                .append("tags", job.getTags())
+                .append("attributes", toStorageValue(job.getAttributes()))
+                .append("resourceManagerAttributes", toStorageValue(job.getResourceManagerAttributes()));
+    }
+}
@@ -0,0 +1,40 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import org.bson.Document;
+import org.opencb.opencga.catalog.beans.AnnotationSet;
+import org.opencb.opencga.catalog.beans.Individual;
+import org.opencb.opencga.catalog.beans.Sample;
+
+/**
+ * Converts {@link Sample} to and from Mongo Documents. Nested beans are converted with the converters registered
+ * in {@link DocumentConverters}.
+ */
+public class DocumentToSampleConverter extends AbstractDocumentConverter<Sample> {
+
+    @Override
+    public Sample convertToDataModelType(Document document) {
+        Sample sample = new Sample();
+        sample.setId(getInt(document, "id"));
+        sample.setName(getString(document, "name"));
+        sample.setSource(getString(document, "source"));
+        Document individual = (Document) document.get("individual");
+        if (individual != null) {
+            sample.setIndividual(DocumentConverters.get(Individual.class).convertToDataModelType(individual));
+        }
+        sample.setDescription(getString(document, "description"));
+        sample.setAnnotationSets(getList(document, "annotationSets", DocumentConverters.get(AnnotationSet.class)));
+        sample.setAttributes(getMap(document, "attributes"));
+        return sample;
+    }
+
+    @Override
+    public Document convertToStorageType(Sample sample) {
+        return new Document("id", sample.getId())
+                .append("name", sample.getName())
+                .append("source", sample.getSource())
+                .append("individual", toStorageValue(sample.getIndividual()))
+                .append("description", sample.getDescription())
+                .append("annotationSets", toStorageList(sample.getAnnotationSets(), DocumentConverters.get(AnnotationSet.class)))
+                .append("attributes", toStorageValue(sample.getAttributes()));
+    }
+}
@@ -0,0 +1,67 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import org.bson.Document;
+import org.opencb.opencga.catalog.beans.*;
+
+/**
+ * Converts {@link Study} to and from Mongo Documents.
+ *
+ *  Nested beans are converted with the converter registered for their class in {@link DocumentConverters}, looked up
+ *  on every conversion so that converters replaced with {@link DocumentConverters#register} are used.
+ */
+public class DocumentToStudyConverter extends AbstractDocumentConverter<Study> {
+
+    @Override
+    public Study convertToDataModelType(Document document) {
+        Study study = new Study();
+        study.setId(getInt(document, "id"));
+        study.setName(getString(document, "name"));
+        study.setAlias(getString(document, "alias"));
+        study.setType(getEnum(document, "type", Study.Type.class));
+        study.setCreatorId(getString(document, "creatorId"));
+        study.setCreationDate(getString(document, "creationDate"));
+        study.setDescription(getString(document, "description"));
+        study.setStatus(getString(document, "status"));
+        study.setLastActivity(getString(document, "lastActivity"));
+        study.setDiskUsage(getLong(document, "diskUsage"));
+        study.setCipher(getString(document, "cipher"));
+        study.setAcl(getList(document, "acl", DocumentConverters.get(Acl.class)));
+        study.setExperiments(getList(document, "experiments", DocumentConverters.get(Experiment.class)));
+        study.setFiles(getList(document, "files", DocumentConverters.get(File.class)));
+        study.setJobs(getList(document, "jobs", DocumentConverters.get(Job.class)));
+        study.setSamples(getList(document, "samples", DocumentConverters.get(Sample.class)));
+        study.setDatasets(getList(document, "datasets", DocumentConverters.get(Dataset.class)));
+        study.setCohorts(getList(document, "cohorts", DocumentConverters.get(Cohort.class)));
+        study.setVariableSets(getList(document, "variableSets", DocumentConverters.get(VariableSet.class)));
+        study.setUri(getUri(document, "uri"));
+        study.setStats(getMap(document, "stats"));
+        study.setAttributes(getMap(document, "attributes"));
+        return study;
+    }
+
+    @Override
+    public Document convertToStorageType(Study study) {
+        return new Document("id", study.getId())
+                .append("name", study.getName())
+                .append("alias", study.getAlias())
+                .append("type", toStorageValue(study.getType()))
+                .append("creatorId", study.getCreatorId())
+                .append("creationDate", study.getCreationDate())
+                .append("description", study.getDescription())
+                .append("status", study.getStatus())
+                .append("lastActivity", study.getLastActivity())
+                .append("diskUsage", study.getDiskUsage())
+                .append("cipher", study.getCipher())
+                .append("acl", toStorageList(study.getAcl(), DocumentConverters.get(Acl.class)))
+                .append("experiments", toStorageList(study.getExperiments(), DocumentConverters.get(Experiment.class)))
+                .append("files", toStorageList(study.getFiles(), DocumentConverters.get(File.class)))
+                .append("jobs", toStorageList(study.getJobs(), DocumentConverters.get(Job.class)))
+                .append("samples", toStorageList(study.getSamples(), DocumentConverters.get(Sample.class)))
+                .append("datasets", toStorageList(study.getDatasets(), DocumentConverters.get(Dataset.class)))
+                .append("cohorts", toStorageList(study.getCohorts(), DocumentConverters.get(Cohort.class)))
+                .append("variableSets", toStorageList(study.getVariableSets(), DocumentConverters.get(VariableSet.class)))
+                .append("uri", toStorageValue(study.getUri()))
+                .append("stats", toStorageValue(study.getStats()))
+                .append("attributes", toStorageValue(study.getAttributes()));
+    }
+}
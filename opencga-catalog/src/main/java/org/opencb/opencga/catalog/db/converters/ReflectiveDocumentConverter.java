@@ -0,0 +1,41 @@
+package org.opencb.opencga.catalog.db.converters;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+
+import java.util.Map;
+
+/**
+ * Converts any bean with Jackson, through an intermediate map. Used for the classes without a specific converter.
+ */
+public class ReflectiveDocumentConverter<T> extends AbstractDocumentConverter<T> {
+
+    private static final ObjectMapper jsonObjectMapper;
+
+    static {
+        jsonObjectMapper = new ObjectMapper();
+        jsonObjectMapper.configure(DeserializationFeature.FAIL_ON_IGNORED_PROPERTIES, false);
+        jsonObjectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        jsonObjectMapper.configure(DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES, false);
+    }
+
+    private final Class<T> clazz;
+
+    public ReflectiveDocumentConverter(Class<T> clazz) {
+        this.clazz = clazz;
+    }
+
+    @Override
+    public T convertToDataModelType(Document document) {
+        Map<String, Object> map = (Map<String, Object>) toDataModelValue(document);
+        map.remove("_id");
+        return jsonObjectMapper.convertValue(map, clazz);
+    }
+
+    @Override
+    public Document convertToStorageType(T object) {
+        Map<String, Object> map = jsonObjectMapper.convertValue(object, Map.class);
+        return (Document) toStorageValue(map);
+    }
+}
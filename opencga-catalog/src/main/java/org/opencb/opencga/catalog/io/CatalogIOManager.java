@@ -459,8 +459,20 @@ public abstract class CatalogIOManager {
     public abstract DataInputStream getFileObject(URI fileUri ,int start, int limit)
             throws CatalogIOManagerException, IOException;
 
+    public DataInputStream getGrepFileObject(URI studyUri, String objectId,
+                                             String pattern, boolean ignoreCase, boolean multi)
+            throws CatalogIOManagerException, IOException {
+        return getGrepFileObject(studyUri, objectId, pattern, ignoreCase, multi ? -1 : 1);
+    }
+
+    /**
+     * Lines of the file matching the pattern. Implementations should stream the matches lazily, and stop reading
+     * the file once the limit is reached.
+     *
+     * @param limit Maximum number of matching lines. Negative for no limit
+     */
     public abstract DataInputStream getGrepFileObject(URI studyUri, String objectId,
-                                                      String pattern, boolean ignoreCase, boolean multi)
+                                                      String pattern, boolean ignoreCase, int limit)
             throws CatalogIOManagerException, IOException;
 //
 //    public abstract DataInputStream getFileFromJob(Path jobPath, String filename, String zip)
@@ -474,6 +486,21 @@ public abstract class CatalogIOManager {
 
     public abstract String calculateChecksum(URI file) throws CatalogIOManagerException;
 
+    /**
+     * Copies a file and returns the checksum of the copied data.
+     * Implementations should compute the checksum while copying, reading the source only once.
+     *
+     * @param source    Source file
+     * @param target    Target file
+     * @return          Checksum of the target file
+     * @throws IOException
+     * @throws CatalogIOManagerException
+     */
+    public String copyFileAndCalculateChecksum(URI source, URI target) throws IOException, CatalogIOManagerException {
+        copyFile(source, target);
+        return calculateChecksum(target);
+    }
+
     public abstract List<URI> listFiles(URI directory) throws CatalogIOManagerException, IOException;
 
     public abstract long getFileSize(URI file) throws CatalogIOManagerException;
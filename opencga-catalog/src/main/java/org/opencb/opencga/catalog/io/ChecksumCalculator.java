@@ -0,0 +1,127 @@
+package org.opencb.opencga.catalog.io;
+
+import org.opencb.opencga.lib.common.StringUtils;
+import org.opencb.opencga.lib.tools.accession.LRUCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * In-process MD5 calculator for local files.
+ *
+ * Checksums are cached by (path, size, last modified time), so a file is only hashed again once it changes.
+ * Files can also be hashed while they are copied, reading the data only once.
+ */
+public class ChecksumCalculator {
+
+    public static final String CHECKSUM_CACHE_SIZE = "OPENCGA.CATALOG.CHECKSUM.CACHE_SIZE";
+    public static final int DEFAULT_CHECKSUM_CACHE_SIZE = 100000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static Logger logger = LoggerFactory.getLogger(ChecksumCalculator.class);
+
+    private final Map<Path, CachedChecksum> cache;
+
+    public ChecksumCalculator(Properties properties) {
+        int cacheSize = Integer.parseInt(properties.getProperty(CHECKSUM_CACHE_SIZE,
+                Integer.toString(DEFAULT_CHECKSUM_CACHE_SIZE)));
+        this.cache = Collections.synchronizedMap(new LRUCache<Path, CachedChecksum>(cacheSize));
+    }
+
+    /**
+     * Returns the MD5 of a file, reusing the cached value if the file has not changed.
+     *
+     * @param path  File to hash
+     * @return      Hex encoded MD5
+     * @throws IOException
+     */
+    public String calculate(Path path) throws IOException {
+        path = path.toAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        CachedChecksum cached = cache.get(path);
+        if (cached != null && cached.matches(attributes)) {
+            return cached.checksum;
+        }
+
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream is = Files.newInputStream(path)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        String checksum = StringUtils.bytes2String(digest.digest());
+        cache.put(path, new CachedChecksum(attributes, checksum));
+        return checksum;
+    }
+
+    /**
+     * Copies a file and calculates its MD5 in the same pass. The checksum is cached for the target.
+     *
+     * @param source    Source file
+     * @param target    Target file. Will be replaced if exists.
+     * @return          Hex encoded MD5 of the copied data
+     * @throws IOException
+     */
+    public String copy(Path source, Path target) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Path tmpTarget = target.resolveSibling(target.getFileName() + ".tmp");
+        try (InputStream is = Files.newInputStream(source);
+             OutputStream os = Files.newOutputStream(tmpTarget)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                os.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpTarget);
+            throw e;
+        }
+        Files.move(tmpTarget, target, StandardCopyOption.REPLACE_EXISTING);
+
+        String checksum = StringUtils.bytes2String(digest.digest());
+        Path absoluteTarget = target.toAbsolutePath();
+        cache.put(absoluteTarget, new CachedChecksum(Files.readAttributes(absoluteTarget, BasicFileAttributes.class), checksum));
+        logger.debug("Copied {} to {} with checksum {}", source, target, checksum);
+        return checksum;
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static class CachedChecksum {
+        private final long size;
+        private final long lastModified;
+        private final String checksum;
+
+        CachedChecksum(BasicFileAttributes attributes, String checksum) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.checksum = checksum;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+}
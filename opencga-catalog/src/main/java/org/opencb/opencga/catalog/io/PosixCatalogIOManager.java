@@ -22,6 +22,7 @@ public class PosixCatalogIOManager extends CatalogIOManager {
     protected static Logger logger = LoggerFactory.getLogger(PosixCatalogIOManager.class);
     protected static ObjectMapper jsonObjectMapper;
     protected static ObjectWriter jsonObjectWriter;
+    private ChecksumCalculator checksumCalculator;
 
 
     public PosixCatalogIOManager(String propertiesFile) throws CatalogIOManagerException {
@@ -38,6 +39,7 @@ public class PosixCatalogIOManager extends CatalogIOManager {
         if (!rootDir.getScheme().equals("file")) {
             throw new CatalogIOManagerException("wrong posix file system in catalog.properties: " + rootDir);
         }
+        this.checksumCalculator = new ChecksumCalculator(properties);
     }
 
     /**********************
@@ -491,11 +493,11 @@ public class PosixCatalogIOManager extends CatalogIOManager {
 
     @Override
     public DataInputStream getGrepFileObject(URI studyUri, String objectId,
-                                             String pattern, boolean ignoreCase, boolean multi) throws CatalogIOManagerException, IOException {
+                                             String pattern, boolean ignoreCase, int limit) throws CatalogIOManagerException, IOException {
         URI fileUri = getFileUri(studyUri, objectId);
         Path path = Paths.get(fileUri);
         if (Files.isRegularFile(path)) {
-            return new DataInputStream(IOUtils.grepFile(path, pattern, ignoreCase, multi));
+            return new DataInputStream(IOUtils.grepFile(path, pattern, ignoreCase, limit));
         } else {
             throw new CatalogIOManagerException("Not a regular file: " + path.toAbsolutePath().toString());
         }
@@ -503,27 +505,22 @@ public class PosixCatalogIOManager extends CatalogIOManager {
 
     @Override
     public String calculateChecksum(URI file) throws CatalogIOManagerException {
-        String checksum;
+        checkUriScheme(file);
         try {
-            String[] command = {"md5sum", file.getPath()};
-            logger.info("command = {} {}", command[0], command[1]);
-            Process p = Runtime.getRuntime().exec(command);
-            BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            checksum = br.readLine();
-
-            if (p.waitFor() != 0) {
-                //TODO: Handle error in checksum
-                System.out.println("checksum = " + checksum);
-                br = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-                throw new CatalogIOManagerException("md5sum failed with exit value : " + p.exitValue() + ". ERROR: " + br.readLine() );
-            }
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
-            //TODO: Handle error in checksum
+            return checksumCalculator.calculate(Paths.get(file));
+        } catch (IOException e) {
             throw new CatalogIOManagerException("Checksum error in file " + file, e);
         }
+    }
 
-        return checksum.split(" ")[0];
+    @Override
+    public String copyFileAndCalculateChecksum(URI source, URI target) throws IOException, CatalogIOManagerException {
+        checkUriExists(source);
+        if("file".equals(source.getScheme()) && "file".equals(target.getScheme())) {
+            return checksumCalculator.copy(Paths.get(source), Paths.get(target));
+        } else {
+            throw new CatalogIOManagerException("Expected posix file system URIs.");
+        }
     }
 
     public List<URI> listFiles(URI directory) throws CatalogIOManagerException, IOException {
@@ -11,11 +11,14 @@ import org.opencb.commons.test.GenericTest;
 import org.opencb.datastore.core.ObjectMap;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.core.config.DataStoreServerAddress;
+import org.opencb.datastore.mongodb.MongoDBConfiguration;
 import org.opencb.datastore.mongodb.MongoDataStore;
 import org.opencb.datastore.mongodb.MongoDataStoreManager;
 import org.opencb.opencga.catalog.beans.*;
 import org.opencb.opencga.catalog.beans.File;
 import org.opencb.opencga.catalog.db.CatalogDBException;
+import org.opencb.opencga.catalog.db.CatalogMongoDBAdaptor;
 import org.opencb.opencga.catalog.io.CatalogIOManagerException;
 import org.opencb.opencga.lib.common.StringUtils;
 import org.opencb.opencga.lib.common.TimeUtils;
@@ -49,6 +52,18 @@ public class CatalogManagerTest extends GenericTest {
         catalogManager.createUser("user", "User Name", "mail@ebi.ac.uk", PASSWORD, "", null);
         catalogManager.createUser("user2", "User2 Name", "mail2@ebi.ac.uk", PASSWORD, "", null);
         catalogManager.createUser("user3", "User3 Name", "email3", PASSWORD, "ACME", null);
+
+        //Create ADMIN
+        catalogManager.createUser("admin", "Admin Name", "admin@ebi.ac.uk", PASSWORD, "", null);
+        MongoDBConfiguration mongoDBConfiguration = MongoDBConfiguration.builder()
+                .add("username", properties.getProperty(CatalogManager.CATALOG_DB_USER, ""))
+                .add("password", properties.getProperty(CatalogManager.CATALOG_DB_PASSWORD, ""))
+                .add("authenticationDatabase", properties.getProperty(CatalogManager.CATALOG_DB_AUTHENTICATION_DB, ""))
+                .build();
+        DataStoreServerAddress dataStoreServerAddress = new DataStoreServerAddress(
+                properties.getProperty(CatalogManager.CATALOG_DB_HOSTS).split(",")[0], 27017);
+        new CatalogMongoDBAdaptor(Arrays.asList(dataStoreServerAddress), mongoDBConfiguration,
+                properties.getProperty(CatalogManager.CATALOG_DB_DATABASE, "")).modifyUser("admin", new ObjectMap("role", User.Role.ADMIN));
         List<ObjectMap> result;
         String session;
         try {
@@ -486,6 +501,80 @@ public class CatalogManagerTest extends GenericTest {
         }
     }
 
+    @Test
+    public void testCreateFiles() throws CatalogException, IOException {
+        int projectId = catalogManager.getAllProjects("user", null, sessionIdUser).getResult().get(0).getId();
+        int studyId = catalogManager.getAllStudies(projectId, null, sessionIdUser).getResult().get(0).getId();
+
+        List<String> paths = Arrays.asList("data/batch/file_0.txt", "data/batch/file_1.txt", "data/batch/sub/file_2.txt");
+        List<File> files = catalogManager.createFiles(studyId, File.Format.PLAIN, File.Bioformat.NONE, paths, "", true, -1,
+                sessionIdUser).getResult();
+        assertEquals(paths.size(), files.size());
+        for (int i = 0; i < paths.size(); i++) {
+            File file = files.get(i);
+            assertEquals(paths.get(i), file.getPath());
+            assertEquals(File.Status.UPLOADING, file.getStatus());
+            assertEquals(file.getId(), catalogManager.getFileId("user@p1:s1:" + paths.get(i)));
+        }
+        assertEquals(paths.size(), new HashSet<>(Arrays.asList(files.get(0).getId(), files.get(1).getId(), files.get(2).getId())).size());
+
+        //Duplicated path in the batch. Nothing is created, not even the parent folder
+        try {
+            catalogManager.createFiles(studyId, null, null, Arrays.asList("data/batch_dup/file.txt", "data/batch_dup/file.txt"), "", true, -1,
+                    sessionIdUser);
+            fail("Expected 'duplicated path' exception");
+        } catch (CatalogException e) {
+            System.out.println(e);
+        }
+        assertEquals(-1, catalogManager.getFileId("user@p1:s1:data/batch_dup/file.txt"));
+        assertEquals(-1, catalogManager.getFileId("user@p1:s1:data/batch_dup/"));
+
+        //Path already in the study. None of the files of the batch is created
+        try {
+            catalogManager.createFiles(studyId, null, null, Arrays.asList("data/batch/file_3.txt", "data/batch/file_1.txt"), "", true, -1,
+                    sessionIdUser);
+            fail("Expected 'already exists' exception");
+        } catch (CatalogException e) {
+            System.out.println(e);
+        }
+        assertEquals(-1, catalogManager.getFileId("user@p1:s1:data/batch/file_3.txt"));
+        QueryOptions query = new QueryOptions("path", "data/batch/file_1.txt");
+        assertEquals(1, catalogManager.searchFile(studyId, query, sessionIdUser).getNumResults());
+    }
+
+    @Test
+    public void testModifyFiles() throws CatalogException, IOException {
+        int projectId = catalogManager.getAllProjects("user", null, sessionIdUser).getResult().get(0).getId();
+        int studyId = catalogManager.getAllStudies(projectId, null, sessionIdUser).getResult().get(0).getId();
+        List<Integer> fileIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String path = "data/modify/file_" + i + ".txt";
+            fileIds.add(catalogManager.createFile(studyId, File.Format.PLAIN, File.Bioformat.NONE, path, path.getBytes(), "", true,
+                    sessionIdUser).getResult().get(0).getId());
+        }
+
+        //Only for admins
+        try {
+            catalogManager.modifyFiles(fileIds, new ObjectMap("status", File.Status.DELETED), sessionIdUser);
+            fail("Expected 'permission denied' exception");
+        } catch (CatalogException e) {
+            System.out.println(e);
+        }
+        for (Integer fileId : fileIds) {
+            assertEquals(File.Status.READY, catalogManager.getFile(fileId, sessionIdUser).getResult().get(0).getStatus());
+        }
+
+        String sessionIdAdmin = catalogManager.login("admin", PASSWORD, "127.0.0.1").getResult().get(0).getString("sessionId");
+        try {
+            catalogManager.modifyFiles(fileIds.subList(0, 2), new ObjectMap("status", File.Status.DELETED), sessionIdAdmin);
+        } finally {
+            catalogManager.logout("admin", sessionIdAdmin);
+        }
+        assertEquals(File.Status.DELETED, catalogManager.getFile(fileIds.get(0), sessionIdUser).getResult().get(0).getStatus());
+        assertEquals(File.Status.DELETED, catalogManager.getFile(fileIds.get(1), sessionIdUser).getResult().get(0).getStatus());
+        assertEquals(File.Status.READY, catalogManager.getFile(fileIds.get(2), sessionIdUser).getResult().get(0).getStatus());
+    }
+
     @Test
     public void testDeleteFolder () throws CatalogException, IOException {
         int deletable = catalogManager.getFileId("user@1000G/phase1/data/deletable/");
@@ -576,6 +665,27 @@ public class CatalogManagerTest extends GenericTest {
 
     }
 
+    @Test
+    public void testCreateSamples () throws CatalogException {
+        int projectId = catalogManager.getAllProjects("user", null, sessionIdUser).getResult().get(0).getId();
+        int studyId = catalogManager.getAllStudies(projectId, null, sessionIdUser).getResult().get(0).getId();
+
+        List<String> names = Arrays.asList("NA001", "NA002", "NA003");
+        QueryResult<Sample> sampleQueryResult = catalogManager.createSamples(studyId, names, "file.vcf", "", null, sessionIdUser);
+        assertEquals(names.size(), sampleQueryResult.getNumResults());
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(names.get(i), sampleQueryResult.getResult().get(i).getName());
+        }
+
+        try {
+            catalogManager.createSamples(studyId, Arrays.asList("NA004", "NA001"), "file.vcf", "", null, sessionIdUser);
+            fail("Expected CatalogException: sample NA001 already exists");
+        } catch (CatalogException e) {
+            System.out.println("e = " + e);
+        }
+        assertTrue(catalogManager.getAllSamples(studyId, new QueryOptions("name", "NA004"), sessionIdUser).getResult().isEmpty());
+    }
+
     @Test
     public void testCreateVariableSet () throws CatalogException {
         int projectId = catalogManager.getAllProjects("user", null, sessionIdUser).getResult().get(0).getId();
@@ -626,6 +736,85 @@ public class CatalogManagerTest extends GenericTest {
 
     }
 
+    @Test
+    public void testDeleteVariableSet() throws CatalogException {
+        int projectId = catalogManager.getAllProjects("user", null, sessionIdUser).getResult().get(0).getId();
+        int studyId = catalogManager.getAllStudies(projectId, null, sessionIdUser).getResult().get(0).getId();
+        Set<Variable> variables = Collections.singleton(
+                new Variable("NAME", "", Variable.VariableType.TEXT, "", true, Collections.<String>emptyList(), 0, "", "", Collections.<String, Object>emptyMap()));
+
+        //In use
+        int usedId = catalogManager.createVariableSet(studyId, "vsUsed", true, "", null, variables, sessionIdUser).getResult().get(0).getId();
+        int sampleId = catalogManager.createSample(studyId, "VS_SAMPLE", "", "", null, null, sessionIdUser).getResult().get(0).getId();
+        catalogManager.annotateSample(sampleId, "annotation", usedId, Collections.<String, Object>singletonMap("NAME", "Leia"), null, sessionIdUser);
+        try {
+            catalogManager.deleteVariableSet(usedId, sessionIdUser);
+            fail("A VariableSet in use must not be deleted");
+        } catch (CatalogDBException e) {
+            System.out.println("e = " + e);
+        }
+        assertEquals(usedId, catalogManager.getVariableSet(usedId, null, sessionIdUser).getResult().get(0).getId());
+
+        //Unused. The cached validator is discarded
+        int unusedId = catalogManager.createVariableSet(studyId, "vsUnused", true, "", null, variables, sessionIdUser).getResult().get(0).getId();
+        assertNotNull(catalogManager.getVariableSetValidator(unusedId));
+        catalogManager.deleteVariableSet(unusedId, sessionIdUser);
+        try {
+            catalogManager.getVariableSetValidator(unusedId);
+            fail("The validator of a deleted VariableSet must not be cached");
+        } catch (CatalogException e) {
+            System.out.println("e = " + e);
+        }
+    }
+
+    @Test
+    public void testDeleteVariableSetFromOtherCatalogManager() throws Exception {
+        int projectId = catalogManager.getAllProjects("user", null, sessionIdUser).getResult().get(0).getId();
+        int studyId = catalogManager.getAllStudies(projectId, null, sessionIdUser).getResult().get(0).getId();
+        Set<Variable> variables = Collections.singleton(
+                new Variable("NAME", "", Variable.VariableType.TEXT, "", true, Collections.<String>emptyList(), 0, "", "", Collections.<String, Object>emptyMap()));
+        int variableSetId = catalogManager.createVariableSet(studyId, "vsOther", true, "", null, variables, sessionIdUser).getResult().get(0).getId();
+        int sampleId = catalogManager.createSample(studyId, "VS_OTHER_SAMPLE", "", "", null, null, sessionIdUser).getResult().get(0).getId();
+        assertNotNull(catalogManager.getVariableSetValidator(variableSetId));
+
+        Properties properties = new Properties();
+        properties.load(CatalogManagerTest.class.getClassLoader().getResourceAsStream("catalog.properties"));
+        new CatalogManager(properties).deleteVariableSet(variableSetId, sessionIdUser);
+
+        //The validator is still cached, but the sample is not annotated with the deleted VariableSet
+        try {
+            catalogManager.annotateSample(sampleId, "annotation", variableSetId, Collections.<String, Object>singletonMap("NAME", "Leia"), null, sessionIdUser);
+            fail("A deleted VariableSet must not be used");
+        } catch (CatalogDBException e) {
+            System.out.println("e = " + e);
+        }
+        assertTrue(catalogManager.getSample(sampleId, null, sessionIdUser).getResult().get(0).getAnnotationSets().isEmpty());
+        try {
+            catalogManager.getVariableSetValidator(variableSetId);
+            fail("The validator of a deleted VariableSet must not be cached");
+        } catch (CatalogException e) {
+            System.out.println("e = " + e);
+        }
+    }
+
+    @Test
+    public void testGetAllSamplesByNumericAnnotation() throws CatalogException {
+        int projectId = catalogManager.getAllProjects("user", null, sessionIdUser).getResult().get(0).getId();
+        int studyId = catalogManager.getAllStudies(projectId, null, sessionIdUser).getResult().get(0).getId();
+        Set<Variable> variables = Collections.singleton(
+                new Variable("AGE", "", Variable.VariableType.NUMERIC, null, true, Collections.<String>emptyList(), 0, "", "", Collections.<String, Object>emptyMap()));
+        int variableSetId = catalogManager.createVariableSet(studyId, "vsAge", true, "", null, variables, sessionIdUser).getResult().get(0).getId();
+        int sampleId = catalogManager.createSample(studyId, "AGE_SAMPLE", "", "", null, null, sessionIdUser).getResult().get(0).getId();
+        catalogManager.annotateSample(sampleId, "annotation", variableSetId, Collections.<String, Object>singletonMap("AGE", "28"), null, sessionIdUser);
+
+        //Stored as 28.0
+        QueryOptions options = new QueryOptions("variableSetId", variableSetId);
+        options.put("annotation", "AGE:28");
+        List<Sample> samples = catalogManager.getAllSamples(studyId, options, sessionIdUser).getResult();
+        assertEquals(1, samples.size());
+        assertEquals(sampleId, samples.get(0).getId());
+        assertEquals("AGE:28", options.getString("annotation"));
+    }
 
     private static void clearCatalog(Properties properties) throws IOException {
         MongoDataStoreManager mongoManager = new MongoDataStoreManager(properties.getProperty("OPENCGA.CATALOG.DB.HOST"), Integer.parseInt(properties.getProperty("OPENCGA.CATALOG.DB.PORT")));
@@ -80,9 +80,31 @@ public class CatalogSampleAnnotationsLoaderTest extends GenericTest {
         validate(pedigree, variableSet);
     }
 
+    @Test
+    public void testCheckAnnotationSets() throws Exception {
+        VariableSet variableSet = loader.getVariableSetFromPedFile(pedigree);
+        CatalogSampleAnnotationsValidator.checkVariableSet(variableSet);
+
+        List<AnnotationSet> annotationSets = new ArrayList<>();
+        for (Individual individual : pedigree.getIndividuals().values()) {
+            Map<String, Object> annotation = loader.getAnnotation(individual, null, variableSet, pedigree.getFields());
+            HashSet<Annotation> annotationSet = new HashSet<>(annotation.size());
+            for (Map.Entry<String, Object> annotationEntry : annotation.entrySet()) {
+                annotationSet.add(new Annotation(annotationEntry.getKey(), annotationEntry.getValue()));
+            }
+            annotationSets.add(new AnnotationSet("", variableSet.getId(), annotationSet, "", null));
+        }
+        //Break one of them
+        annotationSets.get(1).getAnnotations().add(new Annotation("unknownVariable", "value"));
+
+        Map<Integer, CatalogException> errors = CatalogSampleAnnotationsValidator.checkAnnotationSets(variableSet, annotationSets, null, 4);
+        Assert.assertEquals(Collections.singleton(1), errors.keySet());
+    }
+
     @Test
     public void testLoadPedigreeCatalog() throws Exception {
         QueryResult<Sample> sampleQueryResult = loader.loadSampleAnnotations(pedFile, null, sessionId);
+        Assert.assertNull("Some samples were not loaded", sampleQueryResult.getErrorMsg());
         int variableSetId = sampleQueryResult.getResult().get(0).getAnnotationSets().get(0).getVariableSetId();
 
 //        int variableSetId ;//= sampleQueryResult.getResult().get(0).getAnnotationSets().get(0).getVariableSetId();
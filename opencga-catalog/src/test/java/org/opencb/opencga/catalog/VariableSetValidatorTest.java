@@ -0,0 +1,155 @@
+package org.opencb.opencga.catalog;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.commons.test.GenericTest;
+import org.opencb.opencga.catalog.beans.Annotation;
+import org.opencb.opencga.catalog.beans.AnnotationSet;
+import org.opencb.opencga.catalog.beans.Variable;
+import org.opencb.opencga.catalog.beans.VariableSet;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class VariableSetValidatorTest extends GenericTest {
+
+    private VariableSet variableSet;
+    private VariableSetValidator validator;
+
+    @Before
+    public void setUp() throws Exception {
+        Set<Variable> variables = new HashSet<>(Arrays.asList(
+                new Variable("NAME", "", Variable.VariableType.TEXT, null, true, Collections.<String>emptyList(), 0, "", "", Collections.<String, Object>emptyMap()),
+                new Variable("AGE", "", Variable.VariableType.NUMERIC, null, false, Arrays.asList("0:20", "40:99"), 1, "", "", Collections.<String, Object>emptyMap()),
+                new Variable("HEIGHT", "", Variable.VariableType.NUMERIC, "1.5", false, Collections.singletonList("0:"), 2, "", "", Collections.<String, Object>emptyMap()),
+                new Variable("ALIVE", "", Variable.VariableType.BOOLEAN, null, false, Collections.<String>emptyList(), 3, "", "", Collections.<String, Object>emptyMap()),
+                new Variable("PHEN", "", Variable.VariableType.CATEGORICAL, "CONTROL", true, Arrays.asList("CASE", "CONTROL"), 4, "", "", Collections.<String, Object>emptyMap())
+        ));
+        variableSet = new VariableSet(5, "vs", true, "", variables, Collections.<String, Object>emptyMap());
+        validator = new VariableSetValidator(variableSet);
+    }
+
+    @Test
+    public void testValid() throws Exception {
+        AnnotationSet annotationSet = annotationSet("NAME", "Luke", "AGE", "15", "ALIVE", "true", "PHEN", "CASE");
+        validator.check(annotationSet, null);
+
+        Map<String, Object> values = values(annotationSet);
+        assertEquals(15.0, values.get("AGE"));
+        assertEquals(true, values.get("ALIVE"));
+        assertEquals("CASE", values.get("PHEN"));
+        //Default value
+        assertEquals(1.5, values.get("HEIGHT"));
+        assertEquals(5, annotationSet.getAnnotations().size());
+    }
+
+    @Test
+    public void testDefaults() throws Exception {
+        AnnotationSet annotationSet = annotationSet("NAME", "Luke");
+        validator.check(annotationSet, null);
+
+        Map<String, Object> values = values(annotationSet);
+        assertEquals("CONTROL", values.get("PHEN"));
+        assertEquals(1.5, values.get("HEIGHT"));
+        assertFalse(values.containsKey("AGE"));
+        assertFalse(values.containsKey("ALIVE"));
+    }
+
+    @Test
+    public void testRequired() throws Exception {
+        checkFails(annotationSet("AGE", "15"), "is required");
+    }
+
+    @Test
+    public void testCategorical() throws Exception {
+        checkFails(annotationSet("NAME", "Luke", "PHEN", "OTHER"), "is not an allowed value");
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        validator.check(annotationSet("NAME", "Luke", "AGE", "40"), null);
+        validator.check(annotationSet("NAME", "Luke", "AGE", "99"), null);
+        validator.check(annotationSet("NAME", "Luke", "HEIGHT", "1000"), null);
+        checkFails(annotationSet("NAME", "Luke", "AGE", "30"), "is not an allowed value");
+        checkFails(annotationSet("NAME", "Luke", "AGE", "100"), "is not an allowed value");
+        checkFails(annotationSet("NAME", "Luke", "AGE", "not a number"), "");
+    }
+
+    @Test
+    public void testUnknownAndDuplicated() throws Exception {
+        checkFails(annotationSet("NAME", "Luke", "WEIGHT", "70"), "is not an accepted id");
+
+        AnnotationSet annotationSet = annotationSet("NAME", "Luke");
+        annotationSet.getAnnotations().add(new Annotation("NAME", "Leia"));
+        checkFails(annotationSet, "Duplicated annotation");
+    }
+
+    @Test
+    public void testUnique() throws Exception {
+        List<AnnotationSet> current = Collections.singletonList(annotationSet("NAME", "Luke"));
+        try {
+            validator.check(annotationSet("NAME", "Luke"), current);
+            fail();
+        } catch (CatalogException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Repeated annotation"));
+        }
+    }
+
+    @Test
+    public void testErrorOrder() throws Exception {
+        //Duplicated annotations are reported before the missing required variables
+        AnnotationSet annotationSet = annotationSet("AGE", "15");
+        annotationSet.getAnnotations().add(new Annotation("AGE", "16"));
+        checkFails(annotationSet, "Duplicated annotation");
+
+        //Missing required variables are reported before the wrong values and the unknown ids
+        checkFails(annotationSet("AGE", "30", "PHEN", "OTHER", "WEIGHT", "70"), "is required");
+    }
+
+    @Test
+    public void testSameAsStaticCheck() throws Exception {
+        AnnotationSet annotationSet1 = annotationSet("NAME", "Luke", "AGE", "50");
+        AnnotationSet annotationSet2 = annotationSet("NAME", "Luke", "AGE", "50");
+        validator.check(annotationSet1, null);
+        CatalogSampleAnnotationsValidator.checkAnnotationSet(variableSet, annotationSet2, null);
+        assertEquals(values(annotationSet1), values(annotationSet2));
+    }
+
+    @Test
+    public void testNormalizeAnnotationFilter() throws Exception {
+        assertEquals("AGE:15.0", validator.normalizeAnnotationFilter("AGE:15"));
+        assertEquals("AGE:15.0,16.5", validator.normalizeAnnotationFilter("AGE:15,16.5"));
+        assertEquals("ALIVE:true", validator.normalizeAnnotationFilter("ALIVE:1"));
+        assertEquals("PHEN:CASE", validator.normalizeAnnotationFilter("PHEN:CASE"));
+        //Left as they are
+        assertEquals("AGE:old", validator.normalizeAnnotationFilter("AGE:old"));
+        assertEquals("WEIGHT:70", validator.normalizeAnnotationFilter("WEIGHT:70"));
+        assertEquals("AGE", validator.normalizeAnnotationFilter("AGE"));
+    }
+
+    private void checkFails(AnnotationSet annotationSet, String message) {
+        try {
+            validator.check(annotationSet, null);
+            fail("Expected error '" + message + "' for " + annotationSet.getAnnotations());
+        } catch (CatalogException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private AnnotationSet annotationSet(String... keyValues) {
+        Set<Annotation> annotations = new HashSet<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            annotations.add(new Annotation(keyValues[i], keyValues[i + 1]));
+        }
+        return new AnnotationSet("annotation", variableSet.getId(), annotations, "", Collections.<String, Object>emptyMap());
+    }
+
+    private static Map<String, Object> values(AnnotationSet annotationSet) {
+        Map<String, Object> values = new HashMap<>();
+        for (Annotation annotation : annotationSet.getAnnotations()) {
+            values.put(annotation.getId(), annotation.getValue());
+        }
+        return values;
+    }
+}
@@ -14,9 +14,12 @@ import org.opencb.datastore.core.QueryResult;
 import org.opencb.datastore.core.config.DataStoreServerAddress;
 import org.opencb.datastore.mongodb.MongoDBConfiguration;
 import org.opencb.datastore.mongodb.MongoDataStore;
+import org.opencb.datastore.core.ComplexTypeConverter;
 import org.opencb.datastore.mongodb.MongoDataStoreManager;
 import org.opencb.opencga.catalog.CatalogManager;
 import org.opencb.opencga.catalog.beans.*;
+import org.opencb.opencga.catalog.db.converters.DocumentConverters;
+import org.opencb.opencga.catalog.db.converters.ReflectiveDocumentConverter;
 import org.opencb.opencga.lib.common.StringUtils;
 import org.opencb.opencga.lib.common.TimeUtils;
 
@@ -30,6 +33,7 @@ import static org.junit.Assert.*;
 public class CatalogMongoDBAdaptorTest extends GenericTest {
 
     private static CatalogDBAdaptor catalogDBAdaptor;
+    private static MongoDataStore catalogDB;
 
 //    @Rule
 //    public Timeout globalTimeout = new Timeout(2000); // 200 ms max per method tested
@@ -69,6 +73,7 @@ public class CatalogMongoDBAdaptorTest extends GenericTest {
         MongoDataStoreManager mongoManager = new MongoDataStoreManager(dataStoreServerAddress.getHost(), dataStoreServerAddress.getPort());
         MongoDataStore db = mongoManager.get(database);
         db.getDb().drop();
+        catalogDB = db;
 
         catalogDBAdaptor = new CatalogMongoDBAdaptor(Arrays.asList(dataStoreServerAddress), mongoDBConfiguration, database);
         initDefaultCatalogDB();
@@ -828,6 +833,126 @@ public class CatalogMongoDBAdaptorTest extends GenericTest {
 
 
     /////////// Other tests
+    @Test
+    public void fileDocumentConverter() {
+        File file = new File("file.vcf", File.Type.FILE, File.Format.PLAIN, File.Bioformat.VARIANT, "data/file.vcf", "jcoll", "", File.Status.READY, 1000);
+        file.setAcl(Arrays.asList(new Acl("jmmut", true, false, false, false)));
+        file.setSampleIds(Arrays.asList(1, 2, 3));
+        ObjectMap attributes = new ObjectMap("key.with.dots", new ObjectMap("inner.key", 4));
+        attributes.put("long", 12345678910L);
+        file.setAttributes(attributes);
+
+        org.bson.Document document = DocumentConverters.get(File.class).convertToStorageType(file);
+        for (String key : ((Map<String, Object>) document.get("attributes")).keySet()) {
+            assertFalse(key.contains("."));
+        }
+
+        File converted = DocumentConverters.get(File.class).convertToDataModelType(document);
+        File reflective = new ReflectiveDocumentConverter<>(File.class).convertToDataModelType(document);
+        for (File f : Arrays.asList(converted, reflective)) {
+            assertEquals(file.getPath(), f.getPath());
+            assertEquals(file.getStatus(), f.getStatus());
+            assertEquals(file.getBioformat(), f.getBioformat());
+            assertEquals(file.getDiskUsage(), f.getDiskUsage());
+            assertEquals(file.getSampleIds(), f.getSampleIds());
+            assertEquals("jmmut", f.getAcl().get(0).getUserId());
+            assertTrue(f.getAcl().get(0).isRead());
+            assertEquals(4, ((Map) f.getAttributes().get("key.with.dots")).get("inner.key"));
+            assertEquals(12345678910L, ((Number) f.getAttributes().get("long")).longValue());
+        }
+    }
+
+    @Test
+    public void registeredConverterInStudy() {
+        File file = new File();
+        file.setPath("data/file.vcf");
+        Study study = new Study();
+        study.setFiles(Collections.singletonList(file));
+
+        // Nested files use the converter registered for them
+        final ComplexTypeConverter<File, org.bson.Document> fileConverter = DocumentConverters.get(File.class);
+        DocumentConverters.register(File.class, new ComplexTypeConverter<File, org.bson.Document>() {
+            @Override
+            public File convertToDataModelType(org.bson.Document document) {
+                return fileConverter.convertToDataModelType(document);
+            }
+
+            @Override
+            public org.bson.Document convertToStorageType(File object) {
+                return fileConverter.convertToStorageType(object).append("registered", true);
+            }
+        });
+        try {
+            org.bson.Document document = DocumentConverters.get(Study.class).convertToStorageType(study);
+            org.bson.Document fileDocument = (org.bson.Document) ((List) document.get("files")).get(0);
+            assertEquals(true, fileDocument.get("registered"));
+            assertEquals("data/file.vcf", DocumentConverters.get(Study.class).convertToDataModelType(document).getFiles().get(0).getPath());
+        } finally {
+            DocumentConverters.register(File.class, fileConverter);
+        }
+    }
+
+    @Test
+    public void checkIndexes() {
+        Map<String, Set<String>> indexes = ((CatalogMongoDBAdaptor) catalogDBAdaptor).checkIndexes();
+        for (Map.Entry<String, Set<String>> entry : indexes.entrySet()) {
+            assertFalse("Query " + entry.getKey() + " without index", entry.getValue().isEmpty());
+            assertFalse("Query " + entry.getKey() + " scans the collection", entry.getValue().contains(CatalogMongoDBIndexes.COLLSCAN));
+        }
+    }
+
+    @Test
+    public void addMissingAnnotationKeyValues() throws CatalogDBException {
+        // A sample written before the annotation key-values, with an AnnotationSet added later
+        org.bson.Document legacy = new org.bson.Document("id", -10).append("annotationSets", Arrays.asList(
+                new org.bson.Document("id", "legacy").append("_annotMap", new org.bson.Document("name", "a")),
+                new org.bson.Document("id", "recent").append("_annotMap", new org.bson.Document("name", "b"))
+                        .append(CatalogMongoDBAdaptor._ANNOT_KV, Collections.singletonList("name:b"))));
+        catalogDB.getDb().getCollection(CatalogMongoDBAdaptor.SAMPLE_COLLECTION).insertOne(legacy);
+        catalogDB.getDb().getCollection("metadata").updateOne(
+                new org.bson.Document("_id", CatalogMongoDBAdaptor.METADATA_OBJECT_ID),
+                new org.bson.Document("$pull", new org.bson.Document(CatalogMongoDBAdaptor.METADATA_MIGRATIONS,
+                        CatalogMongoDBAdaptor.MIGRATION_ANNOTATION_KEY_VALUES)));
+
+        assertEquals(1, catalogDBAdaptor.runMigrations());
+        org.bson.Document sample = catalogDB.getDb().getCollection(CatalogMongoDBAdaptor.SAMPLE_COLLECTION)
+                .find(new org.bson.Document("id", -10)).first();
+        List<org.bson.Document> annotationSets = (List<org.bson.Document>) sample.get("annotationSets");
+        assertEquals(2, annotationSets.size());
+        assertEquals(Collections.singletonList("name:a"), annotationSets.get(0).get(CatalogMongoDBAdaptor._ANNOT_KV));
+        assertEquals(Collections.singletonList("name:b"), annotationSets.get(1).get(CatalogMongoDBAdaptor._ANNOT_KV));
+
+        // Recorded in the metadata, so it is not run again
+        assertEquals(0, catalogDBAdaptor.runMigrations());
+    }
+
+    @Test
+    public void markUsedVariableSets() throws CatalogDBException {
+        int studyId = catalogDBAdaptor.getStudyId(catalogDBAdaptor.getProjectId("imedina", "90G"), "ph1");
+        int usedId = catalogDBAdaptor.createVariableSet(studyId, new VariableSet(-1, "used", false, "",
+                Collections.<Variable>emptySet(), Collections.<String, Object>emptyMap())).first().getId();
+        int unusedId = catalogDBAdaptor.createVariableSet(studyId, new VariableSet(-1, "unused", false, "",
+                Collections.<Variable>emptySet(), Collections.<String, Object>emptyMap())).first().getId();
+
+        // A sample annotated before the VariableSets were flagged as used
+        org.bson.Document legacy = new org.bson.Document("id", -10).append("annotationSets", Collections.singletonList(
+                new org.bson.Document("id", "legacy").append("variableSetId", usedId)));
+        catalogDB.getDb().getCollection(CatalogMongoDBAdaptor.SAMPLE_COLLECTION).insertOne(legacy);
+        catalogDB.getDb().getCollection("metadata").updateOne(
+                new org.bson.Document("_id", CatalogMongoDBAdaptor.METADATA_OBJECT_ID),
+                new org.bson.Document("$pull", new org.bson.Document(CatalogMongoDBAdaptor.METADATA_MIGRATIONS,
+                        CatalogMongoDBAdaptor.MIGRATION_VARIABLE_SETS_IN_USE)));
+
+        assertEquals(1, catalogDBAdaptor.runMigrations());
+        catalogDBAdaptor.deleteVariableSet(unusedId);
+        try {
+            catalogDBAdaptor.deleteVariableSet(usedId);
+            fail();
+        } catch (CatalogDBException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("in use"));
+        }
+    }
+
     @Test
     public void replaceDots() {
 
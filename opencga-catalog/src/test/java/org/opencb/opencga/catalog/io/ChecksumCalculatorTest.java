@@ -0,0 +1,46 @@
+package org.opencb.opencga.catalog.io;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class ChecksumCalculatorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ChecksumCalculator checksumCalculator;
+    private Path path;
+
+    @Before
+    public void setUp() throws Exception {
+        checksumCalculator = new ChecksumCalculator(new Properties());
+        path = temporaryFolder.getRoot().toPath().resolve("checksum.txt");
+        Files.write(path, "hello world\n".getBytes());
+    }
+
+    @Test
+    public void testCalculate() throws Exception {
+        assertEquals("6f5902ac237024bdd0c176cb93063dc4", checksumCalculator.calculate(path));
+
+        //Cached checksum is discarded when the file changes
+        Files.write(path, "hello\n".getBytes());
+        assertEquals("b1946ac92492d2347c6235b4d2611184", checksumCalculator.calculate(path));
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        Path copy = path.resolveSibling("checksum_copy.txt");
+        assertEquals("6f5902ac237024bdd0c176cb93063dc4", checksumCalculator.copy(path, copy));
+        assertArrayEquals(Files.readAllBytes(path), Files.readAllBytes(copy));
+        assertFalse(Files.exists(copy.resolveSibling("checksum_copy.txt.tmp")));
+        assertEquals("6f5902ac237024bdd0c176cb93063dc4", checksumCalculator.calculate(copy));
+    }
+}
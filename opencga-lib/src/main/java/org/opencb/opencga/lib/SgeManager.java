@@ -139,87 +139,129 @@ public class SgeManager {
     }
 
     public static String status(String jobId) throws Exception {
-        String status = UNKNOWN;
+        return status(Collections.singletonList(jobId)).get(jobId);
+    }
 
-        String xml = null;
+    /**
+     * Gets the status of many jobs with a single call to qstat. Only the jobs not found in the queue
+     * are looked up in the accounting with qacct.
+     *
+     * @param jobIds    Job names, as given to queueJob
+     * @return          Status for each job id
+     * @throws Exception
+     */
+    public static Map<String, String> status(Collection<String> jobIds) throws Exception {
+        Map<String, String> queueStates;
         try {
-            Process p = Runtime.getRuntime().exec("qstat -xml");
-            StringBuilder stdOut = new StringBuilder();
-            BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
+            queueStates = parseQstat(qstat());
+        } catch (Exception e) {
+            logger.error(e.toString());
+            throw new Exception("ERROR: can't get status for jobs " + jobIds + ".");
+        }
+
+        Set<String> pending = new HashSet<>(jobIds);
+        Map<String, String> statusMap = new HashMap<>();
+        for (Map.Entry<String, String> entry : queueStates.entrySet()) {
+            String jobId = findJobId(entry.getKey(), pending);
+            if (jobId != null) {
+                String status = stateDic.get(entry.getValue());
+                statusMap.put(jobId, status == null ? UNKNOWN : status);
+            }
+        }
+
+        for (String jobId : jobIds) {
+            if (!statusMap.containsKey(jobId)) {
+                statusMap.put(jobId, qacctStatus(jobId));
+            }
+        }
+        return statusMap;
+    }
+
+    /**
+     * SGE job names are "toolName_jobId". Finds which of the requested job ids names the given job.
+     */
+    private static String findJobId(String sgeJobName, Set<String> jobIds) {
+        if (jobIds.contains(sgeJobName)) {
+            return sgeJobName;
+        }
+        for (int i = sgeJobName.indexOf('_'); i >= 0; i = sgeJobName.indexOf('_', i + 1)) {
+            String candidate = sgeJobName.substring(i + 1);
+            if (jobIds.contains(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
 
-            String aux = "";
+    private static String qstat() throws IOException {
+        Process p = Runtime.getRuntime().exec("qstat -xml");
+        StringBuilder stdOut = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            String aux;
             while ((aux = br.readLine()) != null) {
                 stdOut.append(aux);
             }
-            xml = stdOut.toString();
-            br.close();
-        } catch (Exception e) {
-            logger.error(e.toString());
-            throw new Exception("ERROR: can't get status for job " + jobId + ".");
         }
+        return stdOut.toString();
+    }
 
-        if (xml != null) {
-            try {
-                DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-                DocumentBuilder db = dbf.newDocumentBuilder();
-                Document doc = db.parse(new InputSource(new StringReader(xml)));
-                doc.getDocumentElement().normalize();
-                NodeList nodeLst = doc.getElementsByTagName("job_list");
-
-                for (int s = 0; s < nodeLst.getLength(); s++) {
-                    Node fstNode = nodeLst.item(s);
-
-                    if (fstNode.getNodeType() == Node.ELEMENT_NODE) {
-                        Element fstElmnt = (Element) fstNode;
-                        NodeList fstNmElmntLst = fstElmnt.getElementsByTagName("JB_name");
-                        Element fstNmElmnt = (Element) fstNmElmntLst.item(0);
-                        NodeList fstNm = fstNmElmnt.getChildNodes();
-                        String jobName = ((Node) fstNm.item(0)).getNodeValue();
-                        if (jobName.contains(jobId)) {
-                            NodeList lstNmElmntLst = fstElmnt.getElementsByTagName("state");
-                            Element lstNmElmnt = (Element) lstNmElmntLst.item(0);
-                            NodeList lstNm = lstNmElmnt.getChildNodes();
-                            status = ((Node) lstNm.item(0)).getNodeValue();
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                logger.error(e.toString());
-                throw new Exception("ERROR: can't get status for job " + jobId + ".");
+    /**
+     * Parses the output of "qstat -xml".
+     *
+     * @param xml   qstat output
+     * @return      Map from SGE job name to SGE state (r, t, qw, Eqw...)
+     * @throws Exception
+     */
+    static Map<String, String> parseQstat(String xml) throws Exception {
+        Map<String, String> states = new HashMap<>();
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        DocumentBuilder db = dbf.newDocumentBuilder();
+        Document doc = db.parse(new InputSource(new StringReader(xml)));
+        doc.getDocumentElement().normalize();
+        NodeList nodeLst = doc.getElementsByTagName("job_list");
+
+        for (int s = 0; s < nodeLst.getLength(); s++) {
+            Node fstNode = nodeLst.item(s);
+
+            if (fstNode.getNodeType() == Node.ELEMENT_NODE) {
+                Element fstElmnt = (Element) fstNode;
+                String jobName = fstElmnt.getElementsByTagName("JB_name").item(0).getTextContent();
+                String state = fstElmnt.getElementsByTagName("state").item(0).getTextContent();
+                states.put(jobName, state);
             }
         }
+        return states;
+    }
 
-        if (!status.equals(UNKNOWN)) {
-            status = stateDic.get(status);
-        } else {
-            String command = "qacct -j *" + jobId + "*";
+    private static String qacctStatus(String jobId) throws IOException, InterruptedException {
+        String status = UNKNOWN;
+        String command = "qacct -j *" + jobId + "*";
 //            logger.info(command);
-            Process p = Runtime.getRuntime().exec(command);
-            BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            String line;
-            String exitStatus = null;
-            String failed = null;
-            while ((line = in.readLine()) != null) {
+        Process p = Runtime.getRuntime().exec(command);
+        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        String line;
+        String exitStatus = null;
+        String failed = null;
+        while ((line = in.readLine()) != null) {
 //                logger.info(line);
-                if (line.contains("exit_status")) {
-                    exitStatus = line.replace("exit_status", "").trim();
-                }
-                if (line.contains("failed")) {
-                    failed = line.replace("failed", "").trim();
-                }
+            if (line.contains("exit_status")) {
+                exitStatus = line.replace("exit_status", "").trim();
+            }
+            if (line.contains("failed")) {
+                failed = line.replace("failed", "").trim();
             }
-            p.waitFor();
-            in.close();
+        }
+        p.waitFor();
+        in.close();
 
-            if (exitStatus != null && failed != null) {
-                if (!"0".equals(failed)) {
-                    status = "queue error";
-                }
-                if ("0".equals(exitStatus)) {
-                    status = FINISHED;
-                } else {
-                    status = EXECUTION_ERROR;
-                }
+        if (exitStatus != null && failed != null) {
+            if (!"0".equals(failed)) {
+                status = "queue error";
+            }
+            if ("0".equals(exitStatus)) {
+                status = FINISHED;
+            } else {
+                status = EXECUTION_ERROR;
             }
         }
         return status;
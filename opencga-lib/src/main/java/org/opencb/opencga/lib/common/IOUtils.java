@@ -1,6 +1,8 @@
 package org.opencb.opencga.lib.common;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -55,47 +57,56 @@ public class IOUtils {
         return lines;
     }
 
+    /**
+     * Returns a range of lines of a file. The lines are read lazily as the stream is consumed.
+     *
+     * The file is not read from the beginning: it seeks to the closest line indexed in the {@link LineIndex}.
+     *
+     * @param path          Text file
+     * @param offsetLine    First line to return, starting at 0
+     * @param numLines      Number of lines to return. Negative for all the remaining lines
+     * @return              InputStream with the requested lines
+     * @throws IOException
+     */
     public static InputStream headOffset(Path path, int offsetLine, int numLines) throws IOException {
-        BufferedReader br = Files.newBufferedReader(path, Charset.defaultCharset());
-        StringBuilder sb = new StringBuilder();
-
-        int cont = 0;
-        String line;
-        while ((line = br.readLine()) != null) {
-            if (cont >= offsetLine && cont < numLines) {
-                sb.append(line + "\n");
-            } else {
+        offsetLine = Math.max(offsetLine, 0);
+        long[] position = LineIndex.get(path).seek(offsetLine);
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        channel.position(position[1]);
+        BufferedReader br = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), Charset.defaultCharset()));
+        for (long line = position[0]; line < offsetLine; line++) {
+            if (br.readLine() == null) {
                 break;
             }
-            cont++;
         }
-        br.close();
-
-        InputStream inputStream = new ByteArrayInputStream(sb.toString().getBytes());
-        return inputStream;
+        return new LineInputStream(br, null, numLines, Charset.defaultCharset());
     }
 
     public static InputStream grepFile(Path path, String pattern, boolean ignoreCase, boolean multi) throws IOException {
-        BufferedReader br = Files.newBufferedReader(path, Charset.defaultCharset());
-        StringBuilder sb = new StringBuilder();
+        return grepFile(path, pattern, ignoreCase, multi ? -1 : 1);
+    }
+
+    /**
+     * Returns the lines of a file matching a pattern. The file is read lazily as the stream is consumed, and
+     * reading stops once the limit of matches is reached.
+     *
+     * @param path          Text file
+     * @param pattern       Regular expression that has to match the whole line
+     * @param ignoreCase    Case insensitive match
+     * @param limit         Maximum number of lines to return. Negative for no limit
+     * @return              InputStream with the matching lines
+     * @throws IOException
+     */
+    public static InputStream grepFile(Path path, String pattern, boolean ignoreCase, int limit) throws IOException {
         Pattern pat;
         if (ignoreCase) {
             pat = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
         } else {
             pat = Pattern.compile(pattern);
         }
-        String line;
-        while ((line = br.readLine()) != null) {
-            if (pat.matcher(line).matches()) {
-                sb.append(line + "\n");
-                if (!multi) {
-                    break;
-                }
-            }
-        }
-        br.close();
-        InputStream inputStream = new ByteArrayInputStream(sb.toString().getBytes());
-        return inputStream;
+        BufferedReader br = Files.newBufferedReader(path, Charset.defaultCharset());
+        return new LineInputStream(br, pat, limit, Charset.defaultCharset());
     }
 
 
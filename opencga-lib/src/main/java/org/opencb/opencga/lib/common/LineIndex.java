@@ -0,0 +1,102 @@
+package org.opencb.opencga.lib.common;
+
+import org.opencb.opencga.lib.tools.accession.LRUCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse index of line start offsets of a text file. Stores the byte offset of one every {@link #STEP} lines.
+ *
+ * The index is built lazily, only as far as the requested lines, and it is shared between requests until the
+ * file size or modification time changes.
+ */
+public class LineIndex {
+
+    public static final int STEP = 10000;
+    private static final int CACHE_SIZE = 256;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Map<Path, LineIndex> indices = Collections.synchronizedMap(new LRUCache<Path, LineIndex>(CACHE_SIZE));
+
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+
+    /** offsets.get(i) is the byte offset where line i * STEP starts */
+    private final List<Long> offsets = new ArrayList<>();
+    private boolean complete = false;
+
+    private LineIndex(Path path, BasicFileAttributes attributes) {
+        this.path = path;
+        this.size = attributes.size();
+        this.lastModified = attributes.lastModifiedTime().toMillis();
+        offsets.add(0L);
+    }
+
+    public static LineIndex get(Path path) throws IOException {
+        path = path.toAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        synchronized (indices) {
+            LineIndex lineIndex = indices.get(path);
+            if (lineIndex == null || lineIndex.size != attributes.size()
+                    || lineIndex.lastModified != attributes.lastModifiedTime().toMillis()) {
+                lineIndex = new LineIndex(path, attributes);
+                indices.put(path, lineIndex);
+            }
+            return lineIndex;
+        }
+    }
+
+    /**
+     * Finds the closest indexed line at or before the given one, extending the index if needed.
+     *
+     * @param line  Line number, starting at 0
+     * @return      {indexedLine, byteOffset}. The caller has to skip (line - indexedLine) lines from byteOffset.
+     * @throws IOException
+     */
+    public synchronized long[] seek(long line) throws IOException {
+        int entry = (int) (line / STEP);
+        if (entry >= offsets.size() && !complete) {
+            extend(entry);
+        }
+        entry = Math.min(entry, offsets.size() - 1);
+        return new long[]{(long) entry * STEP, offsets.get(entry)};
+    }
+
+    private void extend(int entry) throws IOException {
+        long offset = offsets.get(offsets.size() - 1);
+        long lines = (long) (offsets.size() - 1) * STEP;
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.position(offset);
+            int read;
+            while (offsets.size() <= entry && (read = channel.read(buffer)) >= 0) {
+                buffer.flip();
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        lines++;
+                        if (lines % STEP == 0) {
+                            offsets.add(offset + i + 1);
+                            if (offsets.size() > entry) {
+                                return;
+                            }
+                        }
+                    }
+                }
+                offset += read;
+                buffer.clear();
+            }
+        }
+        complete = offsets.size() <= entry;
+    }
+}
@@ -0,0 +1,93 @@
+package org.opencb.opencga.lib.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+/**
+ * InputStream over the lines of a reader, filled lazily as it is consumed.
+ *
+ * Lines can be filtered with a pattern, and the stream ends as soon as the maximum number of lines has been
+ * returned, without reading the rest of the input. The reader is closed when the stream ends.
+ */
+public class LineInputStream extends InputStream {
+
+    private final BufferedReader reader;
+    private final Pattern pattern;
+    private final long limit;
+    private final Charset charset;
+
+    private long numLines = 0;
+    private byte[] buffer = new byte[0];
+    private int position = 0;
+    private boolean finished = false;
+
+    /**
+     * @param reader    Reader to read the lines from
+     * @param pattern   Only lines matching this pattern are returned. Null to return all the lines
+     * @param limit     Maximum number of lines to return. Negative for no limit
+     * @param charset   Charset used to encode the returned lines
+     */
+    public LineInputStream(BufferedReader reader, Pattern pattern, long limit, Charset charset) {
+        this.reader = reader;
+        this.pattern = pattern;
+        this.limit = limit;
+        this.charset = charset;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= buffer.length && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= buffer.length && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.length - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        reader.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (finished) {
+            return false;
+        }
+        if (limit >= 0 && numLines >= limit) {
+            close();
+            return false;
+        }
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (pattern == null || pattern.matcher(line).matches()) {
+                buffer = (line + "\n").getBytes(charset);
+                position = 0;
+                numLines++;
+                return true;
+            }
+        }
+        close();
+        return false;
+    }
+}
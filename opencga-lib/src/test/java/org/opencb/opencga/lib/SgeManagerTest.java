@@ -0,0 +1,37 @@
+package org.opencb.opencga.lib;
+
+import org.junit.Test;
+import org.opencb.commons.test.GenericTest;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class SgeManagerTest extends GenericTest {
+
+    @Test
+    public void testParseQstat() throws Exception {
+        String xml = "<?xml version='1.0'?>" +
+                "<job_info xmlns:xsd=\"http://gridengine.sunsource.net/source/browse/*checkout*/gridengine/source/dist/util/resources/schemas/qstat/qstat.xsd?revision=1.11\">" +
+                "  <queue_info>" +
+                "    <job_list state=\"running\">" +
+                "      <JB_job_number>101</JB_job_number>" +
+                "      <JB_name>indexer_J_abcdefghij</JB_name>" +
+                "      <state>r</state>" +
+                "    </job_list>" +
+                "  </queue_info>" +
+                "  <job_info>" +
+                "    <job_list state=\"pending\">" +
+                "      <JB_job_number>102</JB_job_number>" +
+                "      <JB_name>hpg-variant_J_0123456789</JB_name>" +
+                "      <state>qw</state>" +
+                "    </job_list>" +
+                "  </job_info>" +
+                "</job_info>";
+
+        Map<String, String> states = SgeManager.parseQstat(xml);
+        assertEquals(2, states.size());
+        assertEquals("r", states.get("indexer_J_abcdefghij"));
+        assertEquals("qw", states.get("hpg-variant_J_0123456789"));
+    }
+}
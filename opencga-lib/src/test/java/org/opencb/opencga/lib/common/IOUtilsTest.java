@@ -3,9 +3,18 @@ package org.opencb.opencga.lib.common;
 import org.junit.Test;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
 
 public class IOUtilsTest {
 
@@ -37,4 +46,34 @@ public class IOUtilsTest {
         in.close();
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testHeadOffsetRange() throws Exception {
+        Path path = Files.createTempFile("headOffset", ".txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LineIndex.STEP * 2 + 5; i++) {
+            sb.append("line").append(i).append("\n");
+        }
+        Files.write(path, sb.toString().getBytes());
+
+        assertEquals(Arrays.asList("line0", "line1"), readLines(IOUtils.headOffset(path, 0, 2)));
+        assertEquals(Arrays.asList("line" + (LineIndex.STEP - 1), "line" + LineIndex.STEP),
+                readLines(IOUtils.headOffset(path, LineIndex.STEP - 1, 2)));
+        assertEquals(Arrays.asList("line" + (LineIndex.STEP * 2 + 4)), readLines(IOUtils.headOffset(path, LineIndex.STEP * 2 + 4, 10)));
+        assertEquals(Collections.emptyList(), readLines(IOUtils.headOffset(path, LineIndex.STEP * 3, 10)));
+
+        assertEquals(Arrays.asList("line10", "line11"), readLines(IOUtils.grepFile(path, "line1.", false, 2)));
+        Files.delete(path);
+    }
+
+    private List<String> readLines(InputStream is) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(is))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,261 @@
+package org.opencb.opencga.server;
+
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.opencga.lib.common.IOUtils;
+import org.opencb.opencga.lib.common.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Chunks of the uploads in progress.
+ *
+ * The chunks of an upload are written in its own folder, one file per chunk named "{chunkId}_{size}_partial", and
+ * are concatenated into the uploaded file once all of them have arrived. Chunks may arrive in any order and more
+ * than once. The MD5 of each upload is computed incrementally as its chunks arrive.
+ */
+class ChunkedUploads {
+
+    private static Logger logger = LoggerFactory.getLogger(ChunkedUploads.class);
+
+    private final ConcurrentMap<Path, ChunkDigest> chunkDigests = new ConcurrentHashMap<>();
+    private final long digestExpiration;
+
+    /**
+     * @param digestExpiration  Time, in milliseconds, after which the digest of an upload without new chunks is dropped
+     */
+    ChunkedUploads(long digestExpiration) {
+        this.digestExpiration = digestExpiration;
+    }
+
+    /**
+     * Chunks may arrive concurrently. Each one is written under a temporary name and renamed, so that a partially
+     * written chunk is never seen by the resume listing or by the final assembly.
+     */
+    void writeChunk(Path folderPath, int chunkId, byte[] chunkBytes) throws IOException {
+        Files.createDirectories(folderPath);
+        Path chunkPath = folderPath.resolve(chunkId + "_" + chunkBytes.length + "_partial");
+        Path tmpChunkPath = folderPath.resolve(chunkId + "_" + chunkBytes.length + "_partial.tmp");
+        Files.write(tmpChunkPath, chunkBytes);
+        Files.move(tmpChunkPath, chunkPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        getChunkDigest(folderPath).update(folderPath, chunkId, chunkBytes);
+    }
+
+    /**
+     * @return Size of each chunk already written, by chunk id
+     */
+    ObjectMap getResumeInfo(Path folderPath) throws IOException {
+        ObjectMap objectMap = new ObjectMap();
+        if (Files.exists(folderPath)) {
+            try (DirectoryStream<Path> folderStream = Files.newDirectoryStream(folderPath, "*_partial")) {
+                for (Path partPath : folderStream) {
+                    String[] nameSplit = partPath.getFileName().toString().split("_");
+                    ObjectMap chunkInfo = new ObjectMap();
+                    chunkInfo.put("size", Integer.parseInt(nameSplit[1]));
+                    objectMap.put(nameSplit[0], chunkInfo);
+                }
+            }
+        }
+        return objectMap;
+    }
+
+    /**
+     * @param numChunks Total number of chunks of the upload, or -1 if unknown
+     * @return Ids of the chunks not written yet. If the total is unknown, only the gaps before the last chunk written
+     */
+    List<Integer> getMissingChunks(Path folderPath, int numChunks) throws IOException {
+        Set<Integer> chunkIds = new HashSet<>();
+        int maxChunkId = -1;
+        for (Path chunk : getSortedChunkList(folderPath)) {
+            int chunkId = getChunkId(chunk);
+            chunkIds.add(chunkId);
+            maxChunkId = Math.max(maxChunkId, chunkId);
+        }
+        int expected = numChunks < 0 ? maxChunkId + 1 : numChunks;
+        List<Integer> missing = new ArrayList<>();
+        for (int chunkId = 0; chunkId < expected; chunkId++) {
+            if (!chunkIds.contains(chunkId)) {
+                missing.add(chunkId);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Concatenates the chunks into the target file and removes the folder of the chunks.
+     *
+     * @param numChunks     Total number of chunks of the upload, or -1 if unknown
+     * @return              MD5 of the target file
+     * @throws FileAlreadyExistsException   If the target file exists, e.g. the upload is being completed by another request
+     * @throws IOException  If any chunk is missing. The chunks are kept, so the upload can be completed later
+     */
+    String complete(Path folderPath, int numChunks, Path targetPath) throws IOException {
+        // Only one request can create the target file, so a repeated last chunk never assembles the chunks twice
+        Files.createFile(targetPath);
+        try {
+            List<Integer> missingChunks = getMissingChunks(folderPath, numChunks);
+            if (!missingChunks.isEmpty()) {
+                throw new IOException("Missing chunks " + missingChunks);
+            }
+            List<Path> chunks = getSortedChunkList(folderPath);
+            // The digest can not be used after finishing it. If the assembly fails, it is computed again from disk
+            ChunkDigest chunkDigest = getChunkDigest(folderPath);
+            chunkDigests.remove(folderPath);
+            String checksum = chunkDigest.finish(folderPath, chunks.size());
+            assembleChunks(chunks, targetPath);
+            IOUtils.deleteDirectory(folderPath);
+            return checksum;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(targetPath);
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the digests of the uploads without new chunks for a while, probably abandoned. If the upload is
+     * resumed later, its digest is computed again from the chunks on disk.
+     */
+    void expireDigests() {
+        long oldest = System.currentTimeMillis() - digestExpiration;
+        Iterator<Map.Entry<Path, ChunkDigest>> iterator = chunkDigests.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, ChunkDigest> entry = iterator.next();
+            if (entry.getValue().getLastAccess() < oldest) {
+                logger.debug("Dropping the digest of the upload in {}", entry.getKey());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Number of uploads with a digest in memory
+     */
+    int getNumDigests() {
+        return chunkDigests.size();
+    }
+
+    private ChunkDigest getChunkDigest(Path folderPath) throws IOException {
+        ChunkDigest chunkDigest = chunkDigests.get(folderPath);
+        if (chunkDigest == null) {
+            chunkDigest = new ChunkDigest();
+            ChunkDigest previous = chunkDigests.putIfAbsent(folderPath, chunkDigest);
+            if (previous != null) {
+                chunkDigest = previous;
+            }
+        }
+        return chunkDigest;
+    }
+
+    /**
+     * Concatenates the chunks into the target file. Uses FileChannel.transferTo, so the chunk contents are never
+     * copied into the heap.
+     */
+    private static void assembleChunks(List<Path> chunks, Path targetPath) throws IOException {
+        try (FileChannel target = FileChannel.open(targetPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (Path partPath : chunks) {
+                try (FileChannel part = FileChannel.open(partPath, StandardOpenOption.READ)) {
+                    long size = part.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += part.transferTo(position, size - position, target);
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<Path> getSortedChunkList(Path folderPath) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.exists(folderPath)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folderPath, "*_partial")) {
+            for (Path p : stream) {
+                files.add(p);
+            }
+        }
+        Collections.sort(files, new Comparator<Path>() {
+            public int compare(Path o1, Path o2) {
+                return Integer.compare(getChunkId(o1), getChunkId(o2));
+            }
+        });
+        return files;
+    }
+
+    private static int getChunkId(Path chunk) {
+        return Integer.parseInt(chunk.getFileName().toString().split("_")[0]);
+    }
+
+    /**
+     * MD5 of a chunked upload, computed incrementally as the chunks arrive.
+     *
+     * Chunks are hashed strictly in order. A chunk that arrives in order is hashed from the request bytes;
+     * chunks that arrived earlier than their turn are read back from their partial file once the gap is filled.
+     * If the state is lost (e.g. after a restart), the remaining chunks are hashed from disk at the end.
+     */
+    private static class ChunkDigest {
+        private final MessageDigest digest;
+        private int nextChunk = 0;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        ChunkDigest() throws IOException {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+
+        synchronized void update(Path folderPath, int chunkId, byte[] chunkBytes) throws IOException {
+            lastAccess = System.currentTimeMillis();
+            if (chunkId == nextChunk) {
+                digest.update(chunkBytes);
+                nextChunk++;
+            }
+            drain(folderPath);
+        }
+
+        long getLastAccess() {
+            return lastAccess;
+        }
+
+        synchronized String finish(Path folderPath, int numChunks) throws IOException {
+            drain(folderPath);
+            if (nextChunk != numChunks) {
+                throw new IOException("Missing chunk " + nextChunk + " of " + numChunks);
+            }
+            return StringUtils.bytes2String(digest.digest());
+        }
+
+        private void drain(Path folderPath) throws IOException {
+            Path partPath;
+            while ((partPath = findChunk(folderPath, nextChunk)) != null) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                try (FileChannel part = FileChannel.open(partPath, StandardOpenOption.READ)) {
+                    while (part.read(buffer) >= 0) {
+                        buffer.flip();
+                        digest.update(buffer);
+                        buffer.clear();
+                    }
+                }
+                nextChunk++;
+            }
+        }
+
+        private static Path findChunk(Path folderPath, int chunkId) throws IOException {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folderPath, chunkId + "_*_partial")) {
+                Iterator<Path> iterator = stream.iterator();
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+        }
+    }
+}
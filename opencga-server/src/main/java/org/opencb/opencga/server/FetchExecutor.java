@@ -0,0 +1,59 @@
+package org.opencb.opencga.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for the per-file fetches, shared by all the requests. Bounded both in threads and in queued tasks.
+ * When the queue is full the fetches are rejected, instead of running them in the request thread, which would
+ * escape the fetch timeout.
+ */
+class FetchExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param threads   Maximum number of files fetched at the same time
+     * @param queueSize Maximum number of files waiting for a thread
+     */
+    FetchExecutor(int threads, int queueSize) {
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "file-fetch-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submits all the fetches of a request, or none of them.
+     *
+     * @return Futures of the fetches, in the same order
+     * @throws RejectedExecutionException If the queue is full. The fetches already submitted are cancelled
+     */
+    <T> List<Future<T>> submitAll(List<? extends Callable<T>> fetches) {
+        List<Future<T>> futures = new ArrayList<>(fetches.size());
+        try {
+            for (Callable<T> fetch : fetches) {
+                futures.add(executor.submit(fetch));
+            }
+        } catch (RejectedExecutionException e) {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return futures;
+    }
+
+    void shutdownNow() {
+        executor.shutdownNow();
+    }
+}
@@ -12,11 +12,10 @@ import org.opencb.opencga.analysis.AnalysisExecutionException;
 import org.opencb.opencga.analysis.storage.AnalysisFileIndexer;
 import org.opencb.opencga.analysis.storage.variant.CatalogVariantDBAdaptor;
 import org.opencb.opencga.catalog.CatalogException;
+import org.opencb.opencga.catalog.CatalogFileManager;
 import org.opencb.opencga.catalog.beans.File;
 import org.opencb.opencga.catalog.db.CatalogDBException;
-import org.opencb.opencga.catalog.io.CatalogIOManagerException;
 import org.opencb.opencga.lib.common.Config;
-import org.opencb.opencga.lib.common.IOUtils;
 import org.opencb.opencga.storage.core.StorageManagerException;
 import org.opencb.opencga.storage.core.StorageManagerFactory;
 import org.opencb.opencga.storage.core.alignment.AlignmentStorageManager;
@@ -33,11 +32,21 @@ import javax.ws.rs.Path;
 import javax.ws.rs.core.*;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.*;
 
 @Path("/files")
 @Api(value = "files", description = "files", position = 4)
 public class FileWSServer extends OpenCGAWSServer {
 
+    public static final String FETCH_THREADS = "OPENCGA.SERVER.FETCH.THREADS";
+    public static final String FETCH_TIMEOUT = "OPENCGA.SERVER.FETCH.TIMEOUT";
+    public static final int DEFAULT_FETCH_THREADS = 16;
+    public static final long DEFAULT_FETCH_TIMEOUT = 60000;
+    public static final String UPLOAD_DIGEST_EXPIRATION = "OPENCGA.SERVER.UPLOAD.DIGEST_EXPIRATION";
+    public static final long DEFAULT_UPLOAD_DIGEST_EXPIRATION = 3600000;
+
+    private static volatile FetchExecutor fetchExecutor;
+    private static volatile ChunkedUploads chunkedUploads;
 
     public FileWSServer(@PathParam("version") String version, @Context UriInfo uriInfo, @Context HttpServletRequest httpServletRequest)
             throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
@@ -97,12 +106,9 @@ public class FileWSServer extends OpenCGAWSServer {
         }
         try {
             filePath = Paths.get(catalogManager.getFileUri(studyId, relativeFilePath));
-            System.out.println(filePath);
-        } catch (CatalogIOManagerException e) {
-            System.out.println("catalogManager.getFilePath");
-            e.printStackTrace();
         } catch (CatalogException e) {
-            e.printStackTrace();
+            logger.error("Error getting the path of " + relativeFilePath, e);
+            return createErrorResponse(e.getMessage());
         }
 
         java.nio.file.Path completedFilePath = filePath.getParent().resolve("_" + filename);
@@ -113,12 +119,13 @@ public class FileWSServer extends OpenCGAWSServer {
         logger.info(folderPath + "");
         logger.info(filePath + "");
         boolean resume = Boolean.parseBoolean(resume_upload);
+        ChunkedUploads chunkedUploads = getChunkedUploads();
 
         try {
             logger.info("---resume is: " + resume);
             if (resume) {
                 logger.info("Resume ms :" + (System.currentTimeMillis() - t));
-                return createOkResponse(getResumeFileJSON(folderPath));
+                return createOkResponse(chunkedUploads.getResumeInfo(folderPath));
             }
 
             int chunkId = Integer.parseInt(chunk_id);
@@ -128,56 +135,57 @@ public class FileWSServer extends OpenCGAWSServer {
             logger.info("---saving chunk: " + chunkId);
             logger.info("lastChunk: " + lastChunk);
 
-            // WRITE CHUNK TYPE_FILE
-            if (!Files.exists(folderPath)) {
-                logger.info("createDirectory(): " + folderPath);
-                Files.createDirectory(folderPath);
+            if (lastChunk && !Files.exists(folderPath)) {
+                // A repeated last chunk of an upload already completed. Return the uploaded file.
+                QueryResult<File> uploaded = catalogManager.searchFile(studyId, new QueryOptions("path", relativeFilePath), sessionId);
+                if (uploaded.getNumResults() > 0) {
+                    logger.info("Upload of " + relativeFilePath + " already completed");
+                    return createOkResponse(uploaded);
+                }
             }
-            logger.info("check dir " + Files.exists(folderPath));
-            // String hash = StringUtils.sha1(new String(chunkBytes));
-            // logger.info("bytesHash: " + hash);
-            // logger.info("chunkHash: " + chunkHash);
-            // hash = chunkHash;
+
+            // WRITE CHUNK TYPE_FILE
             if (chunkBytes.length == chunkSize) {
-                Files.write(folderPath.resolve(chunkId + "_" + chunkBytes.length + "_partial"), chunkBytes);
+                chunkedUploads.writeChunk(folderPath, chunkId, chunkBytes);
             }
 
             if (lastChunk) {
                 logger.info("lastChunk is true...");
-                Files.createFile(completedFilePath);
-                List<java.nio.file.Path> chunks = getSortedChunkList(folderPath);
-                logger.info("----ordered chunks length: " + chunks.size());
-                for (java.nio.file.Path partPath : chunks) {
-                    logger.info(partPath.getFileName().toString());
-                    Files.write(completedFilePath, Files.readAllBytes(partPath), StandardOpenOption.APPEND);
+                int numChunks = chunk_total.isEmpty() ? -1 : Integer.parseInt(chunk_total);
+                List<Integer> missingChunks = chunkedUploads.getMissingChunks(folderPath, numChunks);
+                if (!missingChunks.isEmpty()) {
+                    // The last chunk arrived before some of the others. They are kept, so the client can retry.
+                    logger.info("Missing chunks " + missingChunks + " of " + relativeFilePath);
+                    return createConflictResponse(new ObjectMap("retry", true).append("missingChunks", missingChunks),
+                            "Missing chunks " + missingChunks + ". Send them and retry the last chunk");
                 }
-                IOUtils.deleteDirectory(folderPath);
+                String checksum;
                 try {
+                    checksum = chunkedUploads.complete(folderPath, numChunks, completedFilePath);
+                } catch (FileAlreadyExistsException e) {
+                    logger.warn("Upload of " + relativeFilePath + " is already being completed by another request");
+                    return createConflictResponse(new ObjectMap("retry", true),
+                            "Upload of " + relativeFilePath + " is already being completed. Retry the last chunk later");
+                }
+                try {
+                    QueryResult<File> queryResult = catalogManager.createFile(studyId, File.Format.valueOf(fileFormat.toUpperCase()),
+                            File.Bioformat.valueOf(bioFormat.toUpperCase()), relativeFilePath, description, parents, -1, sessionId);
 
-//                    Files.copy(Files.newInputStream(completedFilePath), filePath, StandardCopyOption.REPLACE_EXISTING);
-//
-//                    QueryResult queryResult = catalogManager.uploadFile(studyId, File.Format.valueOf(fileFormat.toUpperCase()),
-//                            File.Bioformat.valueOf(bioFormat.toUpperCase()), relativeFilePath, description, parents, sessionId);
-
-                    QueryResult queryResult = catalogManager.createFile(studyId, File.Format.valueOf(fileFormat.toUpperCase()),
-                            File.Bioformat.valueOf(bioFormat.toUpperCase()), relativeFilePath, Files.readAllBytes(completedFilePath),
-                            description, parents, sessionId
-                    );
-
-
-                    IOUtils.deleteDirectory(completedFilePath);
+                    // Move the assembled file into place, whatever its size. Its checksum is already known.
+                    new CatalogFileManager(catalogManager).upload(completedFilePath.toUri(), queryResult.first(), checksum,
+                            sessionId, false, false, true, false, Long.MAX_VALUE);
 
-                    return createOkResponse(queryResult);
+                    return createOkResponse(catalogManager.getFile(queryResult.first().getId(), sessionId));
                 } catch (Exception e) {
-                    logger.error(e.toString());
+                    logger.error("Error registering the upload of " + relativeFilePath, e);
+                    Files.deleteIfExists(completedFilePath);
                     return createErrorResponse(e.getMessage());
                 }
             }
 
-        } catch (IOException e) {
-
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        } catch (IOException | CatalogException e) {
+            logger.error("Error uploading chunk of " + relativeFilePath, e);
+            return createErrorResponse(e.getMessage());
         }
         logger.info("chunk saved ms :" + (System.currentTimeMillis() - t));
         return createOkResponse("ok");
@@ -208,7 +216,7 @@ public class FileWSServer extends OpenCGAWSServer {
         try {
             studyId = catalogManager.getStudyId(studyIdStr);
         } catch (CatalogException e) {
-            e.printStackTrace();
+            logger.error("Error getting the study " + studyIdStr, e);
             return createErrorResponse(e.getMessage());
         }
         for (File file : files) {
@@ -221,7 +229,7 @@ public class FileWSServer extends OpenCGAWSServer {
                 System.out.println("fileQueryResult = " + fileQueryResult);
                 queryResults.add(fileQueryResult);
             } catch (Exception e) {
-                e.printStackTrace();
+                logger.error("Error creating the file " + file.getPath(), e);
                 queryResults.add(new QueryResult<>("createFile", 0, 0, 0, "", e.getMessage(), Collections.<File>emptyList()));
 //            return createErrorResponse(e.getMessage());
             }
@@ -360,13 +368,17 @@ public class FileWSServer extends OpenCGAWSServer {
             @PathParam(value = "fileId") @FormDataParam("fileId") String fileIdStr,
             @ApiParam(value = "pattern", required = false) @QueryParam("pattern") @DefaultValue(".*") String pattern,
             @ApiParam(value = "ignoreCase", required = false) @QueryParam("ignoreCase") @DefaultValue("false") Boolean ignoreCase,
-            @ApiParam(value = "multi", required = false) @QueryParam("multi") @DefaultValue("true") Boolean multi
+            @ApiParam(value = "multi", required = false) @QueryParam("multi") @DefaultValue("true") Boolean multi,
+            @ApiParam(value = "limit", required = false) @QueryParam("limit") @DefaultValue("-1") int limit
     ) {
         String content = "";
         DataInputStream stream;
         try {
             int fileId = catalogManager.getFileId(fileIdStr);
-            stream = catalogManager.grepFile(fileId, pattern, ignoreCase, multi, sessionId);
+            if (!multi) {
+                limit = 1;
+            }
+            stream = catalogManager.grepFile(fileId, pattern, ignoreCase, limit, sessionId);
 
 //             content = org.apache.commons.io.IOUtils.toString(stream);
         } catch (CatalogException | IOException e) {
@@ -626,184 +638,284 @@ public class FileWSServer extends OpenCGAWSServer {
                           @ApiParam(value = "process_differences", required = false) @DefaultValue("true") @QueryParam("process_differences") boolean process_differences,
                           @ApiParam(value = "histogram", required = false) @DefaultValue("false") @QueryParam("histogram") boolean histogram,
                           @ApiParam(value = "variantSource", required = false) @DefaultValue("false") @QueryParam("variantSource") boolean variantSource,
-                          @ApiParam(value = "interval", required = false) @DefaultValue("2000") @QueryParam("interval") int interval
+                          @ApiParam(value = "interval", required = false) @DefaultValue("2000") @QueryParam("interval") int interval,
+                          @ApiParam(value = "timeout", required = false) @DefaultValue("-1") @QueryParam("timeout") long timeout
     ) {
-        List<Region> regions = new LinkedList<>();
+        final List<Region> regions = new LinkedList<>();
         String[] splitFileId = fileIds.split(",");
         List<Object> results = new LinkedList<>();
         for (String r : region.split(",")) {
             regions.add(new Region(r));
         }
+        if (timeout <= 0) {
+            timeout = Long.parseLong(properties.getProperty(FETCH_TIMEOUT, Long.toString(DEFAULT_FETCH_TIMEOUT)));
+        }
 
-        for (String fileId : splitFileId) {
-            int fileIdNum;
-            File file;
-            URI fileUri;
+        // Submit every file to the shared executor. Results are collected in request order.
+        List<Callable<QueryResult>> fetches = new ArrayList<>(splitFileId.length);
+        for (final String fileId : splitFileId) {
+            final FetchParams fetchParams = new FetchParams(view_as_pairs, include_coverage, process_differences, histogram, interval);
+            fetches.add(new Callable<QueryResult>() {
+                @Override
+                public QueryResult call() throws Exception {
+                    return fetchFile(fileId, regions, fetchParams);
+                }
+            });
+        }
+        List<Future<QueryResult>> futures;
+        try {
+            futures = getFetchExecutor().submitAll(fetches);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Fetch queue is full. Rejecting fetch of " + fileIds);
+            return createServiceUnavailableResponse("Too many concurrent fetches. Try again later");
+        }
 
-            try {
-                fileIdNum = catalogManager.getFileId(fileId);
-                QueryResult<File> queryResult = catalogManager.getFile(fileIdNum, sessionId);
-                file = queryResult.getResult().get(0);
-                fileUri = catalogManager.getFileUri(file);
-            } catch (CatalogException e) {
-                e.printStackTrace();
-                return createErrorResponse(e.getMessage());
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            for (Future<QueryResult> future : futures) {
+                long remaining = deadline - System.currentTimeMillis();
+                QueryResult result;
+                try {
+                    result = future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (!(cause instanceof FetchException)) {
+                        logger.error("Error fetching file", cause);
+                    }
+                    return createErrorResponse(cause.getMessage());
+                } catch (TimeoutException e) {
+                    return createErrorResponse("Fetch timed out after " + timeout + "ms");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return createErrorResponse("Fetch interrupted");
+                }
+                results.add(result);
             }
-
-            if (!file.getType().equals(File.Type.INDEX)) {
-                return createErrorResponse("File {id:" + file.getId() + " name:'" + file.getName() + "'} " +
-                        " is not an indexed file.");
+        } finally {
+            for (Future<QueryResult> future : futures) {
+                future.cancel(true);
             }
-//            List<Index> indices = file.getIndices();
-//            Index index = null;
-//            for (Index i : indices) {
-//                if (i.getStorageEngine().equals(backend)) {
-//                    index = i;
-//                }
-//            }
-            ObjectMap indexAttributes = new ObjectMap(file.getAttributes());
-            String storageEngine = indexAttributes.get(AnalysisFileIndexer.STORAGE_ENGINE).toString();
-            String dbName = indexAttributes.get(AnalysisFileIndexer.DB_NAME).toString();
-            QueryResult result;
-            switch (file.getBioformat()) {
-                case ALIGNMENT: {
-                    //TODO: getChunkSize from file.index.attributes?  use to be 200
-                    int chunkSize = indexAttributes.getInt("coverageChunkSize", 200);
-                    QueryOptions queryOptions = new QueryOptions();
-                    queryOptions.put(AlignmentDBAdaptor.QO_FILE_ID, Integer.toString(fileIdNum));
-                    queryOptions.put(AlignmentDBAdaptor.QO_BAM_PATH, fileUri.getPath());     //TODO: Make uri-compatible
-                    queryOptions.put(AlignmentDBAdaptor.QO_VIEW_AS_PAIRS, view_as_pairs);
-                    queryOptions.put(AlignmentDBAdaptor.QO_INCLUDE_COVERAGE, include_coverage);
-                    queryOptions.put(AlignmentDBAdaptor.QO_PROCESS_DIFFERENCES, process_differences);
-                    queryOptions.put(AlignmentDBAdaptor.QO_INTERVAL_SIZE, interval);
-                    queryOptions.put(AlignmentDBAdaptor.QO_HISTOGRAM, histogram);
-                    queryOptions.put(AlignmentDBAdaptor.QO_COVERAGE_CHUNK_SIZE, chunkSize);
-
-                    if (indexAttributes.containsKey("baiFileId")) {
-                        File baiFile = null;
-                        try {
-                            baiFile = catalogManager.getFile(indexAttributes.getInt("baiFileId"), sessionId).getResult().get(0);
-                            URI baiUri = catalogManager.getFileUri(baiFile);
-                            queryOptions.put(AlignmentDBAdaptor.QO_BAI_PATH, baiUri.getPath());  //TODO: Make uri-compatible
-                        } catch (CatalogException e) {
-                            e.printStackTrace();
-                            logger.error("Can't obtain bai file for file " + fileIdNum, e);
-                        }
-                    }
+        }
+        return createOkResponse(results);
+    }
+
+    private QueryResult fetchFile(String fileId, List<Region> regions, FetchParams fetchParams) throws Exception {
+        int fileIdNum;
+        File file;
+        URI fileUri;
+
+        try {
+            fileIdNum = catalogManager.getFileId(fileId);
+            QueryResult<File> queryResult = catalogManager.getFile(fileIdNum, sessionId);
+            file = queryResult.getResult().get(0);
+            fileUri = catalogManager.getFileUri(file);
+        } catch (CatalogException e) {
+            e.printStackTrace();
+            throw new FetchException(e.getMessage());
+        }
 
-                    AlignmentDBAdaptor dbAdaptor;
+        if (!file.getType().equals(File.Type.INDEX)) {
+            throw new FetchException("File {id:" + file.getId() + " name:'" + file.getName() + "'} " +
+                    " is not an indexed file.");
+        }
+        ObjectMap indexAttributes = new ObjectMap(file.getAttributes());
+        String storageEngine = indexAttributes.get(AnalysisFileIndexer.STORAGE_ENGINE).toString();
+        String dbName = indexAttributes.get(AnalysisFileIndexer.DB_NAME).toString();
+        QueryResult result;
+        switch (file.getBioformat()) {
+            case ALIGNMENT: {
+                //TODO: getChunkSize from file.index.attributes?  use to be 200
+                int chunkSize = indexAttributes.getInt("coverageChunkSize", 200);
+                QueryOptions queryOptions = new QueryOptions();
+                queryOptions.put(AlignmentDBAdaptor.QO_FILE_ID, Integer.toString(fileIdNum));
+                queryOptions.put(AlignmentDBAdaptor.QO_BAM_PATH, fileUri.getPath());     //TODO: Make uri-compatible
+                queryOptions.put(AlignmentDBAdaptor.QO_VIEW_AS_PAIRS, fetchParams.viewAsPairs);
+                queryOptions.put(AlignmentDBAdaptor.QO_INCLUDE_COVERAGE, fetchParams.includeCoverage);
+                queryOptions.put(AlignmentDBAdaptor.QO_PROCESS_DIFFERENCES, fetchParams.processDifferences);
+                queryOptions.put(AlignmentDBAdaptor.QO_INTERVAL_SIZE, fetchParams.interval);
+                queryOptions.put(AlignmentDBAdaptor.QO_HISTOGRAM, fetchParams.histogram);
+                queryOptions.put(AlignmentDBAdaptor.QO_COVERAGE_CHUNK_SIZE, chunkSize);
+
+                if (indexAttributes.containsKey("baiFileId")) {
+                    File baiFile = null;
                     try {
-                        AlignmentStorageManager alignmentStorageManager = StorageManagerFactory.getAlignmentStorageManager(storageEngine);
-                        dbAdaptor = alignmentStorageManager.getDBAdaptor(dbName, new ObjectMap());
-                    } catch (ClassNotFoundException | IllegalAccessException | InstantiationException | StorageManagerException e) {
-                        return createErrorResponse(e.getMessage());
-                    }
-                    QueryResult alignmentsByRegion;
-                    if (histogram) {
-                        if (regions.size() != 1) {
-                            return createErrorResponse("Histogram fetch only accepts one region.");
-                        }
-                        alignmentsByRegion = dbAdaptor.getAllIntervalFrequencies(regions.get(0), queryOptions);
-                    } else {
-                        alignmentsByRegion = dbAdaptor.getAllAlignmentsByRegion(regions, queryOptions);
+                        baiFile = catalogManager.getFile(indexAttributes.getInt("baiFileId"), sessionId).getResult().get(0);
+                        URI baiUri = catalogManager.getFileUri(baiFile);
+                        queryOptions.put(AlignmentDBAdaptor.QO_BAI_PATH, baiUri.getPath());  //TODO: Make uri-compatible
+                    } catch (CatalogException e) {
+                        e.printStackTrace();
+                        logger.error("Can't obtain bai file for file " + fileIdNum, e);
                     }
-                    result = alignmentsByRegion;
-                    break;
                 }
 
-                case VARIANT: {
-                    QueryOptions queryOptions = new QueryOptions();
-                    for (Map.Entry<String, List<String>> entry : params.entrySet()) {
-                        List<String> values = entry.getValue();
-                        String csv = values.get(0);
-                        for (int i = 1; i < values.size(); i++) {
-                            csv += "," + values.get(i);
-                        }
-                        queryOptions.add(entry.getKey(), csv);
-                    }
-                    queryOptions.put("files", Arrays.asList(Integer.toString(fileIdNum)));
-
-                    if(params.containsKey("fileId")) {
-                        if(params.get("fileId").get(0).isEmpty()) {
-                            queryOptions.put("fileId", fileId);
-                        } else {
-                            List<String> files = params.get("fileId");
-                            queryOptions.put("fileId", files.get(0));
-                        }
+                AlignmentDBAdaptor dbAdaptor;
+                try {
+                    AlignmentStorageManager alignmentStorageManager = StorageManagerFactory.getAlignmentStorageManager(storageEngine);
+                    dbAdaptor = alignmentStorageManager.getDBAdaptor(dbName, new ObjectMap());
+                } catch (ClassNotFoundException | IllegalAccessException | InstantiationException | StorageManagerException e) {
+                    throw new FetchException(e.getMessage());
+                }
+                QueryResult alignmentsByRegion;
+                if (fetchParams.histogram) {
+                    if (regions.size() != 1) {
+                        throw new FetchException("Histogram fetch only accepts one region.");
                     }
-//                    queryOptions.put("exclude", Arrays.asList(exclude.split(",")));
-//                    queryOptions.put("include", Arrays.asList(include.split(",")));
+                    alignmentsByRegion = dbAdaptor.getAllIntervalFrequencies(regions.get(0), queryOptions);
+                } else {
+                    alignmentsByRegion = dbAdaptor.getAllAlignmentsByRegion(regions, queryOptions);
+                }
+                result = alignmentsByRegion;
+                break;
+            }
 
-                    //java.nio.file.Path configPath = Paths.get(Config.getGcsaHome(), "config", "application.properties");
-                    VariantDBAdaptor dbAdaptor;
-                    try {
-                        dbAdaptor = StorageManagerFactory.getVariantStorageManager(storageEngine).getDBAdaptor(dbName, new ObjectMap());
-                        dbAdaptor = new CatalogVariantDBAdaptor(catalogManager, dbAdaptor);
-                    } catch (ClassNotFoundException | IllegalAccessException | InstantiationException | StorageManagerException e) {
-                        return createErrorResponse(e.getMessage());
+            case VARIANT: {
+                QueryOptions queryOptions = new QueryOptions();
+                for (Map.Entry<String, List<String>> entry : params.entrySet()) {
+                    List<String> values = entry.getValue();
+                    String csv = values.get(0);
+                    for (int i = 1; i < values.size(); i++) {
+                        csv += "," + values.get(i);
                     }
-                    QueryResult variantsByRegion;
-                    if (histogram) {
-                        queryOptions.put("interval", interval);
-                        variantsByRegion = dbAdaptor.getAllVariants(queryOptions);
-//                    } else if (variantSource) {
-//                        queryOptions.put("fileId", Integer.toString(fileIdNum));
-//                        variantsByRegion = dbAdaptor.getVariantSourceDBAdaptor().getAllSources(queryOptions);
+                    queryOptions.add(entry.getKey(), csv);
+                }
+                queryOptions.put("files", Arrays.asList(Integer.toString(fileIdNum)));
+
+                if(params.containsKey("fileId")) {
+                    if(params.get("fileId").get(0).isEmpty()) {
+                        queryOptions.put("fileId", fileId);
                     } else {
-                        //With merge = true, will return only one result.
-                        queryOptions.put("merge", true);
-                        variantsByRegion = dbAdaptor.getAllVariantsByRegionList(regions, queryOptions).get(0);
+                        List<String> files = params.get("fileId");
+                        queryOptions.put("fileId", files.get(0));
                     }
-                    result = variantsByRegion;
-                    break;
+                }
 
+                VariantDBAdaptor dbAdaptor;
+                try {
+                    dbAdaptor = StorageManagerFactory.getVariantStorageManager(storageEngine).getDBAdaptor(dbName, new ObjectMap());
+                    dbAdaptor = new CatalogVariantDBAdaptor(catalogManager, dbAdaptor);
+                } catch (ClassNotFoundException | IllegalAccessException | InstantiationException | StorageManagerException e) {
+                    throw new FetchException(e.getMessage());
                 }
-                default:
-                    return createErrorResponse("Unknown bioformat '" + file.getBioformat() + '\'');
-            }
+                QueryResult variantsByRegion;
+                if (fetchParams.histogram) {
+                    queryOptions.put("interval", fetchParams.interval);
+                    variantsByRegion = dbAdaptor.getAllVariants(queryOptions);
+                } else {
+                    //With merge = true, will return only one result.
+                    queryOptions.put("merge", true);
+                    variantsByRegion = dbAdaptor.getAllVariantsByRegionList(regions, queryOptions).get(0);
+                }
+                result = variantsByRegion;
+                break;
 
-            result.setId(Integer.toString(fileIdNum));
-            System.out.println("result = " + result);
-            results.add(result);
+            }
+            default:
+                throw new FetchException("Unknown bioformat '" + file.getBioformat() + '\'');
         }
-        System.out.println("results = " + results);
-        return createOkResponse(results);
+
+        result.setId(Integer.toString(fileIdNum));
+        return result;
     }
 
+    private Response createServiceUnavailableResponse(String message) {
+        return createStatusResponse(Response.Status.SERVICE_UNAVAILABLE, new ObjectMap(), message);
+    }
 
-    private ObjectMap getResumeFileJSON(java.nio.file.Path folderPath) throws IOException {
-        ObjectMap objectMap = new ObjectMap();
+    private Response createConflictResponse(ObjectMap result, String message) {
+        return createStatusResponse(Response.Status.CONFLICT, result, message);
+    }
 
-        if (Files.exists(folderPath)) {
-            DirectoryStream<java.nio.file.Path> folderStream = Files.newDirectoryStream(folderPath, "*_partial");
-            for (java.nio.file.Path partPath : folderStream) {
-                String[] nameSplit = partPath.getFileName().toString().split("_");
-                ObjectMap chunkInfo = new ObjectMap();
-                chunkInfo.put("size", Integer.parseInt(nameSplit[1]));
-                objectMap.put(nameSplit[0], chunkInfo);
-            }
+    /**
+     * Error response with an HTTP status other than 200, so that clients can tell when to retry.
+     */
+    private Response createStatusResponse(Response.Status status, ObjectMap resultObject, String message) {
+        QueryResult<ObjectMap> result = new QueryResult<>();
+        result.setResult(Collections.singletonList(resultObject));
+        result.setErrorMsg(message);
+        queryResponse = new QueryResponse();
+        queryResponse.setApiVersion(version);
+        queryResponse.setQueryOptions(getQueryOptions());
+        queryResponse.setResponse(Arrays.asList(result));
+        try {
+            return buildResponse(Response.status(status)
+                    .entity(jsonObjectWriter.writeValueAsString(queryResponse)).type(MediaType.APPLICATION_JSON_TYPE));
+        } catch (IOException e) {
+            return buildResponse(Response.status(status));
         }
+    }
 
-        return objectMap;
+    /**
+     * Shared executor for the per-file fetches. When its queue is full the fetch is rejected, and the client gets a 503.
+     */
+    private static FetchExecutor getFetchExecutor() {
+        if (fetchExecutor == null) {
+            synchronized (FileWSServer.class) {
+                if (fetchExecutor == null) {
+                    int threads = Integer.parseInt(properties.getProperty(FETCH_THREADS, Integer.toString(DEFAULT_FETCH_THREADS)));
+                    fetchExecutor = new FetchExecutor(threads, threads * 16);
+                }
+            }
+        }
+        return fetchExecutor;
     }
 
-    private List<java.nio.file.Path> getSortedChunkList(java.nio.file.Path folderPath) throws IOException {
-        List<java.nio.file.Path> files = new ArrayList<>();
-        DirectoryStream<java.nio.file.Path> stream = Files.newDirectoryStream(folderPath, "*_partial");
-        for (java.nio.file.Path p : stream) {
-            logger.info("adding to ArrayList: " + p.getFileName());
-            files.add(p);
-        }
-        logger.info("----ordered files length: " + files.size());
-        Collections.sort(files, new Comparator<java.nio.file.Path>() {
-            public int compare(java.nio.file.Path o1, java.nio.file.Path o2) {
-                int id_o1 = Integer.parseInt(o1.getFileName().toString().split("_")[0]);
-                int id_o2 = Integer.parseInt(o2.getFileName().toString().split("_")[0]);
-                logger.info(id_o1 + "");
-                logger.info(id_o2 + "");
-                return id_o1 - id_o2;
+    /**
+     * Chunks of the uploads in progress, shared by all the requests. The digests of the abandoned uploads are
+     * dropped by a background task, even if no other chunk arrives.
+     */
+    private static ChunkedUploads getChunkedUploads() {
+        if (chunkedUploads == null) {
+            synchronized (FileWSServer.class) {
+                if (chunkedUploads == null) {
+                    long expiration = Long.parseLong(properties.getProperty(UPLOAD_DIGEST_EXPIRATION,
+                            Long.toString(DEFAULT_UPLOAD_DIGEST_EXPIRATION)));
+                    final ChunkedUploads uploads = new ChunkedUploads(expiration);
+                    ScheduledExecutorService expirer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "upload-digest-expirer");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    long period = Math.max(1, expiration / 4);
+                    expirer.scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            uploads.expireDigests();
+                        }
+                    }, period, period, TimeUnit.MILLISECONDS);
+                    chunkedUploads = uploads;
+                }
             }
-        });
-        return files;
+        }
+        return chunkedUploads;
+    }
+
+    private static class FetchParams {
+        private final boolean viewAsPairs;
+        private final boolean includeCoverage;
+        private final boolean processDifferences;
+        private final boolean histogram;
+        private final int interval;
+
+        FetchParams(boolean viewAsPairs, boolean includeCoverage, boolean processDifferences, boolean histogram, int interval) {
+            this.viewAsPairs = viewAsPairs;
+            this.includeCoverage = includeCoverage;
+            this.processDifferences = processDifferences;
+            this.histogram = histogram;
+            this.interval = interval;
+        }
     }
+
+    /**
+     * Expected error while fetching one file. Its message is returned to the client as is.
+     */
+    private static class FetchException extends Exception {
+        FetchException(String message) {
+            super(message);
+        }
+    }
+
+
 }
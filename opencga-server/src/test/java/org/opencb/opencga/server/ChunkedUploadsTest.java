@@ -0,0 +1,150 @@
+package org.opencb.opencga.server;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.opencga.lib.common.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ChunkedUploadsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ChunkedUploads chunkedUploads;
+    private Path folderPath;
+    private Path targetPath;
+    private List<byte[]> chunks;
+
+    @Before
+    public void before() throws Exception {
+        chunkedUploads = new ChunkedUploads(3600000);
+        Path root = temporaryFolder.getRoot().toPath();
+        folderPath = root.resolve("__file.txt");
+        targetPath = root.resolve("_file.txt");
+        chunks = new ArrayList<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 5; i++) {
+            byte[] chunk = new byte[1000 + i];
+            random.nextBytes(chunk);
+            chunks.add(chunk);
+        }
+    }
+
+    @Test
+    public void testInOrder() throws Exception {
+        for (int i = 0; i < chunks.size(); i++) {
+            chunkedUploads.writeChunk(folderPath, i, chunks.get(i));
+        }
+        assertEquals(md5(), chunkedUploads.complete(folderPath, chunks.size(), targetPath));
+        assertArrayEquals(concat(), Files.readAllBytes(targetPath));
+        assertFalse(Files.exists(folderPath));
+        assertEquals(0, chunkedUploads.getNumDigests());
+    }
+
+    @Test
+    public void testOutOfOrderAndRepeated() throws Exception {
+        for (int i : Arrays.asList(3, 1, 4, 1, 0, 2, 3)) {
+            chunkedUploads.writeChunk(folderPath, i, chunks.get(i));
+        }
+        assertEquals(md5(), chunkedUploads.complete(folderPath, chunks.size(), targetPath));
+        assertArrayEquals(concat(), Files.readAllBytes(targetPath));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        chunkedUploads.writeChunk(folderPath, 0, chunks.get(0));
+        chunkedUploads.writeChunk(folderPath, 2, chunks.get(2));
+
+        ObjectMap resumeInfo = chunkedUploads.getResumeInfo(folderPath);
+        assertEquals(new HashSet<>(Arrays.asList("0", "2")), resumeInfo.keySet());
+        assertEquals(chunks.get(2).length, ((ObjectMap) resumeInfo.get("2")).get("size"));
+        assertEquals(Arrays.asList(1, 3, 4), chunkedUploads.getMissingChunks(folderPath, chunks.size()));
+        assertEquals(Collections.singletonList(1), chunkedUploads.getMissingChunks(folderPath, -1));
+
+        // After a restart the digest is computed from the chunks on disk
+        chunkedUploads = new ChunkedUploads(3600000);
+        for (int i : Arrays.asList(1, 3, 4)) {
+            chunkedUploads.writeChunk(folderPath, i, chunks.get(i));
+        }
+        assertEquals(md5(), chunkedUploads.complete(folderPath, chunks.size(), targetPath));
+    }
+
+    @Test
+    public void testMissingChunks() throws Exception {
+        // The last chunk arrives first
+        chunkedUploads.writeChunk(folderPath, 4, chunks.get(4));
+        try {
+            chunkedUploads.complete(folderPath, chunks.size(), targetPath);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Missing chunks"));
+        }
+        assertFalse(Files.exists(targetPath));
+
+        // The chunks are kept, so the upload can be completed
+        for (int i = 0; i < 4; i++) {
+            chunkedUploads.writeChunk(folderPath, i, chunks.get(i));
+        }
+        assertEquals(md5(), chunkedUploads.complete(folderPath, chunks.size(), targetPath));
+    }
+
+    @Test
+    public void testAlreadyCompleting() throws Exception {
+        for (int i = 0; i < chunks.size(); i++) {
+            chunkedUploads.writeChunk(folderPath, i, chunks.get(i));
+        }
+        Files.createFile(targetPath);
+        try {
+            chunkedUploads.complete(folderPath, chunks.size(), targetPath);
+            fail();
+        } catch (FileAlreadyExistsException e) {
+            // The file of the other request is not removed
+            assertTrue(Files.exists(targetPath));
+        }
+        assertEquals(chunks.size(), chunkedUploads.getResumeInfo(folderPath).size());
+    }
+
+    @Test
+    public void testExpireDigests() throws Exception {
+        chunkedUploads = new ChunkedUploads(0);
+        chunkedUploads.writeChunk(folderPath, 0, chunks.get(0));
+        assertEquals(1, chunkedUploads.getNumDigests());
+        Thread.sleep(10);
+        chunkedUploads.expireDigests();
+        assertEquals(0, chunkedUploads.getNumDigests());
+
+        for (int i = 1; i < chunks.size(); i++) {
+            chunkedUploads.writeChunk(folderPath, i, chunks.get(i));
+        }
+        assertEquals(md5(), chunkedUploads.complete(folderPath, chunks.size(), targetPath));
+    }
+
+    private byte[] concat() {
+        int length = 0;
+        for (byte[] chunk : chunks) {
+            length += chunk.length;
+        }
+        byte[] bytes = new byte[length];
+        int position = 0;
+        for (byte[] chunk : chunks) {
+            System.arraycopy(chunk, 0, bytes, position, chunk.length);
+            position += chunk.length;
+        }
+        return bytes;
+    }
+
+    private String md5() throws Exception {
+        return StringUtils.bytes2String(MessageDigest.getInstance("MD5").digest(concat()));
+    }
+}
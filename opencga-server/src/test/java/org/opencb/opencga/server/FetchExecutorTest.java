@@ -0,0 +1,102 @@
+package org.opencb.opencga.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class FetchExecutorTest {
+
+    private FetchExecutor fetchExecutor;
+    private CountDownLatch release;
+    private Set<Integer> called;
+
+    @Before
+    public void before() {
+        fetchExecutor = new FetchExecutor(2, 2);
+        release = new CountDownLatch(1);
+        called = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    }
+
+    @After
+    public void after() {
+        release.countDown();
+        fetchExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testSubmitAll() throws Exception {
+        List<Future<Integer>> futures = fetchExecutor.submitAll(fetches(0, 4));
+        release.countDown();
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, futures.get(i).get(10, TimeUnit.SECONDS).intValue());
+        }
+    }
+
+    @Test
+    public void testSaturated() throws Exception {
+        // Two fetches running and two queued
+        List<Future<Integer>> running = fetchExecutor.submitAll(fetches(0, 4));
+
+        // The request is rejected, so the server answers with a 503, and none of its fetches is kept
+        List<Callable<Integer>> fetches = fetches(4, 6);
+        try {
+            fetchExecutor.submitAll(fetches);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+
+        // The rejected request did not take the place of other requests
+        release.countDown();
+        for (int i = 0; i < running.size(); i++) {
+            assertEquals(i, running.get(i).get(10, TimeUnit.SECONDS).intValue());
+        }
+        assertEquals(Collections.singletonList(6), get(fetchExecutor.submitAll(fetches(6, 7))));
+    }
+
+    @Test
+    public void testPartiallySubmitted() throws Exception {
+        List<Future<Integer>> running = fetchExecutor.submitAll(fetches(0, 3));
+
+        // Only the first fetch fits. It is cancelled when the second one is rejected.
+        try {
+            fetchExecutor.submitAll(fetches(3, 5));
+            fail();
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        release.countDown();
+        assertEquals(Arrays.asList(0, 1, 2), get(running));
+        assertEquals(Collections.singletonList(5), get(fetchExecutor.submitAll(fetches(5, 6))));
+        assertFalse(called.contains(3));
+    }
+
+    private List<Callable<Integer>> fetches(int start, int end) {
+        List<Callable<Integer>> fetches = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            final int value = i;
+            fetches.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    called.add(value);
+                    release.await();
+                    return value;
+                }
+            });
+        }
+        return fetches;
+    }
+
+    private static List<Integer> get(List<Future<Integer>> futures) throws Exception {
+        List<Integer> values = new ArrayList<>();
+        for (Future<Integer> future : futures) {
+            values.add(future.get(10, TimeUnit.SECONDS));
+        }
+        return values;
+    }
+}
@@ -33,6 +33,7 @@ import org.opencb.opencga.storage.core.StorageManagerFactory;
 import org.opencb.opencga.storage.core.alignment.AlignmentStorageManager;
 import org.opencb.opencga.storage.core.alignment.adaptors.AlignmentDBAdaptor;
 import org.opencb.opencga.storage.core.sequence.SqliteSequenceDBAdaptor;
+import org.opencb.opencga.storage.core.sequence.TwoBitSequenceDBAdaptor;
 import org.opencb.opencga.storage.core.variant.VariantStorageManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.annotation.*;
@@ -516,13 +517,17 @@ public class OpenCGAStorageMain {
 
             logger.info("Indexing Fasta : " + input.toString());
             long start = System.currentTimeMillis();
-            SqliteSequenceDBAdaptor sqliteSequenceDBAdaptor = new SqliteSequenceDBAdaptor();
             File index = null;
-            try {
-                index = sqliteSequenceDBAdaptor.index(input.toFile(), outdir);
-            } catch (SQLException e) {
-                e.printStackTrace();
-                System.exit(1);
+            if (c.sqlite) {
+                SqliteSequenceDBAdaptor sqliteSequenceDBAdaptor = new SqliteSequenceDBAdaptor();
+                try {
+                    index = sqliteSequenceDBAdaptor.index(input.toFile(), outdir);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            } else {
+                index = new TwoBitSequenceDBAdaptor().index(input.toFile(), outdir);
             }
             long end = System.currentTimeMillis();
             logger.info(
@@ -423,6 +423,8 @@ public class OptionsParser {
     @Parameters(commandNames = {"index-sequence"}, commandDescription = "Index sequence file")
     class CommandIndexSequence extends CommandIndex {
 
+        @Parameter(names = "--sqlite", description = "Index into a SQLite database instead of a memory-mapped 2-bit file")
+        boolean sqlite = false;
     }
 
     class CommandFetch extends Command {
@@ -14,6 +14,8 @@ import org.opencb.commons.run.Task;
 import org.opencb.datastore.core.ObjectMap;
 import org.opencb.opencga.storage.core.StorageManager;
 import org.opencb.opencga.storage.core.alignment.adaptors.AlignmentDBAdaptor;
+import org.opencb.opencga.storage.core.alignment.binary.AlignmentCoverageBinaryDataReader;
+import org.opencb.opencga.storage.core.alignment.binary.AlignmentCoverageBinaryDataWriter;
 import org.opencb.opencga.storage.core.alignment.json.AlignmentCoverageJsonDataReader;
 import org.opencb.opencga.storage.core.alignment.json.AlignmentCoverageJsonDataWriter;
 import org.opencb.opencga.storage.core.alignment.json.AlignmentJsonDataReader;
@@ -38,6 +40,8 @@ public abstract class AlignmentStorageManager implements StorageManager<DataWrit
 
 
     public static final String MEAN_COVERAGE_SIZE_LIST = "meanCoverageSizeList";
+    public static final String COVERAGE_PYRAMID = "coveragePyramid";
+    public static final String BINARY_COVERAGE = "binaryCoverage";
     public static final String PLAIN = "plain";
     public static final String REGION_SIZE = "regionSize";
     public static final String STUDY = "study";
@@ -99,12 +103,16 @@ public abstract class AlignmentStorageManager implements StorageManager<DataWrit
      *  Calculate the coverage                      : <outputPath>/<FILE_ALIAS>.bam.coverage.json[.gz]
      * if INCLUDE_COVERAGE && MEAN_COVERAGE_SIZE_LIST
      *  Calculate the meanCoverage                  : <outputPath>/<FILE_ALIAS>.bam.mean-coverage.json[.gz]
+     * if INCLUDE_COVERAGE && BINARY_COVERAGE
+     *  Coverage and meanCoverage in a single file  : <outputPath>/<FILE_ALIAS>.bam.coverage.bin
+     * if INCLUDE_COVERAGE && COVERAGE_PYRAMID
+     *  Add the coverage pyramid levels to the meanCoverage
      *
      *
      * @param inputUri      Sorted bam file
      * @param pedigree      Not used
      * @param outputUri     Output path where files are created
-     * @param params        Hash for extra params. FILE_ID, ENCRYPT, PLAIN, REGION_SIZE, MEAN_COVERAGE_SIZE_LIST
+     * @param params        Hash for extra params. FILE_ID, ENCRYPT, PLAIN, REGION_SIZE, MEAN_COVERAGE_SIZE_LIST, COVERAGE_PYRAMID, BINARY_COVERAGE
      * @throws IOException
      * @throws FileFormatException
      */
@@ -128,6 +136,10 @@ public abstract class AlignmentStorageManager implements StorageManager<DataWrit
         int regionSize = params.getInt(REGION_SIZE,
                 Integer.parseInt(properties.getProperty("OPENCGA.STORAGE.ALIGNMENT.TRANSFORM.REGION_SIZE", "200000")));
         List<String> meanCoverageSizeList = params.getAsStringList(MEAN_COVERAGE_SIZE_LIST);
+        boolean coveragePyramid = params.getBoolean(COVERAGE_PYRAMID,
+                Boolean.parseBoolean(properties.getProperty("OPENCGA.STORAGE.ALIGNMENT.TRANSFORM.COVERAGE_PYRAMID", "true")));
+        boolean binaryCoverage = params.getBoolean(BINARY_COVERAGE,
+                Boolean.parseBoolean(properties.getProperty("OPENCGA.STORAGE.ALIGNMENT.TRANSFORM.BINARY_COVERAGE", "true")));
         String defaultFileAlias = input.getFileName().toString().substring(0, input.getFileName().toString().lastIndexOf("."));
         String fileAlias = params.getString(FILE_ALIAS, defaultFileAlias);
 
@@ -172,6 +184,9 @@ public abstract class AlignmentStorageManager implements StorageManager<DataWrit
             for (String size : meanCoverageSizeList) {
                 coverageCalculatorTask.addMeanCoverageCalculator(size);
             }
+            if (coveragePyramid) {
+                coverageCalculatorTask.addCoveragePyramid();
+            }
             tasks.add(coverageCalculatorTask);
         }
 
@@ -185,7 +200,14 @@ public abstract class AlignmentStorageManager implements StorageManager<DataWrit
             writers.add(new AlignmentRegionDataWriter(alignmentDataWriter));
             outputFile = alignmentDataWriter.getAlignmentFilename();
         }
-        if(includeCoverage) {
+        if(includeCoverage && binaryCoverage) {
+            AlignmentCoverageBinaryDataWriter alignmentCoverageBinaryDataWriter =
+                    new AlignmentCoverageBinaryDataWriter(jsonOutputFiles);
+            writers.add(alignmentCoverageBinaryDataWriter);
+            if(outputFile == null) {
+                outputFile = alignmentCoverageBinaryDataWriter.getCoverageFilename();
+            }
+        } else if(includeCoverage) {
             AlignmentCoverageJsonDataWriter alignmentCoverageJsonDataWriter =
                     new AlignmentCoverageJsonDataWriter(jsonOutputFiles, !plain);
             alignmentCoverageJsonDataWriter.setChunkSize(
@@ -329,6 +351,21 @@ public abstract class AlignmentStorageManager implements StorageManager<DataWrit
         return new AlignmentJsonDataReader(alignmentFile, headerFile);
     }
 
+    /**
+     * @return A reader for the binary coverage of the input, or null if there is no binary coverage file
+     */
+    protected AlignmentCoverageBinaryDataReader getAlignmentCoverageBinaryDataReader(Path input) {
+        String baseFileName = input.toString();
+        if(baseFileName.endsWith(AlignmentCoverageBinaryDataWriter.EXTENSION)){
+            return new AlignmentCoverageBinaryDataReader(baseFileName);
+        } else if(baseFileName.endsWith(".bam")
+                && Paths.get(baseFileName + AlignmentCoverageBinaryDataWriter.EXTENSION).toFile().exists()){
+            return new AlignmentCoverageBinaryDataReader(baseFileName + AlignmentCoverageBinaryDataWriter.EXTENSION);
+        } else {
+            return null;
+        }
+    }
+
     protected AlignmentCoverageJsonDataReader getAlignmentCoverageJsonDataReader(Path input) {
         String baseFileName = input.toString();
         String meanCoverageFile;
@@ -22,6 +22,7 @@ public interface AlignmentDBAdaptor {
     //public static final String QO_AVERAGE = "average";
     public static final String QO_INTERVAL_SIZE = "interval_size";
     public static final String QO_COVERAGE_CHUNK_SIZE = "chunk_size";
+    public static final String QO_TILE_CACHE = "tile_cache";
 
     QueryResult getAllAlignmentsByRegion(List<Region> regions, QueryOptions options);
 
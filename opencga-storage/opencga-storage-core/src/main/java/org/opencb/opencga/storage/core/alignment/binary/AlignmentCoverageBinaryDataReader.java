@@ -0,0 +1,300 @@
+package org.opencb.opencga.storage.core.alignment.binary;
+
+import org.opencb.biodata.models.alignment.AlignmentRegion;
+import org.opencb.biodata.models.alignment.stats.MeanCoverage;
+import org.opencb.biodata.models.alignment.stats.RegionCoverage;
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.commons.io.DataReader;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.opencb.opencga.storage.core.alignment.binary.AlignmentCoverageBinaryFormat.*;
+
+/**
+ * Reads the files generated by AlignmentCoverageBinaryDataWriter, building an empty AlignmentRegion
+ * with RegionCoverage and MeanCoverage for every block.
+ *
+ * The blocks can be read in order, or only the ones overlapping a region with {@link #query(Region)}.
+ * The parts not requested (RegionCoverage or MeanCoverage) are skipped without decompressing them.
+ *
+ * CoverageFileName     : <name>.coverage.bin
+ */
+public class AlignmentCoverageBinaryDataReader implements DataReader<AlignmentRegion> {
+
+    /**
+     * Position of a block in the file.
+     */
+    public static class BlockIndex {
+        private final String chromosome;
+        private final long start;
+        private final long end;
+        private final long offset;
+
+        public BlockIndex(String chromosome, long start, long end, long offset) {
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+        }
+
+        public String getChromosome() {
+            return chromosome;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
+
+    private final String coverageFilename;
+    private RandomAccessFile file;
+    private List<BlockIndex> index;
+    private int nextBlock;
+    private final Inflater inflater;
+    private byte[] compressed = new byte[1 << 16];
+    private boolean readRegionCoverage = true;
+    private boolean readMeanCoverage = true;
+    protected static org.slf4j.Logger logger = LoggerFactory.getLogger(AlignmentCoverageBinaryDataReader.class);
+
+    public AlignmentCoverageBinaryDataReader(String coverageFilename) {
+        this.coverageFilename = coverageFilename;
+        this.inflater = new Inflater();
+    }
+
+    @Override
+    public boolean open() {
+        try {
+            file = new RandomAccessFile(coverageFilename, "r");
+        } catch (FileNotFoundException e) {
+            logger.error(e.toString(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        try {
+            file.close();
+            inflater.end();
+        } catch (IOException e) {
+            logger.error(e.toString(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean pre() {
+        try {
+            if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+                logger.error("File " + coverageFilename + " is not a binary coverage file");
+                return false;
+            }
+            file.seek(file.length() - FOOTER_SIZE);
+            long indexOffset = file.readLong();
+            if (file.readInt() != MAGIC) {
+                logger.error("File " + coverageFilename + " is truncated. Missing blocks index");
+                return false;
+            }
+            file.seek(indexOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD())));
+            int numBlocks = in.readInt();
+            List<BlockIndex> index = new ArrayList<>(numBlocks);
+            for (int i = 0; i < numBlocks; i++) {
+                index.add(new BlockIndex(in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            this.index = index;
+            this.nextBlock = 0;
+        } catch (IOException e) {
+            logger.error(e.toString(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean post() {
+        return true;
+    }
+
+    public AlignmentRegion readElem() {
+        if (nextBlock >= index.size()) {
+            return null;
+        }
+        try {
+            return readBlock(index.get(nextBlock++));
+        } catch (IOException | DataFormatException e) {
+            logger.error(e.toString(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public List<AlignmentRegion> read() {
+        AlignmentRegion alignmentRegion = readElem();
+        return alignmentRegion == null ? null : Arrays.asList(alignmentRegion);
+    }
+
+    @Override
+    public List<AlignmentRegion> read(int batchSize) {
+        List<AlignmentRegion> alignmentRegions = new LinkedList<>();
+        for (int i = 0; i < batchSize; i++) {
+            AlignmentRegion alignmentRegion = readElem();
+            if (alignmentRegion == null) {
+                break;
+            }
+            alignmentRegions.add(alignmentRegion);
+        }
+        if (alignmentRegions.isEmpty()) {
+            return null;
+        }
+        return alignmentRegions;
+    }
+
+    /**
+     * Reads only the blocks overlapping the region.
+     */
+    public List<AlignmentRegion> query(Region region) throws IOException {
+        List<AlignmentRegion> alignmentRegions = new LinkedList<>();
+        for (BlockIndex blockIndex : index) {
+            if (blockIndex.getChromosome().equals(region.getChromosome())
+                    && blockIndex.getStart() <= region.getEnd() && blockIndex.getEnd() >= region.getStart()) {
+                try {
+                    alignmentRegions.add(readBlock(blockIndex));
+                } catch (DataFormatException e) {
+                    throw new IOException("Malformed block at " + blockIndex.getOffset() + " of " + coverageFilename, e);
+                }
+            }
+        }
+        return alignmentRegions;
+    }
+
+    private AlignmentRegion readBlock(BlockIndex blockIndex) throws IOException, DataFormatException {
+        file.seek(blockIndex.getOffset());
+        String chromosome = file.readUTF();
+        long start = file.readLong();
+        long end = file.readLong();
+        int meanCoverageLength = file.readInt();
+        int meanCoverageCompressed = file.readInt();
+        int coverageLength = file.readInt();
+        int coverageCompressed = file.readInt();
+
+        AlignmentRegion alignmentRegion = new AlignmentRegion(chromosome, start, end);
+        if (readMeanCoverage) {
+            DataInputStream in = inflate(meanCoverageLength, meanCoverageCompressed);
+            alignmentRegion.setMeanCoverage(meanCoverageLength == 0 ? new LinkedList<MeanCoverage>() : decodeMeanCoverage(in));
+        } else {
+            file.seek(file.getFilePointer() + meanCoverageCompressed);
+        }
+        if (readRegionCoverage && coverageLength > 0) {
+            alignmentRegion.setCoverage(decodeCoverage(inflate(coverageLength, coverageCompressed)));
+        }
+        return alignmentRegion;
+    }
+
+    private DataInputStream inflate(int length, int compressedLength) throws IOException, DataFormatException {
+        if (compressed.length < compressedLength) {
+            compressed = new byte[compressedLength];
+        }
+        file.readFully(compressed, 0, compressedLength);
+        byte[] bytes = new byte[length];
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        int read = 0;
+        while (read < length && !inflater.finished()) {
+            int inflated = inflater.inflate(bytes, read, length - read);
+            if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Truncated compressed data. Expected " + length + " bytes, got " + read);
+            }
+            read += inflated;
+        }
+        if (read < length) {
+            throw new DataFormatException("Truncated compressed data. Expected " + length + " bytes, got " + read);
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private List<MeanCoverage> decodeMeanCoverage(DataInputStream in) throws IOException {
+        int size = readVarInt(in);
+        List<MeanCoverage> meanCoverageList = new ArrayList<>(size);
+        String chromosome = null;
+        String name = null;
+        int start = 0;
+        for (int i = 0; i < size; i++) {
+            byte flags = in.readByte();
+            if ((flags & 1) != 0) {
+                chromosome = in.readUTF();
+            }
+            if ((flags & 2) != 0) {
+                name = in.readUTF();
+            }
+            start += readZigZag(in);
+            int intervalSize = readVarInt(in);
+            float coverage = in.readFloat();
+            int min = readVarInt(in);
+            int max = readVarInt(in);
+            meanCoverageList.add(new CoverageLevel(intervalSize, name,
+                    new Region(chromosome, start, start + intervalSize - 1), coverage, min, max));
+        }
+        return meanCoverageList;
+    }
+
+    private RegionCoverage decodeCoverage(DataInputStream in) throws IOException {
+        String chromosome = in.readUTF();
+        long start = in.readLong();
+        long end = in.readLong();
+        int size = readVarInt(in);
+        RegionCoverage coverage = new RegionCoverage(size);
+        coverage.setChromosome(chromosome);
+        coverage.setStart(start);
+        coverage.setEnd(end);
+        decodeCounts(in, coverage.getAll());
+        decodeCounts(in, coverage.getA());
+        decodeCounts(in, coverage.getC());
+        decodeCounts(in, coverage.getG());
+        decodeCounts(in, coverage.getT());
+        return coverage;
+    }
+
+    private void decodeCounts(DataInputStream in, short[] counts) throws IOException {
+        int previous = 0;
+        for (int i = 0; i < counts.length; i++) {
+            previous += readZigZag(in);
+            counts[i] = (short) previous;
+        }
+    }
+
+    public List<BlockIndex> getIndex() {
+        return index;
+    }
+
+    public boolean isReadRegionCoverage() {
+        return readRegionCoverage;
+    }
+
+    public void setReadRegionCoverage(boolean readRegionCoverage) {
+        this.readRegionCoverage = readRegionCoverage;
+    }
+
+    public boolean isReadMeanCoverage() {
+        return readMeanCoverage;
+    }
+
+    public void setReadMeanCoverage(boolean readMeanCoverage) {
+        this.readMeanCoverage = readMeanCoverage;
+    }
+}
@@ -0,0 +1,231 @@
+package org.opencb.opencga.storage.core.alignment.binary;
+
+import org.opencb.biodata.models.alignment.AlignmentRegion;
+import org.opencb.biodata.models.alignment.stats.MeanCoverage;
+import org.opencb.biodata.models.alignment.stats.RegionCoverage;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.opencb.opencga.storage.core.alignment.binary.AlignmentCoverageBinaryFormat.*;
+
+/**
+ * Writes the coverage and mean coverage of every AlignmentRegion as a compressed block,
+ * with an index of the blocks at the end of the file. See {@link AlignmentCoverageBinaryFormat}
+ *
+ * CoverageFileName     : <name>.coverage.bin
+ */
+public class AlignmentCoverageBinaryDataWriter implements DataWriter<AlignmentRegion> {
+
+    public static final String EXTENSION = ".coverage.bin";
+
+    private final String coverageFilename;
+    private final Deflater deflater;
+    private final ByteArrayOutputStream blockBytes;
+    private final DataOutputStream block;
+    private byte[] compressed;
+
+    private DataOutputStream output;
+    private long offset;
+    private final List<AlignmentCoverageBinaryDataReader.BlockIndex> index;
+
+    protected static org.slf4j.Logger logger = LoggerFactory.getLogger(AlignmentCoverageBinaryDataWriter.class);
+
+    public AlignmentCoverageBinaryDataWriter(String baseFilename) {
+        this.coverageFilename = baseFilename + EXTENSION;
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        this.blockBytes = new ByteArrayOutputStream(1 << 20);
+        this.block = new DataOutputStream(blockBytes);
+        this.compressed = new byte[1 << 16];
+        this.index = new ArrayList<>();
+    }
+
+    @Override
+    public boolean open() {
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(coverageFilename), 1 << 20));
+        } catch (FileNotFoundException e) {
+            logger.error(e.toString(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean pre() {
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            offset = 8;
+        } catch (IOException e) {
+            logger.error(e.toString(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean post() {
+        try {
+            long indexOffset = offset;
+            output.writeInt(index.size());
+            for (AlignmentCoverageBinaryDataReader.BlockIndex blockIndex : index) {
+                output.writeUTF(blockIndex.getChromosome());
+                output.writeLong(blockIndex.getStart());
+                output.writeLong(blockIndex.getEnd());
+                output.writeLong(blockIndex.getOffset());
+            }
+            output.writeLong(indexOffset);
+            output.writeInt(MAGIC);
+            output.flush();
+        } catch (IOException e) {
+            logger.error(e.toString(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        try {
+            output.close();
+            deflater.end();
+        } catch (IOException e) {
+            logger.error(e.toString(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean write(AlignmentRegion elem) {
+        try {
+            encodeMeanCoverage(elem.getMeanCoverage());
+            byte[] meanCoverage = blockBytes.toByteArray();
+            encodeCoverage(elem.getCoverage());
+            byte[] coverage = blockBytes.toByteArray();
+
+            //compress may grow the compressed buffer, so it must be called before reading it
+            int meanCoverageCompressedLength = compress(meanCoverage);
+            byte[] meanCoverageCompressed = Arrays.copyOf(compressed, meanCoverageCompressedLength);
+            int coverageCompressed = compress(coverage);
+
+            blockBytes.reset();
+            block.writeUTF(elem.getChromosome());
+            block.writeLong(elem.getStart());
+            block.writeLong(elem.getEnd());
+            block.writeInt(meanCoverage.length);
+            block.writeInt(meanCoverageCompressed.length);
+            block.writeInt(coverage.length);
+            block.writeInt(coverageCompressed);
+            block.write(meanCoverageCompressed);
+            block.write(compressed, 0, coverageCompressed);
+            blockBytes.writeTo(output);
+
+            index.add(new AlignmentCoverageBinaryDataReader.BlockIndex(
+                    elem.getChromosome(), elem.getStart(), elem.getEnd(), offset));
+            offset += blockBytes.size();
+        } catch (IOException e) {
+            logger.error(e.toString(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean write(List<AlignmentRegion> batch) {
+        for (AlignmentRegion alignmentRegion : batch) {
+            if (alignmentRegion != null && !write(alignmentRegion)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void encodeMeanCoverage(List<MeanCoverage> meanCoverageList) throws IOException {
+        blockBytes.reset();
+        if (meanCoverageList == null || meanCoverageList.isEmpty()) {
+            return;
+        }
+        writeVarInt(block, meanCoverageList.size());
+        String chromosome = null;
+        String name = null;
+        int start = 0;
+        for (MeanCoverage meanCoverage : meanCoverageList) {
+            String meanChromosome = meanCoverage.getRegion().getChromosome();
+            boolean newChromosome = !meanChromosome.equals(chromosome);
+            boolean newName = !meanCoverage.getName().equals(name);
+            block.writeByte((newChromosome ? 1 : 0) | (newName ? 2 : 0));
+            if (newChromosome) {
+                block.writeUTF(meanChromosome);
+                chromosome = meanChromosome;
+            }
+            if (newName) {
+                block.writeUTF(meanCoverage.getName());
+                name = meanCoverage.getName();
+            }
+            writeZigZag(block, meanCoverage.getRegion().getStart() - start);
+            start = meanCoverage.getRegion().getStart();
+            writeVarInt(block, meanCoverage.getSize());
+            block.writeFloat(meanCoverage.getCoverage());
+            if (meanCoverage instanceof CoverageLevel) {
+                writeVarInt(block, ((CoverageLevel) meanCoverage).getMin());
+                writeVarInt(block, ((CoverageLevel) meanCoverage).getMax());
+            } else {
+                writeVarInt(block, 0);
+                writeVarInt(block, 0);
+            }
+        }
+    }
+
+    private void encodeCoverage(RegionCoverage coverage) throws IOException {
+        blockBytes.reset();
+        if (coverage == null) {
+            return;
+        }
+        block.writeUTF(coverage.getChromosome());
+        block.writeLong(coverage.getStart());
+        block.writeLong(coverage.getEnd());
+        writeVarInt(block, coverage.getAll().length);
+        encodeCounts(coverage.getAll());
+        encodeCounts(coverage.getA());
+        encodeCounts(coverage.getC());
+        encodeCounts(coverage.getG());
+        encodeCounts(coverage.getT());
+    }
+
+    private void encodeCounts(short[] counts) throws IOException {
+        int previous = 0;
+        for (short count : counts) {
+            writeZigZag(block, count - previous);
+            previous = count;
+        }
+    }
+
+    /**
+     * @return Length of the compressed bytes, written in the compressed buffer
+     */
+    private int compress(byte[] bytes) {
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        return length;
+    }
+
+    public String getCoverageFilename() {
+        return coverageFilename;
+    }
+}
@@ -0,0 +1,64 @@
+package org.opencb.opencga.storage.core.alignment.binary;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Layout of the binary coverage files, <name>.coverage.bin
+ *
+ * <pre>
+ *  header : magic (int), version (int)
+ *  blocks : one per AlignmentRegion
+ *           chromosome (UTF), start (long), end (long),
+ *           mean coverage length and compressed length (int, int),
+ *           coverage length and compressed length (int, int),
+ *           deflated mean coverage, deflated coverage
+ *  index  : number of blocks (int), and for every block: chromosome (UTF), start (long), end (long), offset (long)
+ *  footer : index offset (long), magic (int)
+ * </pre>
+ *
+ * Mean coverage: number of intervals (varint), and for every interval: the chromosome and name (UTF) only if they
+ * change from the previous interval, the start delta and size (varints), coverage (float), min and max (varints).
+ * Coverage: chromosome (UTF), start and end (long), number of positions (varint), and for every array
+ * (all, A, C, G, T) the zigzag delta of every count with the previous one (varints).
+ */
+final class AlignmentCoverageBinaryFormat {
+
+    static final int MAGIC = 0x4F434743;    // "OCGC"
+    static final int VERSION = 1;
+    static final int FOOTER_SIZE = 12;
+
+    private AlignmentCoverageBinaryFormat() {
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static void writeZigZag(DataOutput out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int readZigZag(DataInput in) throws IOException {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
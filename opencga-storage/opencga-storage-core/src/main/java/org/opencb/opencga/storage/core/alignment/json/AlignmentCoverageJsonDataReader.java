@@ -9,6 +9,7 @@ import org.opencb.biodata.models.alignment.stats.MeanCoverage;
 import org.opencb.biodata.models.alignment.stats.RegionCoverage;
 import org.opencb.biodata.models.feature.Region;
 import org.opencb.commons.io.DataReader;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
@@ -108,7 +109,7 @@ public class AlignmentCoverageJsonDataReader implements DataReader<AlignmentRegi
     private MeanCoverage readMeanCoverage(){
         MeanCoverage meanCoverage = null;
         try {
-            meanCoverage = meanCoverageParser.readValueAs(MeanCoverage.class);
+            meanCoverage = meanCoverageParser.readValueAs(CoverageLevel.class);
         } catch (IOException e) {
 //            logger.error(e.toString(), e);
         }
@@ -0,0 +1,79 @@
+package org.opencb.opencga.storage.core.alignment.stats;
+
+import org.opencb.biodata.models.alignment.stats.MeanCoverage;
+import org.opencb.biodata.models.feature.Region;
+
+/**
+ * Mean coverage of an interval, with the minimum and maximum coverage of any position in it.
+ *
+ * The coverage pyramid is a set of levels of fixed size intervals, from PYRAMID_BASE_SIZE bp to
+ * PYRAMID_BASE_SIZE * PYRAMID_FACTOR^(PYRAMID_LEVELS-1) bp (64 bp to 1 Mbp). Every level is built
+ * from the intervals of the level below, and queries read the level closest to the requested interval size.
+ */
+public class CoverageLevel extends MeanCoverage {
+
+    public static final int PYRAMID_BASE_SIZE = 64;
+    public static final int PYRAMID_FACTOR = 4;
+    public static final int PYRAMID_LEVELS = 8;
+    public static final String PYRAMID_NAME_PREFIX = "p";
+
+    private int min;
+    private int max;
+
+    public CoverageLevel() {
+    }
+
+    public CoverageLevel(int size, String name, Region region, float coverage, int min, int max) {
+        super(size, name, region, coverage);
+        this.min = min;
+        this.max = max;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public void setMin(int min) {
+        this.min = min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public void setMax(int max) {
+        this.max = max;
+    }
+
+    /**
+     * @param level Level of the pyramid, starting at 0
+     * @return      Size of the intervals of the level
+     */
+    public static int getPyramidSize(int level) {
+        int size = PYRAMID_BASE_SIZE;
+        for (int i = 0; i < level; i++) {
+            size *= PYRAMID_FACTOR;
+        }
+        return size;
+    }
+
+    public static String getPyramidName(int size) {
+        return PYRAMID_NAME_PREFIX + size;
+    }
+
+    public static boolean isPyramidName(String name) {
+        return name != null && name.startsWith(PYRAMID_NAME_PREFIX);
+    }
+
+    /**
+     * @param intervalSize Size of the requested intervals
+     * @return             The biggest level with intervals not bigger than intervalSize, or the first level.
+     */
+    public static int getClosestPyramidLevel(int intervalSize) {
+        int level = 0;
+        while (level + 1 < PYRAMID_LEVELS && getPyramidSize(level + 1) <= intervalSize) {
+            level++;
+        }
+        return level;
+    }
+}
@@ -13,6 +13,7 @@ import org.opencb.biodata.models.alignment.stats.MeanCoverage;
 import org.opencb.biodata.models.alignment.stats.RegionCoverage;
 import org.opencb.biodata.models.feature.Region;
 import org.opencb.commons.run.Task;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
 
 
 /**
@@ -25,141 +26,230 @@ import org.opencb.commons.run.Task;
 public class AlignmentRegionCoverageCalculatorTask extends Task<AlignmentRegion> {
 
     /**
-     * Calculates the Mean Coverage at intervals.
+     * Calculates the Mean Coverage at intervals, with the min and max coverage of each interval.
      *
+     * Positions without coverage count as 0. If it has a parent, every finished interval is also folded
+     * into the bigger intervals of the parent, so the levels of a pyramid only read the coverage once.
+     * The unfinished interval of every level is emitted with {@link #flush(List)}, and emitted again when it
+     * gets more coverage, so the last emission of an interval is the complete one.
      */
     private class MeanCoverageCalculator {
         private final int size;
         private final String name;
-
-        private int accumulator;
+        private MeanCoverageCalculator parent;
+
+        private long accumulator;
+        private int min;
+        private int max;
+        private int covered;    //Positions of the interval seen
+        private long foldedAccumulator; //Already folded into the parent by a flush
+        private int foldedCovered;
         private long next;
+        private String chromosome;
 
         public MeanCoverageCalculator(String name){
-            this.accumulator = 0;
-            this.next = 0;
-            this.size = MeanCoverage.nameToSizeConvert(name);
-            this.name = name;
+            this(MeanCoverage.nameToSizeConvert(name), name);
         }
         public MeanCoverageCalculator(int size, String name){
-            this.accumulator = 0;
             this.next = 0;
             this.size = size;
             this.name = name;
+            clear();
         }
 
 
-        public List<MeanCoverage> calculateMeanCoverage(RegionCoverage coverage){
+        /**
+         * @param chromosome    Chromosome of the coverage
+         * @param coverageStart Position of the first value
+         * @param all           Coverage of every position
+         * @param length        Number of valid values in all
+         */
+        public List<MeanCoverage> calculateMeanCoverage(String chromosome, long coverageStart, int[] all, int length){
             List<MeanCoverage> list = new LinkedList<>();
-            final short[] all = coverage.getAll();
 
-            if (coverage.getStart() >= next) {
-                Region region = new Region(coverage.getChromosome(), (int)next - size, (int)next - 1);
-                list.add(new MeanCoverage(size, name, region, (float)accumulator /size));
-                reset(coverage.getStart());
+            if (!chromosome.equals(this.chromosome)) {
+                finish(list);
+                reset(coverageStart);
+                this.chromosome = chromosome;
+            } else if (coverageStart >= next) {
+                emit(list, true);
+                reset(coverageStart);
             }
 
             int i = 0;
-            boolean lastIteration = false;
-            while (i < all.length) {
-                int lim = (int) (next-coverage.getStart());
-                if(all.length < lim) {
-                    lim = all.length;
-                    lastIteration = true;
-                }
+            while (i < length) {
+                long intervalEnd = next - coverageStart;
+                int lim = (int) Math.min(intervalEnd, length);
+                covered += lim - i;
                 for(; i < lim; i++) {
-                    accumulator += all[i];
+                    int value = all[i];
+                    accumulator += value;
+                    if (value < min) {
+                        min = value;
+                    }
+                    if (value > max) {
+                        max = value;
+                    }
                 }
-                if(!lastIteration) {    //The last iteration will keep the value for the next call to this function
-                    Region region = new Region(coverage.getChromosome(), (int) next - size, (int) next - 1);
-                    list.add(new MeanCoverage(size, name, region, (float) accumulator / size));
+                if(lim == intervalEnd) {    //Otherwise, keep the value for the next call to this function
+                    emit(list, true);
                     next += size;
-                    accumulator = 0;
                 }
             }
 
             return list;
         }
 
-        public void reset(long position){
-            this.next =((position-1)/size+1)*size+1;  //Calculates the NEXT interval starting position
-            this.accumulator = 0;                   //Reset the accumulator
+        /**
+         * Adds the coverage of an interval of the child level, not added before.
+         *
+         * @param finished  The child interval is complete. Otherwise it was flushed, and can get more coverage.
+         */
+        private void fold(String chromosome, long start, long end, long sum, int min, int max, int covered,
+                          boolean finished, List<MeanCoverage> list) {
+            if (start >= next || !chromosome.equals(this.chromosome)) {
+                if (this.chromosome != null) {
+                    emit(list, true);
+                }
+                reset(start);
+                this.chromosome = chromosome;
+            }
+            this.accumulator += sum;
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
+            this.covered += covered;
+            if (finished && end == next - 1) {
+                emit(list, true);
+                next += size;
+            }
         }
 
-    }
-
-    private class NativeShortArrayList{
-        private short[] array = new short[0];
-        private int size = 0;
-        private int capacity = 0;
-
-        private NativeShortArrayList(int capacity) {
-            this.capacity = capacity;
-            this.array = new short[capacity];
+        /**
+         * Emits the unfinished interval, folding it into the parent, and then the unfinished intervals of the parents.
+         * The intervals stay open, so the coverage of the next regions in them is not lost.
+         */
+        public void flush(List<MeanCoverage> list) {
+            if (chromosome != null) {
+                emit(list, false);
+            }
+            if (parent != null) {
+                parent.flush(list);
+            }
         }
 
-        private NativeShortArrayList() {
-            this.capacity = 0;
+        /**
+         * Emits and closes the unfinished interval of this and every parent level. The next call starts a new interval.
+         */
+        public void finish(List<MeanCoverage> list) {
+            if (chromosome != null) {
+                emit(list, true);
+                chromosome = null;
+            }
+            if (parent != null) {
+                parent.finish(list);
+            }
         }
 
-        public void resize(int newSize){
-            array = Arrays.copyOf(array, newSize);
-            capacity = newSize;
+        /**
+         * @param finished  Close the interval. Otherwise keep the accumulators, and only fold the new coverage later.
+         */
+        private void emit(List<MeanCoverage> list, boolean finished) {
+            if (covered > foldedCovered) {
+                long start = next - size;
+                Region region = new Region(chromosome, (int) start, (int) next - 1);
+                int intervalMin = covered < size ? 0 : min;
+                list.add(new CoverageLevel(size, name, region, (float) accumulator / size, intervalMin, max));
+                if (parent != null) {
+                    parent.fold(chromosome, start, next - 1, accumulator - foldedAccumulator, min, max,
+                            covered - foldedCovered, finished, list);
+                }
+            } else if (finished && covered > 0 && parent != null) {
+                //Nothing new since the last flush, but the parent may be waiting for this interval to end
+                parent.fold(chromosome, next - size, next - 1, 0, min, max, 0, true, list);
+            }
+            if (finished) {
+                clear();
+            } else {
+                foldedAccumulator = accumulator;
+                foldedCovered = covered;
+            }
         }
 
-        public void clear(){
-            size = 0;
+        private void clear() {
+            accumulator = 0;
+            min = Integer.MAX_VALUE;
+            max = 0;
+            covered = 0;
+            foldedAccumulator = 0;
+            foldedCovered = 0;
         }
-        public void empty(){
-            size = 0;
-            array = null;
-        }
-        public short get(int position){
-            return array[position];
+
+        public void reset(long position){
+            this.next =((position-1)/size+1)*size+1;  //Calculates the NEXT interval starting position
+            clear();                                //Reset the accumulators
         }
 
-        public void add(short elem){
-            if(size >= capacity){
-                resize(capacity*2);
+    }
+
+    /**
+     * Reusable buffer with the finished per-base counters of the current AlignmentRegion.
+     */
+    private static class CoverageBuffer {
+        private int[] a = new int[0];
+        private int[] c = new int[0];
+        private int[] g = new int[0];
+        private int[] t = new int[0];
+        private int[] all = new int[0];
+        private int size = 0;
+
+        private void ensureCapacity(int capacity) {
+            if (all.length < capacity) {
+                int newCapacity = Math.max(capacity, (int) (all.length * 1.4));
+                a = Arrays.copyOf(a, newCapacity);
+                c = Arrays.copyOf(c, newCapacity);
+                g = Arrays.copyOf(g, newCapacity);
+                t = Arrays.copyOf(t, newCapacity);
+                all = Arrays.copyOf(all, newCapacity);
             }
-            array[size++] = elem;
-        }
-        private int size() {
-            return size;
         }
 
-        private short[] getArray() {
-            return Arrays.copyOfRange(array, 0, size);
-        }
-        private int getCapacity() {
-            return capacity;
+        private void clear() {
+            size = 0;
         }
 
+        /**
+         * RegionCoverage stores shorts. Values over Short.MAX_VALUE are saturated instead of overflowed.
+         */
+        private short[] toShortArray(int[] counters) {
+            short[] values = new short[size];
+            for (int i = 0; i < size; i++) {
+                int value = counters[i];
+                values[i] = value > Short.MAX_VALUE ? Short.MAX_VALUE : (short) value;
+            }
+            return values;
+        }
     }
 
     private List<MeanCoverageCalculator> meanCoverageCalculator;
 
     private long start, end;
-    private RegionCoverage coverage;
     private int  regionCoverageSize;
     private long regionCoverageMask;
 
-    private NativeShortArrayList a;
-    private NativeShortArrayList c;
-    private NativeShortArrayList g;
-    private NativeShortArrayList t;
-    private NativeShortArrayList all;
+    /* Circular arrays with the per-base counters of the unfinished positions */
+    private int[] a;
+    private int[] c;
+    private int[] g;
+    private int[] t;
+    private int[] all;
 
-    private int savedSize;
+    private final CoverageBuffer saved;
+    private AlignmentRegion lastRegion;
 
 
     public AlignmentRegionCoverageCalculatorTask() {
         setRegionCoverageSize(4000);
-        a = new   NativeShortArrayList();
-        c = new   NativeShortArrayList();
-        g = new   NativeShortArrayList();
-        t = new   NativeShortArrayList();
-        all = new NativeShortArrayList();
+        saved = new CoverageBuffer();
 
         meanCoverageCalculator = new ArrayList<>();
 
@@ -168,7 +258,7 @@ public class AlignmentRegionCoverageCalculatorTask extends Task<AlignmentRegion>
 
     public void reset(){
         start = end = 0;
-        savedSize = 0;
+        saved.clear();
     }
 
     /**
@@ -205,23 +295,14 @@ public class AlignmentRegionCoverageCalculatorTask extends Task<AlignmentRegion>
             /*
                 Initialize
              */
+            List<MeanCoverage> meanCoverageList = new ArrayList<>(meanCoverageCalculator.size());
             long coverageStart = start;
             if(start == 0){                 //Set Default value
                 coverageStart = start = end = alignmentRegion.getStart();
-                for(MeanCoverageCalculator aux : meanCoverageCalculator){
-                    aux.reset(start);
-                }
-            }
-            int totalSize = (int)(alignmentRegion.getEnd()-alignmentRegion.getStart());
-            if(all.getCapacity() < totalSize){
-                totalSize*=1.4;
-                all.resize(totalSize);
-                a.resize(totalSize);
-                c.resize(totalSize);
-                g.resize(totalSize);
-                t.resize(totalSize);
+                //The mean coverage calculators keep their unfinished intervals. The positions in between count as 0
             }
-            savedSize = 0;
+            saved.ensureCapacity((int)(alignmentRegion.getEnd()-alignmentRegion.getStart()) + 1);
+            saved.clear();
 
             /*
                 Calculate Coverage
@@ -239,35 +320,33 @@ public class AlignmentRegionCoverageCalculatorTask extends Task<AlignmentRegion>
              */
             RegionCoverage regionCoverage = new RegionCoverage();
 
-            regionCoverage.setA(a.getArray());
-            regionCoverage.setC(c.getArray());
-            regionCoverage.setG(g.getArray());
-            regionCoverage.setT(t.getArray());
-            regionCoverage.setAll(all.getArray());
+            regionCoverage.setA(saved.toShortArray(saved.a));
+            regionCoverage.setC(saved.toShortArray(saved.c));
+            regionCoverage.setG(saved.toShortArray(saved.g));
+            regionCoverage.setT(saved.toShortArray(saved.t));
+            regionCoverage.setAll(saved.toShortArray(saved.all));
 
 
             regionCoverage.setStart(coverageStart);
-            regionCoverage.setEnd(coverageStart + savedSize);
+            regionCoverage.setEnd(coverageStart + saved.size);
             regionCoverage.setChromosome(alignmentRegion.getChromosome());
 
 
-         //   assert start-coverageStart == savedSize;  //TODO jcoll: Assert this
+         //   assert start-coverageStart == saved.size;  //TODO jcoll: Assert this
             alignmentRegion.setCoverage(regionCoverage);
-            savedSize = 0;
-            a.clear();
-            c.clear();
-            g.clear();
-            t.clear();
-            all.clear();
 
             /*
-                Create Mean Coverage List
+                Create Mean Coverage List. Uses the counters, so the means are not affected by the saturation.
              */
-            List<MeanCoverage> meanCoverageList = new ArrayList<>(meanCoverageCalculator.size());
             for(MeanCoverageCalculator aux: meanCoverageCalculator){
-                meanCoverageList.addAll(aux.calculateMeanCoverage(regionCoverage));
+                meanCoverageList.addAll(aux.calculateMeanCoverage(alignmentRegion.getChromosome(), coverageStart, saved.all, saved.size));
+                if(!alignmentRegion.isOverlapEnd()){
+                    aux.flush(meanCoverageList);    //Emit the unfinished intervals of every level, in case this is the last region
+                }
             }
             alignmentRegion.setMeanCoverage(meanCoverageList);
+            lastRegion = alignmentRegion;
+            saved.clear();
 
             if(!alignmentRegion.isOverlapEnd()){
                 end = alignmentRegion.getEnd();
@@ -277,32 +356,48 @@ public class AlignmentRegionCoverageCalculatorTask extends Task<AlignmentRegion>
         return true;
     }
 
-    private void saveCoverage(long endP){
-        //Saves the actual coverage from start to end
-        int pos;
-        for(long i = start; i < endP; i++){
-            pos = (int)(i & regionCoverageMask);
-
-            a.add(/*savedSize,*/ coverage.getA()[pos]);
-            coverage.getA()[pos] = 0;
-
-            c.add(/*savedSize, */coverage.getC()[pos]);
-            coverage.getC()[pos] = 0;
-
-            g.add(/*savedSize, */coverage.getG()[pos]);
-            coverage.getG()[pos] = 0;
-
-            t.add(/*savedSize, */coverage.getT()[pos]);
-            coverage.getT()[pos] = 0;
-
-            all.add(/*savedSize, */coverage.getAll()[pos]);
+    /**
+     * Closes the unfinished intervals of every level. They are added to the mean coverage of the last region,
+     * if it was left open (overlapEnd). Otherwise they were already emitted with it.
+     */
+    @Override
+    public boolean post() {
+        List<MeanCoverage> meanCoverageList = new ArrayList<>();
+        for (MeanCoverageCalculator aux : meanCoverageCalculator) {
+            aux.finish(meanCoverageList);
+        }
+        if (lastRegion != null && lastRegion.isOverlapEnd()) {
+            lastRegion.getMeanCoverage().addAll(meanCoverageList);
+        }
+        return true;
+    }
 
-            coverage.getAll()[pos] = 0;
-            savedSize++;
+    private void saveCoverage(long endP){
+        //Saves the actual coverage from start to end, and clears it from the circular arrays
+        int length = (int) (endP - start);
+        if (length > 0) {
+            saved.ensureCapacity(saved.size + length);
+            int pos = (int) (start & regionCoverageMask);
+            while (length > 0) {
+                int chunk = Math.min(length, regionCoverageSize - pos);
+                moveCoverage(a, pos, saved.a, saved.size, chunk);
+                moveCoverage(c, pos, saved.c, saved.size, chunk);
+                moveCoverage(g, pos, saved.g, saved.size, chunk);
+                moveCoverage(t, pos, saved.t, saved.size, chunk);
+                moveCoverage(all, pos, saved.all, saved.size, chunk);
+                saved.size += chunk;
+                length -= chunk;
+                pos = 0;
+            }
         }
         start = endP;
     }
 
+    private static void moveCoverage(int[] src, int srcPos, int[] dest, int destPos, int length) {
+        System.arraycopy(src, srcPos, dest, destPos, length);
+        Arrays.fill(src, srcPos, srcPos + length, 0);
+    }
+
     private int coverage(Alignment alignment){
         if((alignment.getFlags() & Alignment.SEGMENT_UNMAPPED) != 0){
             return 0;
@@ -333,7 +428,7 @@ public class AlignmentRegionCoverageCalculatorTask extends Task<AlignmentRegion>
         int pos = 0;
         for(AlignmentDifference diff : alignment.getDifferences()){
             for(; pos + clipping < diff.getPos(); pos++){
-                    coverage.getAll()[(int) ((pos + start) & regionCoverageMask)]++;
+                    all[(int) ((pos + start) & regionCoverageMask)]++;
             }
             switch(diff.getOp()){
                 case AlignmentDifference.INSERTION:
@@ -356,24 +451,25 @@ public class AlignmentRegionCoverageCalculatorTask extends Task<AlignmentRegion>
                 case AlignmentDifference.MISMATCH: {
                     seq = diff.getSeq();
                     if(seq != null){
-                        for(char c : seq.toCharArray()){
-                            switch(c){
+                        for(int i = 0; i < seq.length(); i++){
+                            int index = (int) ((pos + start) & regionCoverageMask);
+                            switch(seq.charAt(i)){
                                 case 'A':
-                                    coverage.getA()[(int) ((pos + start) & regionCoverageMask)]++;
+                                    a[index]++;
                                     break;
                                 case 'C':
-                                    coverage.getC()[(int) ((pos + start) & regionCoverageMask)]++;
+                                    c[index]++;
                                     break;
                                 case 'G':
-                                    coverage.getG()[(int) ((pos + start) & regionCoverageMask)]++;
+                                    g[index]++;
                                     break;
                                 case 'T':
-                                    coverage.getT()[(int) ((pos + start) & regionCoverageMask)]++;
+                                    t[index]++;
                                     break;
                                 default:
                                     break;
                             }
-                            coverage.getAll()[(int) ((pos + start) & regionCoverageMask)]++;
+                            all[index]++;
                             pos++;
                         }
                     }   //else, in the next loop will increase the "all" coverage
@@ -383,7 +479,7 @@ public class AlignmentRegionCoverageCalculatorTask extends Task<AlignmentRegion>
             }
         }
         for (; pos + clipping - offset < alignment.getLength() ; pos++) {
-            coverage.getAll()[(int) ((pos + start) & regionCoverageMask)]++;
+            all[(int) ((pos + start) & regionCoverageMask)]++;
         }
         //assert pos == validBases;
         if(pos + clipping - offset != alignment.getLength()){
@@ -407,20 +503,36 @@ public class AlignmentRegionCoverageCalculatorTask extends Task<AlignmentRegion>
         //int lg = 31 - Integer.numberOfLeadingZeros(size);
         int newRegionCoverageSize = 1 << lg;
         int newRegionCoverageMask = newRegionCoverageSize - 1;
-        RegionCoverage newCoverage = new RegionCoverage(newRegionCoverageSize);
-
-        if(coverage != null){
-            for(int i = 0; i < (end-start); i++){
-                newCoverage.getA()[(int)((start+i)&newRegionCoverageMask)] = coverage.getA()[(int)((start+i)&regionCoverageMask)];
-            }
+        if(all != null){
+            a = resizeCircularArray(a, newRegionCoverageSize);
+            c = resizeCircularArray(c, newRegionCoverageSize);
+            g = resizeCircularArray(g, newRegionCoverageSize);
+            t = resizeCircularArray(t, newRegionCoverageSize);
+            all = resizeCircularArray(all, newRegionCoverageSize);
+        } else {
+            a = new int[newRegionCoverageSize];
+            c = new int[newRegionCoverageSize];
+            g = new int[newRegionCoverageSize];
+            t = new int[newRegionCoverageSize];
+            all = new int[newRegionCoverageSize];
         }
 
         regionCoverageSize = newRegionCoverageSize;
         regionCoverageMask = newRegionCoverageMask;
-        coverage = newCoverage;
 //        System.out.println("Region Coverage Mask : " + regionCoverageMask);
     }
 
+    /**
+     * Moves the unfinished positions [start, end] to a bigger circular array.
+     */
+    private int[] resizeCircularArray(int[] array, int newSize) {
+        int[] newArray = new int[newSize];
+        for(long i = start; i <= end; i++){
+            newArray[(int) (i & (newSize - 1))] = array[(int) (i & regionCoverageMask)];
+        }
+        return newArray;
+    }
+
     public void addMeanCoverageCalculator(int size, String name) {
         this.meanCoverageCalculator.add(new MeanCoverageCalculator(size, name));
     }
@@ -429,5 +541,23 @@ public class AlignmentRegionCoverageCalculatorTask extends Task<AlignmentRegion>
         this.meanCoverageCalculator.add(new MeanCoverageCalculator(name));
     }
 
+    /**
+     * Adds the levels of the coverage pyramid, from CoverageLevel.PYRAMID_BASE_SIZE bp intervals.
+     * Only the first level reads the coverage, the rest are built from the level below.
+     */
+    public void addCoveragePyramid() {
+        MeanCoverageCalculator child = null;
+        for (int level = 0; level < CoverageLevel.PYRAMID_LEVELS; level++) {
+            int size = CoverageLevel.getPyramidSize(level);
+            MeanCoverageCalculator calculator = new MeanCoverageCalculator(size, CoverageLevel.getPyramidName(size));
+            if (child == null) {
+                this.meanCoverageCalculator.add(calculator);
+            } else {
+                child.parent = calculator;
+            }
+            child = calculator;
+        }
+    }
+
 
 }
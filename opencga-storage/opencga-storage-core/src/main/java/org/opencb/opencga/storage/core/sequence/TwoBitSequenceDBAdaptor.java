@@ -0,0 +1,405 @@
+package org.opencb.opencga.storage.core.sequence;
+
+import org.opencb.biodata.formats.sequence.fasta.dbadaptor.SequenceDBAdaptor;
+import org.opencb.biodata.models.feature.Region;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reference sequence stored as a packed 2-bit file, read through memory-mapped buffers.
+ *
+ * The file is mapped in windows of fixed size, shared by all the sequences, the first time they are read.
+ * Files with thousands of contigs need a handful of mappings, not one per contig.
+ *
+ * File layout (not compatible with the UCSC 2bit format):
+ * <pre>
+ *  header   : magic (int), version (int), index offset (long)
+ *  data     : for every sequence, its bases packed 4 per byte, A=0 C=1 G=2 T=3, first base in the highest bits
+ *  index    : number of sequences (int), and for every sequence:
+ *             name (UTF), length (int), data offset (long),
+ *             number of N blocks (int), followed by the start (0-based) and length of every block (int, int)
+ * </pre>
+ *
+ * Any base other than A, C, G or T is stored as N, and sequences are returned in upper case.
+ */
+public class TwoBitSequenceDBAdaptor extends SequenceDBAdaptor {
+
+    public static final String EXTENSION = ".2bit.db";
+
+    private static final int MAGIC = 0x4F434732;    // "OCG2"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int INDEX_OFFSET_POSITION = 8;
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    /** The 4 bases packed in every possible byte */
+    private static final char[] UNPACKED = new char[256 * 4];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            for (int i = 0; i < 4; i++) {
+                UNPACKED[b * 4 + i] = BASES[(b >> (6 - 2 * i)) & 3];
+            }
+        }
+    }
+
+    /** Default size of the mapped windows, 1GB */
+    private static final int DEFAULT_WINDOW_BITS = 30;
+
+    private Path dbPath;
+    private Map<String, Sequence> sequences;
+    private final int windowBits;
+    private RandomAccessFile file;
+    private AtomicReferenceArray<MappedByteBuffer> windows;
+
+    private static class Sequence {
+        private final int length;
+        private final long dataOffset;
+        private final int[] nStarts;
+        private final int[] nEnds;
+
+        Sequence(int length, long dataOffset, int[] nStarts, int[] nEnds) {
+            this.length = length;
+            this.dataOffset = dataOffset;
+            this.nStarts = nStarts;
+            this.nEnds = nEnds;
+        }
+    }
+
+    public TwoBitSequenceDBAdaptor() {
+        this.windowBits = DEFAULT_WINDOW_BITS;
+    }
+
+    /**
+     * @param input Accept formats: *.2bit.db
+     * @throws IllegalArgumentException If the file does not exist or is not a 2-bit sequence file
+     */
+    public TwoBitSequenceDBAdaptor(Path input) {
+        this(input, DEFAULT_WINDOW_BITS);
+    }
+
+    /**
+     * @param windowBits Size of the mapped windows, as a power of 2
+     */
+    TwoBitSequenceDBAdaptor(Path input, int windowBits) {
+        if (input == null || !input.toString().endsWith(EXTENSION)) {
+            throw new IllegalArgumentException("Sequence file '" + input + "' is not a 2-bit sequence file (*" + EXTENSION
+                    + "). FASTA files must be indexed first");
+        }
+        if (!Files.isRegularFile(input)) {
+            throw new IllegalArgumentException("Sequence file '" + input + "' not found");
+        }
+        dbPath = input;
+        this.windowBits = windowBits;
+    }
+
+    @Override
+    public void open() throws IOException {
+        Map<String, Sequence> sequences = new HashMap<>();
+        RandomAccessFile file = new RandomAccessFile(dbPath.toFile(), "r");
+        try {
+            if (file.readInt() != MAGIC) {
+                throw new IOException("File " + dbPath + " is not a 2-bit sequence file");
+            }
+            int version = file.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of 2-bit sequence file " + dbPath);
+            }
+            long indexOffset = file.readLong();
+            file.seek(indexOffset);
+            DataInputStream index = new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD())));
+            int numSequences = index.readInt();
+            for (int i = 0; i < numSequences; i++) {
+                String name = index.readUTF();
+                int length = index.readInt();
+                long dataOffset = index.readLong();
+                int numBlocks = index.readInt();
+                int[] nStarts = new int[numBlocks];
+                int[] nEnds = new int[numBlocks];
+                for (int j = 0; j < numBlocks; j++) {
+                    nStarts[j] = index.readInt();
+                    nEnds[j] = nStarts[j] + index.readInt();
+                }
+                sequences.put(name, new Sequence(length, dataOffset, nStarts, nEnds));
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        this.file = file;
+        this.windows = new AtomicReferenceArray<>((int) ((file.length() - 1 >> windowBits) + 1));
+        this.sequences = sequences;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Mapped buffers are released when they are garbage collected
+        sequences = null;
+        windows = null;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    /**
+     * @return The window of the file containing the position, mapped the first time it is requested
+     */
+    private synchronized MappedByteBuffer getWindow(AtomicReferenceArray<MappedByteBuffer> windows, int window)
+            throws IOException {
+        MappedByteBuffer buffer = windows.get(window);
+        if (buffer == null) {
+            if (file == null) {
+                throw new IOException("Sequence file " + dbPath + " is not open");
+            }
+            long offset = (long) window << windowBits;
+            long size = Math.min(1L << windowBits, file.length() - offset);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, size);
+            windows.set(window, buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @return Number of windows of the file mapped so far
+     */
+    int getMappedWindows() {
+        int mapped = 0;
+        for (int i = 0; windows != null && i < windows.length(); i++) {
+            if (windows.get(i) != null) {
+                mapped++;
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * @return The packed byte at the position of the file
+     */
+    private byte getByte(long position, AtomicReferenceArray<MappedByteBuffer> windows) throws IOException {
+        int window = (int) (position >>> windowBits);
+        MappedByteBuffer buffer = windows.get(window);
+        if (buffer == null) {
+            buffer = getWindow(windows, window);
+        }
+        return buffer.get((int) (position & ((1L << windowBits) - 1)));
+    }
+
+    /**
+     * Returns the sequence stored in the DB of a given region.
+     * The stored sequence will be interpreted as 1-based.
+     *      e.g. The first 10 elements will correspond to the region 1-10
+     *
+     * @param region    Region requested. The end is truncated to the length of the sequence
+     * @return          Sequence 1-based for [region.start, region.end]
+     * @throws IOException If the chromosome is not in the file
+     */
+    @Override
+    public String getSequence(Region region) throws IOException {
+        Sequence sequence = getSequence(region.getChromosome());
+        int start = Math.max(region.getStart(), 1) - 1;     // 0-based, inclusive
+        int end = Math.min(region.getEnd(), sequence.length);      // 0-based, exclusive
+        if (end <= start) {
+            return "";      //Reject bad regions.
+        }
+
+        char[] bases = new char[end - start];
+        AtomicReferenceArray<MappedByteBuffer> windows = this.windows;
+        long data = sequence.dataOffset;
+        int pos = start;
+        int i = 0;
+        // Bases until the first full byte
+        while (pos < end && (pos & 3) != 0) {
+            bases[i++] = UNPACKED[(getByte(data + (pos >> 2), windows) & 0xFF) * 4 + (pos & 3)];
+            pos++;
+        }
+        // Full bytes
+        while (pos + 4 <= end) {
+            System.arraycopy(UNPACKED, (getByte(data + (pos >> 2), windows) & 0xFF) * 4, bases, i, 4);
+            i += 4;
+            pos += 4;
+        }
+        // Remaining bases
+        while (pos < end) {
+            bases[i++] = UNPACKED[(getByte(data + (pos >> 2), windows) & 0xFF) * 4 + (pos & 3)];
+            pos++;
+        }
+
+        // N mask
+        int block = Arrays.binarySearch(sequence.nEnds, start + 1);
+        block = block < 0 ? -block - 1 : block;
+        for (; block < sequence.nStarts.length && sequence.nStarts[block] < end; block++) {
+            Arrays.fill(bases, Math.max(sequence.nStarts[block], start) - start, Math.min(sequence.nEnds[block], end) - start, 'N');
+        }
+
+        return new String(bases);
+    }
+
+    @Override
+    public String getSequence(Region region, String species) throws IOException {
+        return getSequence(region);
+    }
+
+    private Sequence getSequence(String chromosome) throws IOException {
+        if (sequences == null) {
+            throw new IOException("Sequence file " + dbPath + " is not open");
+        }
+        Sequence sequence = sequences.get(chromosome);
+        if (sequence == null) {
+            // Accept names with and without the "chr" prefix
+            if (chromosome.startsWith("chr")) {
+                sequence = sequences.get(chromosome.substring(3));
+            } else {
+                sequence = sequences.get("chr" + chromosome);
+            }
+        }
+        if (sequence == null) {
+            throw new IOException("Chromosome '" + chromosome + "' not found in " + dbPath);
+        }
+        return sequence;
+    }
+
+    /**
+     * Creates a <input>.2bit.db
+     *
+     * The fasta file is read line by line, so sequences do not need to fit in memory.
+     *
+     * @param fastaInput Accept formats: *.fasta, *.fasta.gz
+     * @param outdir     Output directory. If null, the directory of the input file
+     * @return           The created file
+     */
+    public File index(File fastaInput, Path outdir) throws IOException {
+        if (fastaInput == null || !fastaInput.exists()) {
+            throw new FileNotFoundException("Fasta '" + fastaInput + "' file not found");
+        }
+        if (outdir == null) {
+            outdir = Paths.get(fastaInput.toPath().toAbsolutePath().getParent().toString());
+        }
+        Path output = Paths.get(outdir.toAbsolutePath().toString(), fastaInput.getName() + EXTENSION);
+
+        InputStream inputStream = new FileInputStream(fastaInput);
+        if (fastaInput.getName().endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        List<SequenceWriter> written = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output.toFile()), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(0);   // Index offset, written at the end
+            long offset = HEADER_SIZE;
+
+            SequenceWriter current = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(">")) {
+                    if (current != null) {
+                        offset += current.finish(out);
+                    }
+                    current = new SequenceWriter(line.substring(1).trim().split("\\s+")[0], offset);
+                    written.add(current);
+                } else if (current != null) {
+                    current.append(line.trim(), out);
+                }
+            }
+            if (current != null) {
+                offset += current.finish(out);
+            }
+
+            out.writeInt(written.size());
+            for (SequenceWriter sequence : written) {
+                sequence.writeIndex(out);
+            }
+            out.flush();
+
+            try (RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+                file.seek(INDEX_OFFSET_POSITION);
+                file.writeLong(offset);
+            }
+        }
+
+        dbPath = output;
+        return output.toFile();
+    }
+
+    /**
+     * Packs the bases of a sequence while it is read, and keeps its N blocks.
+     */
+    private static class SequenceWriter {
+        private final String name;
+        private final long dataOffset;
+        private int length;
+        private int packed;
+        private final List<int[]> nBlocks = new ArrayList<>();
+        private int nStart = -1;
+
+        SequenceWriter(String name, long dataOffset) {
+            this.name = name;
+            this.dataOffset = dataOffset;
+        }
+
+        void append(String bases, DataOutputStream out) throws IOException {
+            for (int i = 0; i < bases.length(); i++) {
+                int code;
+                switch (bases.charAt(i)) {
+                    case 'A': case 'a': code = 0; break;
+                    case 'C': case 'c': code = 1; break;
+                    case 'G': case 'g': code = 2; break;
+                    case 'T': case 't': code = 3; break;
+                    default: code = -1; break;
+                }
+                if (code < 0) {
+                    if (nStart < 0) {
+                        nStart = length;
+                    }
+                    code = 0;
+                } else if (nStart >= 0) {
+                    nBlocks.add(new int[]{nStart, length - nStart});
+                    nStart = -1;
+                }
+                packed = (packed << 2) | code;
+                length++;
+                if ((length & 3) == 0) {
+                    out.writeByte(packed);
+                    packed = 0;
+                }
+            }
+        }
+
+        /**
+         * @return Number of bytes written for the sequence
+         */
+        long finish(DataOutputStream out) throws IOException {
+            if (nStart >= 0) {
+                nBlocks.add(new int[]{nStart, length - nStart});
+                nStart = -1;
+            }
+            int remaining = length & 3;
+            if (remaining != 0) {
+                out.writeByte(packed << (2 * (4 - remaining)));
+                packed = 0;
+            }
+            return (length + 3) / 4;
+        }
+
+        void writeIndex(DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            out.writeInt(length);
+            out.writeLong(dataOffset);
+            out.writeInt(nBlocks.size());
+            for (int[] block : nBlocks) {
+                out.writeInt(block[0]);
+                out.writeInt(block[1]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+package org.opencb.opencga.storage.core.alignment.binary;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.alignment.AlignmentRegion;
+import org.opencb.biodata.models.alignment.stats.MeanCoverage;
+import org.opencb.biodata.models.alignment.stats.RegionCoverage;
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AlignmentCoverageBinaryDataTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Compressed mean coverage length of the first block: magic, version, chromosome "1", start, end and length */
+    private static final long MEAN_COVERAGE_COMPRESSED_OFFSET = 4 + 4 + 3 + 8 + 8 + 4;
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Random random = new Random(1);
+        List<AlignmentRegion> regions = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            String chromosome = i < 4 ? "1" : "2";
+            int start = (i % 4) * 10000 + 1;
+            AlignmentRegion region = new AlignmentRegion(chromosome, start, start + 9999);
+
+            RegionCoverage coverage = new RegionCoverage(10000);
+            coverage.setChromosome(chromosome);
+            coverage.setStart(start);
+            coverage.setEnd(start + 10000);
+            int value = 30;
+            for (int j = 0; j < 10000; j++) {
+                value = Math.max(0, value + random.nextInt(3) - 1);
+                coverage.getAll()[j] = (short) value;
+                coverage.getA()[j] = (short) (value / 2);
+            }
+            region.setCoverage(coverage);
+
+            List<MeanCoverage> meanCoverage = new ArrayList<>();
+            for (int j = 0; j < 10000; j += 64) {
+                meanCoverage.add(new CoverageLevel(64, "p64", new Region(chromosome, start + j, start + j + 63),
+                        random.nextFloat() * 50, random.nextInt(30), 30 + random.nextInt(30)));
+            }
+            region.setMeanCoverage(meanCoverage);
+            regions.add(region);
+        }
+
+        AlignmentCoverageBinaryDataWriter writer =
+                new AlignmentCoverageBinaryDataWriter(folder.getRoot().toPath().resolve("test.bam").toString());
+        assertTrue(writer.open());
+        assertTrue(writer.pre());
+        assertTrue(writer.write(regions));
+        assertTrue(writer.post());
+        assertTrue(writer.close());
+
+        AlignmentCoverageBinaryDataReader reader = new AlignmentCoverageBinaryDataReader(writer.getCoverageFilename());
+        assertTrue(reader.open());
+        assertTrue(reader.pre());
+        assertEquals(regions.size(), reader.getIndex().size());
+        List<AlignmentRegion> read = reader.read(regions.size() + 1);
+        assertEquals(regions.size(), read.size());
+        for (int i = 0; i < regions.size(); i++) {
+            assertRegionEquals(regions.get(i), read.get(i));
+        }
+        assertNull(reader.read(1));
+
+        reader.setReadRegionCoverage(false);
+        List<AlignmentRegion> query = reader.query(new Region("2", 15000, 25000));
+        assertEquals(1, query.size());
+        assertEquals(10001, query.get(0).getStart());
+        assertNull(query.get(0).getCoverage());
+        assertEquals(regions.get(5).getMeanCoverage().size(), query.get(0).getMeanCoverage().size());
+        assertTrue(reader.close());
+    }
+
+    @Test
+    public void testLargeMeanCoverage() throws Exception {
+        // Random values, so the compressed mean coverage is larger than the initial 64 KB buffer
+        AlignmentRegion region = newRegion("1", 1, 100000, new Random(2));
+        List<AlignmentRegion> regions = Arrays.asList(region, newRegion("1", 100001, 200000, new Random(3)));
+        AlignmentCoverageBinaryDataWriter writer = write(regions);
+        RandomAccessFile file = new RandomAccessFile(writer.getCoverageFilename(), "r");
+        file.seek(MEAN_COVERAGE_COMPRESSED_OFFSET);
+        int compressedLength = file.readInt();
+        file.close();
+        assertTrue(String.valueOf(compressedLength), compressedLength > 1 << 16);
+
+        AlignmentCoverageBinaryDataReader reader = new AlignmentCoverageBinaryDataReader(writer.getCoverageFilename());
+        assertTrue(reader.open());
+        assertTrue(reader.pre());
+        List<AlignmentRegion> read = reader.read(regions.size());
+        assertEquals(regions.size(), read.size());
+        for (int i = 0; i < regions.size(); i++) {
+            assertRegionEquals(regions.get(i), read.get(i));
+        }
+        assertTrue(reader.close());
+    }
+
+    @Test(timeout = 10000)
+    public void testTruncatedBlock() throws Exception {
+        AlignmentCoverageBinaryDataWriter writer = write(Collections.singletonList(newRegion("1", 1, 10000, new Random(4))));
+
+        RandomAccessFile file = new RandomAccessFile(writer.getCoverageFilename(), "rw");
+        file.seek(MEAN_COVERAGE_COMPRESSED_OFFSET);
+        int compressedLength = file.readInt();
+        file.seek(MEAN_COVERAGE_COMPRESSED_OFFSET);
+        file.writeInt(compressedLength / 2);
+        file.close();
+
+        AlignmentCoverageBinaryDataReader reader = new AlignmentCoverageBinaryDataReader(writer.getCoverageFilename());
+        assertTrue(reader.open());
+        assertTrue(reader.pre());
+        try {
+            reader.query(new Region("1", 1, 10000));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Malformed block"));
+        }
+        assertTrue(reader.close());
+    }
+
+    private AlignmentCoverageBinaryDataWriter write(List<AlignmentRegion> regions) {
+        AlignmentCoverageBinaryDataWriter writer =
+                new AlignmentCoverageBinaryDataWriter(folder.getRoot().toPath().resolve("test.bam").toString());
+        assertTrue(writer.open());
+        assertTrue(writer.pre());
+        assertTrue(writer.write(regions));
+        assertTrue(writer.post());
+        assertTrue(writer.close());
+        return writer;
+    }
+
+    /**
+     * Region with random coverage, and random mean coverage every 4 bp.
+     */
+    private static AlignmentRegion newRegion(String chromosome, int start, int end, Random random) {
+        AlignmentRegion region = new AlignmentRegion(chromosome, start, end);
+        RegionCoverage coverage = new RegionCoverage(end - start + 1);
+        coverage.setChromosome(chromosome);
+        coverage.setStart(start);
+        coverage.setEnd(end);
+        for (int j = 0; j < coverage.getAll().length; j++) {
+            coverage.getAll()[j] = (short) random.nextInt(100);
+        }
+        region.setCoverage(coverage);
+
+        List<MeanCoverage> meanCoverage = new ArrayList<>();
+        for (int j = start; j <= end; j += 4) {
+            meanCoverage.add(new CoverageLevel(4, "p4", new Region(chromosome, j, j + 3),
+                    random.nextFloat() * 50, random.nextInt(1000), 1000 + random.nextInt(1000)));
+        }
+        region.setMeanCoverage(meanCoverage);
+        return region;
+    }
+
+    private void assertRegionEquals(AlignmentRegion expected, AlignmentRegion actual) {
+        assertEquals(expected.getChromosome(), actual.getChromosome());
+        assertEquals(expected.getStart(), actual.getStart());
+        assertEquals(expected.getEnd(), actual.getEnd());
+        assertEquals(expected.getCoverage().getStart(), actual.getCoverage().getStart());
+        assertEquals(expected.getCoverage().getEnd(), actual.getCoverage().getEnd());
+        assertArrayEquals(expected.getCoverage().getAll(), actual.getCoverage().getAll());
+        assertArrayEquals(expected.getCoverage().getA(), actual.getCoverage().getA());
+        assertArrayEquals(expected.getCoverage().getT(), actual.getCoverage().getT());
+        assertEquals(expected.getMeanCoverage().size(), actual.getMeanCoverage().size());
+        for (int i = 0; i < expected.getMeanCoverage().size(); i++) {
+            CoverageLevel expectedLevel = (CoverageLevel) expected.getMeanCoverage().get(i);
+            CoverageLevel actualLevel = (CoverageLevel) actual.getMeanCoverage().get(i);
+            assertEquals(expectedLevel.getName(), actualLevel.getName());
+            assertEquals(expectedLevel.getRegion().getStart(), actualLevel.getRegion().getStart());
+            assertEquals(expectedLevel.getCoverage(), actualLevel.getCoverage(), 0);
+            assertEquals(expectedLevel.getMin(), actualLevel.getMin());
+            assertEquals(expectedLevel.getMax(), actualLevel.getMax());
+        }
+    }
+}
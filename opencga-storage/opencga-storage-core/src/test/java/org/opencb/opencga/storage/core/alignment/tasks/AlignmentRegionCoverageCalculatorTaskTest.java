@@ -0,0 +1,282 @@
+package org.opencb.opencga.storage.core.alignment.tasks;
+
+import org.junit.Test;
+import org.opencb.biodata.models.alignment.Alignment;
+import org.opencb.biodata.models.alignment.AlignmentRegion;
+import org.opencb.biodata.models.alignment.stats.MeanCoverage;
+import org.opencb.biodata.models.alignment.stats.RegionCoverage;
+import org.opencb.commons.test.GenericTest;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class AlignmentRegionCoverageCalculatorTaskTest extends GenericTest {
+
+    private static final String BASES = "ACGT";
+
+    /** Expected coverage, by position */
+    private int[] all;
+    private int[] a;
+    private int[] c;
+    private int[] g;
+    private int[] t;
+
+    @Test
+    public void testSaturation() throws Exception {
+        AlignmentRegionCoverageCalculatorTask task = new AlignmentRegionCoverageCalculatorTask();
+        task.addMeanCoverageCalculator(10, "10");
+        init(1000);
+        List<Alignment> alignments = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            alignments.add(alignment(101, 10, 0, i % 2 == 0 ? "AAAAAAAAAA" : null));
+        }
+        AlignmentRegion region = region("1", 1, 1000, alignments);
+        task.apply(Collections.singletonList(region));
+
+        RegionCoverage coverage = region.getCoverage();
+        assertEquals(1000, coverage.getAll().length);
+        assertEquals(0, coverage.getAll()[99]);
+        for (int i = 100; i < 110; i++) {
+            assertEquals(Short.MAX_VALUE, coverage.getAll()[i]);
+            assertEquals(20000, coverage.getA()[i]);
+        }
+        assertEquals(0, coverage.getAll()[110]);
+
+        // The mean coverage is calculated from the counters, not from the saturated values
+        CoverageLevel level = findLevel(region.getMeanCoverage(), "10", 101);
+        assertEquals(40000, level.getCoverage(), 0);
+        assertEquals(40000, level.getMin());
+        assertEquals(40000, level.getMax());
+    }
+
+    @Test
+    public void testWrapAround() throws Exception {
+        // The circular arrays have 4096 positions. Alignments keep crossing their end
+        AlignmentRegionCoverageCalculatorTask task = new AlignmentRegionCoverageCalculatorTask();
+        init(20000);
+        Random random = new Random(1);
+        List<Alignment> alignments = new ArrayList<>();
+        for (int start = 1; start < 19800; start += 1 + random.nextInt(15)) {
+            alignments.add(randomAlignment(start, 50 + random.nextInt(100), random));
+        }
+        AlignmentRegion region = region("1", 1, 20000, alignments);
+        task.apply(Collections.singletonList(region));
+        assertCoverage(region.getCoverage(), 1);
+    }
+
+    @Test
+    public void testResize() throws Exception {
+        AlignmentRegionCoverageCalculatorTask task = new AlignmentRegionCoverageCalculatorTask();
+        init(20000);
+        Random random = new Random(2);
+        List<Alignment> alignments = new ArrayList<>();
+        // Unfinished positions with counters of every base over the end of the circular array
+        for (int start = 3900; start < 4100; start += 5) {
+            alignments.add(randomAlignment(start, 100, random));
+        }
+        // Longer than the circular array, so it must grow keeping the counters above
+        alignments.add(alignment(4100, 6000, 10, "ACGTACGTAC"));
+        for (int start = 4105; start < 12000; start += 7) {
+            alignments.add(randomAlignment(start, 100, random));
+        }
+        AlignmentRegion region = region("1", 1, 20000, alignments);
+        task.apply(Collections.singletonList(region));
+        assertCoverage(region.getCoverage(), 1);
+    }
+
+    @Test
+    public void testPyramidFolding() throws Exception {
+        AlignmentRegionCoverageCalculatorTask task = new AlignmentRegionCoverageCalculatorTask();
+        task.addCoveragePyramid();
+        init(1000);
+        AlignmentRegion region1 = region("1", 1, 1000, uniformAlignments(1, 1000));
+        init(500);
+        AlignmentRegion region2 = region("2", 1, 500, uniformAlignments(1, 500));
+        task.apply(Arrays.asList(region1, region2));
+
+        // The unfinished intervals of every level are emitted at the end of each region
+        List<MeanCoverage> meanCoverage = new ArrayList<>(region1.getMeanCoverage());
+        meanCoverage.addAll(region2.getMeanCoverage());
+        for (int level = 0; level < CoverageLevel.PYRAMID_LEVELS; level++) {
+            int size = CoverageLevel.getPyramidSize(level);
+            String name = CoverageLevel.getPyramidName(size);
+            assertEquals(name, 1000, sum(meanCoverage, name, "1"), 0.01);
+            assertEquals(name, 500, sum(meanCoverage, name, "2"), 0.01);
+        }
+
+        CoverageLevel last = findLevel(region1.getMeanCoverage(), "p64", 961);
+        assertEquals(40 / 64f, last.getCoverage(), 0.0001);
+        assertEquals(0, last.getMin());
+        assertEquals(1, last.getMax());
+        CoverageLevel full = findLevel(region1.getMeanCoverage(), "p256", 1);
+        assertEquals(1, full.getCoverage(), 0.0001);
+        assertEquals(1, full.getMin());
+        assertEquals(1, findLevel(region2.getMeanCoverage(), "p1048576", 1).getMax());
+    }
+
+    @Test
+    public void testPyramidResume() throws Exception {
+        // Regions separated by a gap share the unfinished intervals. The last emission of an interval is the complete one
+        AlignmentRegionCoverageCalculatorTask task = new AlignmentRegionCoverageCalculatorTask();
+        task.addCoveragePyramid();
+        init(3000);
+        AlignmentRegion region1 = region("1", 1, 1000, uniformAlignments(1, 1000));
+        AlignmentRegion region2 = region("1", 2001, 3000, uniformAlignments(2001, 3000));
+        task.apply(Collections.singletonList(region1));
+        task.apply(Collections.singletonList(region2));
+        task.post();
+
+        Map<String, MeanCoverage> last = new LinkedHashMap<>();
+        for (MeanCoverage meanCoverage : region1.getMeanCoverage()) {
+            last.put(meanCoverage.getName() + ":" + meanCoverage.getRegion().getStart(), meanCoverage);
+        }
+        for (MeanCoverage meanCoverage : region2.getMeanCoverage()) {
+            last.put(meanCoverage.getName() + ":" + meanCoverage.getRegion().getStart(), meanCoverage);
+        }
+        List<MeanCoverage> meanCoverage = new ArrayList<>(last.values());
+        for (int level = 0; level < CoverageLevel.PYRAMID_LEVELS; level++) {
+            String name = CoverageLevel.getPyramidName(CoverageLevel.getPyramidSize(level));
+            assertEquals(name, 2000, sum(meanCoverage, name, "1"), 0.01);
+        }
+        CoverageLevel shared = (CoverageLevel) last.get("p4096:1");
+        assertEquals(2000 / 4096f, shared.getCoverage(), 0.0001);
+        assertEquals(0, shared.getMin());
+        assertEquals(1, shared.getMax());
+        // Emitted when the first region ended, and again with the coverage of the second one
+        assertEquals(1000 / 4096f, findLevel(region1.getMeanCoverage(), "p4096", 1).getCoverage(), 0.0001);
+    }
+
+    @Test
+    public void testPyramidFlushOnPost() throws Exception {
+        AlignmentRegionCoverageCalculatorTask task = new AlignmentRegionCoverageCalculatorTask();
+        task.addCoveragePyramid();
+        init(1000);
+        AlignmentRegion region = region("1", 1, 1000, uniformAlignments(1, 1000));
+        region.setOverlapEnd(true);
+        task.apply(Collections.singletonList(region));
+        assertEquals(0, sum(region.getMeanCoverage(), "p1048576", "1"), 0);
+
+        task.post();
+        double total = sum(region.getMeanCoverage(), "p64", "1");
+        assertTrue(total > 0);
+        for (int level = 1; level < CoverageLevel.PYRAMID_LEVELS; level++) {
+            String name = CoverageLevel.getPyramidName(CoverageLevel.getPyramidSize(level));
+            assertEquals(name, total, sum(region.getMeanCoverage(), name, "1"), 0.01);
+        }
+    }
+
+    /**
+     * Alignments of 10 bp covering every position once.
+     */
+    private List<Alignment> uniformAlignments(int start, int end) {
+        List<Alignment> alignments = new ArrayList<>();
+        for (int i = start; i <= end; i += 10) {
+            alignments.add(alignment(i, 10, 0, null));
+        }
+        return alignments;
+    }
+
+    /**
+     * @return Sum of the coverage of all the positions of the level, from the means
+     */
+    private static double sum(List<MeanCoverage> meanCoverageList, String name, String chromosome) {
+        double sum = 0;
+        for (MeanCoverage meanCoverage : meanCoverageList) {
+            if (meanCoverage.getName().equals(name) && meanCoverage.getRegion().getChromosome().equals(chromosome)) {
+                sum += (double) meanCoverage.getCoverage() * meanCoverage.getSize();
+            }
+        }
+        return sum;
+    }
+
+    private void init(int size) {
+        all = new int[size + 1];
+        a = new int[size + 1];
+        c = new int[size + 1];
+        g = new int[size + 1];
+        t = new int[size + 1];
+    }
+
+    /**
+     * Alignment with a random mismatch sequence, if it fits.
+     */
+    private Alignment randomAlignment(int start, int length, Random random) {
+        if (random.nextBoolean()) {
+            return alignment(start, length, 0, null);
+        }
+        int pos = random.nextInt(length / 2);
+        StringBuilder seq = new StringBuilder();
+        for (int i = pos; i < length; i++) {
+            seq.append(BASES.charAt(random.nextInt(BASES.length())));
+        }
+        return alignment(start, length, pos, seq.toString());
+    }
+
+    /**
+     * Builds the alignment and adds it to the expected coverage.
+     *
+     * @param pos   Position of the mismatch sequence in the read
+     * @param seq   Mismatch sequence, or null
+     */
+    private Alignment alignment(int start, int length, int pos, String seq) {
+        Alignment alignment = new Alignment();
+        alignment.setStart(start);
+        alignment.setEnd(start + length - 1);
+        alignment.setLength(length);
+        alignment.setFlags(0);
+        List<Alignment.AlignmentDifference> differences = new ArrayList<>();
+        if (seq != null) {
+            differences.add(new Alignment.AlignmentDifference(pos, Alignment.AlignmentDifference.MISMATCH, seq, seq.length()));
+        }
+        alignment.setDifferences(differences);
+
+        for (int i = 0; i < length; i++) {
+            all[start + i]++;
+        }
+        for (int i = 0; seq != null && i < seq.length(); i++) {
+            int position = start + pos + i;
+            switch (seq.charAt(i)) {
+                case 'A': a[position]++; break;
+                case 'C': c[position]++; break;
+                case 'G': g[position]++; break;
+                case 'T': t[position]++; break;
+            }
+        }
+        return alignment;
+    }
+
+    private static AlignmentRegion region(String chromosome, int start, int end, List<Alignment> alignments) {
+        AlignmentRegion region = new AlignmentRegion(chromosome, start, end);
+        region.setAlignments(alignments);
+        return region;
+    }
+
+    private void assertCoverage(RegionCoverage coverage, int start) {
+        assertEquals(start, coverage.getStart());
+        assertArrayEquals(expected(all, start, coverage.getAll().length), coverage.getAll());
+        assertArrayEquals(expected(a, start, coverage.getA().length), coverage.getA());
+        assertArrayEquals(expected(c, start, coverage.getC().length), coverage.getC());
+        assertArrayEquals(expected(g, start, coverage.getG().length), coverage.getG());
+        assertArrayEquals(expected(t, start, coverage.getT().length), coverage.getT());
+    }
+
+    private static short[] expected(int[] counters, int start, int length) {
+        short[] expected = new short[length];
+        for (int i = 0; i < length; i++) {
+            expected[i] = (short) Math.min(counters[start + i], Short.MAX_VALUE);
+        }
+        return expected;
+    }
+
+    private static CoverageLevel findLevel(List<MeanCoverage> meanCoverageList, String name, int start) {
+        for (MeanCoverage meanCoverage : meanCoverageList) {
+            if (meanCoverage.getName().equals(name) && meanCoverage.getRegion().getStart() == start) {
+                return (CoverageLevel) meanCoverage;
+            }
+        }
+        fail("Missing mean coverage " + name + " at " + start);
+        return null;
+    }
+}
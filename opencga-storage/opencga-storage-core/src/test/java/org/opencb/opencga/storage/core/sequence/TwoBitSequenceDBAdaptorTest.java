@@ -0,0 +1,98 @@
+package org.opencb.opencga.storage.core.sequence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.feature.Region;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TwoBitSequenceDBAdaptorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testIndexAndQuery() throws IOException {
+        File fasta = folder.newFile("test.fasta");
+        try (PrintWriter writer = new PrintWriter(fasta)) {
+            writer.println(">1 first chromosome");
+            writer.println("NNNNACGTac");
+            writer.println("gtRYACGTNN");
+            writer.println("A");
+            writer.println(">chrX");
+            writer.println("TTTGGGCCCAAAN");
+        }
+        String chr1 = "NNNNACGTACGTNNACGTNNA";
+        String chrX = "TTTGGGCCCAAAN";
+
+        TwoBitSequenceDBAdaptor adaptor = new TwoBitSequenceDBAdaptor();
+        File index = adaptor.index(fasta, null);
+        adaptor = new TwoBitSequenceDBAdaptor(index.toPath());
+        adaptor.open();
+
+        for (int start = 1; start <= chr1.length(); start++) {
+            for (int end = start; end <= chr1.length(); end++) {
+                assertEquals(chr1.substring(start - 1, end), adaptor.getSequence(new Region("1", start, end)));
+            }
+        }
+        assertEquals(chrX, adaptor.getSequence(new Region("X", 1, 100)));
+        assertEquals("", adaptor.getSequence(new Region("X", 10, 5)));
+        adaptor.close();
+    }
+
+    @Test
+    public void testManySequences() throws IOException {
+        // Small windows, so the sequences cross the window limits, and there are many of them
+        File fasta = folder.newFile("contigs.fasta");
+        Random random = new Random(1);
+        List<String> contigs = new ArrayList<>();
+        try (PrintWriter writer = new PrintWriter(fasta)) {
+            for (int i = 0; i < 2000; i++) {
+                StringBuilder contig = new StringBuilder();
+                int length = 1 + random.nextInt(300);
+                for (int j = 0; j < length; j++) {
+                    contig.append(random.nextInt(20) == 0 ? 'N' : "ACGT".charAt(random.nextInt(4)));
+                }
+                contigs.add(contig.toString());
+                writer.println(">contig" + i);
+                writer.println(contig);
+            }
+        }
+
+        File index = new TwoBitSequenceDBAdaptor().index(fasta, null);
+        TwoBitSequenceDBAdaptor adaptor = new TwoBitSequenceDBAdaptor(index.toPath(), 6);
+        adaptor.open();
+        // Mapped when read
+        assertEquals(0, adaptor.getMappedWindows());
+        assertEquals(contigs.get(0), adaptor.getSequence(new Region("contig0", 1, 1000)));
+        assertTrue(adaptor.getMappedWindows() <= 2);
+
+        for (int i = contigs.size() - 1; i >= 0; i--) {
+            String contig = contigs.get(i);
+            assertEquals(contig, adaptor.getSequence(new Region("contig" + i, 1, contig.length())));
+            int start = 1 + random.nextInt(contig.length());
+            int end = start + random.nextInt(contig.length() - start + 1);
+            assertEquals(contig.substring(start - 1, end), adaptor.getSequence(new Region("contig" + i, start, end)));
+        }
+        adaptor.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotIndexed() throws IOException {
+        new TwoBitSequenceDBAdaptor(folder.newFile("test.fasta").toPath());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingFile() {
+        new TwoBitSequenceDBAdaptor(new File(folder.getRoot(), "missing" + TwoBitSequenceDBAdaptor.EXTENSION).toPath());
+    }
+}
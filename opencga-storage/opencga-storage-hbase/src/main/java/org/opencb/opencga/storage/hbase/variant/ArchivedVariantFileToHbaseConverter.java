@@ -7,7 +7,6 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.opencb.biodata.formats.variant.vcf4.VcfUtils;
 import org.opencb.biodata.models.variant.VariantSourceEntry;
 import org.opencb.biodata.models.variant.protobuf.VariantProtos;
-import org.opencb.biodata.models.variant.protobuf.VariantStatsProtos;
 import org.opencb.datastore.core.ComplexTypeConverter;
 import org.opencb.opencga.storage.core.adaptors.StudyDBAdaptor;
 
@@ -28,6 +27,28 @@ public class ArchivedVariantFileToHbaseConverter implements ComplexTypeConverter
      * Not-going-to-be-used row key, just necessary to satisfy HBase API.
      */
     private static byte[] rowkey = Bytes.toBytes("ArchivedVariantFileToHbaseConverter");
+
+    public final static String ATTRIBUTES_COLUMN = "attrs";
+    public final static String FORMAT_COLUMN = "format";
+    public final static String STATS_COLUMN = "stats";
+
+    /*
+     * Builders are reused between variants, one per thread
+     */
+    private static final ThreadLocal<VariantProtos.VariantFileAttributes.Builder> attributesBuilders =
+            new ThreadLocal<VariantProtos.VariantFileAttributes.Builder>() {
+                @Override
+                protected VariantProtos.VariantFileAttributes.Builder initialValue() {
+                    return VariantProtos.VariantFileAttributes.newBuilder();
+                }
+            };
+    private static final ThreadLocal<VariantProtos.VariantSample.Builder> sampleBuilders =
+            new ThreadLocal<VariantProtos.VariantSample.Builder>() {
+                @Override
+                protected VariantProtos.VariantSample.Builder initialValue() {
+                    return VariantProtos.VariantSample.newBuilder();
+                }
+            };
     
     
     /**
@@ -60,48 +81,73 @@ public class ArchivedVariantFileToHbaseConverter implements ComplexTypeConverter
     @Override
     public Put convertToStorageType(VariantSourceEntry object) {
         Put put = new Put(rowkey);
-        String prefix = object.getStudyId() + "_" + object.getFileId() + "_";
+        String studyId = object.getStudyId();
+        String fileId = object.getFileId();
 
         // Attributes
-        VariantProtos.VariantFileAttributes attrsProto = buildAttributesProto(object);
-        put.add(VariantToHBaseConverter.COLUMN_FAMILY, Bytes.toBytes(prefix + "attrs"), attrsProto.toByteArray());
-        put.add(VariantToHBaseConverter.COLUMN_FAMILY, Bytes.toBytes(prefix + "format"), Bytes.toBytes(object.getFormat()));
+        put.add(VariantToHBaseConverter.COLUMN_FAMILY, buildQualifier(studyId, fileId, ATTRIBUTES_COLUMN),
+                encodeAttributes(object.getAttributes()));
+        put.add(VariantToHBaseConverter.COLUMN_FAMILY, buildQualifier(studyId, fileId, FORMAT_COLUMN), encodeFormat(object.getFormat()));
 
         // Samples
         if (samples != null && !samples.isEmpty()) {
             for (String sampleName : object.getSampleNames()) {
-                VariantProtos.VariantSample sampleProto = buildSampleProto(object, sampleName);
-                put.add(VariantToHBaseConverter.COLUMN_FAMILY, Bytes.toBytes(prefix + sampleName), sampleProto.toByteArray());
+                put.add(VariantToHBaseConverter.COLUMN_FAMILY, buildQualifier(studyId, fileId, sampleName),
+                        encodeSample(VcfUtils.getJoinedSampleFields(object, sampleName)));
             }
         }
         
         // Statistics
         if (statsConverter != null) {
-            VariantStatsProtos.VariantStats statsProto = statsConverter.convertToStorageType(object.getStats());
-            put.add(VariantToHBaseConverter.COLUMN_FAMILY, Bytes.toBytes(prefix + "stats"), statsProto.toByteArray());
+            put.add(VariantToHBaseConverter.COLUMN_FAMILY, buildQualifier(studyId, fileId, STATS_COLUMN),
+                    statsConverter.encode(object.getStats()));
         }
         
         return put;
     }
 
-    private VariantProtos.VariantFileAttributes buildAttributesProto(VariantSourceEntry file) {
-        VariantProtos.VariantFileAttributes.Builder builder = VariantProtos.VariantFileAttributes.newBuilder();
+    /**
+     * Qualifier of a column of a file: studyId_fileId_column
+     */
+    public static byte[] buildQualifier(String studyId, String fileId, String column) {
+        return Bytes.toBytes(studyId + "_" + fileId + "_" + column);
+    }
 
-        for (Map.Entry<String, String> attr : file.getAttributes().entrySet()) {
-            VariantProtos.VariantFileAttributes.KeyValue.Builder kvBuilder = VariantProtos.VariantFileAttributes.KeyValue.newBuilder();
-            kvBuilder.setKey(attr.getKey());
-            kvBuilder.setValue(attr.getValue());
-            builder.addAttrs(kvBuilder.build());
-        }
+    /**
+     * @return Whether the column of a file is one of its fields, instead of a sample
+     */
+    public static boolean isFileColumn(String column) {
+        return column.equals(FORMAT_COLUMN) || column.equals(ATTRIBUTES_COLUMN) || column.equals(STATS_COLUMN);
+    }
 
-        return builder.build();
+    /**
+     * Format of the samples of a file, ready to be stored in a cell. Its presence marks the variant as read from the file,
+     * so files without samples store an empty format.
+     */
+    public static byte[] encodeFormat(String format) {
+        return Bytes.toBytes(format == null ? "" : format);
+    }
+
+    /**
+     * Serialized attributes of a file, ready to be stored in a cell.
+     */
+    public static byte[] encodeAttributes(Map<String, String> attributes) {
+        VariantProtos.VariantFileAttributes.Builder builder = attributesBuilders.get().clear();
+        for (Map.Entry<String, String> attr : attributes.entrySet()) {
+            builder.addAttrsBuilder()
+                    .setKey(attr.getKey())
+                    .setValue(attr.getValue());
+        }
+        return builder.build().toByteArray();
     }
 
-    private VariantProtos.VariantSample buildSampleProto(VariantSourceEntry file, String sampleName) {
-        String joinedSampleFields = VcfUtils.getJoinedSampleFields(file, sampleName);
-        VariantProtos.VariantSample.Builder builder = VariantProtos.VariantSample.newBuilder();
-        builder.setSample(joinedSampleFields);
-        return builder.build();
+    /**
+     * Serialized fields of a sample, ready to be stored in a cell.
+     *
+     * @param joinedSampleFields The fields of the sample, joined with ':'
+     */
+    public static byte[] encodeSample(String joinedSampleFields) {
+        return sampleBuilders.get().clear().setSample(joinedSampleFields).build().toByteArray();
     }
     
 }
@@ -1,24 +1,183 @@
 package org.opencb.opencga.storage.hbase.variant;
 
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.*;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.opencb.biodata.models.variant.VariantSourceEntry;
+import org.opencb.biodata.models.variant.protobuf.VariantProtos;
 import org.opencb.datastore.core.ComplexTypeConverter;
 
 /**
+ * Reads the fields of a file from a variant row. Only the requested fields are decoded: the format is always read,
+ * while attributes, samples and statistics are only decoded when asked for.
  *
  * @author Cristina Yenyxe Gonzalez Garcia <cyenyxe@ebi.ac.uk>
  */
 public class HBaseToArchivedVariantFileConverter implements ComplexTypeConverter<VariantSourceEntry, Result> {
 
+    private final String studyId;
+    private final String fileId;
+    private final boolean includeAttributes;
+    private final List<String> samples;
+    private final HBaseToVariantStatsConverter statsConverter;
+
+    private final byte[] prefix;
+    private final byte[] formatQualifier;
+    private final byte[] attributesQualifier;
+    private final Map<String, byte[]> sampleQualifiers;
+
+    /**
+     * Create a converter that only reads the format of the file.
+     *
+     * @param studyId The study the file belongs to
+     * @param fileId The file to read
+     */
+    public HBaseToArchivedVariantFileConverter(String studyId, String fileId) {
+        this(studyId, fileId, false, null, null);
+    }
+
+    /**
+     * Create a converter that reads the requested fields of the file.
+     *
+     * @param studyId The study the file belongs to
+     * @param fileId The file to read
+     * @param includeAttributes Whether to decode the attributes
+     * @param samples The samples to decode. None if null, and all the samples in the row if empty
+     * @param statsConverter The object used to decode the statistics, if they should be read
+     */
+    public HBaseToArchivedVariantFileConverter(String studyId, String fileId, boolean includeAttributes,
+                                               List<String> samples, HBaseToVariantStatsConverter statsConverter) {
+        this.studyId = studyId;
+        this.fileId = fileId;
+        this.includeAttributes = includeAttributes;
+        this.samples = samples;
+        this.statsConverter = statsConverter;
+
+        this.prefix = ArchivedVariantFileToHbaseConverter.buildQualifier(studyId, fileId, "");
+        this.formatQualifier = ArchivedVariantFileToHbaseConverter.buildQualifier(studyId, fileId,
+                ArchivedVariantFileToHbaseConverter.FORMAT_COLUMN);
+        this.attributesQualifier = ArchivedVariantFileToHbaseConverter.buildQualifier(studyId, fileId,
+                ArchivedVariantFileToHbaseConverter.ATTRIBUTES_COLUMN);
+        this.sampleQualifiers = new LinkedHashMap<>();
+        if (samples != null) {
+            for (String sample : samples) {
+                sampleQualifiers.put(sample, ArchivedVariantFileToHbaseConverter.buildQualifier(studyId, fileId, sample));
+            }
+        }
+    }
+
+    /**
+     * @return The file in the row, or null if the variant was not read from this file
+     */
     @Override
     public VariantSourceEntry convertToDataModelType(Result object) {
-        // TODO Implementation pending
-        return null;
+        byte[] format = object.getValue(VariantToHBaseConverter.COLUMN_FAMILY, formatQualifier);
+        if (format == null) {
+            return null;
+        }
+        VariantSourceEntry file = new VariantSourceEntry(fileId, studyId);
+        file.setFormat(Bytes.toString(format));
+
+        try {
+            if (includeAttributes) {
+                byte[] attributes = object.getValue(VariantToHBaseConverter.COLUMN_FAMILY, attributesQualifier);
+                if (attributes != null) {
+                    for (VariantProtos.VariantFileAttributes.KeyValue kv : VariantProtos.VariantFileAttributes.parseFrom(attributes).getAttrsList()) {
+                        file.addAttribute(kv.getKey(), kv.getValue());
+                    }
+                }
+            }
+
+            if (samples != null) {
+                String[] fields = file.getFormat().split(":");
+                for (Map.Entry<String, byte[]> sample : getSampleCells(object).entrySet()) {
+                    String[] values = VariantProtos.VariantSample.parseFrom(sample.getValue()).getSample().split(":");
+                    Map<String, String> sampleData = new HashMap<>(fields.length * 2);
+                    for (int i = 0; i < fields.length && i < values.length; i++) {
+                        sampleData.put(fields[i], values[i]);
+                    }
+                    file.addSampleData(sample.getKey(), sampleData);
+                }
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Malformed data of file " + fileId, e);
+        }
+
+        if (statsConverter != null) {
+            file.setStats(statsConverter.convertToDataModelType(object));
+        }
+        return file;
+    }
+
+    /**
+     * @return The cells of the requested samples in the row, by sample name
+     */
+    private Map<String, byte[]> getSampleCells(Result object) {
+        Map<String, byte[]> cells = new LinkedHashMap<>();
+        if (samples.isEmpty()) {
+            NavigableMap<byte[], byte[]> familyMap = object.getFamilyMap(VariantToHBaseConverter.COLUMN_FAMILY);
+            if (familyMap == null) {
+                return cells;
+            }
+            // The columns of the file are sorted together, after the prefix
+            for (Map.Entry<byte[], byte[]> cell : familyMap.tailMap(prefix, false).entrySet()) {
+                byte[] qualifier = cell.getKey();
+                if (qualifier.length < prefix.length
+                        || Bytes.compareTo(qualifier, 0, prefix.length, prefix, 0, prefix.length) != 0) {
+                    break;
+                }
+                String name = Bytes.toString(qualifier, prefix.length, qualifier.length - prefix.length);
+                if (!ArchivedVariantFileToHbaseConverter.isFileColumn(name)) {
+                    cells.put(name, cell.getValue());
+                }
+            }
+        } else {
+            for (Map.Entry<String, byte[]> sampleQualifier : sampleQualifiers.entrySet()) {
+                byte[] sample = object.getValue(VariantToHBaseConverter.COLUMN_FAMILY, sampleQualifier.getValue());
+                if (sample != null) {
+                    cells.put(sampleQualifier.getKey(), sample);
+                }
+            }
+        }
+        return cells;
     }
 
     @Override
     public Result convertToStorageType(VariantSourceEntry object) {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
-    
+
+    /**
+     * Adds to a scan the columns needed by this converter, so that nothing else is read.
+     * If all the samples are read, the whole column family is needed, see {@link #readsAllColumns()}.
+     */
+    public void addColumns(Scan scan) {
+        scan.addColumn(VariantToHBaseConverter.COLUMN_FAMILY, formatQualifier);
+        if (includeAttributes) {
+            scan.addColumn(VariantToHBaseConverter.COLUMN_FAMILY, attributesQualifier);
+        }
+        for (byte[] qualifier : sampleQualifiers.values()) {
+            scan.addColumn(VariantToHBaseConverter.COLUMN_FAMILY, qualifier);
+        }
+        if (statsConverter != null) {
+            scan.addColumn(VariantToHBaseConverter.COLUMN_FAMILY, statsConverter.getQualifier());
+        }
+    }
+
+    /**
+     * @return Whether the whole column family must be read, because the sample names are not known
+     */
+    public boolean readsAllColumns() {
+        return samples != null && samples.isEmpty();
+    }
+
+    /**
+     * Qualifier of the format column, present in every row of the file
+     */
+    byte[] getFormatQualifier() {
+        return formatQualifier;
+    }
+
 }
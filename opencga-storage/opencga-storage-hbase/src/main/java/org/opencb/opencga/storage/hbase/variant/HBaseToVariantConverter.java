@@ -1,24 +1,90 @@
 package org.opencb.opencga.storage.hbase.variant;
 
+import java.util.Collections;
+import java.util.List;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
 import org.opencb.datastore.core.ComplexTypeConverter;
 
 /**
+ * Reads a variant from its row. The files are only decoded if converters for them are provided, and each of those
+ * only decodes the fields requested from it.
  *
  * @author Cristina Yenyxe Gonzalez Garcia <cyenyxe@ebi.ac.uk>
  */
 public class HBaseToVariantConverter implements ComplexTypeConverter<Variant, Result> {
 
+    private final List<HBaseToArchivedVariantFileConverter> archivedVariantFileConverters;
+
+    /**
+     * Create a converter between HBase entities and Variant when there is no
+     * need to read the files the variant was read from.
+     */
+    public HBaseToVariantConverter() {
+        this(Collections.<HBaseToArchivedVariantFileConverter>emptyList());
+    }
+
+    /**
+     * Create a converter between HBase entities and Variant, that also reads
+     * the files with the given converters.
+     *
+     * @param archivedVariantFileConverters The objects used to read the files
+     */
+    public HBaseToVariantConverter(List<HBaseToArchivedVariantFileConverter> archivedVariantFileConverters) {
+        this.archivedVariantFileConverters = archivedVariantFileConverters;
+    }
+
     @Override
     public Variant convertToDataModelType(Result object) {
-        // TODO Implementation pending
-        return null;
+        byte[] family = VariantToHBaseConverter.COLUMN_FAMILY;
+        Variant variant = new Variant(
+                Bytes.toString(object.getValue(family, VariantToHBaseConverter.CHROMOSOME_COLUMN)),
+                Bytes.toInt(object.getValue(family, VariantToHBaseConverter.START_COLUMN)),
+                Bytes.toInt(object.getValue(family, VariantToHBaseConverter.END_COLUMN)),
+                Bytes.toString(object.getValue(family, VariantToHBaseConverter.REFERENCE_COLUMN)),
+                Bytes.toString(object.getValue(family, VariantToHBaseConverter.ALTERNATE_COLUMN)));
+        byte[] id = object.getValue(family, VariantToHBaseConverter.ID_COLUMN);
+        if (id != null) {
+            variant.setId(Bytes.toString(id));
+        }
+
+        for (HBaseToArchivedVariantFileConverter converter : archivedVariantFileConverters) {
+            VariantSourceEntry file = converter.convertToDataModelType(object);
+            if (file != null) {
+                variant.addSourceEntry(file);
+            }
+        }
+        return variant;
     }
 
     @Override
     public Result convertToStorageType(Variant object) {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
-    
+
+    /**
+     * Adds to a scan the columns needed by this converter, so that nothing else is read.
+     */
+    public void addColumns(Scan scan) {
+        byte[] family = VariantToHBaseConverter.COLUMN_FAMILY;
+        scan.addColumn(family, VariantToHBaseConverter.CHROMOSOME_COLUMN);
+        scan.addColumn(family, VariantToHBaseConverter.START_COLUMN);
+        scan.addColumn(family, VariantToHBaseConverter.END_COLUMN);
+        scan.addColumn(family, VariantToHBaseConverter.REFERENCE_COLUMN);
+        scan.addColumn(family, VariantToHBaseConverter.ALTERNATE_COLUMN);
+        scan.addColumn(family, VariantToHBaseConverter.ID_COLUMN);
+        boolean allColumns = false;
+        for (HBaseToArchivedVariantFileConverter converter : archivedVariantFileConverters) {
+            converter.addColumns(scan);
+            allColumns |= converter.readsAllColumns();
+        }
+        if (allColumns) {
+            // Replaces the columns added before
+            scan.addFamily(family);
+        }
+    }
+
 }
@@ -1,6 +1,9 @@
 package org.opencb.opencga.storage.hbase.variant;
 
+import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.hadoop.hbase.client.Result;
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.protobuf.VariantStatsProtos;
 import org.opencb.biodata.models.variant.stats.VariantStats;
 import org.opencb.datastore.core.ComplexTypeConverter;
 
@@ -10,15 +13,80 @@ import org.opencb.datastore.core.ComplexTypeConverter;
  */
 public class HBaseToVariantStatsConverter implements ComplexTypeConverter<VariantStats, Result> {
 
+    private final byte[] qualifier;
+
+    /**
+     * Create a converter for the statistics of a file, stored in the column studyId_fileId_stats.
+     *
+     * @param studyId The study the file belongs to
+     * @param fileId The file whose statistics will be read
+     */
+    public HBaseToVariantStatsConverter(String studyId, String fileId) {
+        this.qualifier = ArchivedVariantFileToHbaseConverter.buildQualifier(studyId, fileId,
+                ArchivedVariantFileToHbaseConverter.STATS_COLUMN);
+    }
+
+    /**
+     * @return The statistics of the file in the row, or null if the row has no statistics for it
+     */
     @Override
     public VariantStats convertToDataModelType(Result object) {
-        // TODO Implementation pending
-        return null;
+        byte[] value = object.getValue(VariantToHBaseConverter.COLUMN_FAMILY, qualifier);
+        return value == null ? null : decode(value);
     }
 
     @Override
     public Result convertToStorageType(VariantStats object) {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
-    
+
+    public VariantStats decode(byte[] value) {
+        VariantStatsProtos.VariantStats proto;
+        try {
+            proto = VariantStatsProtos.VariantStats.parseFrom(value);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Malformed statistics", e);
+        }
+
+        VariantStats stats = new VariantStats();
+        stats.setRefAlleleCount(proto.getRefAlleleCount());
+        stats.setAltAlleleCount(proto.getAltAlleleCount());
+        for (VariantStatsProtos.VariantStats.Count count : proto.getGenotypesCountList()) {
+            stats.addGenotype(new Genotype(count.getKey()), count.getCount());
+        }
+        stats.setRefAlleleFreq((float) proto.getRefAlleleFreq());
+        stats.setAltAlleleFreq((float) proto.getAltAlleleFreq());
+        for (VariantStatsProtos.VariantStats.Frequency freq : proto.getGenotypesFreqList()) {
+            stats.getGenotypesFreq().put(new Genotype(freq.getKey()), (float) freq.getFrequency());
+        }
+
+        stats.setMissingAlleles(proto.getMissingAlleles());
+        stats.setMissingGenotypes(proto.getMissingGenotypes());
+
+        stats.setMaf((float) proto.getMaf());
+        stats.setMgf((float) proto.getMgf());
+        stats.setMafAllele(proto.getMafAllele());
+        stats.setMgfGenotype(proto.getMgfGenotype());
+
+        stats.setPassedFilters(proto.getPassedFilters());
+        stats.setQuality((float) proto.getQuality());
+        stats.setNumSamples(proto.getNumSamples());
+        stats.setTransitionsCount(proto.getTransitionsCount());
+        stats.setTransversionsCount(proto.getTransversionsCount());
+
+        // Optional fields, only written with pedigree information
+        if (proto.hasMendelianErrors()) {
+            stats.setMendelianErrors(proto.getMendelianErrors());
+            stats.setCasesPercentDominant((float) proto.getCasesPercentDominant());
+            stats.setControlsPercentDominant((float) proto.getControlsPercentDominant());
+            stats.setCasesPercentRecessive((float) proto.getCasesPercentRecessive());
+            stats.setControlsPercentRecessive((float) proto.getControlsPercentRecessive());
+        }
+        return stats;
+    }
+
+    byte[] getQualifier() {
+        return qualifier;
+    }
+
 }
@@ -0,0 +1,253 @@
+package org.opencb.opencga.storage.hbase.variant;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.io.IOException;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.opencb.biodata.models.variant.Variant;
+
+/**
+ * Binary rowkeys of the variants table.
+ *
+ * Layout: [salt] chromosome position alleles
+ * <ul>
+ *  <li>salt: optional, 1 byte. Spreads the load of consecutive positions between regions.
+ *      Computed from the chromosome and a bucket of {@link #SALT_BUCKET_SIZE} positions, so the
+ *      variants of a bucket are contiguous and a region is read with one scan per bucket.</li>
+ *  <li>chromosome: 1 byte with the ordinal of the chromosome (1-22, X, Y, MT), or 0xFF followed by the
+ *      name and a 0x00 terminator for any other contig.</li>
+ *  <li>position: 4 bytes, big-endian, so the rows are sorted by position.</li>
+ *  <li>alleles: first 8 bytes of the MD5 of "reference_alternate".</li>
+ * </ul>
+ *
+ * The number of salt buckets is stored in the table descriptor with the key {@link #SALT_BUCKETS},
+ * so readers and writers always use the same layout. Tables of previous versions, with string rowkeys
+ * (chromosome_position_reference_alternate), are not supported, see {@link #fromTable(HTable)}.
+ */
+public class VariantHBaseRowKey {
+
+    public static final String SALT_BUCKETS = "opencga.rowkey.saltBuckets";
+    public static final int SALT_BUCKET_SIZE = 1000000;
+
+    private static final Charset CHARSET_UTF_8 = Charset.forName("UTF-8");
+    private static final byte OTHER_CHROMOSOME = (byte) 0xFF;
+    private static final int ALLELES_LENGTH = 8;
+    private static final List<String> CHROMOSOMES;
+    private static final Map<String, Byte> CHROMOSOME_ORDINALS;
+
+    static {
+        List<String> chromosomes = new ArrayList<>(26);
+        chromosomes.add(null);  // Ordinal 0 is not used
+        for (int i = 1; i <= 22; i++) {
+            chromosomes.add(Integer.toString(i));
+        }
+        chromosomes.addAll(Arrays.asList("X", "Y", "MT"));
+        CHROMOSOMES = Collections.unmodifiableList(chromosomes);
+
+        Map<String, Byte> ordinals = new HashMap<>();
+        for (int i = 1; i < chromosomes.size(); i++) {
+            ordinals.put(chromosomes.get(i), (byte) i);
+        }
+        ordinals.put("M", ordinals.get("MT"));
+        CHROMOSOME_ORDINALS = Collections.unmodifiableMap(ordinals);
+    }
+
+    private final int saltBuckets;
+
+    /**
+     * @param saltBuckets Number of salt buckets. 0 or 1 for unsalted rowkeys
+     */
+    public VariantHBaseRowKey(int saltBuckets) {
+        if (saltBuckets < 0 || saltBuckets > 256) {
+            throw new IllegalArgumentException("Salt buckets must be between 0 and 256");
+        }
+        this.saltBuckets = saltBuckets > 1 ? saltBuckets : 0;
+    }
+
+    /**
+     * Rowkey layout of a table, from its descriptor.
+     *
+     * Tables written by previous versions have no {@link #SALT_BUCKETS} in their descriptor, and string rowkeys
+     * that would be misread as binary ones, so they are refused. Tables without that key but with binary rowkeys,
+     * or without rows, are unsalted.
+     *
+     * @throws IllegalStateException If the table has string rowkeys
+     * @throws IOException If the table could not be read
+     */
+    public static VariantHBaseRowKey fromTable(HTable table) throws IOException {
+        String saltBuckets = table.getTableDescriptor().getValue(SALT_BUCKETS);
+        if (saltBuckets != null) {
+            return new VariantHBaseRowKey(Integer.parseInt(saltBuckets));
+        }
+
+        Scan scan = new Scan();
+        scan.setFilter(new FirstKeyOnlyFilter());
+        scan.setCaching(1);
+        ResultScanner scanner = table.getScanner(scan);
+        try {
+            Result first = scanner.next();
+            if (first != null && !isUnsaltedRowkey(first.getRow())) {
+                throw new IllegalStateException("Table " + table.getName().getNameAsString() + " has the string rowkeys "
+                        + "of a previous version, which are not supported anymore. Its variants must be loaded into a new table");
+            }
+        } finally {
+            scanner.close();
+        }
+        return new VariantHBaseRowKey(0);
+    }
+
+    public int getSaltBuckets() {
+        return saltBuckets;
+    }
+
+    public byte[] build(Variant variant) {
+        return build(variant.getChromosome(), variant.getStart(), variant.getReference(), variant.getAlternate());
+    }
+
+    public byte[] build(String chromosome, int position, String reference, String alternate) {
+        byte[] prefix = buildPrefix(chromosome, position);
+        byte[] rowkey = Arrays.copyOf(prefix, prefix.length + ALLELES_LENGTH);
+        System.arraycopy(hashAlleles(reference, alternate), 0, rowkey, prefix.length, ALLELES_LENGTH);
+        return rowkey;
+    }
+
+    /**
+     * Salt, chromosome and position.
+     */
+    public byte[] buildPrefix(String chromosome, int position) {
+        return buildPrefix(chromosome, position, position);
+    }
+
+    /**
+     * @param saltPosition  Position used to compute the salt. The stop row of a bucket must have the salt of the bucket
+     */
+    private byte[] buildPrefix(String chromosome, int position, int saltPosition) {
+        chromosome = normalizeChromosome(chromosome);
+        byte[] chromosomeBytes = encodeChromosome(chromosome);
+        int offset = saltBuckets > 0 ? 1 : 0;
+        byte[] prefix = new byte[offset + chromosomeBytes.length + Bytes.SIZEOF_INT];
+        if (saltBuckets > 0) {
+            prefix[0] = getSalt(chromosome, saltPosition);
+        }
+        System.arraycopy(chromosomeBytes, 0, prefix, offset, chromosomeBytes.length);
+        Bytes.putInt(prefix, offset + chromosomeBytes.length, position);
+        return prefix;
+    }
+
+    /**
+     * Scans to read the rows of a region. One per salt bucket overlapping the region, or one if not salted.
+     * The scans are not configured, apart from the start and stop rows.
+     */
+    public List<Scan> buildScans(String chromosome, int start, int end) {
+        if (saltBuckets == 0) {
+            return Collections.singletonList(new Scan(buildPrefix(chromosome, start), buildPrefix(chromosome, end + 1)));
+        }
+        List<Scan> scans = new ArrayList<>();
+        for (int bucket = start / SALT_BUCKET_SIZE; bucket <= end / SALT_BUCKET_SIZE; bucket++) {
+            int bucketStart = Math.max(start, bucket * SALT_BUCKET_SIZE);
+            int bucketEnd = Math.min(end, bucket * SALT_BUCKET_SIZE + SALT_BUCKET_SIZE - 1);
+            scans.add(new Scan(buildPrefix(chromosome, bucketStart), buildPrefix(chromosome, bucketEnd + 1, bucketStart)));
+        }
+        return scans;
+    }
+
+    /**
+     * Split keys to pre-split a salted table, one region per salt. Null if not salted.
+     */
+    public byte[][] getSplitKeys() {
+        if (saltBuckets == 0) {
+            return null;
+        }
+        byte[][] splitKeys = new byte[saltBuckets - 1][];
+        for (int i = 1; i < saltBuckets; i++) {
+            splitKeys[i - 1] = new byte[]{(byte) i};
+        }
+        return splitKeys;
+    }
+
+    public String getChromosome(byte[] rowkey) {
+        int offset = saltBuckets > 0 ? 1 : 0;
+        if (rowkey[offset] == OTHER_CHROMOSOME) {
+            int terminator = offset + 1;
+            while (rowkey[terminator] != 0) {
+                terminator++;
+            }
+            return new String(rowkey, offset + 1, terminator - offset - 1, CHARSET_UTF_8);
+        } else {
+            return CHROMOSOMES.get(rowkey[offset]);
+        }
+    }
+
+    public int getPosition(byte[] rowkey) {
+        int offset = saltBuckets > 0 ? 1 : 0;
+        if (rowkey[offset] == OTHER_CHROMOSOME) {
+            offset++;
+            while (rowkey[offset] != 0) {
+                offset++;
+            }
+        }
+        return Bytes.toInt(rowkey, offset + 1);
+    }
+
+    /*
+     * Auxiliary methods
+     */
+
+    /**
+     * Unsalted rowkeys start with the ordinal of a chromosome or the escape byte of other contigs.
+     * String rowkeys start with a printable character instead.
+     */
+    static boolean isUnsaltedRowkey(byte[] rowkey) {
+        return rowkey.length > 0
+                && (rowkey[0] == OTHER_CHROMOSOME || (rowkey[0] > 0 && rowkey[0] < CHROMOSOMES.size()));
+    }
+
+    static String normalizeChromosome(String chromosome) {
+        if (chromosome.length() > 3 && chromosome.substring(0, 3).equalsIgnoreCase("chr")) {
+            chromosome = chromosome.substring(3);
+        }
+        // Remove leading zeros, as in the old string rowkeys
+        int i = 0;
+        while (i < chromosome.length() - 1 && chromosome.charAt(i) == '0') {
+            i++;
+        }
+        return chromosome.substring(i);
+    }
+
+    private static byte[] encodeChromosome(String chromosome) {
+        Byte ordinal = CHROMOSOME_ORDINALS.get(chromosome);
+        if (ordinal != null) {
+            return new byte[]{ordinal};
+        }
+        byte[] name = chromosome.getBytes(CHARSET_UTF_8);
+        byte[] bytes = new byte[name.length + 2];
+        bytes[0] = OTHER_CHROMOSOME;
+        System.arraycopy(name, 0, bytes, 1, name.length);
+        bytes[bytes.length - 1] = 0;
+        return bytes;
+    }
+
+    private byte getSalt(String chromosome, int position) {
+        int hash = 31 * chromosome.hashCode() + position / SALT_BUCKET_SIZE;
+        return (byte) ((hash & Integer.MAX_VALUE) % saltBuckets);
+    }
+
+    private static byte[] hashAlleles(String reference, String alternate) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(reference.getBytes(CHARSET_UTF_8));
+            md5.update((byte) '_');
+            md5.update(alternate.getBytes(CHARSET_UTF_8));
+            return md5.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.opencb.opencga.storage.hbase.variant;
+
+import java.io.IOException;
+import java.util.*;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Writes the Puts of a first-time load as HFiles, to be bulk-loaded into the table once all of them are written.
+ *
+ * The cells are kept sorted in memory, and spilled to a new HFile per column family when they exceed the buffer
+ * size, so the memory used is bounded and every file is sorted. Files crossing region boundaries are split when
+ * they are loaded.
+ */
+class VariantHFileWriter {
+
+    private final Configuration config;
+    private final FileSystem fs;
+    private final Path directory;
+    private final long bufferSize;
+    private final Map<byte[], HColumnDescriptor> families;
+    private final byte[] timestamp;
+
+    private final NavigableSet<KeyValue> buffer;
+    private long bufferedBytes;
+    private int spills;
+
+    /**
+     * @param config     HBase configuration
+     * @param directory  Directory where the HFiles will be written. Must not exist
+     * @param descriptor Descriptor of the table the files will be loaded into
+     * @param bufferSize Approximate number of bytes kept in memory before writing them to disk
+     * @throws IOException If the directory already exists or can not be accessed
+     */
+    VariantHFileWriter(Configuration config, Path directory, HTableDescriptor descriptor, long bufferSize) throws IOException {
+        this.config = config;
+        this.fs = directory.getFileSystem(config);
+        this.directory = directory;
+        this.bufferSize = bufferSize;
+        if (fs.exists(directory)) {
+            throw new IOException("Bulk load directory " + directory + " already exists");
+        }
+
+        this.families = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        for (HColumnDescriptor family : descriptor.getColumnFamilies()) {
+            families.put(family.getName(), family);
+        }
+        this.timestamp = Bytes.toBytes(System.currentTimeMillis());
+        this.buffer = new TreeSet<>(KeyValue.COMPARATOR);
+    }
+
+    synchronized void write(Collection<Put> puts) throws IOException {
+        for (Put put : puts) {
+            for (List<Cell> cells : put.getFamilyCellMap().values()) {
+                for (Cell cell : cells) {
+                    KeyValue kv = KeyValueUtil.ensureKeyValue(cell);
+                    kv.updateLatestStamp(timestamp);
+                    // The last value of a cell prevails, as it would with a Put
+                    if (buffer.remove(kv)) {
+                        bufferedBytes -= kv.heapSize();
+                    }
+                    buffer.add(kv);
+                    bufferedBytes += kv.heapSize();
+                }
+            }
+        }
+        if (bufferedBytes > bufferSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Writes the remaining cells and loads all the files into the table.
+     *
+     * @param table Table to load the files into
+     * @throws IOException If the files could not be written or loaded
+     */
+    synchronized void bulkLoad(HTable table) throws IOException {
+        spill();
+        if (spills > 0) {
+            try {
+                new LoadIncrementalHFiles(config).doBulkLoad(directory, table);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Could not load the files from " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered cells to a new file per column family: directory/family/hfile-N
+     */
+    synchronized void spill() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Map<byte[], HFile.Writer> writers = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        try {
+            // Every family gets a subsequence of the sorted cells, so its file is sorted too
+            for (KeyValue kv : buffer) {
+                byte[] family = kv.getFamily();
+                HFile.Writer writer = writers.get(family);
+                if (writer == null) {
+                    writer = createWriter(family);
+                    writers.put(family, writer);
+                }
+                writer.append(kv);
+            }
+        } finally {
+            for (HFile.Writer writer : writers.values()) {
+                writer.close();
+            }
+        }
+        buffer.clear();
+        bufferedBytes = 0;
+        spills++;
+    }
+
+    /**
+     * @return Number of times the buffered cells were written to disk
+     */
+    synchronized int getSpills() {
+        return spills;
+    }
+
+    private HFile.Writer createWriter(byte[] family) throws IOException {
+        HColumnDescriptor descriptor = families.get(family);
+        if (descriptor == null) {
+            throw new IOException("Unknown column family " + Bytes.toString(family));
+        }
+        Path path = new Path(new Path(directory, Bytes.toString(family)), "hfile-" + spills);
+        return HFile.getWriterFactory(config, new CacheConfig(config))
+                .withPath(fs, path)
+                .withComparator(KeyValue.COMPARATOR)
+                .withFileContext(new HFileContextBuilder()
+                        .withCompression(descriptor.getCompressionType())
+                        .withBlockSize(descriptor.getBlocksize())
+                        .build())
+                .create();
+    }
+}
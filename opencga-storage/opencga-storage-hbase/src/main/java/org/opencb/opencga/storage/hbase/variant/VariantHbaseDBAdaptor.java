@@ -8,6 +8,12 @@ import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.MasterNotRunningException;
 import org.apache.hadoop.hbase.ZooKeeperConnectionException;
 import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.apache.hadoop.hbase.util.Bytes;
 
 import org.opencb.opencga.lib.auth.MonbaseCredentials;
 
@@ -18,6 +24,7 @@ import java.util.*;
 import org.opencb.biodata.models.feature.Genotype;
 import org.opencb.biodata.models.feature.Region;
 import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
 import org.opencb.biodata.models.variant.effect.VariantEffect;
 import org.opencb.biodata.models.variant.stats.VariantStats;
 import org.opencb.commons.bioformats.variant.json.VariantAnalysisInfo;
@@ -43,18 +50,33 @@ public class VariantHbaseDBAdaptor implements VariantDBAdaptor {
 
     public static final Charset CHARSET_UTF_8 = Charset.forName("UTF-8");
 
+    /** Rows fetched per RPC in region scans */
+    public static final String SCAN_CACHING = "scanCaching";
+    /** Maximum size in bytes of the rows fetched per RPC in region scans */
+    public static final String SCAN_MAX_RESULT_SIZE = "scanMaxResultSize";
+    /** Whether region scans fill the block cache */
+    public static final String SCAN_CACHE_BLOCKS = "scanCacheBlocks";
+    public static final int DEFAULT_SCAN_CACHING = 500;
+
+    private static final byte[] DATA_COLUMN_FAMILY = Bytes.toBytes("d");
+    private static final byte[] TYPE_COLUMN = Bytes.toBytes("type");
+
 
     public VariantHbaseDBAdaptor(String species, MonbaseCredentials credentials)
             throws MasterNotRunningException, ZooKeeperConnectionException, UnknownHostException {
+        this(species, credentials, createConfiguration(credentials));
+    }
+
+    /**
+     * @param config HBase configuration. Allows to connect to any cluster, like a mini-cluster in the tests
+     */
+    public VariantHbaseDBAdaptor(String species, MonbaseCredentials credentials, Configuration config)
+            throws MasterNotRunningException, ZooKeeperConnectionException, UnknownHostException {
         this.monbaseCredentials = credentials;
         this.tableName = species;
         this.effectTableName = species + "effect";
 
         // HBase configuration
-        Configuration config = HBaseConfiguration.create();
-        config.set("hbase.master", credentials.getHbaseMasterHost() + ":" + credentials.getHbaseMasterPort());
-        config.set("hbase.zookeeper.quorum", credentials.getHbaseZookeeperQuorum());
-        config.set("hbase.zookeeper.property.clientPort", String.valueOf(credentials.getHbaseZookeeperClientPort()));
         admin = new HBaseAdmin(config);
 
         // Mongo configuration
@@ -62,6 +84,14 @@ public class VariantHbaseDBAdaptor implements VariantDBAdaptor {
         db = mongoClient.getDB(credentials.getMongoDbName());
     }
 
+    private static Configuration createConfiguration(MonbaseCredentials credentials) {
+        Configuration config = HBaseConfiguration.create();
+        config.set("hbase.master", credentials.getHbaseMasterHost() + ":" + credentials.getHbaseMasterPort());
+        config.set("hbase.zookeeper.quorum", credentials.getHbaseZookeeperQuorum());
+        config.set("hbase.zookeeper.property.clientPort", String.valueOf(credentials.getHbaseZookeeperClientPort()));
+        return config;
+    }
+
     @Override
     public void setConstantSamples(String sourceEntry) {
         throw new UnsupportedOperationException();
@@ -88,81 +118,63 @@ public class VariantHbaseDBAdaptor implements VariantDBAdaptor {
             includeEffects = options.containsKey("effects") && options.getBoolean("effects");
         }
 
+        // Only the requested fields of the file are read and decoded
+        String[] ids = splitSourceId(sourceId);
+        HBaseToVariantStatsConverter statsConverter = includeStats ? new HBaseToVariantStatsConverter(ids[0], ids[1]) : null;
+        HBaseToArchivedVariantFileConverter fileConverter = new HBaseToArchivedVariantFileConverter(ids[0], ids[1],
+                false, includeSamples ? Collections.<String>emptyList() : null, statsConverter);
+        HBaseToVariantConverter variantConverter = new HBaseToVariantConverter(Collections.singletonList(fileConverter));
+
+        HTable table = null;
         try {
-            String startRow = buildRowkey(region.getChromosome(), Long.toString(region.getStart()));
-            String stopRow = buildRowkey(region.getChromosome(), Long.toString(region.getEnd()));
-            HTable table = new HTable(admin.getConfiguration(), tableName);
+            table = new HTable(admin.getConfiguration(), tableName);
+            VariantHBaseRowKey rowKey = VariantHBaseRowKey.fromTable(table);
+            List<Scan> regionScans = rowKey.buildScans(region.getChromosome(), region.getStart(), region.getEnd());
+            Filter filter = buildFilter(fileConverter, options);
             dbstart = System.currentTimeMillis();
-            Scan regionScan = new Scan(startRow.getBytes(), stopRow.getBytes());
-            ResultScanner scanres = table.getScanner(regionScan);
+            List<ResultScanner> scanners = new ArrayList<>(regionScans.size());
+            for (Scan regionScan : regionScans) {
+                configureScan(regionScan, variantConverter, options);
+                regionScan.setFilter(filter);
+                scanners.add(table.getScanner(regionScan));
+            }
             dbend = System.currentTimeMillis();
             queryResult.setDbTime(dbend - dbstart);
 
             // Iterate over results and, optionally, their samples and statistics
-            for (Result result : scanres) {
-                String[] rowkeyParts = new String(result.getRow(), CHARSET_UTF_8).split("_");
-                String chromosome = rowkeyParts[0].replaceFirst("^0+(?!$)", "");
-                int position = Integer.parseInt(rowkeyParts[1]);
-
-                // Get basic result fields from Protocol Buffers message
-                NavigableMap<byte[], byte[]> infoMap = result.getFamilyMap("i".getBytes());
-                byte[] byteInfo = infoMap.get((sourceId + "_data").getBytes());
-                VariantFieldsProtos.VariantInfo protoInfo = VariantFieldsProtos.VariantInfo.parseFrom(byteInfo);
-                String reference = protoInfo.getReference();
-                String alternate = StringUtils.join(protoInfo.getAlternateList(), ",");
-                String format = StringUtils.join(protoInfo.getFormatList(), ":");
-                Variant variant = new Variant(chromosome, position, position, reference, alternate);
-
-                // Set samples if requested
-                if (includeSamples) {
-                    NavigableMap<byte[], byte[]> sampleMap = result.getFamilyMap("d".getBytes());
-                    Map<String, Map<String, String>> resultSampleMap = new HashMap<>();
-
-                    // Set samples
-                    for (byte[] s : sampleMap.keySet()) {
-                        String sampleName = (new String(s, CHARSET_UTF_8)).replaceAll(sourceId + "_", "");
-                        VariantFieldsProtos.VariantSample sample = VariantFieldsProtos.VariantSample.parseFrom(sampleMap.get(s));
-                        String sample1 = sample.getSample();
-                        String[] values = sample1.split(":");
-                        String[] fields = format.split(":");
-                        Map<String, String> singleSampleMap = new HashMap<>();
-                        for (int i = 0; i < fields.length; i++) {
-                            singleSampleMap.put(fields[i], values[i]);
+            for (ResultScanner scanner : scanners) {
+                try {
+                    for (Result result : scanner) {
+                        Variant variant = variantConverter.convertToDataModelType(result);
+                        for (VariantSourceEntry file : variant.getSourceEntries().values()) {
+                            if (file.getStats() != null) {
+                                variant.setStats(file.getStats());
+                            }
                         }
-                        // TODO 
-//                        variant.addSampleData(sampleName, singleSampleMap);
-                    }
-                }
 
-                // Set stats if requested
-                if (includeStats) {
-                    byte[] byteStats = infoMap.get((sourceId + "_stats").getBytes());
-                    VariantFieldsProtos.VariantStats protoStats = VariantFieldsProtos.VariantStats.parseFrom(byteStats);
-                    VariantStats variantStats = new VariantStats(chromosome, position, reference, alternate,
-                            protoStats.getMaf(),
-                            protoStats.getMgf(),
-                            protoStats.getMafAllele(),
-                            protoStats.getMgfGenotype(),
-                            protoStats.getMissingAlleles(),
-                            protoStats.getMissingGenotypes(),
-                            protoStats.getMendelianErrors(),
-                            protoStats.getIsIndel(),
-                            protoStats.getCasesPercentDominant(),
-                            protoStats.getControlsPercentDominant(),
-                            protoStats.getCasesPercentRecessive(),
-                            protoStats.getControlsPercentRecessive());
-                    variant.setStats(variantStats);
-                }
+                        if (includeEffects) {
+                            QueryResult<VariantEffect> queryEffects = getEffectsByVariant(variant, options);
+                            if (queryEffects != null) {
+                                variant.setEffect(queryEffects.getResult());
+                            }
+                        }
 
-                if (includeEffects) {
-                    QueryResult<VariantEffect> queryEffects = getEffectsByVariant(variant, options);
-                    variant.setEffect(queryEffects.getResult());
+                        results.add(variant);
+                    }
+                } finally {
+                    scanner.close();
                 }
-
-                results.add(variant);
             }
         } catch (IOException e) {
             System.err.println(e.getClass().getName() + ": " + e.getMessage());
+        } finally {
+            if (table != null) {
+                try {
+                    table.close();
+                } catch (IOException e) {
+                    System.err.println(e.getClass().getName() + ": " + e.getMessage());
+                }
+            }
         }
         queryResult.setResult(results);
         queryResult.setNumResults(results.size());
@@ -171,6 +183,60 @@ public class VariantHbaseDBAdaptor implements VariantDBAdaptor {
         return queryResult;
     }
 
+    /**
+     * @param sourceId Prefix of the columns of a file: studyId_fileId
+     * @return The study and the file ids
+     */
+    static String[] splitSourceId(String sourceId) {
+        int separator = sourceId.lastIndexOf('_');
+        if (separator <= 0 || separator == sourceId.length() - 1) {
+            throw new IllegalArgumentException("Source id '" + sourceId + "' must be <studyId>_<fileId>");
+        }
+        return new String[]{sourceId.substring(0, separator), sourceId.substring(separator + 1)};
+    }
+
+    /**
+     * Only the columns needed by the converter are read. Caching and maximum result size can be configured with the
+     * query options. Scans are not batched, because batching is not compatible with the row filters.
+     */
+    private void configureScan(Scan scan, HBaseToVariantConverter converter, QueryOptions options) {
+        // The row filters need their columns in the scan
+        scan.addColumn(DATA_COLUMN_FAMILY, TYPE_COLUMN);
+        converter.addColumns(scan);
+        scan.setCaching(options.getInt(SCAN_CACHING, DEFAULT_SCAN_CACHING));
+        if (options.containsKey(SCAN_MAX_RESULT_SIZE)) {
+            scan.setMaxResultSize(options.getLong(SCAN_MAX_RESULT_SIZE));
+        }
+        // Big region scans would evict the blocks of the point queries from the block cache
+        scan.setCacheBlocks(options.getBoolean(SCAN_CACHE_BLOCKS, false));
+    }
+
+    /**
+     * Filters evaluated in the region servers: the variant must be in the file and, optionally,
+     * be of one of the given types.
+     */
+    private Filter buildFilter(HBaseToArchivedVariantFileConverter fileConverter, QueryOptions options) {
+        FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+
+        // Any value is greater or equal than the empty array, so only the rows without the format column are skipped
+        SingleColumnValueFilter fileFilter = new SingleColumnValueFilter(DATA_COLUMN_FAMILY, fileConverter.getFormatQualifier(),
+                CompareFilter.CompareOp.GREATER_OR_EQUAL, new BinaryComparator(new byte[0]));
+        fileFilter.setFilterIfMissing(true);
+        filters.addFilter(fileFilter);
+
+        if (options.getString(TYPE) != null && !options.getString(TYPE).isEmpty()) {
+            FilterList typeFilters = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+            for (String type : options.getAsStringList(TYPE)) {
+                SingleColumnValueFilter typeFilter = new SingleColumnValueFilter(DATA_COLUMN_FAMILY, TYPE_COLUMN,
+                        CompareFilter.CompareOp.EQUAL, Bytes.toBytes(Variant.VariantType.valueOf(type.toUpperCase()).ordinal()));
+                typeFilter.setFilterIfMissing(true);
+                typeFilters.addFilter(typeFilter);
+            }
+            filters.addFilter(typeFilters);
+        }
+        return filters;
+    }
+
     @Override
     public List<QueryResult> getAllVariantsByRegionList(List<Region> regions, String sourceId, QueryOptions options) {
         List<QueryResult> allResults = new LinkedList<>();
@@ -499,59 +565,21 @@ public class VariantHbaseDBAdaptor implements VariantDBAdaptor {
             Result[] hbaseResultEffect = effectTable.get(hbaseQuery);
             Result[] hbaseResultStats = table.get(hbaseQuery);
 
-//            List<Variant> results = new LinkedList<>();
+            // Variants with their samples and statistics in the study
+            String[] ids = splitSourceId(study);
+            HBaseToVariantConverter converter = new HBaseToVariantConverter(Collections.singletonList(
+                    new HBaseToArchivedVariantFileConverter(ids[0], ids[1], false, Collections.<String>emptyList(),
+                            new HBaseToVariantStatsConverter(ids[0], ids[1]))));
             for (Result r : hbaseResultStats) {
-                String position = new String(r.getRow(), CHARSET_UTF_8);
-                String[] aux = position.split("_");
-                String inner_position = aux[1];
-                String chr = aux[0];
-                //position parsing
-                if (chr.startsWith("0")) {
-                    chr = chr.substring(1);
+                if (r.isEmpty()) {
+                    continue;
                 }
-                while (inner_position.startsWith("0")) {
-                    inner_position = inner_position.substring(1);
-                }
-                List<VariantFieldsProtos.VariantSample> samples = new LinkedList<>();
-                NavigableMap<byte[], byte[]> infoMap = r.getFamilyMap("i".getBytes());
-                byte[] byteStats = infoMap.get((study + "_stats").getBytes());
-                VariantFieldsProtos.VariantStats stats = VariantFieldsProtos.VariantStats.parseFrom(byteStats);
-                byte[] byteInfo = infoMap.get((study + "_data").getBytes());
-                VariantFieldsProtos.VariantInfo info = VariantFieldsProtos.VariantInfo.parseFrom(byteInfo);
-                String alternate = StringUtils.join(info.getAlternateList(), ", ");
-                String reference = info.getReference();
-                Variant partialResult = new Variant(chr, Integer.parseInt(inner_position), Integer.parseInt(inner_position), reference, alternate);
-                String format = StringUtils.join(info.getFormatList(), ":");
-                NavigableMap<byte[], byte[]> sampleMap = r.getFamilyMap("d".getBytes());
-                Map<String, Map<String, String>> resultSampleMap = new HashMap<>();
-//                StringBuilder sampleRaw = new StringBuilder();
-                for (byte[] s : sampleMap.keySet()) {
-                    String qual = (new String(s, CHARSET_UTF_8)).replaceAll(study + "_", "");
-                    VariantFieldsProtos.VariantSample sample = VariantFieldsProtos.VariantSample.parseFrom(sampleMap.get(s));
-                    String sample1 = sample.getSample();
-                    String[] values = sample1.split(":");
-                    String[] fields = format.split(":");
-                    Map<String, String> singleSampleMap = new HashMap<>();
-                    for (int i = 0; i < fields.length; i++) {
-                        singleSampleMap.put(fields[i], values[i]);
+                Variant partialResult = converter.convertToDataModelType(r);
+                for (VariantSourceEntry file : partialResult.getSourceEntries().values()) {
+                    if (file.getStats() != null) {
+                        partialResult.setStats(file.getStats());
                     }
-                    resultSampleMap.put(qual, singleSampleMap);
-
                 }
-                VariantStats variantStats = new VariantStats(chromosome, Integer.parseInt(inner_position), reference, alternate,
-                        stats.getMaf(),
-                        stats.getMgf(),
-                        stats.getMafAllele(),
-                        stats.getMgfGenotype(),
-                        stats.getMissingAlleles(),
-                        stats.getMissingGenotypes(),
-                        stats.getMendelianErrors(),
-                        stats.getIsIndel(),
-                        stats.getCasesPercentDominant(),
-                        stats.getControlsPercentDominant(),
-                        stats.getCasesPercentRecessive(),
-                        stats.getControlsPercentRecessive());
-                partialResult.setStats(variantStats);
                 resultsMap.put(new String(r.getRow(), CHARSET_UTF_8), partialResult);
             }
 
@@ -2,16 +2,16 @@ package org.opencb.opencga.storage.hbase.variant;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.*;
-import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
-import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.opencb.biodata.formats.variant.vcf4.VcfUtils;
@@ -20,10 +20,8 @@ import org.opencb.biodata.models.variant.VariantSourceEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.biodata.models.variant.effect.VariantEffect;
-import org.opencb.biodata.models.variant.protobuf.VariantProtos;
 import org.opencb.biodata.models.variant.protobuf.VariantStatsProtos;
 import org.opencb.biodata.models.variant.stats.VariantStats;
-import org.opencb.commons.utils.CryptoUtils;
 import org.opencb.opencga.lib.auth.MonbaseCredentials;
 import org.opencb.opencga.storage.core.variant.io.VariantDBWriter;
 import org.opencb.opencga.storage.core.variant.io.VariantEffectProtos;
@@ -34,16 +32,27 @@ import org.opencb.opencga.storage.core.variant.io.VariantEffectProtos;
  */
 public class VariantHbaseWriter extends VariantDBWriter {
 
+    public static final long DEFAULT_WRITE_BUFFER_SIZE = 8 * 1024 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL = 10000;
+
     private final byte[] infoColumnFamily = "i".getBytes();
     private final byte[] dataColumnFamily = "d".getBytes();
     private String tableName;
     private VariantSource source;
 
     private HBaseAdmin admin;
-    private HTable variantTable;
+    private VariantTablePool variantTables;
     private HTable effectTable;
-    private Map<String, Put> putMap;
-    private Map<String, Put> effectPutMap;
+    private ThreadLocal<Map<byte[], Put>> putMap;
+    private ThreadLocal<Map<byte[], Put>> effectPutMap;
+    private int saltBuckets;
+    private VariantHBaseRowKey rowKey;
+
+    private int tableHandles = 1;
+    private long writeBufferSize = DEFAULT_WRITE_BUFFER_SIZE;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private String bulkLoadDirectory;
+    private VariantHFileWriter hFileWriter;
 
     private MonbaseCredentials credentials;
 
@@ -52,7 +61,8 @@ public class VariantHbaseWriter extends VariantDBWriter {
     private boolean includeSamples;
 
     private VariantStatsToHbaseConverter statsConverter;
-    
+    private final ConcurrentMap<String, byte[]> sampleQualifiers = new ConcurrentHashMap<>();
+
 
     public VariantHbaseWriter(VariantSource source, String species, MonbaseCredentials credentials) {
         this(source, species, credentials, false, false, false);
@@ -65,8 +75,8 @@ public class VariantHbaseWriter extends VariantDBWriter {
         }
         this.source = source;
         this.tableName = species;
-        this.putMap = new HashMap<>();
-        this.effectPutMap = new HashMap<>();
+        this.putMap = newPutMap();
+        this.effectPutMap = newPutMap();
         this.credentials = credentials;
 
         this.includeSamples = includeSamples;
@@ -103,8 +113,10 @@ public class VariantHbaseWriter extends VariantDBWriter {
     public boolean pre() {
         try {
             // HBase variant table creation (one per species)
+            VariantHBaseRowKey newRowKey = new VariantHBaseRowKey(saltBuckets);
             if (!admin.tableExists(tableName)) {
                 HTableDescriptor newTable = new HTableDescriptor(tableName.getBytes());
+                newTable.setValue(VariantHBaseRowKey.SALT_BUCKETS, String.valueOf(newRowKey.getSaltBuckets()));
                 // Add column family for samples
                 HColumnDescriptor samplesDescriptor = new HColumnDescriptor(dataColumnFamily);
                 samplesDescriptor.setCompressionType(Compression.Algorithm.SNAPPY);
@@ -113,11 +125,23 @@ public class VariantHbaseWriter extends VariantDBWriter {
                 HColumnDescriptor statsDescriptor = new HColumnDescriptor(infoColumnFamily);
                 statsDescriptor.setCompressionType(Compression.Algorithm.SNAPPY);
                 newTable.addFamily(statsDescriptor);
-                // Create table
-                admin.createTable(newTable);
+                // Create table, pre-split by salt
+                admin.createTable(newTable, newRowKey.getSplitKeys());
+            }
+            // The layout of an existing table prevails. Tables with the old string rowkeys are refused
+            HTable variantTable = new HTable(admin.getConfiguration(), tableName);
+            try {
+                rowKey = VariantHBaseRowKey.fromTable(variantTable);
+            } finally {
+                variantTable.close();
+            }
+            HTableDescriptor variantTableDescriptor = admin.getTableDescriptor(Bytes.toBytes(tableName));
+            // Puts are buffered in the client, and sent when the buffer is full, after the flush interval or in post()
+            variantTables = new VariantTablePool(admin.getConfiguration(), tableName, tableHandles, writeBufferSize, flushInterval);
+            if (bulkLoadDirectory != null) {
+                hFileWriter = new VariantHFileWriter(admin.getConfiguration(), new Path(bulkLoadDirectory),
+                        variantTableDescriptor, writeBufferSize);
             }
-            variantTable = new HTable(admin.getConfiguration(), tableName);
-            variantTable.setAutoFlush(false, true);
 
             // HBase effect table creation (one per species)
             String tableEffectName = tableName + "effect";
@@ -133,7 +157,7 @@ public class VariantHbaseWriter extends VariantDBWriter {
             effectTable = new HTable(admin.getConfiguration(), tableEffectName);
             effectTable.setAutoFlush(false, true);
 
-            return variantTable != null && effectTable != null;
+            return effectTable != null;
         } catch (IOException ex) {
             Logger.getLogger(VariantHbaseWriter.class.getName()).log(Level.SEVERE, null, ex);
             return false;
@@ -157,18 +181,29 @@ public class VariantHbaseWriter extends VariantDBWriter {
 
     @Override
     protected boolean writeBatch(List<Variant> data) {
-        // TODO Better error checking! Probably doing more variant-by-variant inserts
+        Map<byte[], Put> puts = putMap.get();
+        Map<byte[], Put> effectPuts = effectPutMap.get();
         try {
             // Insert raw variant data
-            // TODO Track which ones were successful
-            variantTable.put(new LinkedList(putMap.values()));
-            putMap.clear();
+            if (hFileWriter != null) {
+                hFileWriter.write(puts.values());
+            } else if (!puts.isEmpty()) {
+                variantTables.put(new ArrayList<>(puts.values()));
+            }
+            puts.clear();
             
             // Insert effect raw data
-            // TODO Track which ones were successful
-            effectTable.put(new LinkedList(effectPutMap.values()));
-            effectPutMap.clear();
+            if (!effectPuts.isEmpty()) {
+                synchronized (effectTable) {
+                    effectTable.put(new ArrayList<>(effectPuts.values()));
+                }
+                effectPuts.clear();
+            }
         } catch (IOException e) {
+            Logger.getLogger(VariantHbaseWriter.class.getName()).log(Level.SEVERE, "Could not write variants", e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return false;
         }
         return true;
@@ -181,78 +216,55 @@ public class VariantHbaseWriter extends VariantDBWriter {
     
     @Override
     protected boolean buildBatchRaw(List<Variant> data) {
-        // Query all variants in the batch instead of one by one
-        List<Get> gets = new ArrayList<>(data.size());
-        Result[] results;
-        try {
-            for (Variant v : data) {
-                String rowkey = buildRowkey(v);
-                gets.add(new Get(Bytes.toBytes(rowkey)));
-            }
-            results = variantTable.get(gets);
-        } catch (IOException ex) {
-            Logger.getLogger(VariantHbaseWriter.class.getName()).log(Level.SEVERE, "Could not retrieve variant rowkeys from database", ex);
-            return false;
-        }
-       
-        int i = 0;
+        // Puts are idempotent, so there is no need to check whether the variants were already stored
+        Map<byte[], Put> puts = putMap.get();
+        byte[] formatBytes = ArchivedVariantFileToHbaseConverter.buildQualifier(source.getStudyId(), source.getFileId(),
+                ArchivedVariantFileToHbaseConverter.FORMAT_COLUMN);
+        byte[] attrsBytes = ArchivedVariantFileToHbaseConverter.buildQualifier(source.getStudyId(), source.getFileId(),
+                ArchivedVariantFileToHbaseConverter.ATTRIBUTES_COLUMN);
+        byte[] statsBytes = ArchivedVariantFileToHbaseConverter.buildQualifier(source.getStudyId(), source.getFileId(),
+                ArchivedVariantFileToHbaseConverter.STATS_COLUMN);
         for (Variant v : data) {
-            // Check that this variant was not stored yet
-            if (results[i].isEmpty()) {
-                String rowkey = buildRowkey(v);
-
-                // Create raw data for inserting in HBase
-                for (VariantSourceEntry archiveFile : v.getSourceEntries().values()) {
-                    String prefix = source.getStudyId() + "_" + source.getFileId();
-
-                    // Check that this variant IN THIS FILE was not stored yet
-                    // (look for the column containing the file fields)
-                    byte[] attrsBytes = Bytes.toBytes(prefix + "_" + "_attrs");
-                    if (results[i].containsColumn(dataColumnFamily, attrsBytes)) {
-                        continue;
-                    }
+            byte[] rowkey = rowKey.build(v);
 
-                    Put auxPut = putMap.get(rowkey);
-                    if (auxPut == null) {
-                        auxPut = new Put(Bytes.toBytes(rowkey));
-                        putMap.put(rowkey, auxPut);
-                    }
+            // Create raw data for inserting in HBase
+            for (VariantSourceEntry archiveFile : v.getSourceEntries().values()) {
 
-                    // Global fields (chr, start, ref, alt...)
-                    // chr, start, end, ref, alt, id, type, length, hgvs
-                    auxPut.add(dataColumnFamily, Bytes.toBytes("chr"), Bytes.toBytes(v.getChromosome()));
-                    auxPut.add(dataColumnFamily, Bytes.toBytes("start"), Bytes.toBytes(v.getStart()));
-                    auxPut.add(dataColumnFamily, Bytes.toBytes("end"), Bytes.toBytes(v.getEnd()));
-                    auxPut.add(dataColumnFamily, Bytes.toBytes("length"), Bytes.toBytes(v.getLength()));
-                    auxPut.add(dataColumnFamily, Bytes.toBytes("ref"), Bytes.toBytes(v.getReference()));
-                    auxPut.add(dataColumnFamily, Bytes.toBytes("alt"), Bytes.toBytes(v.getAlternate()));
-                    auxPut.add(dataColumnFamily, Bytes.toBytes("id"), Bytes.toBytes(v.getId()));
-                    auxPut.add(dataColumnFamily, Bytes.toBytes("type"), Bytes.toBytes(v.getType().ordinal()));
-                    // TODO How are we going to store HGVS really? It is available in VEP
-//                    auxPut.add(dataColumnFamily, Bytes.toBytes("hgvs"), Bytes.toBytes(v.getHgvs()));
-
-                    // Attributes that vary depending on the input format
-                    VariantProtos.VariantFileAttributes attrs = buildAttributesProto(v, archiveFile);
-                    auxPut.add(dataColumnFamily, attrsBytes, attrs.toByteArray());
-
-                    if (includeSamples) {
-                        for (String s : archiveFile.getSampleNames()) {
-                            VariantProtos.VariantSample.Builder sp = VariantProtos.VariantSample.newBuilder();
-                            sp.setSample(VcfUtils.getJoinedSampleFields(v, archiveFile, s));
-                            byte[] qualifier = Bytes.toBytes(prefix + "_" + s);
-                            auxPut.add(dataColumnFamily, qualifier, sp.build().toByteArray());
-                        }
-                    }
-                    
-                    if (includeStats) {
-                        VariantStatsProtos.VariantStats protoStats = statsConverter.convertToStorageType(archiveFile.getStats());
-                        byte[] qualifier = Bytes.toBytes(prefix + "_stats");
-                        auxPut.add(dataColumnFamily, qualifier, protoStats.toByteArray());
+                Put auxPut = puts.get(rowkey);
+                if (auxPut == null) {
+                    auxPut = new Put(rowkey);
+                    puts.put(rowkey, auxPut);
+                }
+
+                // Global fields (chr, start, ref, alt...)
+                // chr, start, end, ref, alt, id, type, length, hgvs
+                auxPut.add(dataColumnFamily, VariantToHBaseConverter.CHROMOSOME_COLUMN, Bytes.toBytes(v.getChromosome()));
+                auxPut.add(dataColumnFamily, VariantToHBaseConverter.START_COLUMN, Bytes.toBytes(v.getStart()));
+                auxPut.add(dataColumnFamily, VariantToHBaseConverter.END_COLUMN, Bytes.toBytes(v.getEnd()));
+                auxPut.add(dataColumnFamily, VariantToHBaseConverter.LENGTH_COLUMN, Bytes.toBytes(v.getLength()));
+                auxPut.add(dataColumnFamily, VariantToHBaseConverter.REFERENCE_COLUMN, Bytes.toBytes(v.getReference()));
+                auxPut.add(dataColumnFamily, VariantToHBaseConverter.ALTERNATE_COLUMN, Bytes.toBytes(v.getAlternate()));
+                auxPut.add(dataColumnFamily, VariantToHBaseConverter.ID_COLUMN, Bytes.toBytes(v.getId()));
+                auxPut.add(dataColumnFamily, VariantToHBaseConverter.TYPE_COLUMN, Bytes.toBytes(v.getType().ordinal()));
+                // TODO How are we going to store HGVS really? It is available in VEP
+//                auxPut.add(dataColumnFamily, Bytes.toBytes("hgvs"), Bytes.toBytes(v.getHgvs()));
+
+                // Format of the samples, which also tells the readers that the variant is in the file
+                auxPut.add(dataColumnFamily, formatBytes, ArchivedVariantFileToHbaseConverter.encodeFormat(archiveFile.getFormat()));
+
+                // Attributes that vary depending on the input format
+                auxPut.add(dataColumnFamily, attrsBytes, ArchivedVariantFileToHbaseConverter.encodeAttributes(archiveFile.getAttributes()));
+
+                if (includeSamples) {
+                    for (String s : archiveFile.getSampleNames()) {
+                        byte[] sample = ArchivedVariantFileToHbaseConverter.encodeSample(VcfUtils.getJoinedSampleFields(v, archiveFile, s));
+                        auxPut.add(dataColumnFamily, getSampleQualifier(s), sample);
                     }
                 }
-            } else {
-                Logger.getLogger(VariantHbaseWriter.class.getName()).log(Level.WARNING, 
-                            "Variant already existed: {0}:{1}", new Object[]{v.getChromosome(), v.getStart()});
+                
+                if (includeStats) {
+                    auxPut.add(dataColumnFamily, statsBytes, statsConverter.encode(archiveFile.getStats()));
+                }
             }
         }
 
@@ -300,7 +312,15 @@ public class VariantHbaseWriter extends VariantDBWriter {
     @Override
     public boolean post() {
         try {
-            variantTable.flushCommits();
+            if (hFileWriter != null) {
+                HTable variantTable = new HTable(admin.getConfiguration(), tableName);
+                try {
+                    hFileWriter.bulkLoad(variantTable);
+                } finally {
+                    variantTable.close();
+                }
+            }
+            variantTables.flush();
             effectTable.flushCommits();
         } catch (IOException ex) {
             Logger.getLogger(VariantHbaseWriter.class.getName()).log(Level.SEVERE, null, ex);
@@ -314,7 +334,7 @@ public class VariantHbaseWriter extends VariantDBWriter {
     public boolean close() {
         try {
             admin.close();
-            variantTable.close();
+            variantTables.close();
             effectTable.close();
         } catch (IOException e) {
             Logger.getLogger(VariantHbaseWriter.class.getName()).log(Level.SEVERE, null, e);
@@ -328,19 +348,6 @@ public class VariantHbaseWriter extends VariantDBWriter {
      * ProtocolBuffers objects construction
      */
     
-    private VariantProtos.VariantFileAttributes buildAttributesProto(Variant v, VariantSourceEntry file) {
-        VariantProtos.VariantFileAttributes.Builder builder = VariantProtos.VariantFileAttributes.newBuilder();
-        
-        for (Map.Entry<String, String> attr : file.getAttributes().entrySet()) {
-            VariantProtos.VariantFileAttributes.KeyValue.Builder kvBuilder = VariantProtos.VariantFileAttributes.KeyValue.newBuilder();
-            kvBuilder.setKey(attr.getKey());
-            kvBuilder.setValue(attr.getValue());
-            builder.addAttrs(kvBuilder.build());
-        }
-        
-        return builder.build();
-    }
-
     private VariantStatsProtos.VariantStats buildStatsProto(VariantStats v) {
         VariantStatsProtos.VariantStats.Builder builder = VariantStatsProtos.VariantStats.newBuilder();
         
@@ -421,27 +428,66 @@ public class VariantHbaseWriter extends VariantDBWriter {
      * Auxiliary functions
      */
     
-    private String buildRowkey(Variant v) {
-        StringBuilder builder = new StringBuilder();
-        builder.append(StringUtils.leftPad(v.getChromosome(), 4, '0'));
-        builder.append("_");
-        builder.append(v.getStart());
-        builder.append("_");
-        if (v.getReference().length() < Variant.SV_THRESHOLD) {
-            builder.append(v.getReference());
-        } else {
-            builder.append(new String(CryptoUtils.encryptSha1(v.getReference())));
+    /**
+     * Number of salt buckets of the rowkeys, used when the table is created. 0 for unsalted rowkeys.
+     * Existing tables keep their layout.
+     */
+    public void setSaltBuckets(int saltBuckets) {
+        this.saltBuckets = saltBuckets;
+    }
+
+    /**
+     * Number of table handles, which is the maximum number of threads writing at the same time. Set before pre().
+     */
+    public void setTableHandles(int tableHandles) {
+        if (tableHandles < 1) {
+            throw new IllegalArgumentException("At least one table handle is needed");
         }
-        
-        builder.append("_");
-        
-        if (v.getAlternate().length() < Variant.SV_THRESHOLD) {
-            builder.append(v.getAlternate());
-        } else {
-            builder.append(new String(CryptoUtils.encryptSha1(v.getAlternate())));
+        this.tableHandles = tableHandles;
+    }
+
+    /**
+     * Bytes buffered in the client by every table handle before sending them to the region servers. Set before pre().
+     */
+    public void setWriteBufferSize(long writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    /**
+     * Maximum time, in milliseconds, that a table handle keeps its puts buffered in the client. The handles are
+     * checked in the background, so the puts are sent even if no more variants are written. Set before pre().
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Writes HFiles in the given directory, and bulk-loads them in post(), instead of sending the puts to the
+     * region servers. Intended for first-time loads. The directory must not exist. Set before pre().
+     */
+    public void setBulkLoadDirectory(String bulkLoadDirectory) {
+        this.bulkLoadDirectory = bulkLoadDirectory;
+    }
+
+    private byte[] getSampleQualifier(String sampleName) {
+        byte[] qualifier = sampleQualifiers.get(sampleName);
+        if (qualifier == null) {
+            qualifier = ArchivedVariantFileToHbaseConverter.buildQualifier(source.getStudyId(), source.getFileId(), sampleName);
+            sampleQualifiers.put(sampleName, qualifier);
         }
-            
-        return builder.toString();
+        return qualifier;
+    }
+
+    /**
+     * Puts being built by each thread, sorted by rowkey.
+     */
+    private static ThreadLocal<Map<byte[], Put>> newPutMap() {
+        return new ThreadLocal<Map<byte[], Put>>() {
+            @Override
+            protected Map<byte[], Put> initialValue() {
+                return new TreeMap<>(Bytes.BYTES_COMPARATOR);
+            }
+        };
     }
 
     @Override
@@ -1,7 +1,6 @@
 package org.opencb.opencga.storage.hbase.variant;
 
 import java.util.Map;
-import org.apache.hadoop.hbase.client.Put;
 import org.opencb.biodata.models.feature.Genotype;
 import org.opencb.biodata.models.variant.protobuf.VariantStatsProtos;
 import org.opencb.biodata.models.variant.stats.VariantStats;
@@ -12,6 +11,17 @@ import org.opencb.datastore.core.ComplexTypeConverter;
  * @author Cristina Yenyxe Gonzalez Garcia <cyenyxe@ebi.ac.uk>
  */
 public class VariantStatsToHbaseConverter implements ComplexTypeConverter<VariantStats, VariantStatsProtos.VariantStats> {
+
+    /**
+     * Builders are reused between variants, instead of creating a new graph of builders for each of them.
+     */
+    private static final ThreadLocal<VariantStatsProtos.VariantStats.Builder> builders =
+            new ThreadLocal<VariantStatsProtos.VariantStats.Builder>() {
+                @Override
+                protected VariantStatsProtos.VariantStats.Builder initialValue() {
+                    return VariantStatsProtos.VariantStats.newBuilder();
+                }
+            };
     
     @Override
     public VariantStats convertToDataModelType(VariantStatsProtos.VariantStats object) {
@@ -20,26 +30,24 @@ public class VariantStatsToHbaseConverter implements ComplexTypeConverter<Varian
 
     @Override
     public VariantStatsProtos.VariantStats convertToStorageType(VariantStats object) {
-        VariantStatsProtos.VariantStats.Builder builder = VariantStatsProtos.VariantStats.newBuilder();
+        VariantStatsProtos.VariantStats.Builder builder = builders.get().clear();
         
         // Allele and genotype counts
         builder.setRefAlleleCount(object.getRefAlleleCount());
         builder.setAltAlleleCount(object.getAltAlleleCount());
         for (Map.Entry<Genotype, Integer> count : object.getGenotypesCount().entrySet()) {
-            VariantStatsProtos.VariantStats.Count.Builder countBuilder = VariantStatsProtos.VariantStats.Count.newBuilder();
-            countBuilder.setKey(count.getKey().toString());
-            countBuilder.setCount(count.getValue());
-            builder.addGenotypesCount(countBuilder.build());
+            builder.addGenotypesCountBuilder()
+                    .setKey(count.getKey().toString())
+                    .setCount(count.getValue());
         }
 
         // Allele and genotype frequencies
         builder.setRefAlleleFreq(object.getRefAlleleFreq());
         builder.setAltAlleleFreq(object.getAltAlleleFreq());
         for (Map.Entry<Genotype, Float> freq : object.getGenotypesFreq().entrySet()) {
-            VariantStatsProtos.VariantStats.Frequency.Builder countBuilder = VariantStatsProtos.VariantStats.Frequency.newBuilder();
-            countBuilder.setKey(freq.getKey().toString());
-            countBuilder.setFrequency(freq.getValue());
-            builder.addGenotypesFreq(countBuilder.build());
+            builder.addGenotypesFreqBuilder()
+                    .setKey(freq.getKey().toString())
+                    .setFrequency(freq.getValue());
         }
 
         // Missing values
@@ -59,8 +67,8 @@ public class VariantStatsToHbaseConverter implements ComplexTypeConverter<Varian
         
         builder.setNumSamples(object.getNumSamples());
         
-//        builder.setTransitionsCount(object.getTransitionsCount());
-//        builder.setTransversionsCount(object.getTransversionsCount());
+        builder.setTransitionsCount(object.getTransitionsCount());
+        builder.setTransversionsCount(object.getTransversionsCount());
 
         // Optional fields, they require pedigree information
 //        if (object.isPedigreeStatsAvailable()) {
@@ -75,8 +83,14 @@ public class VariantStatsToHbaseConverter implements ComplexTypeConverter<Varian
 //            builder.setHardyWeinberg(effect.getHw().getpValue());
         }
         
-        Put p = new Put(builder.build().toByteArray());
         return builder.build();
     }
+
+    /**
+     * Serialized statistics, ready to be stored in a cell.
+     */
+    public byte[] encode(VariantStats object) {
+        return convertToStorageType(object).toByteArray();
+    }
     
 }
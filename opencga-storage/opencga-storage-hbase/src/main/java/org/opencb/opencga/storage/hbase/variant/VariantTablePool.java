@@ -0,0 +1,196 @@
+package org.opencb.opencga.storage.hbase.variant;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+
+/**
+ * Pool of handles of a table, each one with its own client write buffer, so several threads can send puts at the
+ * same time. HTables are not thread-safe, so every handle is used by one thread at a time.
+ *
+ * A handle is flushed when its buffer fills up. A background task also flushes the handles whose last flush is
+ * older than the flush interval, so the puts of slow or stalled loads are not kept in the client. The task runs
+ * every quarter of the interval, so puts are sent at most 1.25 intervals after they are buffered. Handles being
+ * used by a writer are skipped, and checked again by that writer once its puts are buffered.
+ */
+class VariantTablePool {
+
+    private final List<TableHandle> handles;
+    private final BlockingQueue<TableHandle> available;
+    private final long flushInterval;
+    private final ScheduledExecutorService flusher;
+
+    /** First error of the background flushes, reported to the next writer */
+    private volatile IOException flushError;
+
+    /**
+     * Table and the time of its last flush.
+     */
+    private static class TableHandle {
+        private final HTable table;
+        private long lastFlush;
+
+        TableHandle(HTable table) {
+            this.table = table;
+            this.lastFlush = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param config          HBase configuration
+     * @param tableName       Table to write into
+     * @param size            Number of handles, which is the maximum number of threads writing at the same time
+     * @param writeBufferSize Bytes buffered by every handle before sending them to the region servers
+     * @param flushInterval   Maximum time, in milliseconds, that a handle keeps its puts buffered
+     * @throws IOException If the table could not be opened
+     */
+    VariantTablePool(Configuration config, String tableName, int size, long writeBufferSize, long flushInterval)
+            throws IOException {
+        if (size < 1) {
+            throw new IllegalArgumentException("At least one table handle is needed");
+        }
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException("The flush interval must be positive");
+        }
+        this.handles = new ArrayList<>(size);
+        this.available = new ArrayBlockingQueue<>(size);
+        this.flushInterval = flushInterval;
+        try {
+            for (int i = 0; i < size; i++) {
+                HTable table = new HTable(config, tableName);
+                table.setAutoFlush(false, true);
+                table.setWriteBufferSize(writeBufferSize);
+                TableHandle handle = new TableHandle(table);
+                handles.add(handle);
+                available.add(handle);
+            }
+        } catch (IOException e) {
+            for (TableHandle handle : handles) {
+                handle.table.close();
+            }
+            throw e;
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "variant-table-flusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, flushInterval / 4);
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers the puts in the first handle available, waiting for one if all of them are being used.
+     *
+     * @throws IOException If the puts, or a previous background flush, could not be sent
+     */
+    void put(List<Put> puts) throws IOException, InterruptedException {
+        checkFlushError();
+        TableHandle handle = available.take();
+        try {
+            handle.table.put(puts);
+            long now = System.currentTimeMillis();
+            if (now - handle.lastFlush >= flushInterval) {
+                handle.table.flushCommits();
+                handle.lastFlush = now;
+            }
+        } finally {
+            available.put(handle);
+        }
+    }
+
+    /**
+     * Sends the puts buffered in every handle. The caller must not be writing at the same time.
+     */
+    void flush() throws IOException {
+        for (TableHandle handle : handles) {
+            synchronized (handle) {
+                handle.table.flushCommits();
+                handle.lastFlush = System.currentTimeMillis();
+            }
+        }
+        checkFlushError();
+    }
+
+    /**
+     * Stops the background flushes, and flushes and closes every handle.
+     */
+    void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException error = null;
+        for (TableHandle handle : handles) {
+            try {
+                handle.table.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        checkFlushError();
+    }
+
+    /**
+     * Flushes the handles not being used whose last flush is older than the flush interval.
+     */
+    private void flushIdle() {
+        for (TableHandle handle : handles) {
+            // Only the handles in the queue are free, and removing them keeps the writers away
+            if (!available.remove(handle)) {
+                continue;
+            }
+            try {
+                synchronized (handle) {
+                    long now = System.currentTimeMillis();
+                    if (now - handle.lastFlush >= flushInterval) {
+                        handle.table.flushCommits();
+                        handle.lastFlush = now;
+                    }
+                }
+            } catch (IOException e) {
+                Logger.getLogger(VariantTablePool.class.getName()).log(Level.SEVERE, "Could not flush the buffered puts", e);
+                if (flushError == null) {
+                    flushError = e;
+                }
+            } finally {
+                available.add(handle);
+            }
+        }
+    }
+
+    private void checkFlushError() throws IOException {
+        IOException error = flushError;
+        if (error != null) {
+            flushError = null;
+            throw new IOException("Could not flush the buffered puts", error);
+        }
+    }
+}
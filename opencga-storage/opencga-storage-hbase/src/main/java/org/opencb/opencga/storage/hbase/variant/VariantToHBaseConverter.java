@@ -1,16 +1,12 @@
 package org.opencb.opencga.storage.hbase.variant;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.opencb.biodata.models.variant.VariantSourceEntry;
 import org.opencb.biodata.models.variant.Variant;
-import org.opencb.commons.utils.CryptoUtils;
 import org.opencb.datastore.core.ComplexTypeConverter;
 
 /**
@@ -29,9 +25,8 @@ public class VariantToHBaseConverter implements ComplexTypeConverter<Variant, Pu
     public final static byte[] ID_COLUMN = Bytes.toBytes("id");
     public final static byte[] TYPE_COLUMN = Bytes.toBytes("type");
 
-    private final static String ROWKEY_SEPARATOR = "_";
-
     private ArchivedVariantFileToHbaseConverter archivedVariantFileConverter;
+    private VariantHBaseRowKey rowKey;
 
     /**
      * Create a converter between Variant and HBase entities when there is no
@@ -49,7 +44,16 @@ public class VariantToHBaseConverter implements ComplexTypeConverter<Variant, Pu
      * @param archivedVariantFileConverter The object used to convert the files
      */
     public VariantToHBaseConverter(ArchivedVariantFileToHbaseConverter archivedVariantFileConverter) {
+        this(archivedVariantFileConverter, new VariantHBaseRowKey(0));
+    }
+
+    /**
+     * @param archivedVariantFileConverter The object used to convert the files
+     * @param rowKey Rowkey layout of the table
+     */
+    public VariantToHBaseConverter(ArchivedVariantFileToHbaseConverter archivedVariantFileConverter, VariantHBaseRowKey rowKey) {
         this.archivedVariantFileConverter = archivedVariantFileConverter;
+        this.rowKey = rowKey;
     }
 
     @Override
@@ -59,7 +63,7 @@ public class VariantToHBaseConverter implements ComplexTypeConverter<Variant, Pu
 
     @Override
     public Put convertToStorageType(Variant v) {
-        Put put = new Put(Bytes.toBytes(buildStorageId(v)));
+        Put put = new Put(buildStorageId(v));
         put.add(COLUMN_FAMILY, CHROMOSOME_COLUMN, Bytes.toBytes(v.getChromosome()));
         put.add(COLUMN_FAMILY, START_COLUMN, Bytes.toBytes(v.getStart()));
         put.add(COLUMN_FAMILY, END_COLUMN, Bytes.toBytes(v.getEnd()));
@@ -73,14 +77,11 @@ public class VariantToHBaseConverter implements ComplexTypeConverter<Variant, Pu
         if (archivedVariantFileConverter != null) {
             for (VariantSourceEntry archiveFile : v.getSourceEntries().values()) {
                 Put filePut = archivedVariantFileConverter.convertToStorageType(archiveFile);
-                // Save the generated KeyValues into the Put object associated to the whole variant rowkey
+                // Save the generated KeyValues into the Put object associated to the whole variant rowkey.
+                // They are copied, as the file Put has a row key of its own that the variant Put would reject
                 for (Map.Entry<byte[],List<KeyValue>> keyValues : filePut.getFamilyMap().entrySet()) {
                    for (KeyValue kv : keyValues.getValue()) {
-                       try {
-                           put.add(kv);
-                       } catch (IOException ex) {
-                           Logger.getLogger(VariantToHBaseConverter.class.getName()).log(Level.SEVERE, null, ex);
-                       }
+                       put.add(kv.getFamily(), kv.getQualifier(), kv.getValue());
                    }
                 }
             }
@@ -89,25 +90,7 @@ public class VariantToHBaseConverter implements ComplexTypeConverter<Variant, Pu
         return put;
     }
 
-    public String buildStorageId(Variant v) {
-        StringBuilder builder = new StringBuilder(v.getChromosome());
-        builder.append(ROWKEY_SEPARATOR);
-        builder.append(String.format("%012d", v.getStart()));
-        builder.append(ROWKEY_SEPARATOR);
-        if (v.getReference().length() < Variant.SV_THRESHOLD) {
-            builder.append(v.getReference());
-        } else {
-            builder.append(new String(CryptoUtils.encryptSha1(v.getReference())));
-        }
-
-        builder.append(ROWKEY_SEPARATOR);
-
-        if (v.getAlternate().length() < Variant.SV_THRESHOLD) {
-            builder.append(v.getAlternate());
-        } else {
-            builder.append(new String(CryptoUtils.encryptSha1(v.getAlternate())));
-        }
-
-        return builder.toString();
+    public byte[] buildStorageId(Variant v) {
+        return rowKey.build(v);
     }
 }
@@ -0,0 +1,160 @@
+package org.opencb.opencga.storage.hbase.variant;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+
+/**
+ * Variants written with the storage converters must be read back by the HBase converters.
+ */
+public class HBaseToVariantConverterTest {
+
+    private static final List<String> SAMPLES = Arrays.asList("NA001", "NA002");
+
+    private Variant variant;
+    private VariantStats stats;
+
+    @Before
+    public void setUp() {
+        variant = new Variant("1", 1000, 1000, "A", "T");
+        variant.setId("rs1000");
+
+        VariantSourceEntry file = new VariantSourceEntry("f1", "s1");
+        file.setFormat("GT:DP");
+        file.addAttribute("DP", "5");
+        file.addAttribute("QUAL", "40");
+        file.addSampleData("NA001", sampleData("0/1", "3"));
+        file.addSampleData("NA002", sampleData("1/1", "2"));
+
+        stats = new VariantStats(null, -1, null, null, 0.25, 0.5, "T", "0/0", 1, 2, -1, false, -1, -1, -1, -1);
+        stats.addGenotype(new Genotype("0/1"), 1);
+        stats.addGenotype(new Genotype("1/1"), 1);
+        stats.getGenotypesFreq().put(new Genotype("0/1"), 0.5f);
+        stats.getGenotypesFreq().put(new Genotype("1/1"), 0.5f);
+        stats.setPassedFilters(true);
+        stats.setQuality(40);
+        stats.setNumSamples(2);
+        stats.setTransitionsCount(1);
+        stats.setTransversionsCount(0);
+        file.setStats(stats);
+        variant.addSourceEntry(file);
+    }
+
+    @Test
+    public void testWriteAndRead() {
+        Result result = write(variant);
+        HBaseToVariantConverter converter = new HBaseToVariantConverter(Collections.singletonList(
+                new HBaseToArchivedVariantFileConverter("s1", "f1", true, Collections.<String>emptyList(),
+                        new HBaseToVariantStatsConverter("s1", "f1"))));
+        Variant read = converter.convertToDataModelType(result);
+
+        assertEquals(variant.getChromosome(), read.getChromosome());
+        assertEquals(variant.getStart(), read.getStart());
+        assertEquals(variant.getEnd(), read.getEnd());
+        assertEquals(variant.getReference(), read.getReference());
+        assertEquals(variant.getAlternate(), read.getAlternate());
+        assertEquals(variant.getId(), read.getId());
+
+        assertEquals(1, read.getSourceEntries().size());
+        VariantSourceEntry file = read.getSourceEntries().values().iterator().next();
+        assertEquals("f1", file.getFileId());
+        assertEquals("s1", file.getStudyId());
+        assertEquals("GT:DP", file.getFormat());
+        assertEquals("5", file.getAttribute("DP"));
+        assertEquals("40", file.getAttribute("QUAL"));
+        assertEquals(new HashSet<>(SAMPLES), new HashSet<>(file.getSampleNames()));
+        assertEquals("0/1", file.getSampleData("NA001", "GT"));
+        assertEquals("2", file.getSampleData("NA002", "DP"));
+
+        VariantStats readStats = file.getStats();
+        assertEquals(stats.getMaf(), readStats.getMaf(), 1e-6);
+        assertEquals(stats.getMgf(), readStats.getMgf(), 1e-6);
+        assertEquals(stats.getMafAllele(), readStats.getMafAllele());
+        assertEquals(stats.getMgfGenotype(), readStats.getMgfGenotype());
+        assertEquals(stats.getMissingAlleles(), readStats.getMissingAlleles());
+        assertEquals(stats.getMissingGenotypes(), readStats.getMissingGenotypes());
+        assertEquals(byGenotype(stats.getGenotypesCount()), byGenotype(readStats.getGenotypesCount()));
+        assertEquals(byGenotype(stats.getGenotypesFreq()), byGenotype(readStats.getGenotypesFreq()));
+        assertEquals(stats.hasPassedFilters(), readStats.hasPassedFilters());
+        assertEquals(stats.getQuality(), readStats.getQuality(), 1e-6);
+        assertEquals(stats.getNumSamples(), readStats.getNumSamples());
+        assertEquals(stats.getTransitionsCount(), readStats.getTransitionsCount());
+    }
+
+    @Test
+    public void testReadRequestedFields() {
+        Result result = write(variant);
+
+        // Only the listed samples, no attributes nor statistics
+        Variant read = new HBaseToVariantConverter(Collections.singletonList(
+                new HBaseToArchivedVariantFileConverter("s1", "f1", false, Collections.singletonList("NA002"), null)))
+                .convertToDataModelType(result);
+        VariantSourceEntry file = read.getSourceEntries().values().iterator().next();
+        assertEquals(Collections.singleton("NA002"), new HashSet<>(file.getSampleNames()));
+        assertTrue(file.getAttributes().isEmpty());
+        assertNull(file.getStats());
+
+        // Other files are not in the row
+        read = new HBaseToVariantConverter(Collections.singletonList(new HBaseToArchivedVariantFileConverter("s1", "f2")))
+                .convertToDataModelType(result);
+        assertTrue(read.getSourceEntries().isEmpty());
+    }
+
+    @Test
+    public void testAddColumns() {
+        Scan scan = new Scan();
+        new HBaseToVariantConverter(Collections.singletonList(new HBaseToArchivedVariantFileConverter("s1", "f1")))
+                .addColumns(scan);
+        NavigableSet<byte[]> columns = scan.getFamilyMap().get(VariantToHBaseConverter.COLUMN_FAMILY);
+        assertTrue(columns.contains(Bytes.toBytes("s1_f1_format")));
+        assertFalse(columns.contains(Bytes.toBytes("s1_f1_attrs")));
+
+        // All the samples need the whole column family
+        scan = new Scan();
+        new HBaseToVariantConverter(Collections.singletonList(new HBaseToArchivedVariantFileConverter("s1", "f1",
+                false, Collections.<String>emptyList(), null))).addColumns(scan);
+        assertNull(scan.getFamilyMap().get(VariantToHBaseConverter.COLUMN_FAMILY));
+    }
+
+    /**
+     * @return The row written for the variant, as read from HBase
+     */
+    private static Result write(Variant variant) {
+        Put put = new VariantToHBaseConverter(new ArchivedVariantFileToHbaseConverter(SAMPLES, new VariantStatsToHbaseConverter()))
+                .convertToStorageType(variant);
+        List<Cell> cells = new ArrayList<>();
+        for (List<Cell> familyCells : put.getFamilyCellMap().values()) {
+            cells.addAll(familyCells);
+        }
+        Collections.sort(cells, KeyValue.COMPARATOR);
+        return Result.create(cells);
+    }
+
+    private static <T> Map<String, T> byGenotype(Map<Genotype, T> values) {
+        Map<String, T> map = new HashMap<>();
+        for (Map.Entry<Genotype, T> value : values.entrySet()) {
+            map.put(value.getKey().toString(), value.getValue());
+        }
+        return map;
+    }
+
+    private static Map<String, String> sampleData(String gt, String dp) {
+        Map<String, String> data = new HashMap<>();
+        data.put("GT", gt);
+        data.put("DP", dp);
+        return data;
+    }
+
+}
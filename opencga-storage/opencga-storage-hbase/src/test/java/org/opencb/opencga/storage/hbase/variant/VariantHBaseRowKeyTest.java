@@ -0,0 +1,63 @@
+package org.opencb.opencga.storage.hbase.variant;
+
+import java.util.List;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VariantHBaseRowKeyTest {
+
+    @Test
+    public void testDecode() {
+        VariantHBaseRowKey rowKey = new VariantHBaseRowKey(16);
+        byte[] row = rowKey.build("chr07", 1234567, "A", "C");
+        assertEquals("7", rowKey.getChromosome(row));
+        assertEquals(1234567, rowKey.getPosition(row));
+
+        row = rowKey.build("GL000192.1", 100, "A", "C");
+        assertEquals("GL000192.1", rowKey.getChromosome(row));
+        assertEquals(100, rowKey.getPosition(row));
+    }
+
+    @Test
+    public void testSortedByPosition() {
+        VariantHBaseRowKey rowKey = new VariantHBaseRowKey(0);
+        assertTrue(Bytes.compareTo(rowKey.build("1", 999, "T", "G"), rowKey.build("1", 1000, "A", "C")) < 0);
+        assertTrue(Bytes.compareTo(rowKey.build("1", 1000, "A", "C"), rowKey.build("1", 1000, "A", "C")) == 0);
+        assertTrue(Bytes.compareTo(rowKey.build("1", 1000, "A", "C"), rowKey.build("1", 1000, "A", "T")) != 0);
+        assertTrue(Bytes.compareTo(rowKey.build("2", 1, "A", "C"), rowKey.build("10", 1, "A", "C")) < 0);
+    }
+
+    @Test
+    public void testSaltedScans() {
+        VariantHBaseRowKey rowKey = new VariantHBaseRowKey(16);
+        int start = VariantHBaseRowKey.SALT_BUCKET_SIZE - 10;
+        int end = 2 * VariantHBaseRowKey.SALT_BUCKET_SIZE + 10;
+        List<Scan> scans = rowKey.buildScans("1", start, end);
+        assertEquals(3, scans.size());
+        for (Scan scan : scans) {
+            assertEquals(scan.getStartRow()[0], scan.getStopRow()[0]);
+            assertTrue(Bytes.compareTo(scan.getStartRow(), scan.getStopRow()) < 0);
+        }
+
+        byte[] row = rowKey.build("1", VariantHBaseRowKey.SALT_BUCKET_SIZE, "A", "C");
+        Scan scan = scans.get(1);
+        assertTrue(Bytes.compareTo(scan.getStartRow(), row) <= 0);
+        assertTrue(Bytes.compareTo(row, scan.getStopRow()) < 0);
+        assertEquals(15, rowKey.getSplitKeys().length);
+    }
+
+    @Test
+    public void testStringRowkeys() {
+        VariantHBaseRowKey rowKey = new VariantHBaseRowKey(0);
+        assertTrue(VariantHBaseRowKey.isUnsaltedRowkey(rowKey.build("1", 1000, "A", "C")));
+        assertTrue(VariantHBaseRowKey.isUnsaltedRowkey(rowKey.build("MT", 1000, "A", "C")));
+        assertTrue(VariantHBaseRowKey.isUnsaltedRowkey(rowKey.build("GL000192.1", 1000, "A", "C")));
+        // Rowkeys of previous versions: chromosome_position_reference_alternate
+        assertFalse(VariantHBaseRowKey.isUnsaltedRowkey(Bytes.toBytes("1_000000001000_A_C")));
+        assertFalse(VariantHBaseRowKey.isUnsaltedRowkey(Bytes.toBytes("X_000000001000_A_C")));
+        assertFalse(VariantHBaseRowKey.isUnsaltedRowkey(Bytes.toBytes("chr1_000000001000_A_C")));
+    }
+}
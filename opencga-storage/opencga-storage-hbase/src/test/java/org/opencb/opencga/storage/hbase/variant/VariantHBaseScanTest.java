@@ -0,0 +1,177 @@
+package org.opencb.opencga.storage.hbase.variant;
+
+import java.io.IOException;
+import java.util.*;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+
+import static org.junit.Assert.*;
+
+/**
+ * Region scans of variant tables in a mini-cluster.
+ */
+public class VariantHBaseScanTest {
+
+    private static final int BUCKET = VariantHBaseRowKey.SALT_BUCKET_SIZE;
+
+    private static HBaseTestingUtility utility;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        utility = new HBaseTestingUtility();
+        utility.startMiniCluster();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        utility.shutdownMiniCluster();
+    }
+
+    @Test
+    public void testSaltedScans() throws Exception {
+        HTable table = createTable("salted", 8);
+        VariantHBaseRowKey rowKey = VariantHBaseRowKey.fromTable(table);
+        assertEquals(8, rowKey.getSaltBuckets());
+        write(table, rowKey);
+
+        // Crossing two bucket boundaries, so the rows are in several regions
+        assertEquals(positions(BUCKET - 10, 2 * BUCKET + 10), scan(table, rowKey, "1", BUCKET - 10, 2 * BUCKET + 10));
+        assertEquals(positions(BUCKET, BUCKET), scan(table, rowKey, "2", BUCKET, BUCKET));
+        assertEquals(positions(2 * BUCKET - 5, 2 * BUCKET + 5), scan(table, rowKey, "GL000192.1", 2 * BUCKET - 5, 2 * BUCKET + 5));
+        assertTrue(scan(table, rowKey, "3", 1, 3 * BUCKET).isEmpty());
+        table.close();
+    }
+
+    @Test
+    public void testUnsaltedScans() throws Exception {
+        HTable table = createTable("unsalted", 0);
+        VariantHBaseRowKey rowKey = VariantHBaseRowKey.fromTable(table);
+        assertEquals(0, rowKey.getSaltBuckets());
+        write(table, rowKey);
+
+        assertEquals(positions(BUCKET - 10, 2 * BUCKET + 10), scan(table, rowKey, "1", BUCKET - 10, 2 * BUCKET + 10));
+        assertEquals(positions(2 * BUCKET - 5, 2 * BUCKET + 5), scan(table, rowKey, "GL000192.1", 2 * BUCKET - 5, 2 * BUCKET + 5));
+        table.close();
+    }
+
+    @Test
+    public void testTableWithoutLayout() throws Exception {
+        // Empty tables, or with binary rowkeys, are unsalted
+        HTable table = createTable("binary", -1);
+        assertEquals(0, VariantHBaseRowKey.fromTable(table).getSaltBuckets());
+        VariantHBaseRowKey rowKey = new VariantHBaseRowKey(0);
+        write(table, rowKey);
+        assertEquals(0, VariantHBaseRowKey.fromTable(table).getSaltBuckets());
+        assertEquals(positions(BUCKET - 10, BUCKET + 10), scan(table, rowKey, "1", BUCKET - 10, BUCKET + 10));
+        table.close();
+    }
+
+    @Test
+    public void testStringRowkeys() throws Exception {
+        HTable table = createTable("string", -1);
+        Put put = new Put(Bytes.toBytes("1_000000001000_A_C"));
+        put.add(VariantToHBaseConverter.COLUMN_FAMILY, VariantToHBaseConverter.CHROMOSOME_COLUMN, Bytes.toBytes("1"));
+        table.put(put);
+        try {
+            VariantHBaseRowKey.fromTable(table);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("string rowkeys"));
+        }
+        table.close();
+    }
+
+    /**
+     * @param saltBuckets Salt buckets stored in the descriptor, or -1 for tables of previous versions without them
+     */
+    private static HTable createTable(String name, int saltBuckets) throws IOException {
+        HTableDescriptor descriptor = new HTableDescriptor(TableName.valueOf(name));
+        descriptor.addFamily(new HColumnDescriptor(VariantToHBaseConverter.COLUMN_FAMILY));
+        if (saltBuckets < 0) {
+            utility.getHBaseAdmin().createTable(descriptor);
+        } else {
+            VariantHBaseRowKey rowKey = new VariantHBaseRowKey(saltBuckets);
+            descriptor.setValue(VariantHBaseRowKey.SALT_BUCKETS, String.valueOf(rowKey.getSaltBuckets()));
+            if (rowKey.getSplitKeys() == null) {
+                utility.getHBaseAdmin().createTable(descriptor);
+            } else {
+                utility.getHBaseAdmin().createTable(descriptor, rowKey.getSplitKeys());
+            }
+        }
+        return new HTable(utility.getConfiguration(), name);
+    }
+
+    /**
+     * Variants every 5 positions around the first bucket boundaries, in chromosomes 1, 2 and GL000192.1.
+     */
+    private static void write(HTable table, VariantHBaseRowKey rowKey) throws IOException {
+        VariantToHBaseConverter converter = new VariantToHBaseConverter(new ArchivedVariantFileToHbaseConverter(), rowKey);
+        List<Put> puts = new ArrayList<>();
+        for (String chromosome : Arrays.asList("1", "2", "GL000192.1")) {
+            for (int boundary = BUCKET; boundary <= 2 * BUCKET; boundary += BUCKET) {
+                for (int position = boundary - 50; position <= boundary + 50; position += 5) {
+                    Variant variant = new Variant(chromosome, position, position, "A", "C");
+                    variant.setId(".");
+                    VariantSourceEntry file = new VariantSourceEntry("f1", "s1");
+                    file.setFormat("GT");
+                    variant.addSourceEntry(file);
+                    puts.add(converter.convertToStorageType(variant));
+                }
+            }
+        }
+        table.put(puts);
+        table.flushCommits();
+    }
+
+    private static List<Integer> positions(int start, int end) {
+        List<Integer> positions = new ArrayList<>();
+        for (int boundary = BUCKET; boundary <= 2 * BUCKET; boundary += BUCKET) {
+            for (int position = boundary - 50; position <= boundary + 50; position += 5) {
+                if (position >= start && position <= end) {
+                    positions.add(position);
+                }
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Positions of the variants read from the scans of the region, checking that all of them are in the region.
+     */
+    private static List<Integer> scan(HTable table, VariantHBaseRowKey rowKey, String chromosome, int start, int end)
+            throws IOException {
+        HBaseToVariantConverter converter = new HBaseToVariantConverter(Collections.singletonList(
+                new HBaseToArchivedVariantFileConverter("s1", "f1")));
+        List<Integer> positions = new ArrayList<>();
+        for (Scan scan : rowKey.buildScans(chromosome, start, end)) {
+            converter.addColumns(scan);
+            ResultScanner scanner = table.getScanner(scan);
+            try {
+                for (Result result : scanner) {
+                    assertEquals(chromosome, rowKey.getChromosome(result.getRow()));
+                    Variant variant = converter.convertToDataModelType(result);
+                    assertEquals(chromosome, variant.getChromosome());
+                    assertEquals(1, variant.getSourceEntries().size());
+                    positions.add(variant.getStart());
+                }
+            } finally {
+                scanner.close();
+            }
+        }
+        Collections.sort(positions);
+        return positions;
+    }
+}
@@ -0,0 +1,137 @@
+package org.opencb.opencga.storage.hbase.variant;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The HFiles are written to the local file system, so no cluster is needed.
+ */
+public class VariantHFileWriterTest {
+
+    private static final byte[] DATA = Bytes.toBytes("d");
+    private static final byte[] INFO = Bytes.toBytes("i");
+    private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+    private Configuration config;
+    private FileSystem fs;
+    private Path directory;
+    private HTableDescriptor descriptor;
+
+    @Before
+    public void setUp() throws Exception {
+        config = HBaseConfiguration.create();
+        directory = new Path(Files.createTempDirectory("hfiles").resolve("load").toUri());
+        fs = directory.getFileSystem(config);
+        descriptor = new HTableDescriptor(TableName.valueOf("variants"));
+        descriptor.addFamily(new HColumnDescriptor(DATA));
+        descriptor.addFamily(new HColumnDescriptor(INFO));
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        VariantHFileWriter writer = new VariantHFileWriter(config, directory, descriptor, 4096);
+        // Rows written in reverse order, in batches, so every spill has to sort them
+        for (int batch = 9; batch >= 0; batch--) {
+            List<Put> puts = new ArrayList<>();
+            for (int i = 99; i >= 0; i--) {
+                Put put = new Put(row(batch * 100 + i));
+                put.add(DATA, QUALIFIER, Bytes.toBytes("old"));
+                put.add(INFO, QUALIFIER, Bytes.toBytes(i));
+                puts.add(put);
+            }
+            writer.write(puts);
+        }
+        assertTrue(writer.getSpills() > 1);
+        writer.spill();
+
+        List<KeyValue> data = read(DATA, writer.getSpills());
+        List<KeyValue> info = read(INFO, writer.getSpills());
+        assertEquals(1000, data.size());
+        assertEquals(1000, info.size());
+        Set<String> rows = new HashSet<>();
+        for (KeyValue kv : data) {
+            rows.add(Bytes.toString(kv.getRow()));
+        }
+        assertEquals(1000, rows.size());
+    }
+
+    @Test
+    public void testLastValuePrevails() throws Exception {
+        VariantHFileWriter writer = new VariantHFileWriter(config, directory, descriptor, 1024 * 1024);
+        for (String value : Arrays.asList("first", "second", "last")) {
+            Put put = new Put(row(1));
+            put.add(DATA, QUALIFIER, Bytes.toBytes(value));
+            writer.write(Collections.singletonList(put));
+        }
+        assertEquals(0, writer.getSpills());
+        writer.spill();
+        writer.spill();
+        assertEquals(1, writer.getSpills());
+
+        List<KeyValue> data = read(DATA, 1);
+        assertEquals(1, data.size());
+        assertEquals("last", Bytes.toString(data.get(0).getValue()));
+        assertFalse(fs.exists(new Path(directory, Bytes.toString(INFO))));
+    }
+
+    @Test(expected = IOException.class)
+    public void testExistingDirectory() throws Exception {
+        fs.mkdirs(directory);
+        new VariantHFileWriter(config, directory, descriptor, 1024);
+    }
+
+    /**
+     * Reads all the files of a column family, checking that each of them is sorted.
+     */
+    private List<KeyValue> read(byte[] family, int spills) throws IOException {
+        FileStatus[] files = fs.listStatus(new Path(directory, Bytes.toString(family)));
+        assertEquals(spills, files.length);
+        List<KeyValue> cells = new ArrayList<>();
+        for (FileStatus file : files) {
+            HFile.Reader reader = HFile.createReader(fs, file.getPath(), new CacheConfig(config), config);
+            try {
+                reader.loadFileInfo();
+                HFileScanner scanner = reader.getScanner(false, false);
+                KeyValue previous = null;
+                if (scanner.seekTo()) {
+                    do {
+                        KeyValue kv = KeyValueUtil.ensureKeyValue(scanner.getKeyValue());
+                        assertArrayEquals(family, kv.getFamily());
+                        if (previous != null) {
+                            assertTrue(KeyValue.COMPARATOR.compare(previous, kv) < 0);
+                        }
+                        cells.add(kv);
+                        previous = kv;
+                    } while (scanner.next());
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return cells;
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes(String.format("row%06d", i));
+    }
+}
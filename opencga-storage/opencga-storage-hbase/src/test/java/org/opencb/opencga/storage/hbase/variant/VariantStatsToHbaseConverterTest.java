@@ -1,5 +1,6 @@
 package org.opencb.opencga.storage.hbase.variant;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -65,4 +66,21 @@ public class VariantStatsToHbaseConverterTest {
         }
     }
     
+    @Test
+    public void testEncodeAndDecode() {
+        VariantStatsToHbaseConverter converter = new VariantStatsToHbaseConverter();
+        byte[] encoded = converter.encode(stats);
+        // Builders are reused, nothing from the previous conversion must remain
+        assertArrayEquals(encoded, converter.encode(stats));
+        
+        VariantStats decoded = new HBaseToVariantStatsConverter("s1", "f1").decode(encoded);
+        assertEquals(stats.getMaf(), decoded.getMaf(), 1e-6);
+        assertEquals(stats.getMgf(), decoded.getMgf(), 1e-6);
+        assertEquals(stats.getMafAllele(), decoded.getMafAllele());
+        assertEquals(stats.getMgfGenotype(), decoded.getMgfGenotype());
+        assertEquals(stats.getMissingAlleles(), decoded.getMissingAlleles());
+        assertEquals(stats.getMissingGenotypes(), decoded.getMissingGenotypes());
+        assertEquals(stats.getGenotypesCount(), decoded.getGenotypesCount());
+    }
+    
 }
@@ -0,0 +1,126 @@
+package org.opencb.opencga.storage.hbase.variant;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VariantTablePoolTest {
+
+    private static final byte[] FAMILY = Bytes.toBytes("d");
+    private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+    private static HBaseTestingUtility utility;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        utility = new HBaseTestingUtility();
+        utility.startMiniCluster();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        utility.shutdownMiniCluster();
+    }
+
+    @Test
+    public void testBufferedUntilFlush() throws Exception {
+        String table = createTable("buffered");
+        VariantTablePool pool = new VariantTablePool(utility.getConfiguration(), table, 2, 1024 * 1024, 3600000);
+        pool.put(puts(0, 10));
+        assertEquals(0, count(table));
+
+        pool.flush();
+        assertEquals(10, count(table));
+
+        pool.put(puts(10, 20));
+        pool.close();
+        assertEquals(20, count(table));
+    }
+
+    @Test
+    public void testFlushInterval() throws Exception {
+        // Nothing else is written, so the puts must be sent without waiting for more writes
+        String table = createTable("interval");
+        VariantTablePool pool = new VariantTablePool(utility.getConfiguration(), table, 2, 1024 * 1024, 200);
+        pool.put(puts(0, 10));
+        long deadline = System.currentTimeMillis() + 30000;
+        while (count(table) < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(10, count(table));
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrentPuts() throws Exception {
+        String table = createTable("concurrent");
+        final VariantTablePool pool = new VariantTablePool(utility.getConfiguration(), table, 3, 4096, 3600000);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            futures.add(executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    for (int i = 0; i < 50; i++) {
+                        int start = (thread * 50 + i) * 10;
+                        pool.put(puts(start, start + 10));
+                    }
+                    return thread;
+                }
+            }));
+        }
+        for (Future<Integer> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        pool.flush();
+        assertEquals(8 * 50 * 10, count(table));
+        pool.close();
+    }
+
+    private static String createTable(String name) throws IOException {
+        utility.createTable(Bytes.toBytes(name), FAMILY).close();
+        return name;
+    }
+
+    private static List<Put> puts(int start, int end) {
+        List<Put> puts = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            Put put = new Put(Bytes.toBytes(String.format("row%06d", i)));
+            put.add(FAMILY, QUALIFIER, Bytes.toBytes(i));
+            puts.add(put);
+        }
+        return puts;
+    }
+
+    private static int count(String tableName) throws IOException {
+        HTable table = new HTable(utility.getConfiguration(), tableName);
+        ResultScanner scanner = table.getScanner(new Scan());
+        int count = 0;
+        try {
+            for (Result result : scanner) {
+                count++;
+            }
+        } finally {
+            scanner.close();
+            table.close();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,194 @@
+package org.opencb.opencga.storage.mongodb.alignment;
+
+import org.opencb.biodata.models.alignment.Alignment;
+import org.opencb.biodata.models.alignment.stats.RegionCoverage;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decoded alignment tiles, shared by all the adaptors of the JVM.
+ *
+ * A tile has the alignments starting in a fixed size interval of a chromosome, and the coverage of that interval.
+ * Queries are assembled from the tiles overlapping the region, so neighbouring and repeated viewports reuse them.
+ * The cache is bounded by the estimated weight of the tiles, evicting the least recently used ones. Tiles are
+ * discarded when the modification time or the length of their BAM file change.
+ *
+ * Cached alignments are shared between queries, and must not be modified.
+ */
+public class AlignmentTileCache {
+
+    public static final int DEFAULT_TILE_SIZE = 16384;
+    public static final long DEFAULT_MAX_WEIGHT = 256L * 1024 * 1024;
+
+    /* Estimated size in memory, in bytes */
+    private static final int TILE_WEIGHT = 1024;
+    private static final int ALIGNMENT_WEIGHT = 512;
+    private static final int COVERAGE_POSITION_WEIGHT = 5 * 2;
+
+    private static final AlignmentTileCache instance = new AlignmentTileCache(DEFAULT_TILE_SIZE, DEFAULT_MAX_WEIGHT);
+
+    /**
+     * Alignments starting in the tile, and its coverage.
+     */
+    public static class Tile {
+        private final List<Alignment> alignments;
+        private final RegionCoverage coverage;
+        private final long fileLastModified;
+        private final long fileLength;
+        private final long weight;
+
+        public Tile(List<Alignment> alignments, RegionCoverage coverage, long fileLastModified, long fileLength) {
+            this.alignments = Collections.unmodifiableList(alignments);
+            this.coverage = coverage;
+            this.fileLastModified = fileLastModified;
+            this.fileLength = fileLength;
+            this.weight = TILE_WEIGHT + (long) alignments.size() * ALIGNMENT_WEIGHT
+                    + (coverage == null ? 0 : (long) coverage.getAll().length * COVERAGE_POSITION_WEIGHT);
+        }
+
+        public List<Alignment> getAlignments() {
+            return alignments;
+        }
+
+        /**
+         * @return Coverage of the tile, or null if not requested
+         */
+        public RegionCoverage getCoverage() {
+            return coverage;
+        }
+    }
+
+    private final int tileSize;
+    private final long maxWeight;
+    private final LinkedHashMap<String, Tile> tiles;
+    private long weight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    AlignmentTileCache(int tileSize, long maxWeight) {
+        this.tileSize = tileSize;
+        this.maxWeight = maxWeight;
+        this.tiles = new LinkedHashMap<>(128, 0.75f, true);    //Access order
+        this.weight = 0;
+    }
+
+    public static AlignmentTileCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param file              BAM file
+     * @param chromosome        Chromosome
+     * @param tile              Index of the tile in the chromosome
+     * @param processDifferences Whether the alignments have their differences with the reference
+     * @param includeCoverage   Whether the tile has the coverage
+     */
+    public static String getKey(String file, String chromosome, int tile, boolean processDifferences, boolean includeCoverage) {
+        return file + "|" + chromosome + "|" + tile + "|" + (processDifferences ? 'd' : '-') + (includeCoverage ? 'c' : '-');
+    }
+
+    /**
+     * @return The tile, or null if missing or if the file has changed since it was read
+     */
+    public synchronized Tile get(String key, long fileLastModified, long fileLength) {
+        Tile tile = tiles.get(key);
+        if (tile != null && (tile.fileLastModified != fileLastModified || tile.fileLength != fileLength)) {
+            remove(key);
+            tile = null;
+        }
+        if (tile == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return tile;
+    }
+
+    public synchronized void put(String key, Tile tile) {
+        if (tile.weight > maxWeight) {
+            return;
+        }
+        remove(key);
+        tiles.put(key, tile);
+        weight += tile.weight;
+
+        Iterator<Tile> iterator = tiles.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= iterator.next().weight;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes all the tiles of a file.
+     */
+    public synchronized void invalidate(String file) {
+        String prefix = file + "|";
+        Iterator<Map.Entry<String, Tile>> iterator = tiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Tile> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                weight -= entry.getValue().weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        tiles.clear();
+        weight = 0;
+    }
+
+    private void remove(String key) {
+        Tile previous = tiles.remove(key);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long hits = this.hits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "AlignmentTileCache{" +
+                "tiles=" + size() +
+                ", weight=" + getWeight() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", hitRate=" + String.format("%.3f", getHitRate()) +
+                '}';
+    }
+}
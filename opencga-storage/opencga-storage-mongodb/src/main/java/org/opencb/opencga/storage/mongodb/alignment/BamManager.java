@@ -74,6 +74,7 @@ public class BamManager {
         if (Files.exists(metaDir)) {
             IOUtils.deleteDirectory(metaDir);
         }
+        AlignmentTileCache.getInstance().invalidate(inputBamPath.toAbsolutePath().toString());
 
         String jobId = StringUtils.randomString(8);
         String commandLine = indexerManagerScript + " -t bam -i " + inputBamPath + " --outdir " + metaDir;
@@ -239,28 +240,68 @@ public class BamManager {
         SAMRecordIterator recordsRegion = inputSam.query(chromosome, start, end, false);
 
 
-        //Filter .db and picard lists
+        //Filter .db and picard lists while processing the records
         long t1 = System.currentTimeMillis();
         System.out.println(queryResults.size() + " ");
 
-        List<SAMRecord> records = new ArrayList<>();
-        while (recordsRegion.hasNext()) {
-            SAMRecord record = recordsRegion.next();
-            if (queryResultsMap.get(record.getReadName() + record.getAlignmentStart()) != null) {
-                records.add(record);
-                queryResultsLength--;
+        try {
+            return processRecords(filterRecords(recordsRegion, queryResultsMap, queryResultsLength), params, chromosome, start, end);
+        } finally {
+            recordsRegion.close();
+            inputSam.close();
+            logger.debug("Filter and process time {}ms", System.currentTimeMillis() - t1);
+        }
+    }
+
+    /**
+     * Iterates over the records found in the .db, until all of them have been found.
+     */
+    private static Iterator<SAMRecord> filterRecords(final Iterator<SAMRecord> recordsRegion,
+                                                     final Map<String, XObject> queryResultsMap, final int queryResultsLength) {
+        return new Iterator<SAMRecord>() {
+            private int remaining = queryResultsLength;
+            private SAMRecord next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && remaining >= 0 && recordsRegion.hasNext()) {
+                    SAMRecord record = recordsRegion.next();
+                    if (queryResultsMap.get(record.getReadName() + record.getAlignmentStart()) != null) {
+                        next = record;
+                        remaining--;
+                    }
+                }
+                return next != null;
             }
-            if (queryResultsLength < 0) {
-                break;
+
+            @Override
+            public SAMRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                SAMRecord record = next;
+                next = null;
+                return record;
             }
-        }
-        System.out.println(records.size() + " ");
-        System.out.println("Filter time " + (System.currentTimeMillis() - t1) + "ms");
 
-        return processRecords(records, params, chromosome, start, end);
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     public String processRecords(List<SAMRecord> records, Map<String, List<String>> params, String chr, int start, int end) throws IOException {
+        return processRecords(records.iterator(), params, chr, start, end);
+    }
+
+    /**
+     * Builds the reads and the coverage in a single pass over the records, expected in coordinate order.
+     * Only when view_as_pairs is requested the records are collected to be sorted by read name.
+     * With the "limit" param, stops reading records once the limit of reads is reached, marking the
+     * result with "limitReached". The coverage then only accounts for the records read.
+     */
+    public String processRecords(Iterator<SAMRecord> records, Map<String, List<String>> params, String chr, int start, int end) throws IOException {
         XObject res = new XObject();
         List<XObject> reads = new ArrayList<XObject>();
         XObject coverage = new XObject();
@@ -281,6 +322,13 @@ public class BamManager {
         if (params.get("interval") != null) {
             interval = Integer.parseInt(params.get("interval").get(0));
         }
+        int limit = Integer.MAX_VALUE;
+        if (params.get("limit") != null) {
+            limit = Integer.parseInt(params.get("limit").get(0));
+            if (limit <= 0) {
+                limit = Integer.MAX_VALUE;
+            }
+        }
 
 
         /**
@@ -300,7 +348,11 @@ public class BamManager {
         short[] tBaseArray = new short[end - start + 1];
 
         if (viewAsPairs) {
-            Collections.sort(records, new Comparator<SAMRecord>() {
+            List<SAMRecord> sortedRecords = new ArrayList<>();
+            while (records.hasNext()) {
+                sortedRecords.add(records.next());
+            }
+            Collections.sort(sortedRecords, new Comparator<SAMRecord>() {
                 @Override
                 public int compare(SAMRecord o1, SAMRecord o2) {
                     if (o1 != null && o1.getReadName() != null && o2 != null) {
@@ -309,6 +361,7 @@ public class BamManager {
                     return -1;
                 }
             });
+            records = sortedRecords.iterator();
         }
 
 /////////////////////////
@@ -316,7 +369,12 @@ public class BamManager {
         ////////////////////////////
         XObject attributes;
         String readStr;
-        for (SAMRecord record : records) {
+        while (records.hasNext()) {
+            if (reads.size() >= limit) {
+                res.put("limitReached", true);
+                break;
+            }
+            SAMRecord record = records.next();
 //            logger.info(record.getReadName());
 
             Boolean condition = (!record.getReadUnmappedFlag());
@@ -970,7 +1028,7 @@ public class BamManager {
         return sb.toString();
     }
 
-    private String getSequence(final String chr, final int start, final int end) throws IOException {
+    protected String getSequence(final String chr, final int start, final int end) throws IOException {
 
         if (species.equals("cclementina")) {
             cellbasehost = "http://citrusgenn.bioinfo.cipf.es/cellbasecitrus/rest/v3";
@@ -12,10 +12,14 @@ import org.opencb.datastore.core.QueryResult;
 import org.opencb.datastore.mongodb.MongoDBCollection;
 import org.opencb.datastore.mongodb.MongoDataStore;
 import org.opencb.datastore.mongodb.MongoDataStoreManager;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
 import org.opencb.opencga.storage.mongodb.utils.MongoCredentials;
 import org.slf4j.LoggerFactory;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Date 26/08/14.
@@ -31,10 +35,14 @@ public class CoverageMongoDBWriter implements DataWriter<AlignmentRegion> {
     public static final String FILES_FIELD = "files";
     public static final String FILE_ID_FIELD = "id";
     public static final String AVERAGE_FIELD = "avg";
+    public static final String MIN_FIELD = "min";
+    public static final String MAX_FIELD = "max";
     public static final String START_FIELD = "start";
     public static final String CHR_FIELD = "chr";
     public static final String SIZE_FIELD = "size";
 
+    private static final int MAX_OPEN_PYRAMID_BLOCKS = 64;
+
     private final MongoDataStoreManager mongoManager;
     private final String fileId;
     private final QueryOptions updateOptions;
@@ -44,6 +52,7 @@ public class CoverageMongoDBWriter implements DataWriter<AlignmentRegion> {
     private final MongoCredentials credentials;
     private final String collectionName;
     private MongoDBCollection collection;
+    private final Map<String, CoveragePyramidBlock> pyramidBlocks;   //Blocks of the pyramid levels not written yet
 
     protected static org.slf4j.Logger logger = LoggerFactory.getLogger(CoverageMongoDBWriter.class);
 
@@ -56,6 +65,16 @@ public class CoverageMongoDBWriter implements DataWriter<AlignmentRegion> {
         coverageConverter = new DBObjectToRegionCoverageConverter();
         meanCoverageConverter = new DBObjectToMeanCoverageConverter();
         updateOptions = new QueryOptions("upsert", true);
+        pyramidBlocks = new LinkedHashMap<String, CoveragePyramidBlock>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CoveragePyramidBlock> eldest) {
+                if (size() > MAX_OPEN_PYRAMID_BLOCKS) {
+                    writePyramidBlock(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
     }
 
     @Override
@@ -83,6 +102,10 @@ public class CoverageMongoDBWriter implements DataWriter<AlignmentRegion> {
 
     @Override
     public boolean post() {
+        for (CoveragePyramidBlock block : pyramidBlocks.values()) {
+            writePyramidBlock(block);
+        }
+        pyramidBlocks.clear();
         return true;
     }
 
@@ -99,6 +122,10 @@ public class CoverageMongoDBWriter implements DataWriter<AlignmentRegion> {
 
         if(meanCoverageList != null) {
             for (MeanCoverage meanCoverage : meanCoverageList) {
+                if (meanCoverage instanceof CoverageLevel && CoverageLevel.isPyramidName(meanCoverage.getName())) {
+                    addPyramidLevel((CoverageLevel) meanCoverage);
+                    continue;
+                }
                 DBObject query = this.meanCoverageConverter.getIdObject(meanCoverage);  //{_id:"20_2354_1k"}
                 DBObject object = meanCoverageConverter.convertToStorageType(meanCoverage);  //{avg:4.5662}
                 secureInsert(query, object, meanCoverage.getRegion().getChromosome(), meanCoverage.getRegion().getStart(), meanCoverage.getSize());
@@ -107,6 +134,38 @@ public class CoverageMongoDBWriter implements DataWriter<AlignmentRegion> {
         return true;
     }
 
+    /**
+     * Pyramid intervals are buffered until their block is complete. In a chromosome, the intervals of every level
+     * arrive in order, so a block is written when an interval of a following block arrives. The last intervals of a
+     * chromosome may arrive after the first ones of the next, so the blocks of other chromosomes are kept until
+     * there are too many open blocks.
+     */
+    private void addPyramidLevel(CoverageLevel level) {
+        String chromosome = level.getRegion().getChromosome();
+        int blockIndex = CoveragePyramidBlock.getBlock(level.getRegion().getStart(), level.getSize());
+        String id = CoveragePyramidBlock.getIdField(chromosome, blockIndex, level.getSize());
+        CoveragePyramidBlock block = pyramidBlocks.get(id);
+        if (block == null) {
+            Iterator<CoveragePyramidBlock> iterator = pyramidBlocks.values().iterator();
+            while (iterator.hasNext()) {
+                CoveragePyramidBlock previous = iterator.next();
+                if (previous.getSize() == level.getSize() && previous.getChromosome().equals(chromosome)
+                        && previous.getBlock() < blockIndex) {
+                    writePyramidBlock(previous);
+                    iterator.remove();
+                }
+            }
+            block = new CoveragePyramidBlock(chromosome, level.getSize(), blockIndex);
+            pyramidBlocks.put(id, block);
+        }
+        block.add(level);
+    }
+
+    private void writePyramidBlock(CoveragePyramidBlock block) {
+        int start = block.getStart(0);
+        secureInsert(block.getIdObject(), block.toDBObject(), block.getChromosome(), start, block.getSize());
+    }
+
     private void secureInsert(DBObject query, DBObject object, String chromosome, int start, int size) {
         boolean documentExists = true;
         boolean fileExists = true;
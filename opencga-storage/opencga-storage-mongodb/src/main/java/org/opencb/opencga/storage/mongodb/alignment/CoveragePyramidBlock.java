@@ -0,0 +1,140 @@
+package org.opencb.opencga.storage.mongodb.alignment;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.Binary;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Consecutive intervals of one level of the coverage pyramid, stored in a single document.
+ *
+ * Instead of a document per interval, each file stores the mean, min and max coverage of
+ * BLOCK_INTERVALS intervals as packed arrays:
+ *  {_id:"<chr>_<block>_p<size>", chr, start, size, files:[{id, avg:<float[]>, min:<short[]>, max:<short[]>}]}
+ * Intervals without coverage are stored as 0.
+ */
+class CoveragePyramidBlock {
+
+    public static final int BLOCK_INTERVALS = 1000;
+
+    private final String chromosome;
+    private final int size;
+    private final int block;
+    private final float[] average;
+    private final short[] min;
+    private final short[] max;
+
+    CoveragePyramidBlock(String chromosome, int size, int block) {
+        this.chromosome = chromosome;
+        this.size = size;
+        this.block = block;
+        this.average = new float[BLOCK_INTERVALS];
+        this.min = new short[BLOCK_INTERVALS];
+        this.max = new short[BLOCK_INTERVALS];
+    }
+
+    private CoveragePyramidBlock(String chromosome, int size, int block, float[] average, short[] min, short[] max) {
+        this.chromosome = chromosome;
+        this.size = size;
+        this.block = block;
+        this.average = average;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @return Index of the interval starting at the given position, counting from the start of the chromosome
+     */
+    static int getInterval(int start, int size) {
+        return (start - 1) / size;
+    }
+
+    static int getBlock(int start, int size) {
+        return getInterval(start, size) / BLOCK_INTERVALS;
+    }
+
+    static String getIdField(String chromosome, int block, int size) {
+        return String.format("%s_%d_%s", chromosome, block, CoverageLevel.getPyramidName(size));
+    }
+
+    void add(CoverageLevel level) {
+        int i = getInterval(level.getRegion().getStart(), size) % BLOCK_INTERVALS;
+        average[i] = level.getCoverage();
+        min[i] = (short) Math.min(level.getMin(), Short.MAX_VALUE);
+        max[i] = (short) Math.min(level.getMax(), Short.MAX_VALUE);
+    }
+
+    DBObject getIdObject() {
+        return new BasicDBObject(CoverageMongoDBWriter.ID_FIELD, getIdField(chromosome, block, size));
+    }
+
+    /**
+     * @return Fields of the file in the block
+     */
+    DBObject toDBObject() {
+        ByteBuffer averageBuffer = ByteBuffer.allocate(BLOCK_INTERVALS * 4);
+        averageBuffer.asFloatBuffer().put(average);
+        ByteBuffer minBuffer = ByteBuffer.allocate(BLOCK_INTERVALS * 2);
+        minBuffer.asShortBuffer().put(min);
+        ByteBuffer maxBuffer = ByteBuffer.allocate(BLOCK_INTERVALS * 2);
+        maxBuffer.asShortBuffer().put(max);
+
+        return new BasicDBObject(CoverageMongoDBWriter.AVERAGE_FIELD, averageBuffer.array())
+                .append(CoverageMongoDBWriter.MIN_FIELD, minBuffer.array())
+                .append(CoverageMongoDBWriter.MAX_FIELD, maxBuffer.array());
+    }
+
+    /**
+     * @param file The fields of the file in the block document
+     */
+    static CoveragePyramidBlock fromDBObject(String chromosome, int size, int block, DBObject file) {
+        float[] average = new float[BLOCK_INTERVALS];
+        ByteBuffer.wrap(getBytes(file.get(CoverageMongoDBWriter.AVERAGE_FIELD))).asFloatBuffer().get(average);
+        short[] min = new short[BLOCK_INTERVALS];
+        ByteBuffer.wrap(getBytes(file.get(CoverageMongoDBWriter.MIN_FIELD))).asShortBuffer().get(min);
+        short[] max = new short[BLOCK_INTERVALS];
+        ByteBuffer.wrap(getBytes(file.get(CoverageMongoDBWriter.MAX_FIELD))).asShortBuffer().get(max);
+        return new CoveragePyramidBlock(chromosome, size, block, average, min, max);
+    }
+
+    private static byte[] getBytes(Object value) {
+        if (value instanceof Binary) {
+            return ((Binary) value).getData();
+        } else {
+            return (byte[]) value;
+        }
+    }
+
+    /**
+     * @return Start position of the interval i of the block
+     */
+    int getStart(int i) {
+        return (block * BLOCK_INTERVALS + i) * size + 1;
+    }
+
+    float getAverage(int i) {
+        return average[i];
+    }
+
+    short getMin(int i) {
+        return min[i];
+    }
+
+    short getMax(int i) {
+        return max[i];
+    }
+
+    String getChromosome() {
+        return chromosome;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getBlock() {
+        return block;
+    }
+}
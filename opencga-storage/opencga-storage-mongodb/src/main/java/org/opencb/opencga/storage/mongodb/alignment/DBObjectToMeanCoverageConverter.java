@@ -5,6 +5,7 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import org.opencb.biodata.models.alignment.stats.MeanCoverage;
 import org.opencb.datastore.core.ComplexTypeConverter;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
 
 /**
  * Created by Jacobo Coll on 26/08/14.
@@ -55,6 +56,10 @@ public class DBObjectToMeanCoverageConverter implements ComplexTypeConverter<Mea
     public DBObject convertToStorageType(MeanCoverage meanCoverage) {
 
         BasicDBObject mCoverage = new BasicDBObject(CoverageMongoDBWriter.AVERAGE_FIELD, meanCoverage.getCoverage());
+        if (meanCoverage instanceof CoverageLevel) {
+            mCoverage.append(CoverageMongoDBWriter.MIN_FIELD, ((CoverageLevel) meanCoverage).getMin());
+            mCoverage.append(CoverageMongoDBWriter.MAX_FIELD, ((CoverageLevel) meanCoverage).getMax());
+        }
 
         return mCoverage;
     }
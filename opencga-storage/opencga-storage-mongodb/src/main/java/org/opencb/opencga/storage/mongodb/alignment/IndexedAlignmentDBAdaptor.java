@@ -5,6 +5,7 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
 import com.mongodb.DBObject;
 import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMRecord;
 import net.sf.samtools.SAMRecordIterator;
@@ -27,6 +28,7 @@ import org.opencb.datastore.mongodb.MongoDataStore;
 import org.opencb.datastore.mongodb.MongoDataStoreManager;
 import org.opencb.opencga.lib.common.IOUtils;
 import org.opencb.opencga.storage.core.alignment.adaptors.AlignmentDBAdaptor;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
 import org.opencb.opencga.storage.core.alignment.tasks.AlignmentRegionCoverageCalculatorTask;
 import org.opencb.opencga.storage.mongodb.utils.MongoCredentials;
 import org.slf4j.LoggerFactory;
@@ -50,6 +52,7 @@ public class IndexedAlignmentDBAdaptor implements AlignmentDBAdaptor {
     private static MongoDataStoreManager mongoManager = null;
     private MongoDataStore mongoDataStore;
     private MongoCredentials credentials;
+    private AlignmentTileCache tileCache = AlignmentTileCache.getInstance();
 
 
     public IndexedAlignmentDBAdaptor(SequenceDBAdaptor adaptor, MongoCredentials credentials) {
@@ -104,6 +107,8 @@ public class IndexedAlignmentDBAdaptor implements AlignmentDBAdaptor {
         } else if(!bamFile.toFile().exists()) {
             queryResult.setErrorMsg("BAM file '" + bam + "' not found");
             logger.warn("BAM file " + bamFile + " not found");
+            // Drop the tiles of a deleted file instead of waiting for them to be evicted
+            tileCache.invalidate(bamFile.toAbsolutePath().toString());
         } else if(!bai.endsWith(".bai")){
             queryResult.setErrorMsg("Can't find BAM index file. Expected parameter \"" + QO_BAI_PATH + "=*.bai\"");
             logger.warn("Can't find BAM index file. Expected parameter \"" + QO_BAI_PATH + "=*.bai\".");
@@ -111,34 +116,33 @@ public class IndexedAlignmentDBAdaptor implements AlignmentDBAdaptor {
             queryResult.setErrorMsg("BAM index file (.bai) not found");
             logger.warn("BAM index file (.bai) " + baiFile + " for file " + bamFile + " not found");
         } else {
+            // Pairs are sorted by read name across the whole region, so can't be assembled from tiles
+            boolean useTileCache = options.getBoolean(QO_TILE_CACHE, true) && !options.getBoolean(QO_VIEW_AS_PAIRS, false);
             List<AlignmentRegion> results = new LinkedList<>();
             for (Region region : regions) {
 
                 AlignmentRegion filteredAlignmentRegion;
-
-                List<SAMRecord> recordList = getSamRecordsByRegion(bamFile, baiFile, region);
-                List<Alignment> alignmentList = getAlignmentsFromSamRecords(recordList, options);
-                List<Alignment> alignmentsInRegion = getAlignmentsInRegion(alignmentList, region);
-
-                RegionCoverage regionCoverage = null;
-                if (includeCoverage) {
-                    AlignmentRegion alignmentRegion;
-                    if (!alignmentList.isEmpty()) {
-                        alignmentRegion = new AlignmentRegion(
-                                alignmentList, null);
-                        alignmentRegion.setEnd(region.getEnd());
-                    } else {
-                        alignmentRegion = new AlignmentRegion(region.getChromosome(), region.getStart(), region.getEnd());
-                        alignmentRegion.setAlignments(new LinkedList<Alignment>());
+                if (useTileCache) {
+                    filteredAlignmentRegion = getAlignmentRegionFromTiles(bamFile, baiFile, region, options);
+                } else {
+                    List<SAMRecord> recordList = getSamRecordsByRegion(bamFile, baiFile, region);
+                    List<Alignment> alignmentList = getAlignmentsFromSamRecords(recordList, options);
+                    List<Alignment> alignmentsInRegion = getAlignmentsInRegion(alignmentList, region);
+
+                    RegionCoverage regionCoverage = null;
+                    if (includeCoverage) {
+                        regionCoverage = calculateCoverageByRegion(alignmentList, region);
                     }
-                    regionCoverage = calculateCoverageByRegion(alignmentRegion, region);
-                }
 
-                filteredAlignmentRegion = new AlignmentRegion(
-                        region.getChromosome(), region.getStart(), region.getEnd(), alignmentsInRegion, regionCoverage, null);
+                    filteredAlignmentRegion = new AlignmentRegion(
+                            region.getChromosome(), region.getStart(), region.getEnd(), alignmentsInRegion, regionCoverage, null);
+                }
 
                 results.add(filteredAlignmentRegion);
             }
+            if (useTileCache) {
+                logger.debug("{}", tileCache);
+            }
 
             queryResult.setResult(results);
         }
@@ -184,6 +188,12 @@ public class IndexedAlignmentDBAdaptor implements AlignmentDBAdaptor {
         String fileId = options.getString(QO_FILE_ID);
         int chunkSize = options.getInt(QO_COVERAGE_CHUNK_SIZE, 200);
 
+        QueryResult<DBObject> pyramidResult = getIntervalFrequenciesFromPyramid(region, size, fileId);
+        if (pyramidResult.getNumResults() > 0) {
+            return pyramidResult;
+        }
+        //Files loaded without the coverage pyramid. Aggregate the mean coverage chunks.
+
         if(size%chunkSize != 0){
             size -= size%chunkSize;
         }
@@ -300,6 +310,101 @@ public class IndexedAlignmentDBAdaptor implements AlignmentDBAdaptor {
         return aggregate;
     }
 
+    /**
+     * Reads the intervals from the level of the coverage pyramid closest to the requested size, and merges them
+     * into intervals of the requested size. Reads at most a few documents per level block, instead of aggregating
+     * every mean coverage chunk in the region.
+     *
+     * @return Intervals with the mean, min and max coverage. Empty if the file has no pyramid in the region.
+     */
+    private QueryResult<DBObject> getIntervalFrequenciesFromPyramid(Region region, int size, String fileId) {
+        long startTime = System.currentTimeMillis();
+        int levelSize = CoverageLevel.getPyramidSize(CoverageLevel.getClosestPyramidLevel(size));
+
+        List<String> ids = new LinkedList<>();
+        int firstBlock = CoveragePyramidBlock.getBlock(Math.max(region.getStart(), 1), levelSize);
+        int lastBlock = CoveragePyramidBlock.getBlock(Math.max(region.getEnd(), 1), levelSize);
+        for (int block = firstBlock; block <= lastBlock; block++) {
+            ids.add(CoveragePyramidBlock.getIdField(region.getChromosome(), block, levelSize));
+        }
+
+        Document query = new Document(CoverageMongoDBWriter.ID_FIELD, new Document("$in", ids));
+        Document projection = new Document(CoverageMongoDBWriter.FILES_FIELD,
+                new Document("$elemMatch", new Document(CoverageMongoDBWriter.FILE_ID_FIELD, fileId)));
+        FindIterable<Document> documents = mongoDataStore.getDb()
+                .getCollection(CoverageMongoDBWriter.COVERAGE_COLLECTION_NAME).find(query).projection(projection);
+
+        List<CoveragePyramidBlock> blocks = new ArrayList<>();
+        for (Document document : documents) {
+            List files = (List) document.get(CoverageMongoDBWriter.FILES_FIELD);
+            if (files == null || files.isEmpty()) {
+                continue;
+            }
+            String[] split = document.getString(CoverageMongoDBWriter.ID_FIELD).split("_");
+            int block = Integer.parseInt(split[split.length - 2]);
+            blocks.add(CoveragePyramidBlock.fromDBObject(region.getChromosome(), levelSize,
+                    block, new BasicDBObject((Map) files.get(0))));
+        }
+        List<DBObject> results = mergePyramidBlocks(region, size, blocks);
+
+        long endTime = System.currentTimeMillis();
+        return new QueryResult<>(fileId, ((int) (endTime - startTime)), results.size(), results.size(), "", "", results);
+    }
+
+    /**
+     * Merges the level intervals of the blocks into intervals of the requested size within the region.
+     * Every level interval is split between the requested intervals it overlaps, weighted by the overlap, so the
+     * requested size does not need to be a multiple of the level size, and can be smaller than the smallest level.
+     *
+     * @return Intervals with the mean, min and max coverage, sorted by position
+     */
+    static List<DBObject> mergePyramidBlocks(Region region, int size, List<CoveragePyramidBlock> blocks) {
+        // interval -> {sum, min, max, length}
+        SortedMap<Integer, double[]> intervals = new TreeMap<>();
+        for (CoveragePyramidBlock pyramidBlock : blocks) {
+            int levelSize = pyramidBlock.getSize();
+            for (int i = 0; i < CoveragePyramidBlock.BLOCK_INTERVALS; i++) {
+                int levelStart = pyramidBlock.getStart(i);
+                int levelEnd = levelStart + levelSize - 1;
+                if (levelStart > region.getEnd()) {
+                    break;
+                }
+                if (levelEnd < region.getStart()) {
+                    continue;
+                }
+                int from = Math.max(levelStart, region.getStart());
+                int to = Math.min(levelEnd, region.getEnd());
+                for (int id = (from - 1) / size; id <= (to - 1) / size; id++) {
+                    int overlap = Math.min(to, id * size + size) - Math.max(from, id * size + 1) + 1;
+                    double[] interval = intervals.get(id);
+                    if (interval == null) {
+                        interval = new double[]{0, Double.MAX_VALUE, 0, 0};
+                        intervals.put(id, interval);
+                    }
+                    interval[0] += (double) pyramidBlock.getAverage(i) * overlap;
+                    interval[1] = Math.min(interval[1], pyramidBlock.getMin(i));
+                    interval[2] = Math.max(interval[2], pyramidBlock.getMax(i));
+                    interval[3] += overlap;
+                }
+            }
+        }
+
+        List<DBObject> results = new ArrayList<>(intervals.size());
+        for (Map.Entry<Integer, double[]> entry : intervals.entrySet()) {
+            int id = entry.getKey();
+            double[] interval = entry.getValue();
+            results.add(BasicDBObjectBuilder.start("_id", id)
+                    .append("chromosome", region.getChromosome())
+                    .append("start", id * size + 1)
+                    .append("end", id * size + size)
+                    .append(FEATURES_COUNT, interval[0] / interval[3])
+                    .append(CoverageMongoDBWriter.MIN_FIELD, (int) interval[1])
+                    .append(CoverageMongoDBWriter.MAX_FIELD, (int) interval[2])
+                    .get());
+        }
+        return results;
+    }
+
     private int getInt(DBObject object, String key) {
         int i;
         Object oi = object.get(key);
@@ -388,6 +493,64 @@ public class IndexedAlignmentDBAdaptor implements AlignmentDBAdaptor {
     /* ******************************************
      *              Auxiliary queries           *
      * ******************************************/
+    /**
+     * Builds the AlignmentRegion with the tiles overlapping the region, reading from the BAM only the missing ones.
+     */
+    private AlignmentRegion getAlignmentRegionFromTiles(Path bamPath, Path baiPath, Region region, QueryOptions options) {
+        boolean processDifferences = options.getBoolean(QO_PROCESS_DIFFERENCES, true);
+        boolean includeCoverage = options.getBoolean(QO_INCLUDE_COVERAGE, true);
+        String bam = bamPath.toAbsolutePath().toString();
+        long lastModified = bamPath.toFile().lastModified();
+        long length = bamPath.toFile().length();
+        int tileSize = tileCache.getTileSize();
+
+        List<Alignment> alignmentsInRegion = new LinkedList<>();
+        RegionCoverage regionCoverage = null;
+        if (includeCoverage) {
+            regionCoverage = new RegionCoverage((int) (region.getEnd() - region.getStart() + 1));
+            regionCoverage.setChromosome(region.getChromosome());
+            regionCoverage.setStart(region.getStart());
+            regionCoverage.setEnd(region.getEnd());
+        }
+
+        int firstTile = (int) ((region.getStart() - 1) / tileSize);
+        int lastTile = (int) ((region.getEnd() - 1) / tileSize);
+        for (int tileIndex = firstTile; tileIndex <= lastTile; tileIndex++) {
+            String key = AlignmentTileCache.getKey(bam, region.getChromosome(), tileIndex, processDifferences, includeCoverage);
+            AlignmentTileCache.Tile tile = tileCache.get(key, lastModified, length);
+            if (tile == null) {
+                Region tileRegion = new Region(region.getChromosome(), tileIndex * tileSize + 1, (tileIndex + 1) * tileSize);
+                List<Alignment> alignmentList = getAlignmentsFromSamRecords(getSamRecordsByRegion(bamPath, baiPath, tileRegion), options);
+                tile = new AlignmentTileCache.Tile(getAlignmentsInRegion(alignmentList, tileRegion),
+                        includeCoverage ? calculateCoverageByRegion(alignmentList, tileRegion) : null, lastModified, length);
+                tileCache.put(key, tile);
+            }
+
+            for (Alignment alignment : tile.getAlignments()) {
+                if (alignment.getStart() >= region.getStart() && alignment.getStart() <= region.getEnd()) {
+                    alignmentsInRegion.add(alignment);
+                }
+            }
+            if (includeCoverage && tile.getCoverage() != null) {
+                RegionCoverage tileCoverage = tile.getCoverage();
+                long from = Math.max(region.getStart(), tileCoverage.getStart());
+                long to = Math.min(region.getEnd(), tileCoverage.getEnd());
+                if (from <= to) {
+                    int srcPos = (int) (from - tileCoverage.getStart());
+                    int destPos = (int) (from - region.getStart());
+                    int copyLength = (int) (to - from + 1);
+                    System.arraycopy(tileCoverage.getAll(), srcPos, regionCoverage.getAll(), destPos, copyLength);
+                    System.arraycopy(tileCoverage.getA(), srcPos, regionCoverage.getA(), destPos, copyLength);
+                    System.arraycopy(tileCoverage.getC(), srcPos, regionCoverage.getC(), destPos, copyLength);
+                    System.arraycopy(tileCoverage.getG(), srcPos, regionCoverage.getG(), destPos, copyLength);
+                    System.arraycopy(tileCoverage.getT(), srcPos, regionCoverage.getT(), destPos, copyLength);
+                }
+            }
+        }
+
+        return new AlignmentRegion(region.getChromosome(), region.getStart(), region.getEnd(), alignmentsInRegion, regionCoverage, null);
+    }
+
     private List<SAMRecord> getSamRecordsByRegion(Path bamPath, Path baiPath, Region region){
         List<SAMRecord> records = new ArrayList<>();
 
@@ -400,6 +563,8 @@ public class IndexedAlignmentDBAdaptor implements AlignmentDBAdaptor {
             record = recordsRegion.next();
             records.add(record);
         }
+        recordsRegion.close();
+        inputSam.close();
 
         return records;
 
@@ -452,6 +617,18 @@ public class IndexedAlignmentDBAdaptor implements AlignmentDBAdaptor {
         }
     }
 
+    private static RegionCoverage calculateCoverageByRegion(List<Alignment> alignmentList, Region region) {
+        AlignmentRegion alignmentRegion;
+        if (!alignmentList.isEmpty()) {
+            alignmentRegion = new AlignmentRegion(alignmentList, null);
+            alignmentRegion.setEnd(region.getEnd());
+        } else {
+            alignmentRegion = new AlignmentRegion(region.getChromosome(), region.getStart(), region.getEnd());
+            alignmentRegion.setAlignments(new LinkedList<Alignment>());
+        }
+        return calculateCoverageByRegion(alignmentRegion, region);
+    }
+
     private static RegionCoverage calculateCoverageByRegion(AlignmentRegion alignmentRegion, Region region) {
         AlignmentRegionCoverageCalculatorTask task = new AlignmentRegionCoverageCalculatorTask();
         try {
@@ -4,14 +4,17 @@ import org.opencb.biodata.formats.io.FileFormatException;
 import org.opencb.biodata.formats.sequence.fasta.dbadaptor.CellBaseSequenceDBAdaptor;
 import org.opencb.biodata.formats.sequence.fasta.dbadaptor.SequenceDBAdaptor;
 import org.opencb.biodata.models.alignment.AlignmentRegion;
+import org.opencb.commons.io.DataReader;
 import org.opencb.commons.run.Runner;
 import org.opencb.commons.run.Task;
 import org.opencb.datastore.core.ObjectMap;
 import org.opencb.opencga.lib.auth.IllegalOpenCGACredentialsException;
 import org.opencb.opencga.storage.core.alignment.AlignmentStorageManager;
 import org.opencb.opencga.storage.core.alignment.adaptors.AlignmentDBAdaptor;
+import org.opencb.opencga.storage.core.alignment.binary.AlignmentCoverageBinaryDataReader;
 import org.opencb.opencga.storage.core.alignment.json.AlignmentCoverageJsonDataReader;
 import org.opencb.opencga.storage.core.sequence.SqliteSequenceDBAdaptor;
+import org.opencb.opencga.storage.core.sequence.TwoBitSequenceDBAdaptor;
 import org.opencb.opencga.storage.mongodb.utils.MongoCredentials;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,6 +70,8 @@ public class MongoDBAlignmentStorageManager extends AlignmentStorageManager {
         } else {
             if(path.toString().endsWith("sqlite.db")) {
                 adaptor = new SqliteSequenceDBAdaptor(path);
+            } else if(path.toString().endsWith(TwoBitSequenceDBAdaptor.EXTENSION)) {
+                adaptor = new TwoBitSequenceDBAdaptor(path);
             } else {
                 adaptor = new CellBaseSequenceDBAdaptor(path);
             }
@@ -102,7 +107,10 @@ public class MongoDBAlignmentStorageManager extends AlignmentStorageManager {
         params.put(WRITE_ALIGNMENTS, false);
         params.put(CREATE_BAI, true);
         params.put(INCLUDE_COVERAGE, true);
-        return super.transform(inputUri, pedigree, outputUri, params);
+        URI outputFile = super.transform(inputUri, pedigree, outputUri, params);
+        //The file has been indexed again. Tiles read before are not valid anymore
+        AlignmentTileCache.getInstance().invalidate(Paths.get(inputUri.getPath()).toAbsolutePath().toString());
+        return outputFile;
     }
 
 
@@ -121,8 +129,16 @@ public class MongoDBAlignmentStorageManager extends AlignmentStorageManager {
 
 
         //Reader
-        AlignmentCoverageJsonDataReader alignmentDataReader = getAlignmentCoverageJsonDataReader(input);
-        alignmentDataReader.setReadRegionCoverage(false);   //Only load mean coverage
+        DataReader<AlignmentRegion> alignmentDataReader;
+        AlignmentCoverageBinaryDataReader binaryDataReader = getAlignmentCoverageBinaryDataReader(input);
+        if (binaryDataReader != null) {
+            binaryDataReader.setReadRegionCoverage(false);  //Only load mean coverage
+            alignmentDataReader = binaryDataReader;
+        } else {
+            AlignmentCoverageJsonDataReader jsonDataReader = getAlignmentCoverageJsonDataReader(input);
+            jsonDataReader.setReadRegionCoverage(false);    //Only load mean coverage
+            alignmentDataReader = jsonDataReader;
+        }
 
         //Writer
         CoverageMongoDBWriter dbWriter = this.getDBWriter(dbName, new ObjectMap(FILE_ID, fileId));
@@ -28,17 +28,41 @@ package org.opencb.opencga.storage.mongodb.utils;
 
 import net.sf.samtools.util.BlockCompressedInputStream;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
-import java.util.HashMap;
-
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Tabix reader safe to be shared between threads.
+ *
+ * The parsed index is shared by all the readers of a file, and the decompressed BGZF blocks are kept in a
+ * bounded cache shared by all the readers. Blocks are read with positional reads over a FileChannel, so every
+ * Iterator keeps its own position and many iterators can query the same reader concurrently.
+ */
 public class TabixReader {
+    public static final long BLOCK_CACHE_SIZE = 64L * 1024 * 1024;
+
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private static final int BGZF_HEADER_SIZE = 18;
+
     private String mFn;
-    private BlockCompressedInputStream mFp;
+    private FileChannel mChannel;
+    private String mBlockKey;
+    private final Cursor mFp;
 
     private int mPreset;
     private int mSc;
@@ -47,6 +71,7 @@ public class TabixReader {
     private int mMeta;
     private int mSkip;
     private String[] mSeq;
+    private byte[][] mSeqBytes;
 
     private HashMap<String, Integer> mChr2tid;
 
@@ -54,7 +79,11 @@ public class TabixReader {
     private static int TAD_MIN_CHUNK_GAP = 32768;
     private static int TAD_LIDX_SHIFT = 14;
 
-    private class TPair64 implements Comparable<TPair64> {
+    private static final ConcurrentMap<String, TIndexFile> indexCache = new ConcurrentHashMap<>();
+    private static final BlockCache blockCache = new BlockCache(BLOCK_CACHE_SIZE);
+    private static final AtomicInteger indexReads = new AtomicInteger();
+
+    private static class TPair64 implements Comparable<TPair64> {
         long u, v;
 
         public TPair64(final long _u, final long _v) {
@@ -74,7 +103,7 @@ public class TabixReader {
 
     ;
 
-    private class TIndex {
+    private static class TIndex {
         HashMap<Integer, TPair64[]> b; // binning index
         long[] l; // linear index
     }
@@ -82,12 +111,70 @@ public class TabixReader {
     ;
     private TIndex[] mIndex;
 
-    private class TIntv {
+    /**
+     * Parsed index file, shared between readers. Never modified once read.
+     */
+    private static class TIndexFile {
+        long lastModified, length;
+        int preset, sc, bc, ec, meta, skip;
+        String[] seq;
+        byte[][] seqBytes;
+        HashMap<String, Integer> chr2tid;
+        TIndex[] index;
+    }
+
+    private static class TIntv {
         int tid, beg, end;
     }
 
     ;
 
+    /**
+     * Decompressed BGZF block
+     */
+    private static class Block {
+        final byte[] data;
+        final int compressedSize;
+
+        Block(byte[] data, int compressedSize) {
+            this.data = data;
+            this.compressedSize = compressedSize;
+        }
+    }
+
+    /**
+     * LRU cache of decompressed blocks, bounded by the size of the decompressed data.
+     */
+    private static class BlockCache {
+        private final long maxSize;
+        private long size = 0;
+        private long hits = 0;
+        private long misses = 0;
+        private final LinkedHashMap<String, Block> blocks = new LinkedHashMap<>(1024, 0.75f, true);
+
+        BlockCache(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized Block get(String key) {
+            Block block = blocks.get(key);
+            if (block == null) misses++;
+            else hits++;
+            return block;
+        }
+
+        synchronized void put(String key, Block block) {
+            Block previous = blocks.put(key, block);
+            if (previous != null) size -= previous.data.length;
+            size += block.data.length;
+            java.util.Iterator<Block> iterator = blocks.values().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                size -= iterator.next().data.length;
+                iterator.remove();
+            }
+        }
+    }
+
     private static boolean less64(final long u, final long v) { // unsigned 64-bit comparison
         return (u < v) ^ (u < 0) ^ (v < 0);
     }
@@ -99,7 +186,9 @@ public class TabixReader {
      */
     public TabixReader(final String fn) throws IOException {
         mFn = fn;
-        mFp = new BlockCompressedInputStream(new File(fn));
+        mChannel = FileChannel.open(Paths.get(fn), StandardOpenOption.READ);
+        mBlockKey = new File(fn).getAbsolutePath() + "@" + new File(fn).lastModified() + ":";
+        mFp = new Cursor();
         readIndex();
     }
 
@@ -139,45 +228,70 @@ public class TabixReader {
     }
 
     /**
-     * Read the Tabix index from a file
+     * Read the Tabix index from a file, or get it from the cache if it has not changed since it was read.
      *
      * @param fp File pointer
      */
     public void readIndex(final File fp) throws IOException {
         if (fp == null) return;
+        String key = fp.getAbsolutePath();
+        TIndexFile indexFile = indexCache.get(key);
+        if (indexFile == null || indexFile.lastModified != fp.lastModified() || indexFile.length != fp.length()) {
+            indexFile = parseIndex(fp);
+            indexCache.put(key, indexFile);
+        }
+        mPreset = indexFile.preset;
+        mSc = indexFile.sc;
+        mBc = indexFile.bc;
+        mEc = indexFile.ec;
+        mMeta = indexFile.meta;
+        mSkip = indexFile.skip;
+        mSeq = indexFile.seq;
+        mSeqBytes = indexFile.seqBytes;
+        mChr2tid = indexFile.chr2tid;
+        mIndex = indexFile.index;
+    }
+
+    private static TIndexFile parseIndex(final File fp) throws IOException {
+        indexReads.incrementAndGet();
+        TIndexFile indexFile = new TIndexFile();
+        indexFile.lastModified = fp.lastModified();
+        indexFile.length = fp.length();
         BlockCompressedInputStream is = new BlockCompressedInputStream(fp);
         byte[] buf = new byte[4];
 
         is.read(buf, 0, 4); // read "TBI\1"
-        mSeq = new String[readInt(is)]; // # sequences
-        mChr2tid = new HashMap<String, Integer>();
-        mPreset = readInt(is);
-        mSc = readInt(is);
-        mBc = readInt(is);
-        mEc = readInt(is);
-        mMeta = readInt(is);
-        mSkip = readInt(is);
+        String[] seq = new String[readInt(is)]; // # sequences
+        HashMap<String, Integer> chr2tid = new HashMap<String, Integer>();
+        indexFile.preset = readInt(is);
+        indexFile.sc = readInt(is);
+        indexFile.bc = readInt(is);
+        indexFile.ec = readInt(is);
+        indexFile.meta = readInt(is);
+        indexFile.skip = readInt(is);
         // read sequence dictionary
         int i, j, k, l = readInt(is);
         buf = new byte[l];
         is.read(buf);
+        byte[][] seqBytes = new byte[seq.length][];
         for (i = j = k = 0; i < buf.length; ++i) {
             if (buf[i] == 0) {
                 byte[] b = new byte[i - j];
                 System.arraycopy(buf, j, b, 0, b.length);
                 String s = new String(b);
-                mChr2tid.put(s, k);
-                mSeq[k++] = s;
+                chr2tid.put(s, k);
+                seqBytes[k] = b;
+                seq[k++] = s;
                 j = i + 1;
             }
         }
         // read the index
-        mIndex = new TIndex[mSeq.length];
-        for (i = 0; i < mSeq.length; ++i) {
+        TIndex[] index = new TIndex[seq.length];
+        for (i = 0; i < seq.length; ++i) {
             // the binning index
             int n_bin = readInt(is);
-            mIndex[i] = new TIndex();
-            mIndex[i].b = new HashMap<Integer, TPair64[]>();
+            index[i] = new TIndex();
+            index[i].b = new HashMap<Integer, TPair64[]>();
             for (j = 0; j < n_bin; ++j) {
                 int bin = readInt(is);
                 TPair64[] chunks = new TPair64[readInt(is)];
@@ -186,15 +300,20 @@ public class TabixReader {
                     long v = readLong(is);
                     chunks[k] = new TPair64(u, v); // in C, this is inefficient
                 }
-                mIndex[i].b.put(bin, chunks);
+                index[i].b.put(bin, chunks);
             }
             // the linear index
-            mIndex[i].l = new long[readInt(is)];
-            for (k = 0; k < mIndex[i].l.length; ++k)
-                mIndex[i].l[k] = readLong(is);
+            index[i].l = new long[readInt(is)];
+            for (k = 0; k < index[i].l.length; ++k)
+                index[i].l[k] = readLong(is);
         }
         // close
         is.close();
+        indexFile.seq = seq;
+        indexFile.seqBytes = seqBytes;
+        indexFile.chr2tid = chr2tid;
+        indexFile.index = index;
+        return indexFile;
     }
 
     /**
@@ -208,7 +327,154 @@ public class TabixReader {
      * Read one line from the data file.
      */
     public String readLine() throws IOException {
-        return readLine(mFp);
+        synchronized (mFp) {
+            int length = mFp.readLine();
+            return length < 0 ? null : new String(mFp.line, 0, length, LATIN1);
+        }
+    }
+
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Get a decompressed BGZF block from the cache, or read it from the file.
+     *
+     * @return The block, or null at the end of the file
+     */
+    private Block getBlock(final long address) throws IOException {
+        String key = mBlockKey + address;
+        Block block = blockCache.get(key);
+        if (block == null) {
+            block = readBlock(address);
+            if (block != null) blockCache.put(key, block);
+        }
+        return block;
+    }
+
+    private Block readBlock(final long address) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BGZF_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (read(header, address) < BGZF_HEADER_SIZE) return null;
+        if (header.get(0) != 31 || (header.get(1) & 0xff) != 139 || (header.get(3) & 4) == 0
+                || header.get(12) != 'B' || header.get(13) != 'C') {
+            throw new IOException("Invalid BGZF block at " + address + " of " + mFn);
+        }
+        int xlen = header.getShort(10) & 0xffff;
+        int blockSize = (header.getShort(16) & 0xffff) + 1;
+        ByteBuffer compressed = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        if (read(compressed, address) < blockSize) throw new EOFException("Truncated BGZF block at " + address + " of " + mFn);
+        byte[] data = new byte[compressed.getInt(blockSize - 4)];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed.array(), 12 + xlen, blockSize - xlen - 20);
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, n, data.length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += inflated;
+            }
+            if (n < data.length) throw new IOException("Corrupted BGZF block at " + address + " of " + mFn);
+            CRC32 crc32 = new CRC32();
+            crc32.update(data, 0, data.length);
+            if ((int) crc32.getValue() != compressed.getInt(blockSize - 8)) {
+                throw new IOException("CRC mismatch in BGZF block at " + address + " of " + mFn);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted BGZF block at " + address + " of " + mFn, e);
+        } finally {
+            inflater.end();
+        }
+        return new Block(data, blockSize);
+    }
+
+    /**
+     * Number of times an index file has been parsed, instead of taken from the cache.
+     */
+    static int getIndexReads() {
+        return indexReads.get();
+    }
+
+    static long getBlockCacheHits() {
+        synchronized (blockCache) {
+            return blockCache.hits;
+        }
+    }
+
+    static long getBlockCacheMisses() {
+        synchronized (blockCache) {
+            return blockCache.misses;
+        }
+    }
+
+    private int read(final ByteBuffer buffer, final long position) throws IOException {
+        int n = 0;
+        while (buffer.hasRemaining()) {
+            int r = mChannel.read(buffer, position + n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n;
+    }
+
+    /**
+     * Position over the decompressed data, independent of any other cursor over the same file.
+     */
+    private class Cursor {
+        private long address = 0;
+        private Block block = null;
+        private int offset = 0;
+        private byte[] line = new byte[1024];
+
+        void seek(final long pos) throws IOException {
+            address = pos >>> 16;
+            offset = (int) (pos & 0xffff);
+            block = getBlock(address);
+        }
+
+        long getFilePointer() {
+            if (block != null && offset == block.data.length) return (address + block.compressedSize) << 16; // next block
+            return address << 16 | offset;
+        }
+
+        private boolean nextBlock() throws IOException {
+            if (block == null) {
+                block = getBlock(address);
+            } else {
+                address += block.compressedSize;
+                offset = 0;
+                block = getBlock(address);
+            }
+            return block != null;
+        }
+
+        /**
+         * Read the next line, without the '\n', into the line buffer.
+         *
+         * @return Length of the line, or -1 at the end of the file
+         */
+        int readLine() throws IOException {
+            int length = 0;
+            boolean eof = true;
+            while (true) {
+                if (block == null || offset == block.data.length) {
+                    if (!nextBlock()) break;
+                    continue;
+                }
+                eof = false;
+                byte[] data = block.data;
+                int i = offset;
+                while (i < data.length && data[i] != '\n') ++i;
+                if (length + i - offset > line.length) line = Arrays.copyOf(line, Math.max(line.length * 2, length + i - offset));
+                System.arraycopy(data, offset, line, length, i - offset);
+                length += i - offset;
+                if (i < data.length) {
+                    offset = i + 1;
+                    return length;
+                }
+                offset = i;
+            }
+            return eof && length == 0 ? -1 : length;
+        }
     }
 
     private int chr2tid(final String chr) {
@@ -236,15 +502,47 @@ public class TabixReader {
         return ret;
     }
 
-    private TIntv getIntv(final String s) {
-        TIntv intv = new TIntv();
-        int col = 0, end = 0, beg = 0;
-        while ((end = s.indexOf('\t', beg)) >= 0 || end == -1) {
+    private static int parseInt(final byte[] s, int beg, final int end) {
+        boolean negative = beg < end && s[beg] == '-';
+        if (negative) ++beg;
+        if (beg >= end) throw new NumberFormatException("Empty number");
+        int n = 0;
+        for (int i = beg; i < end; ++i) {
+            int d = s[i] - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException("For input string: \"" + new String(s, beg, end - beg, LATIN1) + "\"");
+            n = n * 10 + d;
+        }
+        return negative ? -n : n;
+    }
+
+    private static int indexOf(final byte[] s, final int beg, final int end, final String target) {
+        outer:
+        for (int i = beg; i <= end - target.length(); ++i) {
+            for (int j = 0; j < target.length(); ++j)
+                if (s[i + j] != target.charAt(j)) continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the interval of a line, reading the columns straight from the bytes.
+     * The sequence is only compared with the queried one: tid is -1 for any other sequence.
+     */
+    private TIntv getIntv(final byte[] s, final int length, final int queryTid, final TIntv intv) {
+        int col = 0, end, beg = 0;
+        intv.tid = intv.beg = intv.end = 0;
+        while (true) {
+            end = beg;
+            while (end < length && s[end] != '\t') ++end;
             ++col;
             if (col == mSc) {
-                intv.tid = chr2tid(s.substring(beg, end));
+                byte[] seq = mSeqBytes[queryTid];
+                boolean equals = end - beg == seq.length;
+                for (int i = 0; equals && i < seq.length; ++i) equals = s[beg + i] == seq[i];
+                intv.tid = equals ? queryTid : -1;
             } else if (col == mBc) {
-                intv.beg = intv.end = Integer.parseInt(s.substring(beg, end == -1 ? s.length() : end));
+                intv.beg = intv.end = parseInt(s, beg, end);
                 if ((mPreset & 0x10000) != 0) ++intv.end;
                 else --intv.beg;
                 if (intv.beg < 0) intv.beg = 0;
@@ -252,51 +550,55 @@ public class TabixReader {
             } else { // FIXME: SAM supports are not tested yet
                 if ((mPreset & 0xffff) == 0) { // generic
                     if (col == mEc)
-                        intv.end = Integer.parseInt(s.substring(beg, end));
+                        intv.end = parseInt(s, beg, end);
                 } else if ((mPreset & 0xffff) == 1) { // SAM
                     if (col == 6) { // CIGAR
                         int l = 0, i, j;
-                        String cigar = s.substring(beg, end);
-                        for (i = j = 0; i < cigar.length(); ++i) {
-                            if (cigar.charAt(i) > '9') {
-                                int op = cigar.charAt(i);
+                        for (i = j = beg; i < end; ++i) {
+                            if (s[i] > '9') {
+                                int op = s[i];
                                 if (op == 'M' || op == 'D' || op == 'N')
-                                    l += Integer.parseInt(cigar.substring(j, i));
+                                    l += parseInt(s, j, i);
+                                j = i + 1;
                             }
                         }
                         intv.end = intv.beg + l;
                     }
                 } else if ((mPreset & 0xffff) == 2) { // VCF
-                    String alt;
-                    alt = end >= 0 ? s.substring(beg, end) : s.substring(beg);
                     if (col == 4) { // REF
-                        if (alt.length() > 0) intv.end = intv.beg + alt.length();
+                        if (end > beg) intv.end = intv.beg + end - beg;
                     } else if (col == 8) { // INFO
-                        int e_off = -1, i = alt.indexOf("END=");
-                        if (i == 0) e_off = 4;
-                        else if (i > 0) {
-                            i = alt.indexOf(";END=");
+                        int e_off = -1, i = indexOf(s, beg, end, "END=");
+                        if (i == beg) e_off = beg + 4;
+                        else if (i > beg) {
+                            i = indexOf(s, beg, end, ";END=");
                             if (i >= 0) e_off = i + 5;
                         }
                         if (e_off > 0) {
-                            i = alt.indexOf(";", e_off);
-                            intv.end = Integer.parseInt(i > e_off ? alt.substring(e_off, i) : alt.substring(e_off));
+                            i = indexOf(s, e_off, end, ";");
+                            intv.end = parseInt(s, e_off, i > e_off ? i : end);
                         }
                     }
                 }
             }
-            if (end == -1) break;
+            if (end >= length) break;
             beg = end + 1;
         }
         return intv;
     }
 
+    /**
+     * Iterator over the lines of a region. Not thread safe, but many iterators over the same reader can be
+     * used concurrently.
+     */
     public class Iterator {
         private int i, n_seeks;
         private int tid, beg, end;
         private TPair64[] off;
         private long curr_off;
         private boolean iseof;
+        private final Cursor fp = new Cursor();
+        private final TIntv intv = new TIntv();
 
         public Iterator(final int _tid, final int _beg, final int _end, final TPair64[] _off) {
             i = -1;
@@ -316,21 +618,19 @@ public class TabixReader {
                     if (i == off.length - 1) break; // no more chunks
                     if (i >= 0) assert (curr_off == off[i].v); // otherwise bug
                     if (i < 0 || off[i].v != off[i + 1].u) { // not adjacent chunks; then seek
-                        mFp.seek(off[i + 1].u);
-                        curr_off = mFp.getFilePointer();
+                        fp.seek(off[i + 1].u);
+                        curr_off = fp.getFilePointer();
                         ++n_seeks;
                     }
                     ++i;
                 }
-                String s;
-                if ((s = readLine(mFp)) != null) {
-                    TIntv intv;
-                    char[] str = s.toCharArray();
-                    curr_off = mFp.getFilePointer();
-                    if (str.length == 0 || str[0] == mMeta) continue;
-                    intv = getIntv(s);
+                int length;
+                if ((length = fp.readLine()) >= 0) {
+                    curr_off = fp.getFilePointer();
+                    if (length == 0 || fp.line[0] == mMeta) continue;
+                    getIntv(fp.line, length, tid, intv);
                     if (intv.tid != tid || intv.beg >= end) break; // no need to proceed
-                    else if (intv.end > beg && intv.beg < end) return s; // overlap; return
+                    else if (intv.end > beg && intv.beg < end) return new String(fp.line, 0, length, LATIN1); // overlap; return
                 } else break; // end of file
             }
             iseof = true;
@@ -343,6 +643,7 @@ public class TabixReader {
     public Iterator query(final int tid, final int beg, final int end) {
         TPair64[] off, chunks;
         long min_off;
+        if (tid < 0 || tid >= mIndex.length) return null;
         TIndex idx = mIndex[tid];
         int[] bins = new int[MAX_BIN];
         int i, l, n_off, n_bins = reg2bins(beg, end, bins);
@@ -411,7 +712,8 @@ public class TabixReader {
                 while (iter != null && (s = iter.next()) != null)
                     System.out.println(s);
             }
+            tr.close();
         } catch (IOException e) {
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,120 @@
+package org.opencb.opencga.storage.mongodb.variant;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the sample names of each source (file), for one database and files collection.
+ *
+ *  Reads do not take any lock. Entries expire after a while, and the oldest entries are evicted when the cache
+ *  grows over its maximum size. Writers must invalidate the entry of a file when its samples change.
+ */
+class SamplesInSourcesCache {
+
+    static final int DEFAULT_MAX_SIZE = 10000;
+    static final long DEFAULT_EXPIRE_TIME = TimeUnit.MINUTES.toMillis(10);
+
+    /** Caches, by database and collection */
+    private static final ConcurrentMap<String, SamplesInSourcesCache> caches = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Entry> samplesInSources = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long expireTime;
+
+    private static class Entry {
+        private final List<String> samples;
+        private final long loadTime;
+
+        Entry(List<String> samples, long loadTime) {
+            this.samples = samples;
+            this.loadTime = loadTime;
+        }
+    }
+
+    SamplesInSourcesCache(int maxSize, long expireTime) {
+        this.maxSize = maxSize;
+        this.expireTime = expireTime;
+    }
+
+    static SamplesInSourcesCache get(String database, String collection) {
+        String key = database + "." + collection;
+        SamplesInSourcesCache cache = caches.get(key);
+        if (cache == null) {
+            cache = new SamplesInSourcesCache(DEFAULT_MAX_SIZE, DEFAULT_EXPIRE_TIME);
+            SamplesInSourcesCache previous = caches.putIfAbsent(key, cache);
+            if (previous != null) {
+                cache = previous;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @param fileId    File id
+     * @return          Samples of the file, or null if missing or expired
+     */
+    List<String> getSamples(String fileId) {
+        Entry entry = samplesInSources.get(fileId);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.loadTime > expireTime) {
+            samplesInSources.remove(fileId, entry);
+            return null;
+        }
+        return entry.samples;
+    }
+
+    void putSamples(String fileId, List<String> samples) {
+        samplesInSources.put(fileId, new Entry(Collections.unmodifiableList(samples), System.currentTimeMillis()));
+        if (samplesInSources.size() > maxSize) {
+            evict();
+        }
+    }
+
+    void invalidate(String fileId) {
+        samplesInSources.remove(fileId);
+    }
+
+    void invalidateAll() {
+        samplesInSources.clear();
+    }
+
+    int size() {
+        return samplesInSources.size();
+    }
+
+    /**
+     * Removes the expired entries and, if still too big, the oldest ones, down to 3/4 of the maximum size.
+     * Amortizes the cost of the scan between several insertions.
+     */
+    private synchronized void evict() {
+        if (samplesInSources.size() <= maxSize) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(samplesInSources.size());
+        for (Map.Entry<String, Entry> entry : samplesInSources.entrySet()) {
+            if (now - entry.getValue().loadTime > expireTime) {
+                samplesInSources.remove(entry.getKey(), entry.getValue());
+            } else {
+                entries.add(entry);
+            }
+        }
+        int toRemove = entries.size() - maxSize * 3 / 4;
+        if (toRemove <= 0) {
+            return;
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+            @Override
+            public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2) {
+                return Long.compare(o1.getValue().loadTime, o2.getValue().loadTime);
+            }
+        });
+        for (int i = 0; i < toRemove; i++) {
+            samplesInSources.remove(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+    }
+}
@@ -11,7 +11,6 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.UnknownHostException;
 import java.util.*;
-import java.util.regex.Pattern;
 
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
@@ -29,6 +28,7 @@ import org.opencb.datastore.core.QueryResult;
 import org.opencb.datastore.mongodb.MongoDBCollection;
 import org.opencb.datastore.mongodb.MongoDataStore;
 import org.opencb.datastore.mongodb.MongoDataStoreManager;
+import org.opencb.opencga.lib.tools.accession.LRUCache;
 import org.opencb.opencga.storage.core.variant.VariantStorageManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
@@ -55,6 +55,14 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
     protected static Logger logger = LoggerFactory.getLogger(VariantMongoDBAdaptor.class);
 
+    private static final int QUERY_CACHE_SIZE = 1000;
+    /** Parsed filters, by {@link VariantMongoDBQuery#getKey} */
+    private static final Map<String, VariantMongoDBQuery> queries =
+            Collections.synchronizedMap(new LRUCache<String, VariantMongoDBQuery>(QUERY_CACHE_SIZE));
+    /** Projections, by include, exclude and fileId */
+    private static final Map<String, Document> projections =
+            Collections.synchronizedMap(new LRUCache<String, Document>(QUERY_CACHE_SIZE));
+
     public VariantMongoDBAdaptor(MongoCredentials credentials, String variantsCollectionName, String filesCollectionName)
             throws UnknownHostException {
         // Mongo configuration
@@ -570,248 +578,60 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
     }
 
     private QueryBuilder parseQueryOptions(QueryOptions options, QueryBuilder builder) {
-        if (options != null) {
-
-            /** GENOMIC REGION **/
-
-            if (options.getString(ID) != null && !options.getString(ID).isEmpty()) { //) && !options.getString("id").isEmpty()) {
-                List<String> ids = options.getAsStringList(ID);
-                addQueryListFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.XREFS_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.XREF_ID_FIELD
-                        , ids, builder, QueryOperation.OR);
-
-                addQueryListFilter(DocumentToVariantConverter.IDS_FIELD
-                        , ids, builder, QueryOperation.OR);
-            }
-
-            if (options.containsKey(REGION) && !options.getString(REGION).isEmpty()) {
-                List<String> stringList = options.getAsStringList(REGION);
-                List<Region> regions = new ArrayList<>(stringList.size());
-                for (String reg : stringList) {
-                    Region region = Region.parseRegion(reg);
-                    regions.add(region);
-                }
-                getRegionFilter(regions, builder);
-            }
-
-            if (options.containsKey(GENE)) {
-                List<String> xrefs = options.getAsStringList(GENE);
-                addQueryListFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.XREFS_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.XREF_ID_FIELD
-                        , xrefs, builder, QueryOperation.OR);
-            }
-
-            if (options.containsKey(CHROMOSOME)) {
-                List<String> chromosome = options.getAsStringList(CHROMOSOME);
-                addQueryListFilter(DocumentToVariantConverter.CHROMOSOME_FIELD
-                        , chromosome, builder, QueryOperation.OR);
-            }
-
-            /** VARIANT **/
-
-            if (options.containsKey(TYPE)) { // && !options.getString("type").isEmpty()) {
-                addQueryStringFilter(DocumentToVariantConverter.TYPE_FIELD, options.getString(TYPE), builder);
-            }
-
-            if (options.containsKey(REFERENCE) && options.getString(REFERENCE) != null) {
-                addQueryStringFilter(DocumentToVariantConverter.REFERENCE_FIELD, options.getString(REFERENCE), builder);
-            }
-
-            if (options.containsKey(ALTERNATE) && options.getString(ALTERNATE) != null) {
-                addQueryStringFilter(DocumentToVariantConverter.ALTERNATE_FIELD, options.getString(ALTERNATE), builder);
-            }
-
-            /** ANNOTATION **/
-
-            if (options.containsKey(ANNOTATION_EXISTS)) {
-                builder.and(DocumentToVariantConverter.ANNOTATION_FIELD).exists(options.getBoolean(ANNOTATION_EXISTS));
-            }
-
-            if (options.containsKey(ANNOT_XREF)) {
-                List<String> xrefs = options.getAsStringList(ANNOT_XREF);
-                addQueryListFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.XREFS_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.XREF_ID_FIELD
-                        , xrefs, builder, QueryOperation.AND);
-            }
-
-            if (options.containsKey(ANNOT_CONSEQUENCE_TYPE)) {
-//                List<Integer> cts = getIntegersList(options.get(ANNOT_CONSEQUENCE_TYPE));
-                List<String> cts = new ArrayList<>(options.getAsStringList(ANNOT_CONSEQUENCE_TYPE));
-                List<Integer> ctsInteger = new ArrayList<>(cts.size());
-                for (Iterator<String> iterator = cts.iterator(); iterator.hasNext(); ) {
-                    String ct = iterator.next();
-                    if (ct.startsWith("SO:")) {
-                        ct = ct.substring(3);
-                    }
-                    try {
-                        ctsInteger.add(Integer.parseInt(ct));
-                    } catch (NumberFormatException e) {
-                        logger.error("Error parsing integer ", e);
-                        iterator.remove();  //Remove the malformed query params.
-                    }
-                }
-                options.put(ANNOT_CONSEQUENCE_TYPE, cts); //Replace the QueryOption without the malformed query params
-                addQueryListFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.SO_ACCESSION_FIELD
-                        , ctsInteger, builder, QueryOperation.AND);
-            }
-
-            if (options.containsKey(ANNOT_BIOTYPE)) {
-                List<String> biotypes = options.getAsStringList(ANNOT_BIOTYPE);
-                addQueryListFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.BIOTYPE_FIELD
-                        , biotypes, builder, QueryOperation.AND);
-            }
-
-            if (options.containsKey(POLYPHEN)) {
-                addCompQueryFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.POLYPHEN_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.SCORE_SCORE_FIELD, options.getString(POLYPHEN), builder);
-            }
-
-            if (options.containsKey(SIFT)) {
-                addCompQueryFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.SIFT_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.SCORE_SCORE_FIELD, options.getString(SIFT), builder);
-            }
-
-            if (options.containsKey(PROTEIN_SUBSTITUTION)) {
-                List<String> list = new ArrayList<>(options.getAsStringList(PROTEIN_SUBSTITUTION));
-                addScoreFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.PROTEIN_SUBSTITUTION_SCORE_FIELD, list, builder);
-                options.put(PROTEIN_SUBSTITUTION, list); //Replace the QueryOption without the malformed query params
-            }
-
-            if (options.containsKey(CONSERVED_REGION)) {
-                List<String> list = new ArrayList<>(options.getAsStringList(CONSERVED_REGION));
-                addScoreFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "." +
-                        DocumentToVariantAnnotationConverter.CONSERVED_REGION_SCORE_FIELD, list, builder);
-                options.put(PROTEIN_SUBSTITUTION, list); //Replace the QueryOption without the malformed query params
-            }
-
-            /** STATS **/
-
-            if (options.get(MAF) != null && !options.getString(MAF).isEmpty()) {
-                addCompQueryFilter(
-                        DocumentToVariantConverter.STATS_FIELD + "." + DocumentToVariantStatsConverter.MAF_FIELD,
-                        options.getString(MAF), builder);
-            }
-
-            if (options.get(MGF) != null && !options.getString(MGF).isEmpty()) {
-                addCompQueryFilter(
-                        DocumentToVariantConverter.STATS_FIELD + "." + DocumentToVariantStatsConverter.MGF_FIELD,
-                        options.getString(MGF), builder);
-            }
-
-            if (options.get(MISSING_ALLELES) != null && !options.getString(MISSING_ALLELES).isEmpty()) {
-                addCompQueryFilter(
-                        DocumentToVariantConverter.STATS_FIELD + "." + DocumentToVariantStatsConverter.MISSALLELE_FIELD,
-                        options.getString(MISSING_ALLELES), builder);
-            }
-
-            if (options.get(MISSING_GENOTYPES) != null && !options.getString(MISSING_GENOTYPES).isEmpty()) {
-                addCompQueryFilter(
-                        DocumentToVariantConverter.STATS_FIELD + "." + DocumentToVariantStatsConverter.MISSGENOTYPE_FIELD,
-                        options.getString(MISSING_GENOTYPES), builder);
-            }
-
-            if (options.get("numgt") != null && !options.getString("numgt").isEmpty()) {
-                for (String numgt : options.getAsStringList("numgt")) {
-                    String[] split = numgt.split(":");
-                    addCompQueryFilter(
-                            DocumentToVariantConverter.STATS_FIELD + "." + DocumentToVariantStatsConverter.NUMGT_FIELD + "." + split[0],
-                            split[1], builder);
-                }
-            }
-
-//            if (options.get("freqgt") != null && !options.getString("freqgt").isEmpty()) {
-//                for (String freqgt : getStringList(options.get("freqgt"))) {
-//                    String[] split = freqgt.split(":");
-//                    addCompQueryFilter(
-//                            DocumentToVariantSourceEntryConverter.STATS_FIELD + "." + DocumentToVariantStatsConverter.FREQGT_FIELD + "." + split[0],
-//                            split[1], builder);
-//                }
-//            }
-
-
-            /** FILES **/
-            QueryBuilder fileBuilder = QueryBuilder.start();
-
-            if (options.containsKey(STUDIES)) { // && !options.getList("studies").isEmpty() && !options.getListAs("studies", String.class).get(0).isEmpty()) {
-                addQueryListFilter(
-                        DocumentToVariantSourceEntryConverter.STUDYID_FIELD, options.getAsStringList(STUDIES),
-                        fileBuilder, QueryOperation.AND);
-            }
+        getQuery(options).appendTo(builder);
 
-            if (options.containsKey(FILES)) { // && !options.getList("files").isEmpty() && !options.getListAs("files", String.class).get(0).isEmpty()) {
-                addQueryListFilter(
-                        DocumentToVariantSourceConverter.FILEID_FIELD, options.getAsStringList(FILES),
-                        fileBuilder, QueryOperation.AND);
-            }
-
-            if (options.containsKey(GENOTYPE)) {
-                String sampleGenotypesCSV = options.getString(GENOTYPE);
-
-//                String AND = ",";
-//                String OR = ";";
-//                String IS = ":";
-
-//                String AND = "AND";
-//                String OR = "OR";
-//                String IS = ":";
-
-                String AND = ";";
-                String OR = ",";
-                String IS = ":";
-
-                String[] sampleGenotypesArray = sampleGenotypesCSV.split(AND);
-                for (String sampleGenotypes : sampleGenotypesArray) {
-                    String[] sampleGenotype = sampleGenotypes.split(IS);
-                    if(sampleGenotype.length != 2) {
-                        continue;
-                    }
-                    int sample = Integer.parseInt(sampleGenotype[0]);
-                    String[] genotypes = sampleGenotype[1].split(OR);
-                    QueryBuilder genotypesBuilder = QueryBuilder.start();
-                    for (String genotype : genotypes) {
-                        String s = DocumentToVariantSourceEntryConverter.SAMPLES_FIELD + "." + genotype;
-                        //or [ {"samp.0|0" : { $elemMatch : { $eq : <sampleId> } } } ]
-                        genotypesBuilder.or(new BasicDBObject(s, new BasicDBObject("$elemMatch", new BasicDBObject("$eq", sample))));
-                    }
-                    fileBuilder.and(genotypesBuilder.get());
-                }
-            }
+        /** GENOMIC REGION **/
 
-            DBObject fileQuery = fileBuilder.get();
-            if (fileQuery.keySet().size() != 0) {
-                builder.and(DocumentToVariantConverter.FILES_FIELD).elemMatch(fileQuery);
+        if (options != null && options.containsKey(REGION) && !options.getString(REGION).isEmpty()) {
+            List<String> stringList = options.getAsStringList(REGION);
+            List<Region> regions = new ArrayList<>(stringList.size());
+            for (String reg : stringList) {
+                Region region = Region.parseRegion(reg);
+                regions.add(region);
             }
+            getRegionFilter(regions, builder);
         }
 
         logger.debug("Find = " + builder.get());
         return builder;
     }
 
+    /**
+     * Gets the parsed filters of a QueryOptions from the cache, or parses them if missing.
+     * @throws IllegalArgumentException if any of the filters is malformed
+     */
+    private static VariantMongoDBQuery getQuery(QueryOptions options) {
+        String key = VariantMongoDBQuery.getKey(options);
+        VariantMongoDBQuery query = queries.get(key);
+        if (query == null) {
+            query = VariantMongoDBQuery.parse(options);
+            queries.put(key, query);
+        }
+        return query;
+    }
+
     /**
      * when the tags "include" or "exclude" The names are the same as the members of Variant.
      * @param options
      * @return
      */
     private Document parseProjectionQueryOptions(QueryOptions options) {
-        Document projection = new Document();
-
         if(options == null) {
-            return projection;
+            return new Document();
         }
 
+        String key = options.get("include") + "|" + options.get("exclude") + "|" + options.get(FILE_ID);
+        Document projection = projections.get(key);
+        if (projection == null) {
+            projection = buildProjection(options);
+            projections.put(key, projection);
+        }
+        return new Document(projection);
+    }
+
+    private Document buildProjection(QueryOptions options) {
+        Document projection = new Document();
+
         List<String> includeList = options.getAsStringList("include");
         if (!includeList.isEmpty()) { //Include some
             for (String s : includeList) {
@@ -862,99 +682,6 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         return projection;
     }
 
-    private enum QueryOperation {
-        AND, OR
-    }
-
-    private QueryBuilder addQueryStringFilter(String key, String value, QueryBuilder builder) {
-        if(value != null && !value.isEmpty()) {
-            if(value.indexOf(",") == -1) {
-                builder.and(key).is(value);
-            }else {
-                String[] values = value.split(",");
-                builder.and(key).in(values);
-            }
-        }
-        return builder;
-    }
-
-    private QueryBuilder addQueryListFilter(String key, List<?> values, QueryBuilder builder, QueryOperation op) {
-        if (values != null)
-            if (values.size() == 1) {
-                if(op == QueryOperation.AND) {
-                    builder.and(key).is(values.get(0));
-                } else {
-                    builder.or(QueryBuilder.start(key).is(values.get(0)).get());
-                }
-            } else if (!values.isEmpty()) {
-                if(op == QueryOperation.AND) {
-                    builder.and(key).in(values);
-                } else {
-                    builder.or(QueryBuilder.start(key).in(values).get());
-                }
-            }
-        return builder;
-    }
-
-    private QueryBuilder addCompQueryFilter(String key, String value, QueryBuilder builder) {
-        String op = value.substring(0, 2);
-        op = op.replaceFirst("[0-9]", "");
-        String obj = value.replaceFirst(op, "");
-
-        switch(op) {
-            case "<":
-                builder.and(key).lessThan(Float.parseFloat(obj));
-                break;
-            case "<=":
-                builder.and(key).lessThanEquals(Float.parseFloat(obj));
-                break;
-            case ">":
-                builder.and(key).greaterThan(Float.parseFloat(obj));
-                break;
-            case ">=":
-                builder.and(key).greaterThanEquals(Float.parseFloat(obj));
-                break;
-            case "=":
-            case "==":
-                builder.and(key).is(Float.parseFloat(obj));
-                break;
-            case "!=":
-                builder.and(key).notEquals(Float.parseFloat(obj));
-                break;
-            case "~=":
-                builder.and(key).regex(Pattern.compile(obj));
-                break;
-        }
-        return builder;
-    }
-
-    private QueryBuilder addScoreFilter(String key, List<String> list, QueryBuilder builder) {
-//        ArrayList<Document> and = new ArrayList<>(list.size());
-//        Document[] ands = new Document[list.size()];
-        List<Document> ands = new ArrayList<>();
-        for (Iterator<String> iterator = list.iterator(); iterator.hasNext(); ) {
-            String elem = iterator.next();
-            String[] split = elem.split(":");
-            if (split.length == 2) {
-                String source = split[0];
-                String score = split[1];
-                QueryBuilder scoreBuilder = new QueryBuilder();
-                scoreBuilder.and(DocumentToVariantAnnotationConverter.SCORE_SOURCE_FIELD).is(source);
-                addCompQueryFilter(DocumentToVariantAnnotationConverter.SCORE_SCORE_FIELD
-                        , score, scoreBuilder);
-//                builder.and(key).elemMatch(scoreBuilder.get());
-                ands.add(new Document(key, new Document("$elemMatch", scoreBuilder.get())));
-            } else {
-                logger.error("Bad score filter: " + elem);
-                iterator.remove(); //Remove the malformed query params.
-            }
-        }
-        if (!ands.isEmpty()) {
-            builder.and(ands.toArray(new DBObject[ands.size()]));
-        }
-        return builder;
-    }
-
     private QueryBuilder getRegionFilter(Region region, QueryBuilder builder) {
         List<String> chunkIds = getChunkIds(region);
         builder.and("_at.chunkIds").in(chunkIds);
@@ -0,0 +1,510 @@
+package org.opencb.opencga.storage.mongodb.variant;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.QueryBuilder;
+import org.opencb.datastore.core.QueryOptions;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor.*;
+
+/**
+ * Variant filters parsed from a QueryOptions.
+ *
+ *  All the filters except the regions are parsed and validated once, and rendered into a Mongo filter. Instances
+ *  are immutable, so they can be cached and shared between queries. The regions are usually the only thing that
+ *  changes between the queries of a browser session, so they are added to the filter on each query.
+ */
+final class VariantMongoDBQuery {
+
+    static final String NUMGT = "numgt";
+
+    /** Options used as filters, except {@link org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor#REGION} */
+    static final List<String> FILTER_KEYS = Collections.unmodifiableList(Arrays.asList(
+            ID, GENE, CHROMOSOME, TYPE, REFERENCE, ALTERNATE,
+            ANNOTATION_EXISTS, ANNOT_XREF, ANNOT_CONSEQUENCE_TYPE, ANNOT_BIOTYPE, POLYPHEN, SIFT,
+            PROTEIN_SUBSTITUTION, CONSERVED_REGION,
+            MAF, MGF, MISSING_ALLELES, MISSING_GENOTYPES, NUMGT,
+            STUDIES, FILES, GENOTYPE));
+
+    private static final String XREF_ID_FIELD = DocumentToVariantConverter.ANNOTATION_FIELD + "."
+            + DocumentToVariantAnnotationConverter.XREFS_FIELD + "."
+            + DocumentToVariantAnnotationConverter.XREF_ID_FIELD;
+    private static final String CONSEQUENCE_TYPE_FIELD = DocumentToVariantConverter.ANNOTATION_FIELD + "."
+            + DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD;
+
+    private final List<String> ids;
+    private final List<String> genes;
+    private final List<String> chromosomes;
+    private final List<String> types;
+    private final List<String> references;
+    private final List<String> alternates;
+    private final Boolean annotationExists;
+    private final List<String> xrefs;
+    private final List<Integer> consequenceTypes;
+    private final List<String> biotypes;
+    private final Comparison polyphen;
+    private final Comparison sift;
+    private final List<Score> proteinSubstitution;
+    private final List<Score> conservedRegion;
+    private final Comparison maf;
+    private final Comparison mgf;
+    private final Comparison missingAlleles;
+    private final Comparison missingGenotypes;
+    private final Map<String, Comparison> numGenotypes;
+    private final List<String> studies;
+    private final List<String> files;
+    private final List<SampleGenotypes> genotypes;
+
+    /** Rendered filter. Must not be modified */
+    private final DBObject filter;
+
+    private VariantMongoDBQuery(QueryOptions options, List<String> errors) {
+        ids = options.getString(ID) != null && !options.getString(ID).isEmpty() ? options.getAsStringList(ID) : null;
+        genes = options.containsKey(GENE) ? options.getAsStringList(GENE) : null;
+        chromosomes = options.containsKey(CHROMOSOME) ? options.getAsStringList(CHROMOSOME) : null;
+
+        types = parseStringValues(options, TYPE);
+        references = parseStringValues(options, REFERENCE);
+        alternates = parseStringValues(options, ALTERNATE);
+
+        annotationExists = options.containsKey(ANNOTATION_EXISTS) ? options.getBoolean(ANNOTATION_EXISTS) : null;
+        xrefs = options.containsKey(ANNOT_XREF) ? options.getAsStringList(ANNOT_XREF) : null;
+        consequenceTypes = options.containsKey(ANNOT_CONSEQUENCE_TYPE)
+                ? parseConsequenceTypes(options.getAsStringList(ANNOT_CONSEQUENCE_TYPE), errors)
+                : null;
+        biotypes = options.containsKey(ANNOT_BIOTYPE) ? options.getAsStringList(ANNOT_BIOTYPE) : null;
+        polyphen = options.containsKey(POLYPHEN) ? Comparison.parse(POLYPHEN, options.getString(POLYPHEN), errors) : null;
+        sift = options.containsKey(SIFT) ? Comparison.parse(SIFT, options.getString(SIFT), errors) : null;
+        proteinSubstitution = options.containsKey(PROTEIN_SUBSTITUTION)
+                ? Score.parse(PROTEIN_SUBSTITUTION, options.getAsStringList(PROTEIN_SUBSTITUTION), errors)
+                : null;
+        conservedRegion = options.containsKey(CONSERVED_REGION)
+                ? Score.parse(CONSERVED_REGION, options.getAsStringList(CONSERVED_REGION), errors)
+                : null;
+
+        maf = parseComparison(options, MAF, errors);
+        mgf = parseComparison(options, MGF, errors);
+        missingAlleles = parseComparison(options, MISSING_ALLELES, errors);
+        missingGenotypes = parseComparison(options, MISSING_GENOTYPES, errors);
+        numGenotypes = parseNumGenotypes(options, errors);
+
+        studies = options.containsKey(STUDIES) ? options.getAsStringList(STUDIES) : null;
+        files = options.containsKey(FILES) ? options.getAsStringList(FILES) : null;
+        genotypes = options.containsKey(GENOTYPE) ? SampleGenotypes.parse(options.getString(GENOTYPE), errors) : null;
+
+        filter = errors.isEmpty() ? render() : null;
+    }
+
+    /**
+     * Parses and validates the filters of a QueryOptions.
+     *
+     * @param options   Query options. May be null
+     * @return          Parsed query
+     * @throws IllegalArgumentException if any of the filters is malformed. The message contains all the errors
+     */
+    static VariantMongoDBQuery parse(QueryOptions options) {
+        List<String> errors = new LinkedList<>();
+        VariantMongoDBQuery query = new VariantMongoDBQuery(normalize(options), errors);
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Malformed variant query: " + errors);
+        }
+        return query;
+    }
+
+    /**
+     * Filters of a QueryOptions, as they are parsed. Blanks around the values, and around the items of comma
+     * separated values, are removed. Ignores the regions and the options that are not filters.
+     */
+    static QueryOptions normalize(QueryOptions options) {
+        QueryOptions normalized = new QueryOptions();
+        if (options == null) {
+            return normalized;
+        }
+        for (String key : FILTER_KEYS) {
+            if (options.containsKey(key)) {
+                normalized.put(key, normalizeValue(options.get(key)));
+            }
+        }
+        return normalized;
+    }
+
+    private static Object normalizeValue(Object value) {
+        if (value instanceof String) {
+            String[] items = ((String) value).split(",", -1);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < items.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(items[i].trim());
+            }
+            return sb.toString();
+        } else if (value instanceof Collection) {
+            List<String> items = new ArrayList<>(((Collection<?>) value).size());
+            for (Object item : (Collection<?>) value) {
+                items.add(item == null ? null : item.toString().trim());
+            }
+            return items;
+        } else {
+            return value;
+        }
+    }
+
+    /**
+     * Key of the filters of a QueryOptions, built from the {@link #normalize normalized} filters that are parsed.
+     * Two QueryOptions with the same key are parsed to the same query.
+     * Ignores the regions and the options that are not filters.
+     */
+    static String getKey(QueryOptions options) {
+        QueryOptions normalized = normalize(options);
+        StringBuilder sb = new StringBuilder();
+        for (String key : FILTER_KEYS) {
+            if (normalized.containsKey(key)) {
+                sb.append(key).append('=');
+                appendKeyValue(normalized.get(key), sb);
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Values are prefixed by their type and length, so different values can not have the same key */
+    private static void appendKeyValue(Object value, StringBuilder sb) {
+        if (value == null) {
+            sb.append('n');
+        } else if (value instanceof List) {
+            List<?> items = (List<?>) value;
+            sb.append('l').append(items.size()).append(':');
+            for (Object item : items) {
+                appendKeyValue(item, sb);
+            }
+        } else {
+            String string = value.toString();
+            sb.append(value instanceof String ? "s" : value.getClass().getSimpleName())
+                    .append(string.length()).append(':').append(string);
+        }
+    }
+
+    /**
+     * Adds the filters to a QueryBuilder. The $or and $and clauses are appended to the existing ones.
+     */
+    QueryBuilder appendTo(QueryBuilder builder) {
+        for (String key : filter.keySet()) {
+            Object value = filter.get(key);
+            if (key.equals("$or")) {
+                List<?> ors = (List<?>) value;
+                builder.or(ors.toArray(new DBObject[ors.size()]));
+            } else if (key.equals("$and")) {
+                List<?> ands = (List<?>) value;
+                builder.and(ands.toArray(new DBObject[ands.size()]));
+            } else {
+                builder.and(key).is(value);
+            }
+        }
+        return builder;
+    }
+
+    private DBObject render() {
+        QueryBuilder builder = QueryBuilder.start();
+
+        /** GENOMIC REGION **/
+
+        if (ids != null) {
+            addQueryListFilter(XREF_ID_FIELD, ids, builder, false);
+            addQueryListFilter(DocumentToVariantConverter.IDS_FIELD, ids, builder, false);
+        }
+        if (genes != null) {
+            addQueryListFilter(XREF_ID_FIELD, genes, builder, false);
+        }
+        if (chromosomes != null) {
+            addQueryListFilter(DocumentToVariantConverter.CHROMOSOME_FIELD, chromosomes, builder, false);
+        }
+
+        /** VARIANT **/
+
+        addQueryListFilter(DocumentToVariantConverter.TYPE_FIELD, types, builder, true);
+        addQueryListFilter(DocumentToVariantConverter.REFERENCE_FIELD, references, builder, true);
+        addQueryListFilter(DocumentToVariantConverter.ALTERNATE_FIELD, alternates, builder, true);
+
+        /** ANNOTATION **/
+
+        if (annotationExists != null) {
+            builder.and(DocumentToVariantConverter.ANNOTATION_FIELD).exists(annotationExists);
+        }
+        addQueryListFilter(XREF_ID_FIELD, xrefs, builder, true);
+        addQueryListFilter(CONSEQUENCE_TYPE_FIELD + "." + DocumentToVariantAnnotationConverter.SO_ACCESSION_FIELD,
+                consequenceTypes, builder, true);
+        addQueryListFilter(CONSEQUENCE_TYPE_FIELD + "." + DocumentToVariantAnnotationConverter.BIOTYPE_FIELD,
+                biotypes, builder, true);
+        if (polyphen != null) {
+            polyphen.appendTo(CONSEQUENCE_TYPE_FIELD + "." + DocumentToVariantAnnotationConverter.POLYPHEN_FIELD + "."
+                    + DocumentToVariantAnnotationConverter.SCORE_SCORE_FIELD, builder);
+        }
+        if (sift != null) {
+            sift.appendTo(CONSEQUENCE_TYPE_FIELD + "." + DocumentToVariantAnnotationConverter.SIFT_FIELD + "."
+                    + DocumentToVariantAnnotationConverter.SCORE_SCORE_FIELD, builder);
+        }
+        addScoreFilter(CONSEQUENCE_TYPE_FIELD + "." + DocumentToVariantAnnotationConverter.PROTEIN_SUBSTITUTION_SCORE_FIELD,
+                proteinSubstitution, builder);
+        addScoreFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "."
+                + DocumentToVariantAnnotationConverter.CONSERVED_REGION_SCORE_FIELD, conservedRegion, builder);
+
+        /** STATS **/
+
+        String statsField = DocumentToVariantConverter.STATS_FIELD + ".";
+        if (maf != null) {
+            maf.appendTo(statsField + DocumentToVariantStatsConverter.MAF_FIELD, builder);
+        }
+        if (mgf != null) {
+            mgf.appendTo(statsField + DocumentToVariantStatsConverter.MGF_FIELD, builder);
+        }
+        if (missingAlleles != null) {
+            missingAlleles.appendTo(statsField + DocumentToVariantStatsConverter.MISSALLELE_FIELD, builder);
+        }
+        if (missingGenotypes != null) {
+            missingGenotypes.appendTo(statsField + DocumentToVariantStatsConverter.MISSGENOTYPE_FIELD, builder);
+        }
+        if (numGenotypes != null) {
+            for (Map.Entry<String, Comparison> entry : numGenotypes.entrySet()) {
+                entry.getValue().appendTo(statsField + DocumentToVariantStatsConverter.NUMGT_FIELD + "." + entry.getKey(), builder);
+            }
+        }
+
+        /** FILES **/
+
+        QueryBuilder fileBuilder = QueryBuilder.start();
+        addQueryListFilter(DocumentToVariantSourceEntryConverter.STUDYID_FIELD, studies, fileBuilder, true);
+        addQueryListFilter(DocumentToVariantSourceConverter.FILEID_FIELD, files, fileBuilder, true);
+        if (genotypes != null) {
+            for (SampleGenotypes sampleGenotypes : genotypes) {
+                QueryBuilder genotypesBuilder = QueryBuilder.start();
+                for (String genotype : sampleGenotypes.genotypes) {
+                    String s = DocumentToVariantSourceEntryConverter.SAMPLES_FIELD + "." + genotype;
+                    //or [ {"samp.0|0" : { $elemMatch : { $eq : <sampleId> } } } ]
+                    genotypesBuilder.or(new BasicDBObject(s, new BasicDBObject("$elemMatch", new BasicDBObject("$eq", sampleGenotypes.sample))));
+                }
+                fileBuilder.and(genotypesBuilder.get());
+            }
+        }
+        DBObject fileQuery = fileBuilder.get();
+        if (fileQuery.keySet().size() != 0) {
+            builder.and(DocumentToVariantConverter.FILES_FIELD).elemMatch(fileQuery);
+        }
+
+        return builder.get();
+    }
+
+    private static void addQueryListFilter(String key, List<?> values, QueryBuilder builder, boolean and) {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        if (values.size() == 1) {
+            if (and) {
+                builder.and(key).is(values.get(0));
+            } else {
+                builder.or(QueryBuilder.start(key).is(values.get(0)).get());
+            }
+        } else {
+            if (and) {
+                builder.and(key).in(values);
+            } else {
+                builder.or(QueryBuilder.start(key).in(values).get());
+            }
+        }
+    }
+
+    private static void addScoreFilter(String key, List<Score> scores, QueryBuilder builder) {
+        if (scores == null || scores.isEmpty()) {
+            return;
+        }
+        DBObject[] ands = new DBObject[scores.size()];
+        int i = 0;
+        for (Score score : scores) {
+            QueryBuilder scoreBuilder = QueryBuilder.start(DocumentToVariantAnnotationConverter.SCORE_SOURCE_FIELD).is(score.source);
+            score.comparison.appendTo(DocumentToVariantAnnotationConverter.SCORE_SCORE_FIELD, scoreBuilder);
+            ands[i++] = new BasicDBObject(key, new BasicDBObject("$elemMatch", scoreBuilder.get()));
+        }
+        builder.and(ands);
+    }
+
+    /*
+     * Parsers
+     */
+
+    /** Comma separated values */
+    private static List<String> parseStringValues(QueryOptions options, String key) {
+        String value = options.getString(key);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return Arrays.asList(value.split(","));
+    }
+
+    private static Comparison parseComparison(QueryOptions options, String key, List<String> errors) {
+        if (options.get(key) == null || options.getString(key).isEmpty()) {
+            return null;
+        }
+        return Comparison.parse(key, options.getString(key), errors);
+    }
+
+    private static List<Integer> parseConsequenceTypes(List<String> values, List<String> errors) {
+        List<Integer> consequenceTypes = new ArrayList<>(values.size());
+        for (String value : values) {
+            String ct = value.startsWith("SO:") ? value.substring(3) : value;
+            try {
+                consequenceTypes.add(Integer.parseInt(ct));
+            } catch (NumberFormatException e) {
+                errors.add(ANNOT_CONSEQUENCE_TYPE + ": '" + value + "' is not a SO accession");
+            }
+        }
+        return consequenceTypes;
+    }
+
+    private static Map<String, Comparison> parseNumGenotypes(QueryOptions options, List<String> errors) {
+        if (options.get(NUMGT) == null || options.getString(NUMGT).isEmpty()) {
+            return null;
+        }
+        Map<String, Comparison> numGenotypes = new LinkedHashMap<>();
+        for (String numgt : options.getAsStringList(NUMGT)) {
+            String[] split = numgt.split(":");
+            if (split.length != 2) {
+                errors.add(NUMGT + ": '" + numgt + "' is not <genotype>:<comparison>");
+            } else {
+                numGenotypes.put(split[0], Comparison.parse(NUMGT, split[1], errors));
+            }
+        }
+        return numGenotypes;
+    }
+
+    /**
+     * Numeric comparison, like "<0.5" or ">=3", or regular expression, like "~=^1".
+     */
+    static final class Comparison {
+        private final String operator;
+        /** Float, or Pattern for "~=" */
+        private final Object value;
+
+        private Comparison(String operator, Object value) {
+            this.operator = operator;
+            this.value = value;
+        }
+
+        static Comparison parse(String key, String value, List<String> errors) {
+            String operator;
+            if (value.startsWith("<=") || value.startsWith(">=") || value.startsWith("==")
+                    || value.startsWith("!=") || value.startsWith("~=")) {
+                operator = value.substring(0, 2);
+            } else if (value.startsWith("<") || value.startsWith(">") || value.startsWith("=")) {
+                operator = value.substring(0, 1);
+            } else {
+                errors.add(key + ": '" + value + "' does not start with a comparison operator");
+                return null;
+            }
+            String operand = value.substring(operator.length());
+            if (operator.equals("~=")) {
+                return new Comparison(operator, Pattern.compile(operand));
+            }
+            try {
+                return new Comparison(operator, Float.parseFloat(operand));
+            } catch (NumberFormatException e) {
+                errors.add(key + ": '" + operand + "' is not a number");
+                return null;
+            }
+        }
+
+        void appendTo(String key, QueryBuilder builder) {
+            switch (operator) {
+                case "<":
+                    builder.and(key).lessThan(value);
+                    break;
+                case "<=":
+                    builder.and(key).lessThanEquals(value);
+                    break;
+                case ">":
+                    builder.and(key).greaterThan(value);
+                    break;
+                case ">=":
+                    builder.and(key).greaterThanEquals(value);
+                    break;
+                case "=":
+                case "==":
+                    builder.and(key).is(value);
+                    break;
+                case "!=":
+                    builder.and(key).notEquals(value);
+                    break;
+                case "~=":
+                    builder.and(key).regex((Pattern) value);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Score of a given source, like "sift:<0.5".
+     */
+    static final class Score {
+        private final String source;
+        private final Comparison comparison;
+
+        private Score(String source, Comparison comparison) {
+            this.source = source;
+            this.comparison = comparison;
+        }
+
+        static List<Score> parse(String key, List<String> values, List<String> errors) {
+            List<Score> scores = new ArrayList<>(values.size());
+            for (String value : values) {
+                String[] split = value.split(":");
+                if (split.length != 2) {
+                    errors.add(key + ": '" + value + "' is not <source>:<comparison>");
+                    continue;
+                }
+                Comparison comparison = Comparison.parse(key, split[1], errors);
+                if (comparison != null) {
+                    scores.add(new Score(split[0], comparison));
+                }
+            }
+            return scores;
+        }
+    }
+
+    /**
+     * Genotypes accepted for a sample. Format: "<sample>:<gt>,<gt>;<sample>:<gt>..."
+     */
+    static final class SampleGenotypes {
+        private static final String AND = ";";
+        private static final String OR = ",";
+        private static final String IS = ":";
+
+        private final int sample;
+        private final List<String> genotypes;
+
+        private SampleGenotypes(int sample, List<String> genotypes) {
+            this.sample = sample;
+            this.genotypes = genotypes;
+        }
+
+        static List<SampleGenotypes> parse(String value, List<String> errors) {
+            List<SampleGenotypes> sampleGenotypesList = new ArrayList<>();
+            for (String sampleGenotypes : value.split(AND)) {
+                String[] sampleGenotype = sampleGenotypes.split(IS);
+                if (sampleGenotype.length != 2) {
+                    errors.add(GENOTYPE + ": '" + sampleGenotypes + "' is not <sample>:<genotypes>");
+                    continue;
+                }
+                try {
+                    int sample = Integer.parseInt(sampleGenotype[0]);
+                    sampleGenotypesList.add(new SampleGenotypes(sample,
+                            Collections.unmodifiableList(Arrays.asList(sampleGenotype[1].split(OR)))));
+                } catch (NumberFormatException e) {
+                    errors.add(GENOTYPE + ": '" + sampleGenotype[0] + "' is not a sample id");
+                }
+            }
+            return sampleGenotypesList;
+        }
+    }
+}
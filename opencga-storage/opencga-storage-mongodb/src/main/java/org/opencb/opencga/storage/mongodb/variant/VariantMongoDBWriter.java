@@ -477,6 +477,7 @@ public class VariantMongoDBWriter extends VariantDBWriter {
             Document studyMongo = sourceConverter.convertToStorageType(source);
             Document query = new Document(DocumentToVariantSourceConverter.FILEID_FIELD, source.getFileId());
             filesMongoCollection.update(query, studyMongo, new QueryOptions("upsert", true));
+            VariantSourceMongoDBAdaptor.invalidateSamplesInSources(credentials.getMongoDbName(), filesCollectionName, source.getFileId());
         }
         return true;
     }
@@ -23,12 +23,11 @@ import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
  */
 public class VariantSourceMongoDBAdaptor implements VariantSourceDBAdaptor {
 
-    private static final Map<String, List> samplesInSources = new HashMap<>();
-    
     private final MongoDataStoreManager mongoManager;
     private final MongoDataStore db;
     private final DocumentToVariantSourceConverter variantSourceConverter;
     private final String collectionName;
+    private final SamplesInSourcesCache samplesInSources;
 
     
     public VariantSourceMongoDBAdaptor(MongoCredentials credentials, String collectionName) throws UnknownHostException {
@@ -38,6 +37,18 @@ public class VariantSourceMongoDBAdaptor implements VariantSourceDBAdaptor {
         db = mongoManager.get(credentials.getMongoDbName(), mongoDBConfiguration);
         this.collectionName = collectionName;
         variantSourceConverter = new DocumentToVariantSourceConverter();
+        samplesInSources = SamplesInSourcesCache.get(credentials.getMongoDbName(), collectionName);
+    }
+
+    /**
+     * Removes a source from the samples cache. Must be called when the samples of a source are written.
+     *
+     * @param database      Database name
+     * @param collection    Files collection name
+     * @param fileId        Source to invalidate
+     */
+    public static void invalidateSamplesInSources(String database, String collection, String fileId) {
+        SamplesInSourcesCache.get(database, collection).invalidate(fileId);
     }
 
     @Override
@@ -78,32 +89,26 @@ public class VariantSourceMongoDBAdaptor implements VariantSourceDBAdaptor {
     
     @Override
     public QueryResult getSamplesBySources(List<String> fileIds, QueryOptions options) {
-        // if any of the fileIds is not present in the "samplesInSources" cache, retrieve them again
-        if (!isAllSourcesCached(fileIds)) {
-            synchronized (StudyMongoDBAdaptor.class) {
-                if (!isAllSourcesCached(fileIds)) {
-                    QueryResult queryResult = populateSamplesInSources();
-                    populateSamplesQueryResult(fileIds, queryResult);
-                    return queryResult;
-                }
+        // only the fileIds missing in the "samplesInSources" cache are retrieved
+        Map<String, List<String>> samples = new HashMap<>(fileIds.size());
+        List<String> missingFileIds = new ArrayList<>();
+        for (String fileId : fileIds) {
+            List<String> samplesInSource = samplesInSources.getSamples(fileId);
+            if (samplesInSource == null) {
+                missingFileIds.add(fileId);
+            } else {
+                samples.put(fileId, samplesInSource);
             }
         }
 
-        QueryResult queryResult = new QueryResult();
-        populateSamplesQueryResult(fileIds, queryResult);
-        return queryResult;
-    }
-
-    private boolean isAllSourcesCached(List<String> fileIds) {
-        boolean available = true;
-
-        for (String fileId : fileIds) {
-            if (!samplesInSources.containsKey(fileId)) {
-                available = false;
-                break;
-            }
+        QueryResult queryResult;
+        if (missingFileIds.isEmpty()) {
+            queryResult = new QueryResult();
+        } else {
+            queryResult = populateSamplesInSources(missingFileIds, samples);
         }
-        return available;
+        populateSamplesQueryResult(fileIds, samples, queryResult);
+        return queryResult;
     }
 
     @Override
@@ -163,18 +168,20 @@ public class VariantSourceMongoDBAdaptor implements VariantSourceDBAdaptor {
 //    }
     
     /**
-     * Repopulates the dictionary relating sources and samples.
+     * Populates the dictionary relating sources and samples with the given sources.
      * 
+     * @param fileIds   Sources to retrieve
+     * @param samples   Map where the retrieved samples are added
      * @return The QueryResult with information of how long the query took
      */
-    private QueryResult populateSamplesInSources() {
+    private QueryResult populateSamplesInSources(List<String> fileIds, Map<String, List<String>> samples) {
         MongoDBCollection coll = db.getCollection(collectionName);
+        Document query = new Document(DocumentToVariantSourceConverter.FILEID_FIELD, new Document("$in", fileIds));
         Document projection = new Document(DocumentToVariantSourceConverter.FILEID_FIELD, true)
                 .append(DocumentToVariantSourceConverter.SAMPLES_FIELD, true);
-        QueryResult queryResult = coll.find(new Document(), projection, null);
+        QueryResult queryResult = coll.find(query, projection, null);
         
         List<Document> result = queryResult.getResult();
-        samplesInSources.clear();
         for (Document dbo : result) {
             String key = dbo.get(DocumentToVariantSourceConverter.FILEID_FIELD).toString();
             Document value = (Document) dbo.get(DocumentToVariantSourceConverter.SAMPLES_FIELD);
@@ -184,7 +191,8 @@ public class VariantSourceMongoDBAdaptor implements VariantSourceDBAdaptor {
             for (String mongoSampleName : value.keySet()) {
                 sampleNames.add(mongoSampleName.replace(DocumentToVariantSourceConverter.CHARACTER_TO_REPLACE_DOTS, '.'));
             }
-            samplesInSources.put(key, sampleNames);
+            samplesInSources.putSamples(key, sampleNames);
+            samples.put(key, sampleNames);
         }
         
         return queryResult;
@@ -206,7 +214,7 @@ public class VariantSourceMongoDBAdaptor implements VariantSourceDBAdaptor {
     }
     */
 
-    private void populateSamplesQueryResult(List<String> fileIds, QueryResult queryResult) {
+    private void populateSamplesQueryResult(List<String> fileIds, Map<String, List<String>> samplesInSources, QueryResult queryResult) {
         List<List> samples = new ArrayList<>(fileIds.size());
         
         for (String fileId : fileIds) {
@@ -0,0 +1,144 @@
+package org.opencb.opencga.storage.mongodb.alignment;
+
+import net.sf.samtools.*;
+import org.junit.Test;
+import org.opencb.biodata.formats.sequence.fasta.dbadaptor.CellBaseSequenceDBAdaptor;
+import org.opencb.biodata.models.alignment.Alignment;
+import org.opencb.biodata.models.alignment.AlignmentRegion;
+import org.opencb.biodata.models.alignment.stats.RegionCoverage;
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.commons.test.GenericTest;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.opencga.storage.mongodb.utils.MongoCredentials;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlignmentTileCacheTest extends GenericTest {
+
+    @Test
+    public void testEviction() throws Exception {
+        AlignmentTileCache cache = new AlignmentTileCache(1000, 3000);
+        String key1 = AlignmentTileCache.getKey("a.bam", "1", 1, true, true);
+        String key2 = AlignmentTileCache.getKey("a.bam", "1", 2, true, true);
+        String key3 = AlignmentTileCache.getKey("a.bam", "1", 3, true, true);
+
+        cache.put(key1, newTile(10));
+        cache.put(key2, newTile(10));
+        assertNotNull(cache.get(key1, 10, 100));
+        cache.put(key3, newTile(10));
+
+        // key2 is the least recently used
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(key2, 10, 100));
+        assertNotNull(cache.get(key1, 10, 100));
+        assertNotNull(cache.get(key3, 10, 100));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.75, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        AlignmentTileCache cache = new AlignmentTileCache(1000, 1 << 20);
+        String keyA = AlignmentTileCache.getKey("a.bam", "1", 1, true, true);
+        String keyB = AlignmentTileCache.getKey("b.bam", "1", 1, true, true);
+        cache.put(keyA, newTile(10));
+        cache.put(keyB, newTile(10));
+
+        // The file has been modified
+        assertNull(cache.get(keyA, 20, 100));
+        assertEquals(1, cache.size());
+
+        cache.invalidate("b.bam");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testTilesAcrossBoundaries() throws Exception {
+        File bam = createBam();
+        IndexedAlignmentDBAdaptor dbAdaptor = new IndexedAlignmentDBAdaptor(new CellBaseSequenceDBAdaptor(),
+                new MongoCredentials(MongoCredentials.parseDataStoreServerAddresses("localhost"), "opencga_tile_cache_test", null, null));
+        int tileSize = AlignmentTileCache.getInstance().getTileSize();
+        int boundary = 4 * tileSize;    //small.sam has reads from 59993 to 75177
+
+        List<Region> regions = Arrays.asList(
+                new Region("20", boundary - 500, boundary + 500),
+                new Region("20", boundary, boundary + 1),
+                new Region("20", boundary + 1, boundary + 1),
+                new Region("20", 59000, 76000),
+                new Region("20", 3 * tileSize + 1, 5 * tileSize),
+                new Region("20", 70000, 70100));
+        for (Region region : regions) {
+            AlignmentRegion uncached = query(dbAdaptor, bam, region, false);
+            // Second time from the cached tiles
+            for (int i = 0; i < 2; i++) {
+                AlignmentRegion fromTiles = query(dbAdaptor, bam, region, true);
+                assertEquals(region.toString(), describe(uncached.getAlignments()), describe(fromTiles.getAlignments()));
+                RegionCoverage expected = uncached.getCoverage();
+                RegionCoverage coverage = fromTiles.getCoverage();
+                assertEquals(expected.getStart(), coverage.getStart());
+                assertEquals(expected.getEnd(), coverage.getEnd());
+                assertArrayEquals(region.toString(), expected.getAll(), coverage.getAll());
+                assertArrayEquals(region.toString(), expected.getA(), coverage.getA());
+                assertArrayEquals(region.toString(), expected.getC(), coverage.getC());
+                assertArrayEquals(region.toString(), expected.getG(), coverage.getG());
+                assertArrayEquals(region.toString(), expected.getT(), coverage.getT());
+            }
+        }
+        assertFalse(query(dbAdaptor, bam, new Region("20", boundary - 500, boundary + 500), false).getAlignments().isEmpty());
+
+        int size = AlignmentTileCache.getInstance().size();
+        AlignmentTileCache.getInstance().invalidate(bam.getAbsolutePath());
+        assertTrue(AlignmentTileCache.getInstance().size() < size);
+    }
+
+    private static AlignmentRegion query(IndexedAlignmentDBAdaptor dbAdaptor, File bam, Region region, boolean tileCache) {
+        QueryOptions options = new QueryOptions();
+        options.put(IndexedAlignmentDBAdaptor.QO_BAM_PATH, bam.getAbsolutePath());
+        options.put(IndexedAlignmentDBAdaptor.QO_PROCESS_DIFFERENCES, false);
+        options.put(IndexedAlignmentDBAdaptor.QO_INCLUDE_COVERAGE, true);
+        options.put(IndexedAlignmentDBAdaptor.QO_TILE_CACHE, tileCache);
+        QueryResult queryResult = dbAdaptor.getAllAlignmentsByRegion(Collections.singletonList(region), options);
+        assertNull(queryResult.getErrorMsg());
+        return (AlignmentRegion) queryResult.getResult().get(0);
+    }
+
+    private static List<String> describe(List<Alignment> alignments) {
+        List<String> list = new ArrayList<>(alignments.size());
+        for (Alignment alignment : alignments) {
+            list.add(alignment.getName() + ":" + alignment.getStart() + "-" + alignment.getEnd() + ":" + alignment.getFlags());
+        }
+        return list;
+    }
+
+    /**
+     * Sorted and indexed BAM from small.sam
+     */
+    private File createBam() throws Exception {
+        File dir = Files.createTempDirectory("tile_cache").toFile();
+        File bam = new File(dir, "small.bam");
+        SAMFileReader reader = new SAMFileReader(new File(getClass().getResource("/small.sam").getFile()));
+        reader.setValidationStringency(SAMFileReader.ValidationStringency.LENIENT);
+        SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(reader.getFileHeader(), true, bam);
+        for (SAMRecord record : reader) {
+            writer.addAlignment(record);
+        }
+        writer.close();
+        reader.close();
+        return bam;
+    }
+
+    private AlignmentTileCache.Tile newTile(long lastModified) {
+        return new AlignmentTileCache.Tile(Collections.<Alignment>emptyList(), null, lastModified, 100);
+    }
+}
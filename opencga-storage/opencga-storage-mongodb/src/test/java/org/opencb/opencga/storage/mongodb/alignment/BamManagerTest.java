@@ -0,0 +1,106 @@
+package org.opencb.opencga.storage.mongodb.alignment;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.commons.test.GenericTest;
+import org.opencb.opencga.lib.common.Config;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BamManagerTest extends GenericTest {
+
+    private static final int START = 1;
+    private static final int END = 1000;
+
+    private BamManager bamManager;
+    private List<SAMRecord> records;
+
+    @Before
+    public void setUp() throws Exception {
+        Path opencgaHome = Files.createTempDirectory("opencga_home");
+        Files.createDirectories(opencgaHome.resolve("conf"));
+        Files.write(opencgaHome.resolve("conf").resolve(Config.ANALYSIS_PROPERTIES),
+                "OPENCGA.ANALYSIS.BINARIES.PATH=bin\n".getBytes());
+        Config.setOpenCGAHome(opencgaHome.toString());
+
+        //Avoid requesting the sequence to CellBase
+        bamManager = new BamManager() {
+            @Override
+            protected String getSequence(String chr, int start, int end) throws IOException {
+                char[] sequence = new char[end - start + 1 + 1000];
+                Arrays.fill(sequence, 'A');
+                return new String(sequence);
+            }
+        };
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSequenceDictionary(new SAMSequenceDictionary(Collections.singletonList(new SAMSequenceRecord("1", 10000))));
+        records = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            SAMRecord record = new SAMRecord(header);
+            record.setReadName("read" + i);
+            record.setReferenceName("1");
+            record.setAlignmentStart(100 + i * 10);
+            record.setCigarString("10M");
+            record.setReadString("AAAAAAAAAA");
+            record.setBaseQualityString("IIIIIIIIII");
+            record.setMappingQuality(60);
+            records.add(record);
+        }
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        Map result = process("3");
+        assertEquals(3, ((List) result.get("reads")).size());
+        assertEquals(true, result.get("limitReached"));
+        //The coverage only accounts for the records read
+        assertEquals(3 * 10, sum((List) ((Map) result.get("coverage")).get("all")));
+    }
+
+    @Test
+    public void testNoLimit() throws Exception {
+        for (String limit : Arrays.asList(null, "0", "-1", "5", "10")) {
+            Map result = process(limit);
+            assertEquals("limit " + limit, 5, ((List) result.get("reads")).size());
+            assertFalse("limit " + limit, result.containsKey("limitReached"));
+            assertEquals("limit " + limit, 5 * 10, sum((List) ((Map) result.get("coverage")).get("all")));
+        }
+    }
+
+    @Test
+    public void testLimitViewAsPairs() throws Exception {
+        Map<String, List<String>> params = new HashMap<>();
+        params.put("limit", Collections.singletonList("2"));
+        params.put("view_as_pairs", Collections.singletonList("true"));
+        Map result = new ObjectMapper().readValue(bamManager.processRecords(records.iterator(), params, "1", START, END), Map.class);
+        assertEquals(2, ((List) result.get("reads")).size());
+        assertEquals(true, result.get("limitReached"));
+    }
+
+    private Map process(String limit) throws IOException {
+        Map<String, List<String>> params = new HashMap<>();
+        if (limit != null) {
+            params.put("limit", Collections.singletonList(limit));
+        }
+        return new ObjectMapper().readValue(bamManager.processRecords(records, params, "1", START, END), Map.class);
+    }
+
+    private static int sum(List values) {
+        int sum = 0;
+        for (Object value : values) {
+            sum += ((Number) value).intValue();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,90 @@
+package org.opencb.opencga.storage.mongodb.alignment;
+
+import com.mongodb.DBObject;
+import org.junit.Test;
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.commons.test.GenericTest;
+import org.opencb.opencga.storage.core.alignment.stats.CoverageLevel;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CoveragePyramidBlockTest extends GenericTest {
+
+    @Test
+    public void testConvert() throws Exception {
+        int size = 256;
+        int start = CoveragePyramidBlock.BLOCK_INTERVALS * size * 3 + 5 * size + 1;
+        int block = CoveragePyramidBlock.getBlock(start, size);
+        assertEquals(3, block);
+        assertEquals("3_3_p256", CoveragePyramidBlock.getIdField("3", block, size));
+
+        CoveragePyramidBlock pyramidBlock = new CoveragePyramidBlock("3", size, block);
+        pyramidBlock.add(new CoverageLevel(size, CoverageLevel.getPyramidName(size),
+                new Region("3", start, start + size - 1), 12.5f, 3, 40));
+
+        CoveragePyramidBlock read = CoveragePyramidBlock.fromDBObject("3", size, block, pyramidBlock.toDBObject());
+        assertEquals(start, read.getStart(5));
+        assertEquals(12.5f, read.getAverage(5), 0);
+        assertEquals(3, read.getMin(5));
+        assertEquals(40, read.getMax(5));
+        assertEquals(0, read.getAverage(4), 0);
+        assertEquals(0, read.getMax(6));
+    }
+
+    @Test
+    public void testClosestPyramidLevel() throws Exception {
+        assertEquals(0, CoverageLevel.getClosestPyramidLevel(10));
+        assertEquals(0, CoverageLevel.getClosestPyramidLevel(255));
+        assertEquals(1, CoverageLevel.getClosestPyramidLevel(256));
+        assertEquals(2, CoverageLevel.getClosestPyramidLevel(2000));
+        assertEquals(CoverageLevel.PYRAMID_LEVELS - 1, CoverageLevel.getClosestPyramidLevel(100000000));
+        assertEquals(1048576, CoverageLevel.getPyramidSize(CoverageLevel.PYRAMID_LEVELS - 1));
+    }
+
+    @Test
+    public void testMergeSmallerThanLevel() throws Exception {
+        List<DBObject> intervals = IndexedAlignmentDBAdaptor.mergePyramidBlocks(new Region("1", 1, 128), 10, block64());
+        assertEquals(13, intervals.size());
+        for (int i = 0; i < intervals.size(); i++) {
+            assertEquals(i * 10 + 1, intervals.get(i).get("start"));
+            assertEquals(i * 10 + 10, intervals.get(i).get("end"));
+        }
+        assertInterval(intervals.get(0), 1, 1, 1);
+        assertInterval(intervals.get(5), 1, 1, 1);
+        // 61-64 from the first level interval, 65-70 from the second one
+        assertInterval(intervals.get(6), (4 * 1 + 6 * 3) / 10.0, 1, 4);
+        // Clipped to the end of the region
+        assertInterval(intervals.get(12), 3, 2, 4);
+    }
+
+    @Test
+    public void testMergeNotMultipleOfLevel() throws Exception {
+        List<DBObject> intervals = IndexedAlignmentDBAdaptor.mergePyramidBlocks(new Region("1", 1, 128), 100, block64());
+        assertEquals(2, intervals.size());
+        assertInterval(intervals.get(0), (64 * 1 + 36 * 3) / 100.0, 1, 4);
+        assertInterval(intervals.get(1), 3, 2, 4);
+
+        intervals = IndexedAlignmentDBAdaptor.mergePyramidBlocks(new Region("1", 33, 100), 100, block64());
+        assertEquals(1, intervals.size());
+        assertInterval(intervals.get(0), (32 * 1 + 36 * 3) / 68.0, 1, 4);
+    }
+
+    /**
+     * Level of 64 bp with mean 1 in 1-64 and mean 3 in 65-128.
+     */
+    private static List<CoveragePyramidBlock> block64() {
+        CoveragePyramidBlock block = new CoveragePyramidBlock("1", 64, 0);
+        block.add(new CoverageLevel(64, CoverageLevel.getPyramidName(64), new Region("1", 1, 64), 1, 1, 1));
+        block.add(new CoverageLevel(64, CoverageLevel.getPyramidName(64), new Region("1", 65, 128), 3, 2, 4));
+        return Collections.singletonList(block);
+    }
+
+    private static void assertInterval(DBObject interval, double mean, int min, int max) {
+        assertEquals(mean, ((Number) interval.get(IndexedAlignmentDBAdaptor.FEATURES_COUNT)).doubleValue(), 0.0001);
+        assertEquals(min, interval.get(CoverageMongoDBWriter.MIN_FIELD));
+        assertEquals(max, interval.get(CoverageMongoDBWriter.MAX_FIELD));
+    }
+}
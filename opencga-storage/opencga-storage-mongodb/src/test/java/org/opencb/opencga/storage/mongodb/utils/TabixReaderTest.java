@@ -0,0 +1,196 @@
+package org.opencb.opencga.storage.mongodb.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.commons.test.GenericTest;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class TabixReaderTest extends GenericTest {
+
+    private static String inputFile = TabixReaderTest.class.getResource("/example.gtf.gz").getFile();
+
+    /** Offset of the CRC32 of the first BGZF block of example.gtf.gz */
+    private static final int FIRST_BLOCK_CRC_OFFSET = 2940 - 8;
+
+    private List<String> lines;
+
+    @Before
+    public void setUp() throws Exception {
+        lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(inputFile)), "ISO-8859-1"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+    }
+
+    @Test
+    public void testReadLine() throws Exception {
+        TabixReader reader = new TabixReader(inputFile);
+        List<String> read = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            read.add(line);
+        }
+        reader.close();
+        assertEquals(237, read.size());
+        assertEquals(lines, read);
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        TabixReader reader = new TabixReader(inputFile);
+        for (String region : Arrays.asList("chr1", "chr1:1-100000", "chr1:1737-1737", "chr1:4276-20000",
+                "chr1:60000-70000", "chr2", "chr2:30000-190200", "chr2:1000000-2000000")) {
+            assertEquals(region, expected(region), query(reader, region));
+        }
+        assertNull(reader.query("chrX:1-1000"));
+        reader.close();
+    }
+
+    @Test
+    public void testSharedIndex() throws Exception {
+        Path dir = copyExample();
+        String file = dir.resolve("example.gtf.gz").toString();
+
+        TabixReader reader1 = new TabixReader(file);
+        int indexReads = TabixReader.getIndexReads();
+        TabixReader reader2 = new TabixReader(file);
+        assertEquals(indexReads, TabixReader.getIndexReads());
+        assertEquals(query(reader1, "chr1:1-20000"), query(reader2, "chr1:1-20000"));
+
+        // The index is read again once modified
+        File index = dir.resolve("example.gtf.gz.tbi").toFile();
+        assertTrue(index.setLastModified(index.lastModified() - 10000));
+        TabixReader reader3 = new TabixReader(file);
+        assertEquals(indexReads + 1, TabixReader.getIndexReads());
+        assertEquals(expected("chr2"), query(reader3, "chr2"));
+
+        reader1.close();
+        reader2.close();
+        reader3.close();
+    }
+
+    @Test
+    public void testBlockCache() throws Exception {
+        Path dir = copyExample();
+        String file = dir.resolve("example.gtf.gz").toString();
+
+        TabixReader reader = new TabixReader(file);
+        long misses = TabixReader.getBlockCacheMisses();
+        assertEquals(expected("chr1"), query(reader, "chr1"));
+        assertTrue(TabixReader.getBlockCacheMisses() > misses);
+
+        // Blocks are shared with any other reader of the same file
+        misses = TabixReader.getBlockCacheMisses();
+        long hits = TabixReader.getBlockCacheHits();
+        TabixReader reader2 = new TabixReader(file);
+        assertEquals(expected("chr1:1-100000"), query(reader2, "chr1:1-100000"));
+        assertEquals(expected("chr2"), query(reader, "chr2"));
+        assertEquals(misses, TabixReader.getBlockCacheMisses());
+        assertTrue(TabixReader.getBlockCacheHits() > hits);
+
+        reader.close();
+        reader2.close();
+    }
+
+    @Test
+    public void testConcurrentQueries() throws Exception {
+        final TabixReader reader = new TabixReader(inputFile);
+        final List<String> regions = Arrays.asList("chr1", "chr1:1-100000", "chr1:10000-30000", "chr1:60000-70000",
+                "chr2", "chr2:30000-190200");
+        final Map<String, List<String>> expected = new HashMap<>();
+        for (String region : regions) {
+            expected.put(region, expected(region));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            futures.add(executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 200; i++) {
+                        String region = regions.get(random.nextInt(regions.size()));
+                        assertEquals(region, expected.get(region), query(reader, region));
+                    }
+                    return seed;
+                }
+            }));
+        }
+        for (Future<Integer> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        reader.close();
+    }
+
+    @Test
+    public void testCorruptedBlock() throws Exception {
+        Path dir = copyExample();
+        Path file = dir.resolve("example.gtf.gz");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[FIRST_BLOCK_CRC_OFFSET] ^= 1;
+        Files.write(file, bytes);
+
+        TabixReader reader = new TabixReader(file.toString());
+        try {
+            reader.readLine();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("CRC"));
+        }
+        reader.close();
+    }
+
+    private static List<String> query(TabixReader reader, String region) throws IOException {
+        List<String> result = new ArrayList<>();
+        TabixReader.Iterator iterator = reader.query(region);
+        String line;
+        while (iterator != null && (line = iterator.next()) != null) {
+            result.add(line);
+        }
+        return result;
+    }
+
+    /**
+     * Lines overlapping the region, found by scanning the whole file.
+     */
+    private List<String> expected(String region) {
+        String chr = region.contains(":") ? region.substring(0, region.indexOf(':')) : region;
+        int start = region.contains(":") ? Integer.parseInt(region.substring(region.indexOf(':') + 1, region.indexOf('-'))) : 1;
+        int end = region.contains(":") ? Integer.parseInt(region.substring(region.indexOf('-') + 1)) : Integer.MAX_VALUE;
+        List<String> result = new ArrayList<>();
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            if (fields[0].equals(chr) && Integer.parseInt(fields[3]) <= end && Integer.parseInt(fields[4]) >= start) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    private static Path copyExample() throws IOException {
+        Path dir = Files.createTempDirectory("tabix");
+        Path file = Paths.get(inputFile);
+        Files.copy(file, dir.resolve("example.gtf.gz"), StandardCopyOption.COPY_ATTRIBUTES);
+        Files.copy(Paths.get(inputFile + ".tbi"), dir.resolve("example.gtf.gz.tbi"), StandardCopyOption.COPY_ATTRIBUTES);
+        return dir;
+    }
+}
@@ -0,0 +1,46 @@
+package org.opencb.opencga.storage.mongodb.variant;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SamplesInSourcesCacheTest {
+
+    @Test
+    public void testGetAndInvalidate() {
+        SamplesInSourcesCache cache = new SamplesInSourcesCache(10, 60000);
+        assertNull(cache.getSamples("f1"));
+        cache.putSamples("f1", Arrays.asList("NA001", "NA002"));
+        assertEquals(Arrays.asList("NA001", "NA002"), cache.getSamples("f1"));
+        cache.invalidate("f1");
+        assertNull(cache.getSamples("f1"));
+    }
+
+    @Test
+    public void testExpire() throws InterruptedException {
+        SamplesInSourcesCache cache = new SamplesInSourcesCache(10, 10);
+        cache.putSamples("f1", Collections.singletonList("NA001"));
+        Thread.sleep(50);
+        assertNull(cache.getSamples("f1"));
+    }
+
+    @Test
+    public void testMaxSize() {
+        SamplesInSourcesCache cache = new SamplesInSourcesCache(10, 60000);
+        for (int i = 0; i < 100; i++) {
+            cache.putSamples("f" + i, Collections.singletonList("NA" + i));
+            assertTrue(cache.size() <= 10);
+        }
+    }
+
+    @Test
+    public void testCachePerDatabase() {
+        SamplesInSourcesCache cache = SamplesInSourcesCache.get("db1", "files");
+        assertSame(cache, SamplesInSourcesCache.get("db1", "files"));
+        assertNotSame(cache, SamplesInSourcesCache.get("db2", "files"));
+        assertNotSame(cache, SamplesInSourcesCache.get("db1", "files2"));
+    }
+}
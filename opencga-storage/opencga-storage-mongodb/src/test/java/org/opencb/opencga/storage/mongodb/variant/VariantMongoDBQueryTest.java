@@ -0,0 +1,74 @@
+package org.opencb.opencga.storage.mongodb.variant;
+
+import com.mongodb.DBObject;
+import com.mongodb.QueryBuilder;
+import org.junit.Test;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class VariantMongoDBQueryTest {
+
+    @Test
+    public void testKeyIgnoresRegion() {
+        QueryOptions options1 = new QueryOptions(VariantDBAdaptor.MAF, "<0.5");
+        options1.put(VariantDBAdaptor.REGION, "1:1000-2000");
+        options1.put("limit", 10);
+        QueryOptions options2 = new QueryOptions(VariantDBAdaptor.MAF, "<0.5");
+        options2.put(VariantDBAdaptor.REGION, "2:1000-2000");
+
+        assertEquals(VariantMongoDBQuery.getKey(options1), VariantMongoDBQuery.getKey(options2));
+        assertNotEquals(VariantMongoDBQuery.getKey(options1),
+                VariantMongoDBQuery.getKey(new QueryOptions(VariantDBAdaptor.MAF, "<0.4")));
+    }
+
+    @Test
+    public void testKeyIsNormalized() {
+        QueryOptions options1 = new QueryOptions(VariantDBAdaptor.MAF, " <0.5 ");
+        options1.put(VariantDBAdaptor.GENE, "BRCA2, TP53");
+        QueryOptions options2 = new QueryOptions(VariantDBAdaptor.MAF, "<0.5");
+        options2.put(VariantDBAdaptor.GENE, "BRCA2,TP53");
+
+        //Same key, same query
+        assertEquals(VariantMongoDBQuery.getKey(options1), VariantMongoDBQuery.getKey(options2));
+        DBObject filter1 = VariantMongoDBQuery.parse(options1).appendTo(QueryBuilder.start()).get();
+        DBObject filter2 = VariantMongoDBQuery.parse(options2).appendTo(QueryBuilder.start()).get();
+        assertEquals(filter2, filter1);
+
+        //Different values have different keys
+        assertNotEquals(VariantMongoDBQuery.getKey(new QueryOptions(VariantDBAdaptor.GENE, Arrays.asList("BRCA2, TP53"))),
+                VariantMongoDBQuery.getKey(new QueryOptions(VariantDBAdaptor.GENE, Arrays.asList("BRCA2", "TP53"))));
+        assertNotEquals(VariantMongoDBQuery.getKey(new QueryOptions(VariantDBAdaptor.ANNOTATION_EXISTS, true)),
+                VariantMongoDBQuery.getKey(new QueryOptions(VariantDBAdaptor.ANNOTATION_EXISTS, "true")));
+    }
+
+    @Test
+    public void testRender() {
+        QueryOptions options = new QueryOptions(VariantDBAdaptor.MAF, "<=0.5");
+        options.put(VariantDBAdaptor.ANNOT_CONSEQUENCE_TYPE, "SO:0001566");
+        options.put(VariantDBAdaptor.GENOTYPE, "1:0|1,1|1;2:1|1");
+        DBObject filter = VariantMongoDBQuery.parse(options).appendTo(QueryBuilder.start()).get();
+
+        assertEquals(0.5f, ((DBObject) filter.get("st.maf")).get("$lte"));
+        assertEquals(1566, filter.get("annot.ct.so"));
+        assertNotNull(filter.get(DocumentToVariantConverter.FILES_FIELD));
+    }
+
+    @Test
+    public void testMalformed() {
+        QueryOptions options = new QueryOptions(VariantDBAdaptor.MAF, "0.5");
+        options.put(VariantDBAdaptor.ANNOT_CONSEQUENCE_TYPE, "SO:missense");
+        options.put(VariantDBAdaptor.PROTEIN_SUBSTITUTION, "sift");
+        try {
+            VariantMongoDBQuery.parse(options);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(VariantDBAdaptor.MAF));
+            assertTrue(e.getMessage().contains(VariantDBAdaptor.ANNOT_CONSEQUENCE_TYPE));
+            assertTrue(e.getMessage().contains(VariantDBAdaptor.PROTEIN_SUBSTITUTION));
+        }
+    }
+}